@@ -0,0 +1,36 @@
+package ru.anisimov.storage.localStorage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * Temporary directories of benchmarks. Set java.io.tmpdir to benchmark other disk.
+ *
+ */
+class BenchmarkFiles {
+	private static final String DIRECTORY_PREFIX = "storageBenchmark";
+
+	static File createDirectory() throws IOException {
+		return Files.createTempDirectory(DIRECTORY_PREFIX).toFile();
+	}
+
+	static void deleteDirectory(File directory) {
+		if (directory == null) {
+			return;
+		}
+		// Mapped buffers could hold files on some systems
+		System.gc();
+		File[] files = directory.listFiles();
+		for (File file : (files == null) ? new File[0] : files) {
+			if (file.isDirectory()) {
+				deleteDirectory(file);
+			} else {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+}
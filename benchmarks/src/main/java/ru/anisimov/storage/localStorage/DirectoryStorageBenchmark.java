@@ -0,0 +1,109 @@
+package ru.anisimov.storage.localStorage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.anisimov.storage.Storage;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * End-to-end DirectoryStorage operations with default settings, by one key (batchSize 1) or by batches.
+ * Storage is filled with FILL objects first. Rewrite and remove keep the set of keys the same.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DirectoryStorageBenchmark {
+	private static final int FILL = 10000;
+
+	@Param({"1", "100"})
+	public int batchSize;
+
+	@Param({"1024"})
+	public int objectSize;
+
+	private File directory;
+	private Storage storage;
+	private long[] keys;
+	private byte[][] batch;
+	private Random rnd = new Random(0);
+
+	@Setup
+	public void setUp() throws Exception {
+		directory = BenchmarkFiles.createDirectory();
+		storage = DirectoryStorage.newStorage(directory.getPath());
+		byte[][] objects = new byte[FILL][];
+		for (int i = 0; i < FILL; i++) {
+			objects[i] = new byte[objectSize];
+			rnd.nextBytes(objects[i]);
+		}
+		keys = storage.write(objects);
+		batch = new byte[batchSize][];
+		for (int i = 0; i < batchSize; i++) {
+			batch[i] = objects[i];
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		BenchmarkFiles.deleteDirectory(directory);
+	}
+
+	private long[] randomKeys() {
+		long[] result = new long[batchSize];
+		for (int i = 0; i < batchSize; i++) {
+			result[i] = keys[rnd.nextInt(FILL)];
+		}
+		return result;
+	}
+
+	private long[] differentRandomKeys() {
+		long[] result = new long[batchSize];
+		int start = rnd.nextInt(FILL);
+		for (int i = 0; i < batchSize; i++) {
+			result[i] = keys[(start + i) % FILL];
+		}
+		return result;
+	}
+
+	@Benchmark
+	public long[] write() throws Exception {
+		return storage.write(batch);
+	}
+
+	@Benchmark
+	public byte[][] get() throws Exception {
+		return storage.get(randomKeys());
+	}
+
+	@Benchmark
+	public boolean rewrite() throws Exception {
+		return storage.write(differentRandomKeys(), batch);
+	}
+
+	// Time of remove is this minus time of rewrite
+	@Benchmark
+	public boolean removeAndRewrite() throws Exception {
+		long[] removed = differentRandomKeys();
+		storage.remove(removed);
+		return storage.write(removed, batch);
+	}
+}
@@ -0,0 +1,63 @@
+package ru.anisimov.storage.localStorage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * FileBasedIDGenerator: new IDs and IDs taken from free list.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileBasedIDGeneratorBenchmark {
+	private static final String GENERATOR_FILE_NAME = "gen";
+	private static final int BATCH_SIZE = 100;
+
+	private File directory;
+	private FileBasedIDGenerator generator;
+
+	@Setup
+	public void setUp() throws Exception {
+		directory = BenchmarkFiles.createDirectory();
+		generator = new FileBasedIDGenerator(new File(directory, GENERATOR_FILE_NAME).getPath(), true);
+	}
+
+	@TearDown
+	public void tearDown() {
+		BenchmarkFiles.deleteDirectory(directory);
+	}
+
+	@Benchmark
+	public long generate() throws Exception {
+		return generator.generateID();
+	}
+
+	@Benchmark
+	public long[] generateBatch() throws Exception {
+		return generator.generateID(BATCH_SIZE);
+	}
+
+	@Benchmark
+	public long freeAndGenerate() throws Exception {
+		generator.addFreeID(generator.generateID());
+		return generator.generateID();
+	}
+}
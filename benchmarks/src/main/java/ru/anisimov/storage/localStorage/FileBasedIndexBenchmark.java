@@ -0,0 +1,112 @@
+package ru.anisimov.storage.localStorage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * FileBasedIndex operations on index filled with fill keys (0 .. fill - 1).
+ * Put overwrites existing keys and remove puts key back, so fill stays the same during benchmark.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileBasedIndexBenchmark {
+	private static final String INDEX_FILE_NAME = "ind";
+	private static final int FILL_BATCH_SIZE = 10000;
+	private static final int BATCH_SIZE = 100;
+
+	@Param({"1000", "100000", "1000000"})
+	public int fill;
+
+	private File directory;
+	private FileBasedIndex index;
+	private Random rnd = new Random(0);
+
+	@Setup
+	public void setUp() throws Exception {
+		directory = BenchmarkFiles.createDirectory();
+		index = new FileBasedIndex(new File(directory, INDEX_FILE_NAME).getPath(), true);
+		for (int from = 0; from < fill; from += FILL_BATCH_SIZE) {
+			int count = Math.min(FILL_BATCH_SIZE, fill - from);
+			long[] IDs = new long[count];
+			ObjectAddress[] addresses = new ObjectAddress[count];
+			for (int i = 0; i < count; i++) {
+				IDs[i] = from + i;
+				addresses[i] = getAddress(IDs[i]);
+			}
+			index.putAddress(IDs, addresses);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		BenchmarkFiles.deleteDirectory(directory);
+	}
+
+	private static ObjectAddress getAddress(long ID) {
+		return new ObjectAddress(0, ID * 100);
+	}
+
+	private long randomID() {
+		return rnd.nextInt(fill);
+	}
+
+	@Benchmark
+	public ObjectAddress get() throws Exception {
+		return index.getAddress(randomID());
+	}
+
+	@Benchmark
+	public ObjectAddress[] getBatch() throws Exception {
+		long[] IDs = new long[BATCH_SIZE];
+		for (int i = 0; i < BATCH_SIZE; i++) {
+			IDs[i] = randomID();
+		}
+		return index.getAddress(IDs);
+	}
+
+	@Benchmark
+	public void put() throws Exception {
+		long ID = randomID();
+		index.putAddress(ID, getAddress(ID));
+	}
+
+	@Benchmark
+	public void putBatch() throws Exception {
+		long[] IDs = new long[BATCH_SIZE];
+		ObjectAddress[] addresses = new ObjectAddress[BATCH_SIZE];
+		for (int i = 0; i < BATCH_SIZE; i++) {
+			IDs[i] = randomID();
+			addresses[i] = getAddress(IDs[i]);
+		}
+		index.putAddress(IDs, addresses);
+	}
+
+	// Time of remove is this minus time of put
+	@Benchmark
+	public void removeAndPut() throws Exception {
+		long ID = randomID();
+		index.removeAddress(ID);
+		index.putAddress(ID, getAddress(ID));
+	}
+}
@@ -0,0 +1,110 @@
+package ru.anisimov.storage.localStorage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.anisimov.storage.io.FileReaderWriter;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * ObjectContainer reads and writes by object size. Container file is opened for every operation,
+ * like ObjectContainerSupervisor does. Written container is started again when it exceeds WRITE_CONTAINER_LIMIT.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObjectContainerBenchmark {
+	private static final long READ_CONTAINER_SIZE = 64 * 1024 * 1024;
+	private static final int MAX_READ_OBJECTS_COUNT = 1000;
+	private static final long WRITE_CONTAINER_LIMIT = 256 * 1024 * 1024;
+	private static final int BATCH_SIZE = 16;
+
+	@Param({"100", "4096", "1048576"})
+	public int objectSize;
+
+	private File directory;
+	private String readFileName;
+	private String writeFileName;
+	private long[] positions;
+	private byte[] object;
+	private Random rnd = new Random(0);
+
+	@Setup
+	public void setUp() throws Exception {
+		directory = BenchmarkFiles.createDirectory();
+		readFileName = new File(directory, "0").getPath();
+		writeFileName = new File(directory, "1").getPath();
+		object = new byte[objectSize];
+		rnd.nextBytes(object);
+
+		int count = (int) Math.max(1, Math.min(MAX_READ_OBJECTS_COUNT, READ_CONTAINER_SIZE / objectSize));
+		long[] IDs = new long[count];
+		byte[][] objects = new byte[count][];
+		for (int i = 0; i < count; i++) {
+			IDs[i] = i;
+			objects[i] = object;
+		}
+		positions = new long[count];
+		try (FileReaderWriter rw = FileReaderWriter.openForReadingWriting(readFileName)) {
+			ObjectAddress[] addresses = new ObjectContainer(rw, readFileName, 0, true).writeBytes(rw, IDs, objects);
+			for (int i = 0; i < count; i++) {
+				positions[i] = addresses[i].getFilePosition();
+			}
+		}
+		try (FileReaderWriter rw = FileReaderWriter.openForReadingWriting(writeFileName)) {
+			new ObjectContainer(rw, writeFileName, 1, true);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		BenchmarkFiles.deleteDirectory(directory);
+	}
+
+	@Benchmark
+	public RecordData read() throws Exception {
+		try (FileReaderWriter in = FileReaderWriter.openForReading(readFileName)) {
+			return new ObjectContainer(in, readFileName, 0, false).getData(in, positions[rnd.nextInt(positions.length)]);
+		}
+	}
+
+	@Benchmark
+	public RecordData[] readBatch() throws Exception {
+		long[] batchPositions = new long[BATCH_SIZE];
+		for (int i = 0; i < BATCH_SIZE; i++) {
+			batchPositions[i] = positions[rnd.nextInt(positions.length)];
+		}
+		try (FileReaderWriter in = FileReaderWriter.openForReading(readFileName)) {
+			return new ObjectContainer(in, readFileName, 0, false).getData(in, batchPositions);
+		}
+	}
+
+	@Benchmark
+	public ObjectAddress write() throws Exception {
+		try (FileReaderWriter rw = FileReaderWriter.openForReadingWriting(writeFileName)) {
+			ObjectContainer container = new ObjectContainer(rw, writeFileName, 1, false);
+			if (container.getSize() > WRITE_CONTAINER_LIMIT) {
+				container = new ObjectContainer(rw, writeFileName, 1, true);
+			}
+			return container.writeBytes(rw, 0, object);
+		}
+	}
+}
@@ -0,0 +1,483 @@
+package ru.anisimov.storage;
+
+import ru.anisimov.storage.commons.ObjectRanges;
+import ru.anisimov.storage.exceptions.StorageException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * Decorator class for Storage object, keeps recently read objects in memory (W-TinyLFU policy).
+ *
+ * New objects come to small LRU window. Objects evicted from window compete with LRU victim of main area:
+ * object stays in cache only if it was requested more often than victim.
+ * Cache size is limited by sum of cached objects sizes.
+ * Written and removed keys are invalidated.
+ * Objects expired through cache are not returned after their expiration times,
+ * objects expired by other clients of decorated storage stay in cache until removeExpired() of cache returns them.
+ * Ranges and sizes of cached objects are taken from cache, ranges of other objects are read from storage and not cached.
+ *
+ * Cache is safe for concurrent use, calls to decorated storage are not synchronized by cache.
+ * If copyObjects is false cached arrays are returned as is, so caller must not modify them.
+ *
+ */
+public class CachingStorage implements Storage {
+	private static final int ENTRY_OVERHEAD = 64;
+	private static final int WINDOW_PERCENT = 1;
+	private static final int ESTIMATED_OBJECT_SIZE = 1024;
+
+	private final Storage storage;
+	private final boolean copyObjects;
+
+	private final long maxWindowBytes;
+	private final long maxMainBytes;
+	private long windowBytes;
+	private long mainBytes;
+
+	private final Object lock = new Object();
+	private final LinkedHashMap<Long, byte[]> window = new LinkedHashMap<>(16, 0.75f, true);
+	private final LinkedHashMap<Long, byte[]> main = new LinkedHashMap<>(16, 0.75f, true);
+	private final FrequencySketch sketch;
+	private final Map<Long, Object> loadingTokens = new HashMap<>();
+	private final Map<Long, Long> expirations = new HashMap<>();
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	public CachingStorage(Storage storage, long maxCacheBytes) {
+		this(storage, maxCacheBytes, true);
+	}
+
+	public CachingStorage(Storage storage, long maxCacheBytes, boolean copyObjects) {
+		if (maxCacheBytes <= 0) {
+			throw new IllegalArgumentException("Cache size should be positive");
+		}
+		this.storage = storage;
+		this.copyObjects = copyObjects;
+		this.maxWindowBytes = Math.max(1, maxCacheBytes * WINDOW_PERCENT / 100);
+		this.maxMainBytes = maxCacheBytes - maxWindowBytes;
+		this.sketch = new FrequencySketch((int) Math.min(Integer.MAX_VALUE / 2, maxCacheBytes / ESTIMATED_OBJECT_SIZE));
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	public long getCachedBytes() {
+		synchronized (lock) {
+			return windowBytes + mainBytes;
+		}
+	}
+
+	@Override
+	public long generateKey() throws StorageException {
+		return storage.generateKey();
+	}
+
+	@Override
+	public long[] generateKey(int count) throws StorageException {
+		return storage.generateKey(count);
+	}
+
+	@Override
+	public long write(byte[] bytes) throws StorageException {
+		long key = storage.write(bytes);
+		invalidate(new long[] {key});
+		return key;
+	}
+
+	@Override
+	public long[] write(byte[][] bytes) throws StorageException {
+		long[] keys = storage.write(bytes);
+		invalidate(keys);
+		return keys;
+	}
+
+	@Override
+	public boolean write(long key, byte[] bytes) throws StorageException {
+		return write(new long[] {key}, new byte[][] {bytes});
+	}
+
+	@Override
+	public boolean write(long[] keys, byte[][] bytes) throws StorageException {
+		invalidate(keys);
+		try {
+			return storage.write(keys, bytes);
+		} finally {
+			invalidate(keys);
+		}
+	}
+
+	@Override
+	public boolean write(long key, byte[] bytes, long expectedVersion) throws StorageException {
+		return write(new long[] {key}, new byte[][] {bytes}, new long[] {expectedVersion})[0];
+	}
+
+	@Override
+	public boolean[] write(long[] keys, byte[][] bytes, long[] expectedVersions) throws StorageException {
+		invalidate(keys);
+		try {
+			return storage.write(keys, bytes, expectedVersions);
+		} finally {
+			invalidate(keys);
+		}
+	}
+
+	@Override
+	public long getVersion(long key) throws StorageException {
+		return storage.getVersion(key);
+	}
+
+	@Override
+	public long[] getVersion(long[] keys) throws StorageException {
+		return storage.getVersion(keys);
+	}
+
+	@Override
+	public byte[] get(long key) throws StorageException {
+		return get(new long[] {key})[0];
+	}
+
+	@Override
+	public byte[][] get(long[] keys) throws StorageException {
+		if (keys == null) {
+			return storage.get(keys);
+		}
+		byte[][] result = new byte[keys.length][];
+		List<Integer> missed = new ArrayList<>();
+		Map<Long, Object> tokens = new HashMap<>();
+		synchronized (lock) {
+			for (int i = 0; i < keys.length; i++) {
+				sketch.increment(keys[i]);
+				result[i] = lookup(keys[i]);
+				if (result[i] == null) {
+					missed.add(i);
+					Object token = new Object();
+					loadingTokens.put(keys[i], token);
+					tokens.put(keys[i], token);
+				}
+			}
+		}
+		hitCount.addAndGet(keys.length - missed.size());
+		missCount.addAndGet(missed.size());
+
+		if (!missed.isEmpty()) {
+			long[] missedKeys = new long[missed.size()];
+			for (int i = 0; i < missedKeys.length; i++) {
+				missedKeys[i] = keys[missed.get(i)];
+			}
+			byte[][] loaded;
+			try {
+				loaded = storage.get(missedKeys);
+			} catch (StorageException | RuntimeException e) {
+				releaseTokens(tokens);
+				throw e;
+			}
+			synchronized (lock) {
+				for (int i = 0; i < missedKeys.length; i++) {
+					Object token = tokens.get(missedKeys[i]);
+					// Token is lost if key was invalidated during loading
+					if (loadingTokens.get(missedKeys[i]) == token) {
+						loadingTokens.remove(missedKeys[i]);
+						if (loaded[i] != null) {
+							insert(missedKeys[i], loaded[i]);
+						}
+					}
+					result[missed.get(i)] = loaded[i];
+				}
+			}
+		}
+
+		if (copyObjects) {
+			for (int i = 0; i < result.length; i++) {
+				result[i] = (result[i] == null) ? null : result[i].clone();
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public byte[] get(long key, long offset, int length) throws StorageException {
+		return get(new long[] {key}, new long[] {offset}, new int[] {length})[0];
+	}
+
+	@Override
+	public byte[][] get(long[] keys, long[] offsets, int[] lengths) throws StorageException {
+		ObjectRanges.check(keys, offsets, lengths);
+		byte[][] result = new byte[keys.length][];
+		List<Integer> missed = new ArrayList<>();
+		synchronized (lock) {
+			for (int i = 0; i < keys.length; i++) {
+				sketch.increment(keys[i]);
+				byte[] object = lookup(keys[i]);
+				if (object == null) {
+					missed.add(i);
+				} else {
+					result[i] = ObjectRanges.slice(object, offsets[i], lengths[i]);
+				}
+			}
+		}
+		hitCount.addAndGet(keys.length - missed.size());
+		missCount.addAndGet(missed.size());
+
+		if (!missed.isEmpty()) {
+			long[] missedKeys = new long[missed.size()];
+			long[] missedOffsets = new long[missed.size()];
+			int[] missedLengths = new int[missed.size()];
+			for (int i = 0; i < missedKeys.length; i++) {
+				missedKeys[i] = keys[missed.get(i)];
+				missedOffsets[i] = offsets[missed.get(i)];
+				missedLengths[i] = lengths[missed.get(i)];
+			}
+			byte[][] loaded = storage.get(missedKeys, missedOffsets, missedLengths);
+			for (int i = 0; i < missedKeys.length; i++) {
+				result[missed.get(i)] = loaded[i];
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public boolean exists(long key) throws StorageException {
+		return exists(new long[] {key})[0];
+	}
+
+	@Override
+	public boolean[] exists(long[] keys) throws StorageException {
+		if (keys == null) {
+			return storage.exists(keys);
+		}
+		boolean[] result = new boolean[keys.length];
+		List<Integer> missed = new ArrayList<>();
+		synchronized (lock) {
+			for (int i = 0; i < keys.length; i++) {
+				result[i] = lookup(keys[i]) != null;
+				if (!result[i]) {
+					missed.add(i);
+				}
+			}
+		}
+		if (!missed.isEmpty()) {
+			boolean[] loaded = storage.exists(getKeys(keys, missed));
+			for (int i = 0; i < loaded.length; i++) {
+				result[missed.get(i)] = loaded[i];
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public long size(long key) throws StorageException {
+		return size(new long[] {key})[0];
+	}
+
+	// Metadata lookups are not counted as hits or misses
+	@Override
+	public long[] size(long[] keys) throws StorageException {
+		if (keys == null) {
+			return storage.size(keys);
+		}
+		long[] result = new long[keys.length];
+		List<Integer> missed = new ArrayList<>();
+		synchronized (lock) {
+			for (int i = 0; i < keys.length; i++) {
+				byte[] object = lookup(keys[i]);
+				if (object == null) {
+					missed.add(i);
+				} else {
+					result[i] = object.length;
+				}
+			}
+		}
+		if (!missed.isEmpty()) {
+			long[] loaded = storage.size(getKeys(keys, missed));
+			for (int i = 0; i < loaded.length; i++) {
+				result[missed.get(i)] = loaded[i];
+			}
+		}
+		return result;
+	}
+
+	private static long[] getKeys(long[] keys, List<Integer> indices) {
+		long[] result = new long[indices.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = keys[indices.get(i)];
+		}
+		return result;
+	}
+
+	@Override
+	public boolean expire(long key, long expirationTime) throws StorageException {
+		return expire(new long[] {key}, new long[] {expirationTime})[0];
+	}
+
+	// Expiration times are kept until they pass, so stale times only cause extra loads
+	@Override
+	public boolean[] expire(long[] keys, long[] expirationTimes) throws StorageException {
+		boolean[] result = storage.expire(keys, expirationTimes);
+		synchronized (lock) {
+			for (int i = 0; i < keys.length; i++) {
+				if (result[i] && expirationTimes[i] != 0) {
+					expirations.put(keys[i], expirationTimes[i]);
+				} else {
+					expirations.remove(keys[i]);
+				}
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public long[] removeExpired() throws StorageException {
+		long[] keys = storage.removeExpired();
+		invalidate(keys);
+		synchronized (lock) {
+			for (long key : keys) {
+				expirations.remove(key);
+			}
+		}
+		return keys;
+	}
+
+	// Keys keep their objects, so cache stays valid
+	@Override
+	public int migrate() throws StorageException {
+		return storage.migrate();
+	}
+
+	@Override
+	public boolean remove(long key) throws StorageException {
+		return remove(new long[] {key});
+	}
+
+	@Override
+	public boolean remove(long[] keys) throws StorageException {
+		invalidate(keys);
+		try {
+			return storage.remove(keys);
+		} finally {
+			invalidate(keys);
+		}
+	}
+
+	@Override
+	public RebuildInfo rebuild() throws StorageException {
+		try {
+			return storage.rebuild();
+		} finally {
+			synchronized (lock) {
+				window.clear();
+				main.clear();
+				windowBytes = 0;
+				mainBytes = 0;
+				loadingTokens.clear();
+				expirations.clear();
+				sketch.clear();
+			}
+		}
+	}
+
+	@Override
+	public long getMaxObjectSize() {
+		return storage.getMaxObjectSize();
+	}
+
+	private void invalidate(long[] keys) {
+		if (keys == null) {
+			return;
+		}
+		synchronized (lock) {
+			for (long key : keys) {
+				loadingTokens.remove(key);
+				byte[] object = window.remove(key);
+				if (object != null) {
+					windowBytes -= getWeight(object);
+				}
+				object = main.remove(key);
+				if (object != null) {
+					mainBytes -= getWeight(object);
+				}
+			}
+		}
+	}
+
+	private void releaseTokens(Map<Long, Object> tokens) {
+		synchronized (lock) {
+			for (Map.Entry<Long, Object> entry : tokens.entrySet()) {
+				if (loadingTokens.get(entry.getKey()) == entry.getValue()) {
+					loadingTokens.remove(entry.getKey());
+				}
+			}
+		}
+	}
+
+	private byte[] lookup(long key) {
+		Long expiration = expirations.get(key);
+		if (expiration != null && expiration <= System.currentTimeMillis()) {
+			expirations.remove(key);
+			invalidate(new long[] {key});
+			return null;
+		}
+		byte[] result = window.get(key);
+		return (result != null) ? result : main.get(key);
+	}
+
+	private void insert(long key, byte[] object) {
+		if (window.containsKey(key) || main.containsKey(key)) {
+			return;
+		}
+		window.put(key, object);
+		windowBytes += getWeight(object);
+
+		Iterator<Map.Entry<Long, byte[]>> iterator = window.entrySet().iterator();
+		while (windowBytes > maxWindowBytes && iterator.hasNext()) {
+			Map.Entry<Long, byte[]> candidate = iterator.next();
+			iterator.remove();
+			windowBytes -= getWeight(candidate.getValue());
+			admit(candidate.getKey(), candidate.getValue());
+		}
+	}
+
+	private void admit(long key, byte[] object) {
+		long weight = getWeight(object);
+		if (weight > maxMainBytes) {
+			evictionCount.incrementAndGet();
+			return;
+		}
+
+		int candidateFrequency = sketch.frequency(key);
+		Iterator<Map.Entry<Long, byte[]>> iterator = main.entrySet().iterator();
+		while (mainBytes + weight > maxMainBytes) {
+			Map.Entry<Long, byte[]> victim = iterator.next();
+			if (candidateFrequency <= sketch.frequency(victim.getKey())) {
+				evictionCount.incrementAndGet();
+				return;
+			}
+			iterator.remove();
+			mainBytes -= getWeight(victim.getValue());
+			evictionCount.incrementAndGet();
+		}
+		main.put(key, object);
+		mainBytes += weight;
+	}
+
+	private static long getWeight(byte[] object) {
+		return object.length + ENTRY_OVERHEAD;
+	}
+}
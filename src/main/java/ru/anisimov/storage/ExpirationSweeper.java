@@ -0,0 +1,75 @@
+package ru.anisimov.storage;
+
+import ru.anisimov.storage.exceptions.StorageException;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * Removes expired objects of storage (see Storage.removeExpired()) on daemon thread, period is counted
+ * from the end of previous removal.
+ *
+ * Storage is called from sweeper thread, so storage which is not thread-safe should be wrapped
+ * into SynchronizedStorage shared by sweeper and other threads.
+ * Failed removals are counted and don't stop sweeper.
+ *
+ */
+public class ExpirationSweeper implements AutoCloseable {
+	private final Storage storage;
+	private final ScheduledExecutorService executor;
+
+	private final AtomicLong removedCount = new AtomicLong();
+	private final AtomicLong errorCount = new AtomicLong();
+
+	public ExpirationSweeper(Storage storage, long periodMillis) {
+		if (periodMillis <= 0) {
+			throw new IllegalArgumentException("Sweep period should be positive");
+		}
+		this.storage = storage;
+		this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "storage-expiration");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				sweep();
+			}
+		}, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public long getRemovedCount() {
+		return removedCount.get();
+	}
+
+	public long getErrorCount() {
+		return errorCount.get();
+	}
+
+	private void sweep() {
+		try {
+			removedCount.addAndGet(storage.removeExpired().length);
+		} catch (StorageException | RuntimeException e) {
+			errorCount.incrementAndGet();
+		}
+	}
+
+	@Override
+	public void close() {
+		executor.shutdown();
+		try {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
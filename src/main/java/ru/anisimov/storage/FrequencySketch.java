@@ -0,0 +1,79 @@
+package ru.anisimov.storage;
+
+import java.util.Arrays;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * Count-min sketch estimating how often keys were requested recently (TinyLFU).
+ * Counters are limited by MAX_FREQUENCY and halved after every sampleSize additions,
+ * so old popularity fades away.
+ *
+ * Not thread-safe.
+ *
+ */
+class FrequencySketch {
+	private static final int DEPTH = 4;
+	private static final int MAX_FREQUENCY = 15;
+	private static final int SAMPLE_SIZE_MULTIPLIER = 10;
+	private static final long[] SEEDS = {
+			0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+	};
+
+	private final byte[][] table;
+	private final int mask;
+	private final int sampleSize;
+	private int additions;
+
+	public FrequencySketch(int expectedEntries) {
+		int width = Integer.highestOneBit(Math.max(expectedEntries, 16) - 1) << 1;
+		this.table = new byte[DEPTH][width];
+		this.mask = width - 1;
+		this.sampleSize = SAMPLE_SIZE_MULTIPLIER * width;
+	}
+
+	public void increment(long key) {
+		boolean added = false;
+		for (int i = 0; i < DEPTH; i++) {
+			int index = indexOf(key, i);
+			if (table[i][index] < MAX_FREQUENCY) {
+				table[i][index]++;
+				added = true;
+			}
+		}
+		if (added && ++additions >= sampleSize) {
+			reset();
+		}
+	}
+
+	public int frequency(long key) {
+		int result = MAX_FREQUENCY;
+		for (int i = 0; i < DEPTH; i++) {
+			result = Math.min(result, table[i][indexOf(key, i)]);
+		}
+		return result;
+	}
+
+	public void clear() {
+		for (byte[] row : table) {
+			Arrays.fill(row, (byte) 0);
+		}
+		additions = 0;
+	}
+
+	private void reset() {
+		for (byte[] row : table) {
+			for (int i = 0; i < row.length; i++) {
+				row[i] = (byte) (row[i] >>> 1);
+			}
+		}
+		additions /= 2;
+	}
+
+	private int indexOf(long key, int row) {
+		long hash = (key + SEEDS[row]) * SEEDS[(row + 1) % DEPTH];
+		hash ^= hash >>> 32;
+		hash ^= hash >>> 17;
+		return (int) hash & mask;
+	}
+}
@@ -0,0 +1,604 @@
+package ru.anisimov.storage;
+
+import ru.anisimov.storage.exceptions.StorageException;
+import ru.anisimov.storage.io.IOCounters;
+import ru.anisimov.storage.io.IOScope;
+import ru.anisimov.storage.metrics.LatencyHistogram;
+import ru.anisimov.storage.metrics.LatencySnapshot;
+import ru.anisimov.storage.metrics.StorageMetricsMXBean;
+import ru.anisimov.storage.metrics.StorageOperation;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * Decorator class for Storage object, measures latency of every call.
+ *
+ * Latencies are recorded to histograms by operation and batch size class (see BATCH_SIZE_BOUNDS),
+ * failed calls are only counted. Bytes of written and read objects are counted too.
+ * File I/O of calls (see IOCounters) is summed by operation.
+ * Recording is lock-free, so decorator adds no synchronization to decorated storage.
+ * Metrics could be published to platform MBean server (see registerMBean()).
+ *
+ */
+public class InstrumentedStorage implements Storage, StorageMetricsMXBean {
+	private static final int[] BATCH_SIZE_BOUNDS = {1, 10, 100, 1000};
+	private static final String MBEAN_NAME_PREFIX = "ru.anisimov.storage:type=Storage,name=";
+
+	private final Storage storage;
+
+	private volatile LatencyHistogram[][] histograms;
+	private volatile IOCounters[] ioCounters;
+	private final AtomicLong bytesRead = new AtomicLong();
+	private final AtomicLong bytesWritten = new AtomicLong();
+	private final AtomicLong errorCount = new AtomicLong();
+	private ObjectName mbeanName;
+
+	public InstrumentedStorage(Storage storage) {
+		this.storage = storage;
+		this.histograms = createHistograms();
+		this.ioCounters = createIOCounters();
+	}
+
+	private static IOCounters[] createIOCounters() {
+		IOCounters[] result = new IOCounters[StorageOperation.values().length];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = new IOCounters();
+		}
+		return result;
+	}
+
+	private static LatencyHistogram[][] createHistograms() {
+		LatencyHistogram[][] result = new LatencyHistogram[StorageOperation.values().length][BATCH_SIZE_BOUNDS.length + 1];
+		for (LatencyHistogram[] operationHistograms : result) {
+			for (int i = 0; i < operationHistograms.length; i++) {
+				operationHistograms[i] = new LatencyHistogram();
+			}
+		}
+		return result;
+	}
+
+	private static int getBatchSizeClass(int batchSize) {
+		for (int i = 0; i < BATCH_SIZE_BOUNDS.length; i++) {
+			if (batchSize <= BATCH_SIZE_BOUNDS[i]) {
+				return i;
+			}
+		}
+		return BATCH_SIZE_BOUNDS.length;
+	}
+
+	private static String getBatchSizeClassName(int batchSizeClass) {
+		if (batchSizeClass == 0) {
+			return String.valueOf(BATCH_SIZE_BOUNDS[0]);
+		}
+		if (batchSizeClass == BATCH_SIZE_BOUNDS.length) {
+			return ">" + BATCH_SIZE_BOUNDS[BATCH_SIZE_BOUNDS.length - 1];
+		}
+		return (BATCH_SIZE_BOUNDS[batchSizeClass - 1] + 1) + "-" + BATCH_SIZE_BOUNDS[batchSizeClass];
+	}
+
+	private void record(StorageOperation operation, int batchSize, long start) {
+		histograms[operation.ordinal()][getBatchSizeClass(batchSize)].record(System.nanoTime() - start);
+	}
+
+	private static long getSize(byte[][] objects) {
+		long result = 0;
+		if (objects != null) {
+			for (byte[] object : objects) {
+				result += (object == null) ? 0 : object.length;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Latencies of operation for all batch sizes.
+	 */
+	public LatencySnapshot getLatency(StorageOperation operation) {
+		LatencySnapshot result = LatencySnapshot.EMPTY;
+		for (LatencyHistogram histogram : histograms[operation.ordinal()]) {
+			result = result.merge(histogram.snapshot());
+		}
+		return result;
+	}
+
+	/**
+	 * Latencies of operation for batches of the same size class as batchSize.
+	 */
+	public LatencySnapshot getLatency(StorageOperation operation, int batchSize) {
+		return histograms[operation.ordinal()][getBatchSizeClass(batchSize)].snapshot();
+	}
+
+	/**
+	 * File I/O of all calls of operation.
+	 */
+	public IOCounters getIOCounters(StorageOperation operation) {
+		return ioCounters[operation.ordinal()];
+	}
+
+	@Override
+	public Map<String, LatencySnapshot> getLatencies() {
+		LatencyHistogram[][] current = histograms;
+		Map<String, LatencySnapshot> result = new LinkedHashMap<>();
+		for (StorageOperation operation : StorageOperation.values()) {
+			for (int i = 0; i <= BATCH_SIZE_BOUNDS.length; i++) {
+				LatencySnapshot snapshot = current[operation.ordinal()][i].snapshot();
+				if (snapshot.getCount() > 0) {
+					result.put(operation + " " + getBatchSizeClassName(i), snapshot);
+				}
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public long getBytesRead() {
+		return bytesRead.get();
+	}
+
+	@Override
+	public long getBytesWritten() {
+		return bytesWritten.get();
+	}
+
+	@Override
+	public long getErrorCount() {
+		return errorCount.get();
+	}
+
+	// Calls finished during reset could be recorded to old histograms and lost
+	@Override
+	public void reset() {
+		histograms = createHistograms();
+		ioCounters = createIOCounters();
+		bytesRead.set(0);
+		bytesWritten.set(0);
+		errorCount.set(0);
+	}
+
+	public synchronized ObjectName registerMBean(String name) throws StorageException {
+		try {
+			ObjectName objectName = new ObjectName(MBEAN_NAME_PREFIX + ObjectName.quote(name));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+			mbeanName = objectName;
+			return objectName;
+		} catch (JMException e) {
+			throw new StorageException(e);
+		}
+	}
+
+	public synchronized void unregisterMBean() throws StorageException {
+		if (mbeanName == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+			mbeanName = null;
+		} catch (JMException e) {
+			throw new StorageException(e);
+		}
+	}
+
+	@Override
+	public long generateKey() throws StorageException {
+		long start = System.nanoTime();
+		IOScope scope = IOScope.open(getIOCounters(StorageOperation.GENERATE_KEY));
+		try {
+			long result = storage.generateKey();
+			record(StorageOperation.GENERATE_KEY, 1, start);
+			return result;
+		} catch (StorageException | RuntimeException e) {
+			errorCount.incrementAndGet();
+			throw e;
+		} finally {
+			scope.close();
+		}
+	}
+
+	@Override
+	public long[] generateKey(int count) throws StorageException {
+		long start = System.nanoTime();
+		IOScope scope = IOScope.open(getIOCounters(StorageOperation.GENERATE_KEY));
+		try {
+			long[] result = storage.generateKey(count);
+			record(StorageOperation.GENERATE_KEY, count, start);
+			return result;
+		} catch (StorageException | RuntimeException e) {
+			errorCount.incrementAndGet();
+			throw e;
+		} finally {
+			scope.close();
+		}
+	}
+
+	@Override
+	public long write(byte[] bytes) throws StorageException {
+		long start = System.nanoTime();
+		IOScope scope = IOScope.open(getIOCounters(StorageOperation.WRITE));
+		try {
+			long result = storage.write(bytes);
+			record(StorageOperation.WRITE, 1, start);
+			bytesWritten.addAndGet(bytes.length);
+			return result;
+		} catch (StorageException | RuntimeException e) {
+			errorCount.incrementAndGet();
+			throw e;
+		} finally {
+			scope.close();
+		}
+	}
+
+	@Override
+	public long[] write(byte[][] bytes) throws StorageException {
+		long start = System.nanoTime();
+		IOScope scope = IOScope.open(getIOCounters(StorageOperation.WRITE));
+		try {
+			long[] result = storage.write(bytes);
+			record(StorageOperation.WRITE, bytes.length, start);
+			bytesWritten.addAndGet(getSize(bytes));
+			return result;
+		} catch (StorageException | RuntimeException e) {
+			errorCount.incrementAndGet();
+			throw e;
+		} finally {
+			scope.close();
+		}
+	}
+
+	@Override
+	public boolean write(long key, byte[] bytes) throws StorageException {
+		long start = System.nanoTime();
+		IOScope scope = IOScope.open(getIOCounters(StorageOperation.REWRITE));
+		try {
+			boolean result = storage.write(key, bytes);
+			record(StorageOperation.REWRITE, 1, start);
+			bytesWritten.addAndGet(bytes.length);
+			return result;
+		} catch (StorageException | RuntimeException e) {
+			errorCount.incrementAndGet();
+			throw e;
+		} finally {
+			scope.close();
+		}
+	}
+
+	@Override
+	public boolean write(long[] keys, byte[][] bytes) throws StorageException {
+		long start = System.nanoTime();
+		IOScope scope = IOScope.open(getIOCounters(StorageOperation.REWRITE));
+		try {
+			boolean result = storage.write(keys, bytes);
+			record(StorageOperation.REWRITE, keys.length, start);
+			bytesWritten.addAndGet(getSize(bytes));
+			return result;
+		} catch (StorageException | RuntimeException e) {
+			errorCount.incrementAndGet();
+			throw e;
+		} finally {
+			scope.close();
+		}
+	}
+
+	@Override
+	public boolean write(long key, byte[] bytes, long expectedVersion) throws StorageException {
+		long start = System.nanoTime();
+		IOScope scope = IOScope.open(getIOCounters(StorageOperation.CONDITIONAL_WRITE));
+		try {
+			boolean result = storage.write(key, bytes, expectedVersion);
+			record(StorageOperation.CONDITIONAL_WRITE, 1, start);
+			bytesWritten.addAndGet(result ? bytes.length : 0);
+			return result;
+		} catch (StorageException | RuntimeException e) {
+			errorCount.incrementAndGet();
+			throw e;
+		} finally {
+			scope.close();
+		}
+	}
+
+	@Override
+	public boolean[] write(long[] keys, byte[][] bytes, long[] expectedVersions) throws StorageException {
+		long start = System.nanoTime();
+		IOScope scope = IOScope.open(getIOCounters(StorageOperation.CONDITIONAL_WRITE));
+		try {
+			boolean[] result = storage.write(keys, bytes, expectedVersions);
+			record(StorageOperation.CONDITIONAL_WRITE, keys.length, start);
+			for (int i = 0; i < result.length; i++) {
+				bytesWritten.addAndGet(result[i] ? bytes[i].length : 0);
+			}
+			return result;
+		} catch (StorageException | RuntimeException e) {
+			errorCount.incrementAndGet();
+			throw e;
+		} finally {
+			scope.close();
+		}
+	}
+
+	@Override
+	public long getVersion(long key) throws StorageException {
+		long start = System.nanoTime();
+		IOScope scope = IOScope.open(getIOCounters(StorageOperation.GET_VERSION));
+		try {
+			long result = storage.getVersion(key);
+			record(StorageOperation.GET_VERSION, 1, start);
+			return result;
+		} catch (StorageException | RuntimeException e) {
+			errorCount.incrementAndGet();
+			throw e;
+		} finally {
+			scope.close();
+		}
+	}
+
+	@Override
+	public long[] getVersion(long[] keys) throws StorageException {
+		long start = System.nanoTime();
+		IOScope scope = IOScope.open(getIOCounters(StorageOperation.GET_VERSION));
+		try {
+			long[] result = storage.getVersion(keys);
+			record(StorageOperation.GET_VERSION, keys.length, start);
+			return result;
+		} catch (StorageException | RuntimeException e) {
+			errorCount.incrementAndGet();
+			throw e;
+		} finally {
+			scope.close();
+		}
+	}
+
+	@Override
+	public byte[] get(long key) throws StorageException {
+		long start = System.nanoTime();
+		IOScope scope = IOScope.open(getIOCounters(StorageOperation.GET));
+		try {
+			byte[] result = storage.get(key);
+			record(StorageOperation.GET, 1, start);
+			bytesRead.addAndGet((result == null) ? 0 : result.length);
+			return result;
+		} catch (StorageException | RuntimeException e) {
+			errorCount.incrementAndGet();
+			throw e;
+		} finally {
+			scope.close();
+		}
+	}
+
+	@Override
+	public byte[][] get(long[] keys) throws StorageException {
+		long start = System.nanoTime();
+		IOScope scope = IOScope.open(getIOCounters(StorageOperation.GET));
+		try {
+			byte[][] result = storage.get(keys);
+			record(StorageOperation.GET, keys.length, start);
+			bytesRead.addAndGet(getSize(result));
+			return result;
+		} catch (StorageException | RuntimeException e) {
+			errorCount.incrementAndGet();
+			throw e;
+		} finally {
+			scope.close();
+		}
+	}
+
+	@Override
+	public byte[] get(long key, long offset, int length) throws StorageException {
+		long start = System.nanoTime();
+		IOScope scope = IOScope.open(getIOCounters(StorageOperation.GET_RANGE));
+		try {
+			byte[] result = storage.get(key, offset, length);
+			record(StorageOperation.GET_RANGE, 1, start);
+			bytesRead.addAndGet((result == null) ? 0 : result.length);
+			return result;
+		} catch (StorageException | RuntimeException e) {
+			errorCount.incrementAndGet();
+			throw e;
+		} finally {
+			scope.close();
+		}
+	}
+
+	@Override
+	public byte[][] get(long[] keys, long[] offsets, int[] lengths) throws StorageException {
+		long start = System.nanoTime();
+		IOScope scope = IOScope.open(getIOCounters(StorageOperation.GET_RANGE));
+		try {
+			byte[][] result = storage.get(keys, offsets, lengths);
+			record(StorageOperation.GET_RANGE, keys.length, start);
+			bytesRead.addAndGet(getSize(result));
+			return result;
+		} catch (StorageException | RuntimeException e) {
+			errorCount.incrementAndGet();
+			throw e;
+		} finally {
+			scope.close();
+		}
+	}
+
+	@Override
+	public boolean exists(long key) throws StorageException {
+		long start = System.nanoTime();
+		IOScope scope = IOScope.open(getIOCounters(StorageOperation.EXISTS));
+		try {
+			boolean result = storage.exists(key);
+			record(StorageOperation.EXISTS, 1, start);
+			return result;
+		} catch (StorageException | RuntimeException e) {
+			errorCount.incrementAndGet();
+			throw e;
+		} finally {
+			scope.close();
+		}
+	}
+
+	@Override
+	public boolean[] exists(long[] keys) throws StorageException {
+		long start = System.nanoTime();
+		IOScope scope = IOScope.open(getIOCounters(StorageOperation.EXISTS));
+		try {
+			boolean[] result = storage.exists(keys);
+			record(StorageOperation.EXISTS, keys.length, start);
+			return result;
+		} catch (StorageException | RuntimeException e) {
+			errorCount.incrementAndGet();
+			throw e;
+		} finally {
+			scope.close();
+		}
+	}
+
+	@Override
+	public long size(long key) throws StorageException {
+		long start = System.nanoTime();
+		IOScope scope = IOScope.open(getIOCounters(StorageOperation.SIZE));
+		try {
+			long result = storage.size(key);
+			record(StorageOperation.SIZE, 1, start);
+			return result;
+		} catch (StorageException | RuntimeException e) {
+			errorCount.incrementAndGet();
+			throw e;
+		} finally {
+			scope.close();
+		}
+	}
+
+	@Override
+	public long[] size(long[] keys) throws StorageException {
+		long start = System.nanoTime();
+		IOScope scope = IOScope.open(getIOCounters(StorageOperation.SIZE));
+		try {
+			long[] result = storage.size(keys);
+			record(StorageOperation.SIZE, keys.length, start);
+			return result;
+		} catch (StorageException | RuntimeException e) {
+			errorCount.incrementAndGet();
+			throw e;
+		} finally {
+			scope.close();
+		}
+	}
+
+	@Override
+	public boolean expire(long key, long expirationTime) throws StorageException {
+		long start = System.nanoTime();
+		IOScope scope = IOScope.open(getIOCounters(StorageOperation.EXPIRE));
+		try {
+			boolean result = storage.expire(key, expirationTime);
+			record(StorageOperation.EXPIRE, 1, start);
+			return result;
+		} catch (StorageException | RuntimeException e) {
+			errorCount.incrementAndGet();
+			throw e;
+		} finally {
+			scope.close();
+		}
+	}
+
+	@Override
+	public boolean[] expire(long[] keys, long[] expirationTimes) throws StorageException {
+		long start = System.nanoTime();
+		IOScope scope = IOScope.open(getIOCounters(StorageOperation.EXPIRE));
+		try {
+			boolean[] result = storage.expire(keys, expirationTimes);
+			record(StorageOperation.EXPIRE, keys.length, start);
+			return result;
+		} catch (StorageException | RuntimeException e) {
+			errorCount.incrementAndGet();
+			throw e;
+		} finally {
+			scope.close();
+		}
+	}
+
+	@Override
+	public long[] removeExpired() throws StorageException {
+		long start = System.nanoTime();
+		IOScope scope = IOScope.open(getIOCounters(StorageOperation.REMOVE_EXPIRED));
+		try {
+			long[] result = storage.removeExpired();
+			record(StorageOperation.REMOVE_EXPIRED, result.length, start);
+			return result;
+		} catch (StorageException | RuntimeException e) {
+			errorCount.incrementAndGet();
+			throw e;
+		} finally {
+			scope.close();
+		}
+	}
+
+	@Override
+	public int migrate() throws StorageException {
+		long start = System.nanoTime();
+		IOScope scope = IOScope.open(getIOCounters(StorageOperation.MIGRATE));
+		try {
+			int result = storage.migrate();
+			record(StorageOperation.MIGRATE, result, start);
+			return result;
+		} catch (StorageException | RuntimeException e) {
+			errorCount.incrementAndGet();
+			throw e;
+		} finally {
+			scope.close();
+		}
+	}
+
+	@Override
+	public boolean remove(long key) throws StorageException {
+		long start = System.nanoTime();
+		IOScope scope = IOScope.open(getIOCounters(StorageOperation.REMOVE));
+		try {
+			boolean result = storage.remove(key);
+			record(StorageOperation.REMOVE, 1, start);
+			return result;
+		} catch (StorageException | RuntimeException e) {
+			errorCount.incrementAndGet();
+			throw e;
+		} finally {
+			scope.close();
+		}
+	}
+
+	@Override
+	public boolean remove(long[] keys) throws StorageException {
+		long start = System.nanoTime();
+		IOScope scope = IOScope.open(getIOCounters(StorageOperation.REMOVE));
+		try {
+			boolean result = storage.remove(keys);
+			record(StorageOperation.REMOVE, keys.length, start);
+			return result;
+		} catch (StorageException | RuntimeException e) {
+			errorCount.incrementAndGet();
+			throw e;
+		} finally {
+			scope.close();
+		}
+	}
+
+	@Override
+	public RebuildInfo rebuild() throws StorageException {
+		long start = System.nanoTime();
+		IOScope scope = IOScope.open(getIOCounters(StorageOperation.REBUILD));
+		try {
+			RebuildInfo result = storage.rebuild();
+			record(StorageOperation.REBUILD, 1, start);
+			return result;
+		} catch (StorageException | RuntimeException e) {
+			errorCount.incrementAndGet();
+			throw e;
+		} finally {
+			scope.close();
+		}
+	}
+
+	@Override
+	public long getMaxObjectSize() {
+		return storage.getMaxObjectSize();
+	}
+}
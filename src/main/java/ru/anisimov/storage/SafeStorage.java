@@ -2,8 +2,8 @@ package ru.anisimov.storage;
 
 import ru.anisimov.storage.exceptions.StorageException;
 import ru.anisimov.storage.io.FileReaderWriter;
+import ru.anisimov.storage.io.FileRole;
 
-import java.io.File;
 import java.io.IOException;
 
 /**
@@ -12,6 +12,10 @@ import java.io.IOException;
  * Decorator class for Storage object, stores state of operations in separate file.
  * On initialization checks - if all operations finished well.
  *
+ * Operations are serialized by one lock of decorator, so state of file belongs to one operation
+ * and conditional writes check and write versions atomically for all threads. Lock is not striped by keys:
+ * index chains, containers being appended and ID generator are shared by all keys of DirectoryStorage.
+ *
  */
 public class SafeStorage implements Storage {
 	private static final byte STABLE_STATE = 1;
@@ -23,13 +27,9 @@ public class SafeStorage implements Storage {
 	public SafeStorage(Storage storage, String safetyFileName, boolean newStorage) throws StorageException {
 		this.safetyFileName = safetyFileName;
 		this.storage = storage;
-		try (FileReaderWriter out = FileReaderWriter.openForWriting(safetyFileName)) {
+		try (FileReaderWriter out = FileReaderWriter.openForWriting(safetyFileName, FileRole.SAFETY)) {
 			if (newStorage) {
-				File file = new File(this.safetyFileName);
-				if (file.exists()) {
-					file.delete();
-				}
-				file.createNewFile();
+				out.truncate(0);
 				setState(out, STABLE_STATE);
 			}
 			if (getState() == UNSTABLE_STATE) {
@@ -40,12 +40,32 @@ public class SafeStorage implements Storage {
 		}
 	}
 
-	private void setState(FileReaderWriter out, byte state) throws IOException {
+	/**
+	 * Marks storage as changed outside of decorator (bulk import), so it is rebuilt on opening
+	 * until markStable() is called.
+	 */
+	public static void markUnstable(String safetyFileName) throws StorageException {
+		markState(safetyFileName, UNSTABLE_STATE);
+	}
+
+	public static void markStable(String safetyFileName) throws StorageException {
+		markState(safetyFileName, STABLE_STATE);
+	}
+
+	private static void markState(String safetyFileName, byte state) throws StorageException {
+		try (FileReaderWriter out = FileReaderWriter.openForWriting(safetyFileName, FileRole.SAFETY)) {
+			setState(out, state);
+		} catch (IOException e) {
+			throw new StorageException(e);
+		}
+	}
+
+	private static void setState(FileReaderWriter out, byte state) throws IOException {
 		out.writeBytes(0, state);
 	}
 
 	private byte getState() throws IOException {
-		try (FileReaderWriter in = FileReaderWriter.openForReading(safetyFileName)) {
+		try (FileReaderWriter in = FileReaderWriter.openForReading(safetyFileName, FileRole.SAFETY)) {
 			return in.readByte(0);
 		}
 	}
@@ -110,6 +130,46 @@ public class SafeStorage implements Storage {
 		});
 	}
 
+	@Override
+	public boolean write(final long key, final byte[] bytes, final long expectedVersion) throws StorageException {
+		return safeOperation(new StorageOperation<Boolean>() {
+			@Override
+			public Boolean perform() throws StorageException {
+				return storage.write(key, bytes, expectedVersion);
+			}
+		});
+	}
+
+	@Override
+	public boolean[] write(final long[] keys, final byte[][] bytes, final long[] expectedVersions) throws StorageException {
+		return safeOperation(new StorageOperation<boolean[]>() {
+			@Override
+			public boolean[] perform() throws StorageException {
+				return storage.write(keys, bytes, expectedVersions);
+			}
+		});
+	}
+
+	@Override
+	public long getVersion(final long key) throws StorageException {
+		return safeOperation(new StorageOperation<Long>() {
+			@Override
+			public Long perform() throws StorageException {
+				return storage.getVersion(key);
+			}
+		});
+	}
+
+	@Override
+	public long[] getVersion(final long[] keys) throws StorageException {
+		return safeOperation(new StorageOperation<long[]>() {
+			@Override
+			public long[] perform() throws StorageException {
+				return storage.getVersion(keys);
+			}
+		});
+	}
+
 	@Override
 	public byte[] get(final long key) throws StorageException {
 		return safeOperation(new StorageOperation<byte[]>() {
@@ -130,6 +190,106 @@ public class SafeStorage implements Storage {
 		});
 	}
 
+	@Override
+	public byte[] get(final long key, final long offset, final int length) throws StorageException {
+		return safeOperation(new StorageOperation<byte[]>() {
+			@Override
+			public byte[] perform() throws StorageException {
+				return storage.get(key, offset, length);
+			}
+		});
+	}
+
+	@Override
+	public byte[][] get(final long[] keys, final long[] offsets, final int[] lengths) throws StorageException {
+		return safeOperation(new StorageOperation<byte[][]>() {
+			@Override
+			public byte[][] perform() throws StorageException {
+				return storage.get(keys, offsets, lengths);
+			}
+		});
+	}
+
+	@Override
+	public boolean exists(final long key) throws StorageException {
+		return safeOperation(new StorageOperation<Boolean>() {
+			@Override
+			public Boolean perform() throws StorageException {
+				return storage.exists(key);
+			}
+		});
+	}
+
+	@Override
+	public boolean[] exists(final long[] keys) throws StorageException {
+		return safeOperation(new StorageOperation<boolean[]>() {
+			@Override
+			public boolean[] perform() throws StorageException {
+				return storage.exists(keys);
+			}
+		});
+	}
+
+	@Override
+	public long size(final long key) throws StorageException {
+		return safeOperation(new StorageOperation<Long>() {
+			@Override
+			public Long perform() throws StorageException {
+				return storage.size(key);
+			}
+		});
+	}
+
+	@Override
+	public long[] size(final long[] keys) throws StorageException {
+		return safeOperation(new StorageOperation<long[]>() {
+			@Override
+			public long[] perform() throws StorageException {
+				return storage.size(keys);
+			}
+		});
+	}
+
+	@Override
+	public boolean expire(final long key, final long expirationTime) throws StorageException {
+		return safeOperation(new StorageOperation<Boolean>() {
+			@Override
+			public Boolean perform() throws StorageException {
+				return storage.expire(key, expirationTime);
+			}
+		});
+	}
+
+	@Override
+	public boolean[] expire(final long[] keys, final long[] expirationTimes) throws StorageException {
+		return safeOperation(new StorageOperation<boolean[]>() {
+			@Override
+			public boolean[] perform() throws StorageException {
+				return storage.expire(keys, expirationTimes);
+			}
+		});
+	}
+
+	@Override
+	public long[] removeExpired() throws StorageException {
+		return safeOperation(new StorageOperation<long[]>() {
+			@Override
+			public long[] perform() throws StorageException {
+				return storage.removeExpired();
+			}
+		});
+	}
+
+	@Override
+	public int migrate() throws StorageException {
+		return safeOperation(new StorageOperation<Integer>() {
+			@Override
+			public Integer perform() throws StorageException {
+				return storage.migrate();
+			}
+		});
+	}
+
 	@Override
 	public boolean remove(final long key) throws StorageException {
 		return safeOperation(new StorageOperation<Boolean>() {
@@ -165,8 +325,8 @@ public class SafeStorage implements Storage {
 		return storage.getMaxObjectSize();
 	}
 
-	private <T> T safeOperation(StorageOperation<T> operation) throws StorageException {
-		try (FileReaderWriter out = FileReaderWriter.openForWriting(safetyFileName)) {
+	private synchronized <T> T safeOperation(StorageOperation<T> operation) throws StorageException {
+		try (FileReaderWriter out = FileReaderWriter.openForWriting(safetyFileName, FileRole.SAFETY)) {
 			setState(out, UNSTABLE_STATE);
 			T result = operation.perform();
 			setState(out, STABLE_STATE);
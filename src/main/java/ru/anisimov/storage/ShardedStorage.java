@@ -0,0 +1,632 @@
+package ru.anisimov.storage;
+
+import ru.anisimov.storage.commons.ObjectRanges;
+import ru.anisimov.storage.exceptions.StorageException;
+import ru.anisimov.storage.io.IOScope;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * Spreads keys across several storages (e.g. DirectoryStorages on different disks).
+ *
+ * Keys are partitioned by ranges: key space is split into shardsCount contiguous ranges of equal width,
+ * the last range takes the rest. Local key is offset of key from the middle of its range, so local keys
+ * generated by shard (small numbers around Integer.MIN_VALUE) lie within the range of shard and are routed back to it.
+ * New objects without key are spread round-robin.
+ *
+ * Batch operations are split by shards and shards are called in parallel.
+ * Pool threads are daemons and stop after SHARD_THREAD_KEEP_ALIVE_SECONDS of idleness.
+ * Sharded storage is as thread-safe as its shards: one batch call uses every shard from one thread.
+ *
+ */
+public class ShardedStorage implements Storage {
+	private static final long SHARD_THREAD_KEEP_ALIVE_SECONDS = 60;
+
+	private final List<Storage> shards;
+	private final int shardsCount;
+	// Half of range width, ranges are compared by halved keys, so unsigned arithmetic is not needed
+	private final long halfRangeWidth;
+	private final ThreadPoolExecutor executor;
+	private final AtomicInteger nextShard = new AtomicInteger();
+
+	public ShardedStorage(List<Storage> shards) {
+		if (shards == null || shards.isEmpty()) {
+			throw new IllegalArgumentException("There should be at least one shard");
+		}
+		this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+		this.shardsCount = shards.size();
+		this.halfRangeWidth = Long.MAX_VALUE / shardsCount;
+		this.executor = new ThreadPoolExecutor(shardsCount, shardsCount,
+													  SHARD_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+													  new LinkedBlockingQueue<Runnable>(),
+													  new ThreadFactory() {
+														  @Override
+														  public Thread newThread(Runnable task) {
+															  Thread thread = new Thread(task, "storage-shard");
+															  thread.setDaemon(true);
+															  return thread;
+														  }
+													  });
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	public int getShardsCount() {
+		return shardsCount;
+	}
+
+	// Range of shard starts at Long.MIN_VALUE + 2 * shard * halfRangeWidth, so (key >> 1) - (Long.MIN_VALUE >> 1)
+	// is offset of key within key space in halves, it is never negative
+	int getShard(long key) {
+		long result = ((key >> 1) - (Long.MIN_VALUE >> 1)) / halfRangeWidth;
+		return (int) Math.min(result, shardsCount - 1);
+	}
+
+	// Differences wrap around only outside of range, so getKey(getShard(key), getLocalKey(key)) == key for all keys
+	long getLocalKey(long key) {
+		return key - getRangeMiddle(getShard(key));
+	}
+
+	long getKey(int shard, long localKey) {
+		return getRangeMiddle(shard) + localKey;
+	}
+
+	private long getRangeMiddle(int shard) {
+		return Long.MIN_VALUE + (2L * shard + 1) * halfRangeWidth;
+	}
+
+	private int pollNextShard() {
+		int result = nextShard.getAndIncrement() % shardsCount;
+		return (result < 0) ? result + shardsCount : result;
+	}
+
+	@Override
+	public long generateKey() throws StorageException {
+		int shard = pollNextShard();
+		return getKey(shard, shards.get(shard).generateKey());
+	}
+
+	@Override
+	public long[] generateKey(final int count) throws StorageException {
+		final long[] result = new long[count];
+		final int firstShard = pollNextShard();
+		List<Callable<Void>> tasks = new ArrayList<>(shardsCount);
+		for (int i = 0; i < Math.min(count, shardsCount); i++) {
+			final int shard = (firstShard + i) % shardsCount;
+			final int offset = i;
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					int shardCount = (count - offset + shardsCount - 1) / shardsCount;
+					long[] localKeys = shards.get(shard).generateKey(shardCount);
+					for (int j = 0; j < shardCount; j++) {
+						result[offset + j * shardsCount] = getKey(shard, localKeys[j]);
+					}
+					return null;
+				}
+			});
+		}
+		run(tasks);
+		return result;
+	}
+
+	@Override
+	public long write(byte[] bytes) throws StorageException {
+		int shard = pollNextShard();
+		return getKey(shard, shards.get(shard).write(bytes));
+	}
+
+	@Override
+	public long[] write(final byte[][] bytes) throws StorageException {
+		if (bytes == null) {
+			throw new StorageException("Input array is null");
+		}
+		final long[] result = new long[bytes.length];
+		final int firstShard = pollNextShard();
+		List<Callable<Void>> tasks = new ArrayList<>(shardsCount);
+		for (int i = 0; i < Math.min(bytes.length, shardsCount); i++) {
+			final int shard = (firstShard + i) % shardsCount;
+			final int offset = i;
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					int shardCount = (bytes.length - offset + shardsCount - 1) / shardsCount;
+					byte[][] shardBytes = new byte[shardCount][];
+					for (int j = 0; j < shardCount; j++) {
+						shardBytes[j] = bytes[offset + j * shardsCount];
+					}
+					long[] localKeys = shards.get(shard).write(shardBytes);
+					for (int j = 0; j < shardCount; j++) {
+						result[offset + j * shardsCount] = getKey(shard, localKeys[j]);
+					}
+					return null;
+				}
+			});
+		}
+		run(tasks);
+		return result;
+	}
+
+	@Override
+	public boolean write(long key, byte[] bytes) throws StorageException {
+		return shards.get(getShard(key)).write(getLocalKey(key), bytes);
+	}
+
+	@Override
+	public boolean write(final long[] keys, final byte[][] bytes) throws StorageException {
+		if (bytes == null || keys == null || bytes.length != keys.length) {
+			throw new StorageException("Input arrays is null or not same size");
+		}
+		final List<List<Integer>> keysByShard = spreadByShard(keys);
+		final boolean[] result = {true};
+		List<Callable<Void>> tasks = new ArrayList<>(shardsCount);
+		for (int shard = 0; shard < shardsCount; shard++) {
+			final List<Integer> shardKeys = keysByShard.get(shard);
+			if (shardKeys.isEmpty()) {
+				continue;
+			}
+			final Storage storage = shards.get(shard);
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					byte[][] shardBytes = new byte[shardKeys.size()][];
+					for (int i = 0; i < shardBytes.length; i++) {
+						shardBytes[i] = bytes[shardKeys.get(i)];
+					}
+					if (!storage.write(getLocalKeys(keys, shardKeys), shardBytes)) {
+						synchronized (result) {
+							result[0] = false;
+						}
+					}
+					return null;
+				}
+			});
+		}
+		run(tasks);
+		synchronized (result) {
+			return result[0];
+		}
+	}
+
+	@Override
+	public boolean write(long key, byte[] bytes, long expectedVersion) throws StorageException {
+		return shards.get(getShard(key)).write(getLocalKey(key), bytes, expectedVersion);
+	}
+
+	@Override
+	public boolean[] write(final long[] keys, final byte[][] bytes, final long[] expectedVersions) throws StorageException {
+		if (bytes == null || keys == null || expectedVersions == null ||
+					bytes.length != keys.length || expectedVersions.length != keys.length) {
+			throw new StorageException("Input arrays is null or not same size");
+		}
+		final boolean[] result = new boolean[keys.length];
+		List<List<Integer>> keysByShard = spreadByShard(keys);
+		List<Callable<Void>> tasks = new ArrayList<>(shardsCount);
+		for (int shard = 0; shard < shardsCount; shard++) {
+			final List<Integer> shardKeys = keysByShard.get(shard);
+			if (shardKeys.isEmpty()) {
+				continue;
+			}
+			final Storage storage = shards.get(shard);
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					byte[][] shardBytes = new byte[shardKeys.size()][];
+					long[] shardVersions = new long[shardKeys.size()];
+					for (int i = 0; i < shardBytes.length; i++) {
+						shardBytes[i] = bytes[shardKeys.get(i)];
+						shardVersions[i] = expectedVersions[shardKeys.get(i)];
+					}
+					boolean[] shardResult = storage.write(getLocalKeys(keys, shardKeys), shardBytes, shardVersions);
+					for (int i = 0; i < shardResult.length; i++) {
+						result[shardKeys.get(i)] = shardResult[i];
+					}
+					return null;
+				}
+			});
+		}
+		run(tasks);
+		return result;
+	}
+
+	@Override
+	public long getVersion(long key) throws StorageException {
+		return shards.get(getShard(key)).getVersion(getLocalKey(key));
+	}
+
+	@Override
+	public long[] getVersion(final long[] keys) throws StorageException {
+		if (keys == null) {
+			throw new StorageException("Input array is null");
+		}
+		final long[] result = new long[keys.length];
+		List<List<Integer>> keysByShard = spreadByShard(keys);
+		List<Callable<Void>> tasks = new ArrayList<>(shardsCount);
+		for (int shard = 0; shard < shardsCount; shard++) {
+			final List<Integer> shardKeys = keysByShard.get(shard);
+			if (shardKeys.isEmpty()) {
+				continue;
+			}
+			final Storage storage = shards.get(shard);
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					long[] shardResult = storage.getVersion(getLocalKeys(keys, shardKeys));
+					for (int i = 0; i < shardResult.length; i++) {
+						result[shardKeys.get(i)] = shardResult[i];
+					}
+					return null;
+				}
+			});
+		}
+		run(tasks);
+		return result;
+	}
+
+	@Override
+	public byte[] get(long key) throws StorageException {
+		return shards.get(getShard(key)).get(getLocalKey(key));
+	}
+
+	@Override
+	public byte[][] get(final long[] keys) throws StorageException {
+		if (keys == null) {
+			throw new StorageException("Input array is null");
+		}
+		final byte[][] result = new byte[keys.length][];
+		List<List<Integer>> keysByShard = spreadByShard(keys);
+		List<Callable<Void>> tasks = new ArrayList<>(shardsCount);
+		for (int shard = 0; shard < shardsCount; shard++) {
+			final List<Integer> shardKeys = keysByShard.get(shard);
+			if (shardKeys.isEmpty()) {
+				continue;
+			}
+			final Storage storage = shards.get(shard);
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					byte[][] shardResult = storage.get(getLocalKeys(keys, shardKeys));
+					for (int i = 0; i < shardResult.length; i++) {
+						result[shardKeys.get(i)] = shardResult[i];
+					}
+					return null;
+				}
+			});
+		}
+		run(tasks);
+		return result;
+	}
+
+	@Override
+	public byte[] get(long key, long offset, int length) throws StorageException {
+		return shards.get(getShard(key)).get(getLocalKey(key), offset, length);
+	}
+
+	@Override
+	public byte[][] get(final long[] keys, final long[] offsets, final int[] lengths) throws StorageException {
+		ObjectRanges.check(keys, offsets, lengths);
+		final byte[][] result = new byte[keys.length][];
+		List<List<Integer>> keysByShard = spreadByShard(keys);
+		List<Callable<Void>> tasks = new ArrayList<>(shardsCount);
+		for (int shard = 0; shard < shardsCount; shard++) {
+			final List<Integer> shardKeys = keysByShard.get(shard);
+			if (shardKeys.isEmpty()) {
+				continue;
+			}
+			final Storage storage = shards.get(shard);
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					long[] shardOffsets = new long[shardKeys.size()];
+					int[] shardLengths = new int[shardKeys.size()];
+					for (int i = 0; i < shardOffsets.length; i++) {
+						shardOffsets[i] = offsets[shardKeys.get(i)];
+						shardLengths[i] = lengths[shardKeys.get(i)];
+					}
+					byte[][] shardResult = storage.get(getLocalKeys(keys, shardKeys), shardOffsets, shardLengths);
+					for (int i = 0; i < shardResult.length; i++) {
+						result[shardKeys.get(i)] = shardResult[i];
+					}
+					return null;
+				}
+			});
+		}
+		run(tasks);
+		return result;
+	}
+
+	@Override
+	public boolean exists(long key) throws StorageException {
+		return shards.get(getShard(key)).exists(getLocalKey(key));
+	}
+
+	@Override
+	public boolean[] exists(final long[] keys) throws StorageException {
+		if (keys == null) {
+			throw new StorageException("Input array is null");
+		}
+		final boolean[] result = new boolean[keys.length];
+		List<List<Integer>> keysByShard = spreadByShard(keys);
+		List<Callable<Void>> tasks = new ArrayList<>(shardsCount);
+		for (int shard = 0; shard < shardsCount; shard++) {
+			final List<Integer> shardKeys = keysByShard.get(shard);
+			if (shardKeys.isEmpty()) {
+				continue;
+			}
+			final Storage storage = shards.get(shard);
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					boolean[] shardResult = storage.exists(getLocalKeys(keys, shardKeys));
+					for (int i = 0; i < shardResult.length; i++) {
+						result[shardKeys.get(i)] = shardResult[i];
+					}
+					return null;
+				}
+			});
+		}
+		run(tasks);
+		return result;
+	}
+
+	@Override
+	public long size(long key) throws StorageException {
+		return shards.get(getShard(key)).size(getLocalKey(key));
+	}
+
+	@Override
+	public long[] size(final long[] keys) throws StorageException {
+		if (keys == null) {
+			throw new StorageException("Input array is null");
+		}
+		final long[] result = new long[keys.length];
+		List<List<Integer>> keysByShard = spreadByShard(keys);
+		List<Callable<Void>> tasks = new ArrayList<>(shardsCount);
+		for (int shard = 0; shard < shardsCount; shard++) {
+			final List<Integer> shardKeys = keysByShard.get(shard);
+			if (shardKeys.isEmpty()) {
+				continue;
+			}
+			final Storage storage = shards.get(shard);
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					long[] shardResult = storage.size(getLocalKeys(keys, shardKeys));
+					for (int i = 0; i < shardResult.length; i++) {
+						result[shardKeys.get(i)] = shardResult[i];
+					}
+					return null;
+				}
+			});
+		}
+		run(tasks);
+		return result;
+	}
+
+	@Override
+	public boolean remove(long key) throws StorageException {
+		return shards.get(getShard(key)).remove(getLocalKey(key));
+	}
+
+	@Override
+	public boolean remove(final long[] keys) throws StorageException {
+		if (keys == null) {
+			throw new StorageException("Input array is null");
+		}
+		final boolean[] result = {true};
+		List<List<Integer>> keysByShard = spreadByShard(keys);
+		List<Callable<Void>> tasks = new ArrayList<>(shardsCount);
+		for (int shard = 0; shard < shardsCount; shard++) {
+			final List<Integer> shardKeys = keysByShard.get(shard);
+			if (shardKeys.isEmpty()) {
+				continue;
+			}
+			final Storage storage = shards.get(shard);
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					if (!storage.remove(getLocalKeys(keys, shardKeys))) {
+						synchronized (result) {
+							result[0] = false;
+						}
+					}
+					return null;
+				}
+			});
+		}
+		run(tasks);
+		synchronized (result) {
+			return result[0];
+		}
+	}
+
+	@Override
+	public boolean expire(long key, long expirationTime) throws StorageException {
+		return shards.get(getShard(key)).expire(getLocalKey(key), expirationTime);
+	}
+
+	@Override
+	public boolean[] expire(final long[] keys, final long[] expirationTimes) throws StorageException {
+		if (keys == null || expirationTimes == null || keys.length != expirationTimes.length) {
+			throw new StorageException("Input arrays is null or not same size");
+		}
+		final boolean[] result = new boolean[keys.length];
+		List<List<Integer>> keysByShard = spreadByShard(keys);
+		List<Callable<Void>> tasks = new ArrayList<>(shardsCount);
+		for (int shard = 0; shard < shardsCount; shard++) {
+			final List<Integer> shardKeys = keysByShard.get(shard);
+			if (shardKeys.isEmpty()) {
+				continue;
+			}
+			final Storage storage = shards.get(shard);
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					long[] shardTimes = new long[shardKeys.size()];
+					for (int i = 0; i < shardTimes.length; i++) {
+						shardTimes[i] = expirationTimes[shardKeys.get(i)];
+					}
+					boolean[] shardResult = storage.expire(getLocalKeys(keys, shardKeys), shardTimes);
+					for (int i = 0; i < shardResult.length; i++) {
+						result[shardKeys.get(i)] = shardResult[i];
+					}
+					return null;
+				}
+			});
+		}
+		run(tasks);
+		return result;
+	}
+
+	@Override
+	public long[] removeExpired() throws StorageException {
+		final long[][] shardKeys = new long[shardsCount][];
+		List<Callable<Void>> tasks = new ArrayList<>(shardsCount);
+		for (int shard = 0; shard < shardsCount; shard++) {
+			final int shardNumber = shard;
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					shardKeys[shardNumber] = shards.get(shardNumber).removeExpired();
+					return null;
+				}
+			});
+		}
+		run(tasks);
+		int count = 0;
+		for (long[] keys : shardKeys) {
+			count += keys.length;
+		}
+		long[] result = new long[count];
+		int pointer = 0;
+		for (int shard = 0; shard < shardsCount; shard++) {
+			for (long localKey : shardKeys[shard]) {
+				result[pointer++] = getKey(shard, localKey);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public int migrate() throws StorageException {
+		final int[] shardCounts = new int[shardsCount];
+		List<Callable<Void>> tasks = new ArrayList<>(shardsCount);
+		for (int shard = 0; shard < shardsCount; shard++) {
+			final int shardNumber = shard;
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					shardCounts[shardNumber] = shards.get(shardNumber).migrate();
+					return null;
+				}
+			});
+		}
+		run(tasks);
+		int result = 0;
+		for (int count : shardCounts) {
+			result += count;
+		}
+		return result;
+	}
+
+	@Override
+	public RebuildInfo rebuild() throws StorageException {
+		final RebuildInfo[] shardInfo = new RebuildInfo[shardsCount];
+		List<Callable<Void>> tasks = new ArrayList<>(shardsCount);
+		for (int shard = 0; shard < shardsCount; shard++) {
+			final int shardNumber = shard;
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					shardInfo[shardNumber] = shards.get(shardNumber).rebuild();
+					return null;
+				}
+			});
+		}
+		run(tasks);
+		return new ShardedStorageRebuildInfo(shardInfo);
+	}
+
+	@Override
+	public long getMaxObjectSize() {
+		long result = Long.MAX_VALUE;
+		for (Storage shard : shards) {
+			result = Math.min(result, shard.getMaxObjectSize());
+		}
+		return result;
+	}
+
+	private List<List<Integer>> spreadByShard(long[] keys) {
+		List<List<Integer>> result = new ArrayList<>(shardsCount);
+		for (int i = 0; i < shardsCount; i++) {
+			result.add(new ArrayList<Integer>());
+		}
+		for (int i = 0; i < keys.length; i++) {
+			result.get(getShard(keys[i])).add(i);
+		}
+		return result;
+	}
+
+	private long[] getLocalKeys(long[] keys, List<Integer> indices) {
+		long[] result = new long[indices.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = getLocalKey(keys[indices.get(i)]);
+		}
+		return result;
+	}
+
+	// I/O of pool threads is counted in scopes of calling thread
+	private static List<Callable<Void>> joinScope(List<Callable<Void>> tasks) {
+		final IOScope callerScope = IOScope.current();
+		List<Callable<Void>> result = new ArrayList<>(tasks.size());
+		for (final Callable<Void> task : tasks) {
+			result.add(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					IOScope scope = IOScope.join(callerScope);
+					try {
+						return task.call();
+					} finally {
+						scope.close();
+					}
+				}
+			});
+		}
+		return result;
+	}
+
+	// Single task is run by calling thread
+	private void run(List<Callable<Void>> tasks) throws StorageException {
+		try {
+			if (tasks.size() == 1) {
+				tasks.get(0).call();
+				return;
+			}
+			for (Future<Void> future : executor.invokeAll(joinScope(tasks))) {
+				future.get();
+			}
+		} catch (ExecutionException e) {
+			throw (e.getCause() instanceof StorageException) ?
+						  (StorageException) e.getCause() :
+						  new StorageException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new StorageException(e);
+		} catch (StorageException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new StorageException(e);
+		}
+	}
+}
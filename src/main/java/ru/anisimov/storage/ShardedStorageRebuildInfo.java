@@ -0,0 +1,28 @@
+package ru.anisimov.storage;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ */
+public class ShardedStorageRebuildInfo implements RebuildInfo {
+	private RebuildInfo[] shardInfo;
+
+	ShardedStorageRebuildInfo(RebuildInfo[] shardInfo) {
+		this.shardInfo = shardInfo;
+	}
+
+	public RebuildInfo getShardInfo(int shard) {
+		return shardInfo[shard];
+	}
+
+	@Override
+	public String getMessage() {
+		StringBuilder result = new StringBuilder();
+		for (int i = 0; i < shardInfo.length; i++) {
+			if (i > 0) {
+				result.append("; ");
+			}
+			result.append("Shard ").append(i).append(": ").append(shardInfo[i].getMessage());
+		}
+		return result.toString();
+	}
+}
@@ -18,10 +18,47 @@ public interface Storage {
 
 	boolean write(long[] keys, byte[][] bytes) throws StorageException;
 
+	// Writes object only if version of key is expectedVersion, 0 means that there should be no object
+	boolean write(long key, byte[] bytes, long expectedVersion) throws StorageException;
+
+	boolean[] write(long[] keys, byte[][] bytes, long[] expectedVersions) throws StorageException;
+
+	// Every write changes version of key, 0 if there's no object. Version should be read before object
+	long getVersion(long key) throws StorageException;
+
+	long[] getVersion(long[] keys) throws StorageException;
+
 	byte[] get(long key) throws StorageException;
 
 	byte[][] get(long[] keys) throws StorageException;
 
+	// Reads only range of object, see ObjectRanges
+	byte[] get(long key, long offset, int length) throws StorageException;
+
+	byte[][] get(long[] keys, long[] offsets, int[] lengths) throws StorageException;
+
+	boolean exists(long key) throws StorageException;
+
+	boolean[] exists(long[] keys) throws StorageException;
+
+	// Size of object without reading it, -1 if there's no object
+	long size(long key) throws StorageException;
+
+	long[] size(long[] keys) throws StorageException;
+
+	// Object expires at expirationTime (milliseconds since epoch, 0 - never) and is absent after it.
+	// Writes clear expiration. Returns false if there's no object
+	boolean expire(long key, long expirationTime) throws StorageException;
+
+	boolean[] expire(long[] keys, long[] expirationTimes) throws StorageException;
+
+	// Removes expired objects, returns their keys
+	long[] removeExpired() throws StorageException;
+
+	// Moves stored data between tiers by reads counted since previous migration, returns count of moved parts
+	// (containers of DirectoryStorage). Storage without tiers moves nothing
+	int migrate() throws StorageException;
+
 	boolean remove(long key) throws StorageException;
 
 	boolean remove(long[] keys) throws StorageException;
@@ -0,0 +1,160 @@
+package ru.anisimov.storage;
+
+import ru.anisimov.storage.exceptions.StorageException;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * Storage decorator which calls wrapped storage under lock of decorator, so storage which is not
+ * thread-safe can be shared by threads through one decorator. Storages of DirectoryStorage.newStorage()
+ * and getStorage() are thread-safe already (SafeStorage serializes their operations), decorator is needed
+ * for them only to make sequences of calls atomic.
+ *
+ * Sequence of calls is atomic if it is made in block synchronized on decorator:
+ *   synchronized (storage) { if (storage.getVersion(key) == version) { storage.write(key, bytes); } }
+ *
+ */
+public class SynchronizedStorage implements Storage {
+	private final Storage storage;
+
+	public SynchronizedStorage(Storage storage) {
+		this.storage = storage;
+	}
+
+	/**
+	 * Returns given storage if it is synchronized already, so wrapped storage is not locked twice.
+	 */
+	public static SynchronizedStorage of(Storage storage) {
+		return (storage instanceof SynchronizedStorage) ? (SynchronizedStorage) storage : new SynchronizedStorage(storage);
+	}
+
+	@Override
+	public synchronized long generateKey() throws StorageException {
+		return storage.generateKey();
+	}
+
+	@Override
+	public synchronized long[] generateKey(int count) throws StorageException {
+		return storage.generateKey(count);
+	}
+
+	@Override
+	public synchronized long write(byte[] bytes) throws StorageException {
+		return storage.write(bytes);
+	}
+
+	@Override
+	public synchronized long[] write(byte[][] bytes) throws StorageException {
+		return storage.write(bytes);
+	}
+
+	@Override
+	public synchronized boolean write(long key, byte[] bytes) throws StorageException {
+		return storage.write(key, bytes);
+	}
+
+	@Override
+	public synchronized boolean write(long[] keys, byte[][] bytes) throws StorageException {
+		return storage.write(keys, bytes);
+	}
+
+	@Override
+	public synchronized boolean write(long key, byte[] bytes, long expectedVersion) throws StorageException {
+		return storage.write(key, bytes, expectedVersion);
+	}
+
+	@Override
+	public synchronized boolean[] write(long[] keys, byte[][] bytes, long[] expectedVersions) throws StorageException {
+		return storage.write(keys, bytes, expectedVersions);
+	}
+
+	@Override
+	public synchronized long getVersion(long key) throws StorageException {
+		return storage.getVersion(key);
+	}
+
+	@Override
+	public synchronized long[] getVersion(long[] keys) throws StorageException {
+		return storage.getVersion(keys);
+	}
+
+	@Override
+	public synchronized byte[] get(long key) throws StorageException {
+		return storage.get(key);
+	}
+
+	@Override
+	public synchronized byte[][] get(long[] keys) throws StorageException {
+		return storage.get(keys);
+	}
+
+	@Override
+	public synchronized byte[] get(long key, long offset, int length) throws StorageException {
+		return storage.get(key, offset, length);
+	}
+
+	@Override
+	public synchronized byte[][] get(long[] keys, long[] offsets, int[] lengths) throws StorageException {
+		return storage.get(keys, offsets, lengths);
+	}
+
+	@Override
+	public synchronized boolean exists(long key) throws StorageException {
+		return storage.exists(key);
+	}
+
+	@Override
+	public synchronized boolean[] exists(long[] keys) throws StorageException {
+		return storage.exists(keys);
+	}
+
+	@Override
+	public synchronized long size(long key) throws StorageException {
+		return storage.size(key);
+	}
+
+	@Override
+	public synchronized long[] size(long[] keys) throws StorageException {
+		return storage.size(keys);
+	}
+
+	@Override
+	public synchronized boolean expire(long key, long expirationTime) throws StorageException {
+		return storage.expire(key, expirationTime);
+	}
+
+	@Override
+	public synchronized boolean[] expire(long[] keys, long[] expirationTimes) throws StorageException {
+		return storage.expire(keys, expirationTimes);
+	}
+
+	@Override
+	public synchronized long[] removeExpired() throws StorageException {
+		return storage.removeExpired();
+	}
+
+	@Override
+	public synchronized int migrate() throws StorageException {
+		return storage.migrate();
+	}
+
+	@Override
+	public synchronized boolean remove(long key) throws StorageException {
+		return storage.remove(key);
+	}
+
+	@Override
+	public synchronized boolean remove(long[] keys) throws StorageException {
+		return storage.remove(keys);
+	}
+
+	@Override
+	public synchronized RebuildInfo rebuild() throws StorageException {
+		return storage.rebuild();
+	}
+
+	@Override
+	public long getMaxObjectSize() {
+		return storage.getMaxObjectSize();
+	}
+}
@@ -0,0 +1,40 @@
+package ru.anisimov.storage.commons;
+
+import ru.anisimov.storage.exceptions.StorageException;
+
+import java.util.Arrays;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * Range of object is at most length bytes starting with offset.
+ * Range starting beyond end of object is empty.
+ *
+ */
+public final class ObjectRanges {
+	private static final String WRONG_RANGE_MESSAGE = "Offset and length should not be negative";
+	private static final String NULL_OR_NOT_SAME_ARRAY_MESSAGE = "Input arrays is null or not same size";
+
+	private ObjectRanges() {
+	}
+
+	public static void check(long[] keys, long[] offsets, int[] lengths) throws StorageException {
+		if (keys == null || offsets == null || lengths == null ||
+					keys.length != offsets.length || keys.length != lengths.length) {
+			throw new StorageException(NULL_OR_NOT_SAME_ARRAY_MESSAGE);
+		}
+		for (int i = 0; i < keys.length; i++) {
+			if (offsets[i] < 0 || lengths[i] < 0) {
+				throw new StorageException(WRONG_RANGE_MESSAGE);
+			}
+		}
+	}
+
+	public static byte[] slice(byte[] object, long offset, int length) {
+		if (object == null) {
+			return null;
+		}
+		int from = (int) Math.min(offset, object.length);
+		return Arrays.copyOfRange(object, from, from + Math.min(length, object.length - from));
+	}
+}
@@ -0,0 +1,146 @@
+package ru.anisimov.storage.compression;
+
+import ru.anisimov.storage.commons.TypeSizes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * Compression codecs for stored objects. Code of codec is stored in every object record.
+ *
+ * Compressed data structure:
+ * |original size - 4 bytes| |compressed bytes|
+ *
+ */
+public enum Compression {
+	NONE((byte) 0) {
+		@Override
+		public byte[] compress(byte[] bytes) {
+			return bytes;
+		}
+
+		@Override
+		public byte[] decompress(byte[] bytes) {
+			return bytes;
+		}
+
+		@Override
+		protected byte[] compressBlock(byte[] bytes) {
+			return bytes;
+		}
+
+		@Override
+		protected byte[] decompressBlock(byte[] block, int originalSize) throws IOException {
+			if (block.length != originalSize) {
+				throw new IOException("Malformed uncompressed block");
+			}
+			return block;
+		}
+	},
+	LZ4((byte) 1) {
+		@Override
+		protected byte[] compressBlock(byte[] bytes) {
+			return LZ4BlockCompressor.compress(bytes);
+		}
+
+		@Override
+		protected byte[] decompressBlock(byte[] block, int originalSize) throws IOException {
+			return LZ4BlockCompressor.decompress(block, originalSize);
+		}
+	},
+	DEFLATE((byte) 2) {
+		@Override
+		protected byte[] compressBlock(byte[] bytes) {
+			Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+			try {
+				deflater.setInput(bytes);
+				deflater.finish();
+				ByteArrayOutputStream result = new ByteArrayOutputStream(bytes.length / 2 + 16);
+				byte[] buffer = new byte[BUFFER_SIZE];
+				while (!deflater.finished()) {
+					int count = deflater.deflate(buffer);
+					result.write(buffer, 0, count);
+				}
+				return result.toByteArray();
+			} finally {
+				deflater.end();
+			}
+		}
+
+		@Override
+		protected byte[] decompressBlock(byte[] block, int originalSize) throws IOException {
+			Inflater inflater = new Inflater();
+			try {
+				inflater.setInput(block);
+				byte[] result = new byte[originalSize];
+				int count = 0;
+				while (count < originalSize && !inflater.finished()) {
+					int inflated = inflater.inflate(result, count, originalSize - count);
+					if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+						break;
+					}
+					count += inflated;
+				}
+				if (count != originalSize) {
+					throw new IOException("Malformed deflate block");
+				}
+				return result;
+			} catch (DataFormatException e) {
+				throw new IOException(e);
+			} finally {
+				inflater.end();
+			}
+		}
+	};
+
+	private static final int BUFFER_SIZE = 4096;
+
+	private final byte code;
+
+	Compression(byte code) {
+		this.code = code;
+	}
+
+	public byte getCode() {
+		return code;
+	}
+
+	public static Compression forCode(byte code) throws IOException {
+		for (Compression compression : values()) {
+			if (compression.code == code) {
+				return compression;
+			}
+		}
+		throw new IOException("Unknown compression code: " + code);
+	}
+
+	public byte[] compress(byte[] bytes) {
+		byte[] block = compressBlock(bytes);
+		return ByteBuffer.allocate(TypeSizes.BYTES_IN_INT + block.length)
+					   .putInt(bytes.length)
+					   .put(block)
+					   .array();
+	}
+
+	public byte[] decompress(byte[] bytes) throws IOException {
+		if (bytes.length < TypeSizes.BYTES_IN_INT) {
+			throw new IOException("Compressed data is too short");
+		}
+		int originalSize = ByteBuffer.wrap(bytes).getInt();
+		if (originalSize < 0) {
+			throw new IOException("Wrong original size: " + originalSize);
+		}
+		return decompressBlock(Arrays.copyOfRange(bytes, TypeSizes.BYTES_IN_INT, bytes.length), originalSize);
+	}
+
+	protected abstract byte[] compressBlock(byte[] bytes);
+
+	protected abstract byte[] decompressBlock(byte[] block, int originalSize) throws IOException;
+}
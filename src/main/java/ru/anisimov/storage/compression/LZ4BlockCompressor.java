@@ -0,0 +1,194 @@
+package ru.anisimov.storage.compression;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * Fast LZ77-style compressor producing blocks in LZ4 block format:
+ * |token - 1 byte| |literals length extension| |literals| |match offset - 2 bytes| |match length extension| ...
+ *
+ * Token high 4 bits - literals length, low 4 bits - match length minus MIN_MATCH.
+ * Value 15 means that length continues in following bytes (each 255 means "add and continue").
+ * Last sequence contains only literals.
+ *
+ */
+public final class LZ4BlockCompressor {
+	private static final int MIN_MATCH = 4;
+	private static final int LAST_LITERALS = 5;
+	private static final int MATCH_FIND_LIMIT = 12;
+	private static final int MAX_OFFSET = 0xFFFF;
+
+	private static final int HASH_LOG = 12;
+	private static final int SKIP_STRENGTH = 6;
+
+	private static final int RUN_MASK = 0x0F;
+	private static final int ML_BITS = 4;
+
+	private LZ4BlockCompressor() {
+		throw new UnsupportedOperationException();
+	}
+
+	public static int maxCompressedLength(int length) {
+		return length + (length / 255) + 16;
+	}
+
+	public static byte[] compress(byte[] src) {
+		int length = src.length;
+		byte[] dst = new byte[maxCompressedLength(length)];
+		int op = 0;
+		int anchor = 0;
+
+		if (length >= MATCH_FIND_LIMIT + 1) {
+			int[] hashTable = new int[1 << HASH_LOG];
+			Arrays.fill(hashTable, -1);
+
+			int matchLimit = length - LAST_LITERALS;
+			int lastMatchStart = length - MATCH_FIND_LIMIT;
+			int ip = 0;
+			int searchCount = 1 << SKIP_STRENGTH;
+
+			while (ip <= lastMatchStart) {
+				int sequence = readInt(src, ip);
+				int hash = hash(sequence);
+				int ref = hashTable[hash];
+				hashTable[hash] = ip;
+				if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+					ip += searchCount++ >>> SKIP_STRENGTH;
+					continue;
+				}
+				searchCount = 1 << SKIP_STRENGTH;
+
+				while (ip > anchor && ref > 0 && src[ip - 1] == src[ref - 1]) {
+					ip--;
+					ref--;
+				}
+
+				int matchLength = MIN_MATCH;
+				while (ip + matchLength < matchLimit && src[ip + matchLength] == src[ref + matchLength]) {
+					matchLength++;
+				}
+
+				op = writeSequence(src, anchor, ip - anchor, ip - ref, matchLength, dst, op);
+				ip += matchLength;
+				anchor = ip;
+			}
+		}
+
+		op = writeLastLiterals(src, anchor, length - anchor, dst, op);
+		return Arrays.copyOf(dst, op);
+	}
+
+	public static byte[] decompress(byte[] src, int originalLength) throws IOException {
+		byte[] dst = new byte[originalLength];
+		int ip = 0;
+		int op = 0;
+		try {
+			while (true) {
+				int token = src[ip++] & 0xFF;
+
+				int literalsLength = token >>> ML_BITS;
+				if (literalsLength == RUN_MASK) {
+					int b;
+					do {
+						b = src[ip++] & 0xFF;
+						literalsLength += b;
+					} while (b == 255);
+				}
+				System.arraycopy(src, ip, dst, op, literalsLength);
+				ip += literalsLength;
+				op += literalsLength;
+				if (ip >= src.length) {
+					break;
+				}
+
+				int offset = (src[ip] & 0xFF) | ((src[ip + 1] & 0xFF) << 8);
+				ip += 2;
+				int matchLength = token & RUN_MASK;
+				if (matchLength == RUN_MASK) {
+					int b;
+					do {
+						b = src[ip++] & 0xFF;
+						matchLength += b;
+					} while (b == 255);
+				}
+				matchLength += MIN_MATCH;
+
+				int ref = op - offset;
+				if (offset == 0 || ref < 0 || op + matchLength > originalLength) {
+					throw new IOException("Malformed LZ4 block");
+				}
+				if (offset >= matchLength) {
+					System.arraycopy(dst, ref, dst, op, matchLength);
+				} else {
+					for (int i = 0; i < matchLength; i++) {
+						dst[op + i] = dst[ref + i];
+					}
+				}
+				op += matchLength;
+			}
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new IOException("Malformed LZ4 block", e);
+		}
+		if (op != originalLength) {
+			throw new IOException("Malformed LZ4 block");
+		}
+		return dst;
+	}
+
+	private static int writeSequence(byte[] src, int literalsStart, int literalsLength, int offset, int matchLength, byte[] dst, int op) {
+		int tokenPosition = op++;
+		int token = writeLength(literalsLength, dst, op) << ML_BITS;
+		op += extensionSize(literalsLength);
+		System.arraycopy(src, literalsStart, dst, op, literalsLength);
+		op += literalsLength;
+
+		dst[op++] = (byte) offset;
+		dst[op++] = (byte) (offset >>> 8);
+
+		token |= writeLength(matchLength - MIN_MATCH, dst, op);
+		op += extensionSize(matchLength - MIN_MATCH);
+		dst[tokenPosition] = (byte) token;
+		return op;
+	}
+
+	private static int writeLastLiterals(byte[] src, int literalsStart, int literalsLength, byte[] dst, int op) {
+		int tokenPosition = op++;
+		int token = writeLength(literalsLength, dst, op) << ML_BITS;
+		op += extensionSize(literalsLength);
+		System.arraycopy(src, literalsStart, dst, op, literalsLength);
+		op += literalsLength;
+		dst[tokenPosition] = (byte) token;
+		return op;
+	}
+
+	// Writes length extension bytes (if any) and returns value for the token nibble
+	private static int writeLength(int length, byte[] dst, int op) {
+		if (length < RUN_MASK) {
+			return length;
+		}
+		int rest = length - RUN_MASK;
+		while (rest >= 255) {
+			dst[op++] = (byte) 255;
+			rest -= 255;
+		}
+		dst[op] = (byte) rest;
+		return RUN_MASK;
+	}
+
+	private static int extensionSize(int length) {
+		return (length < RUN_MASK) ? 0 : (length - RUN_MASK) / 255 + 1;
+	}
+
+	private static int hash(int sequence) {
+		return (sequence * -1640531535) >>> (32 - HASH_LOG);
+	}
+
+	private static int readInt(byte[] src, int position) {
+		return (src[position] & 0xFF)
+					   | ((src[position + 1] & 0xFF) << 8)
+					   | ((src[position + 2] & 0xFF) << 16)
+					   | ((src[position + 3] & 0xFF) << 24);
+	}
+}
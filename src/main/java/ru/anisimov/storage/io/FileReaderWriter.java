@@ -10,39 +10,58 @@ import java.nio.channels.FileChannel;
 
 /**
  * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * Opens, reads and writes are counted in IOCounters by role of file.
+ *
  */
 public abstract class FileReaderWriter implements AutoCloseable {
 	private FileChannel channel;
+	private FileRole role;
 
-	public static FileReaderWriter openForReading(final String fileName) throws IOException {
+	public static FileReaderWriter openForReading(String fileName) throws IOException {
+		return openForReading(fileName, FileRole.OTHER);
+	}
+
+	public static FileReaderWriter openForReading(final String fileName, FileRole role) throws IOException {
 		return new FileReaderWriter() {
 			@Override
 			protected FileChannel getChannel() throws IOException {
 				return new FileInputStream(fileName).getChannel();
 			}
-		}.prepare();
+		}.prepare(role);
+	}
+
+	public static FileReaderWriter openForWriting(String fileName) throws IOException {
+		return openForWriting(fileName, FileRole.OTHER);
 	}
 
-	public static FileReaderWriter openForWriting(final String fileName) throws IOException {
+	public static FileReaderWriter openForWriting(final String fileName, FileRole role) throws IOException {
 		return new FileReaderWriter() {
 			@Override
 			protected FileChannel getChannel() throws IOException {
 				return new RandomAccessFile(fileName, "rw").getChannel();
 			}
-		}.prepare();
+		}.prepare(role);
+	}
+
+	public static FileReaderWriter openForReadingWriting(String fileName) throws IOException {
+		return openForReadingWriting(fileName, FileRole.OTHER);
 	}
 
-	public static FileReaderWriter openForReadingWriting(final String fileName) throws IOException {
+	public static FileReaderWriter openForReadingWriting(final String fileName, FileRole role) throws IOException {
 		return new FileReaderWriter() {
 			@Override
 			protected FileChannel getChannel() throws IOException {
 				return new RandomAccessFile(fileName, "rw").getChannel();
 			}
-		}.prepare();
+		}.prepare(role);
 	}
 
-	protected FileReaderWriter prepare() throws IOException {
+	protected FileReaderWriter prepare(FileRole role) throws IOException {
+		long start = System.nanoTime();
+		this.role = role;
 		this.channel = getChannel();
+		IOCounters.recordOpen(role, System.nanoTime() - start);
 		return this;
 	}
 
@@ -50,7 +69,9 @@ public abstract class FileReaderWriter implements AutoCloseable {
 
 	public byte[] readByte(long position, int count) throws IOException {
 		ByteBuffer buffer = ByteBuffer.allocate(count);
-		channel.read(buffer, position);
+		long start = System.nanoTime();
+		int read = channel.read(buffer, position);
+		IOCounters.recordRead(role, Math.max(read, 0), System.nanoTime() - start);
 		return buffer.array();
 	}
 
@@ -70,18 +91,39 @@ public abstract class FileReaderWriter implements AutoCloseable {
 	}
 
 	public void writeBytes(long position, byte... bytes) throws IOException {
-		ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, bytes.length);
-		buffer.put(bytes);
+		write(position, ByteBuffer.wrap(bytes));
 	}
 
 	public void writeLong(long position, long number) throws IOException {
-		ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, TypeSizes.BYTES_IN_LONG);
-		buffer.putLong(number);
+		ByteBuffer buffer = ByteBuffer.allocate(TypeSizes.BYTES_IN_LONG);
+		buffer.putLong(number).flip();
+		write(position, buffer);
 	}
 
 	public void writeInt(long position, int number) throws IOException {
-		ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, TypeSizes.BYTES_IN_INT);
-		buffer.putInt(number);
+		ByteBuffer buffer = ByteBuffer.allocate(TypeSizes.BYTES_IN_INT);
+		buffer.putInt(number).flip();
+		write(position, buffer);
+	}
+
+	// Positional writes instead of mapping: every mapping is held until its buffer is collected,
+	// so frequent small writes could exhaust mappings limit of process
+	private void write(long position, ByteBuffer buffer) throws IOException {
+		long start = System.nanoTime();
+		int size = buffer.remaining();
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+		IOCounters.recordWrite(role, size, System.nanoTime() - start);
+	}
+
+	// Writes content to storage device, so later writes can't reach it before earlier ones
+	public void force() throws IOException {
+		channel.force(false);
+	}
+
+	public void truncate(long size) throws IOException {
+		channel.truncate(size);
 	}
 
 
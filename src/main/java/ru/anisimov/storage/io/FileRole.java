@@ -0,0 +1,15 @@
+package ru.anisimov.storage.io;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * What file is used for. I/O of FileReaderWriter is counted by roles (see IOCounters).
+ *
+ */
+public enum FileRole {
+	INDEX,
+	GENERATOR,
+	CONTAINER,
+	SAFETY,
+	OTHER
+}
@@ -0,0 +1,120 @@
+package ru.anisimov.storage.io;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * Counters of file I/O by file roles: opens, read and write calls, bytes and time spent in these calls.
+ *
+ * FileReaderWriter counts all I/O in global counters (see getGlobal()) and in counters of open scopes
+ * of calling thread (see IOScope). Counters are thread-safe.
+ *
+ */
+public class IOCounters {
+	private static final int OPENS = 0;
+	private static final int READS = 1;
+	private static final int WRITES = 2;
+	private static final int BYTES_READ = 3;
+	private static final int BYTES_WRITTEN = 4;
+	private static final int NANOS = 5;
+	private static final int COUNTERS_COUNT = 6;
+
+	private static final IOCounters GLOBAL = new IOCounters();
+
+	private final AtomicLongArray counters = new AtomicLongArray(FileRole.values().length * COUNTERS_COUNT);
+
+	public static IOCounters getGlobal() {
+		return GLOBAL;
+	}
+
+	static void recordOpen(FileRole role, long nanos) {
+		record(role, OPENS, 0, nanos);
+	}
+
+	static void recordRead(FileRole role, long bytes, long nanos) {
+		record(role, READS, bytes, nanos);
+	}
+
+	static void recordWrite(FileRole role, long bytes, long nanos) {
+		record(role, WRITES, bytes, nanos);
+	}
+
+	private static void record(FileRole role, int call, long bytes, long nanos) {
+		GLOBAL.add(role, call, bytes, nanos);
+		for (IOScope scope = IOScope.current(); scope != null; scope = scope.getParent()) {
+			if (scope.getCounters() != null) {
+				scope.getCounters().add(role, call, bytes, nanos);
+			}
+		}
+	}
+
+	private void add(FileRole role, int call, long bytes, long nanos) {
+		int start = role.ordinal() * COUNTERS_COUNT;
+		counters.incrementAndGet(start + call);
+		if (call == READS) {
+			counters.addAndGet(start + BYTES_READ, bytes);
+		} else if (call == WRITES) {
+			counters.addAndGet(start + BYTES_WRITTEN, bytes);
+		}
+		counters.addAndGet(start + NANOS, nanos);
+	}
+
+	private long get(FileRole role, int counter) {
+		return counters.get(role.ordinal() * COUNTERS_COUNT + counter);
+	}
+
+	public long getOpens(FileRole role) {
+		return get(role, OPENS);
+	}
+
+	public long getReads(FileRole role) {
+		return get(role, READS);
+	}
+
+	public long getWrites(FileRole role) {
+		return get(role, WRITES);
+	}
+
+	public long getBytesRead(FileRole role) {
+		return get(role, BYTES_READ);
+	}
+
+	public long getBytesWritten(FileRole role) {
+		return get(role, BYTES_WRITTEN);
+	}
+
+	public long getNanos(FileRole role) {
+		return get(role, NANOS);
+	}
+
+	public void add(IOCounters other) {
+		for (int i = 0; i < counters.length(); i++) {
+			counters.addAndGet(i, other.counters.get(i));
+		}
+	}
+
+	public void reset() {
+		for (int i = 0; i < counters.length(); i++) {
+			counters.set(i, 0);
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+		for (FileRole role : FileRole.values()) {
+			if (getOpens(role) == 0 && getReads(role) == 0 && getWrites(role) == 0) {
+				continue;
+			}
+			if (result.length() > 0) {
+				result.append("; ");
+			}
+			result.append(role).append(": opens ").append(getOpens(role))
+					.append(", reads ").append(getReads(role)).append(" (").append(getBytesRead(role)).append(" bytes)")
+					.append(", writes ").append(getWrites(role)).append(" (").append(getBytesWritten(role)).append(" bytes)")
+					.append(", ").append(getNanos(role) / 1000).append(" us");
+		}
+		return result.toString();
+	}
+}
@@ -0,0 +1,65 @@
+package ru.anisimov.storage.io;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * While scope is open, file I/O of its thread is counted in scope counters, and in counters of outer scopes.
+ * Scopes should be closed in reverse order:
+ *
+ * IOScope scope = IOScope.open(counters);
+ * try {
+ *     storage.get(keys);
+ * } finally {
+ *     scope.close();
+ * }
+ *
+ * Code, which passes work to other threads, should call join(current()) in these threads,
+ * so their I/O is counted in scopes of caller.
+ *
+ */
+public class IOScope implements AutoCloseable {
+	private static final ThreadLocal<IOScope> CURRENT = new ThreadLocal<>();
+
+	private final IOCounters counters;
+	private final IOScope parent;
+	private final IOScope previous;
+
+	private IOScope(IOCounters counters, IOScope parent) {
+		this.counters = counters;
+		this.parent = parent;
+		this.previous = CURRENT.get();
+		CURRENT.set(this);
+	}
+
+	public static IOScope open(IOCounters counters) {
+		return new IOScope(counters, CURRENT.get());
+	}
+
+	/**
+	 * Counts I/O of current thread in scopes of other thread, could be null.
+	 */
+	public static IOScope join(IOScope scope) {
+		return new IOScope(null, scope);
+	}
+
+	public static IOScope current() {
+		return CURRENT.get();
+	}
+
+	IOCounters getCounters() {
+		return counters;
+	}
+
+	IOScope getParent() {
+		return parent;
+	}
+
+	@Override
+	public void close() {
+		if (previous == null) {
+			CURRENT.remove();
+		} else {
+			CURRENT.set(previous);
+		}
+	}
+}
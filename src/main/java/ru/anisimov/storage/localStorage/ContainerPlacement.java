@@ -0,0 +1,14 @@
+package ru.anisimov.storage.localStorage;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * Chooses data directory for new container.
+ *
+ */
+public enum ContainerPlacement {
+	/** Directories are used one after another by container number */
+	ROUND_ROBIN,
+	/** Directory with the most usable space is used */
+	MOST_FREE_SPACE
+}
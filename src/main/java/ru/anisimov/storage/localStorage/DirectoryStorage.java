@@ -3,10 +3,13 @@ package ru.anisimov.storage.localStorage;
 import ru.anisimov.storage.RebuildInfo;
 import ru.anisimov.storage.SafeStorage;
 import ru.anisimov.storage.Storage;
+import ru.anisimov.storage.commons.ObjectRanges;
 import ru.anisimov.storage.exceptions.ContainerException;
 import ru.anisimov.storage.exceptions.IDGeneratorException;
+import ru.anisimov.storage.exceptions.IndexException;
 import ru.anisimov.storage.exceptions.StorageException;
 import ru.anisimov.storage.io.FileReaderWriter;
+import ru.anisimov.storage.io.FileRole;
 
 import java.io.File;
 import java.io.FilenameFilter;
@@ -15,7 +18,15 @@ import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.NotDirectoryException;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 /**
  * @author Ivan Anisimov (ivananisimov2010@gmail.com)
@@ -36,15 +47,17 @@ public class DirectoryStorage implements Storage {
 	private ObjectContainerSupervisor container;
 
 	private String directoryName;
+	private DirectoryStorageSettings settings;
 
-	private DirectoryStorage(String directoryName, boolean newStorage) throws StorageException {
+	private DirectoryStorage(String directoryName, boolean newStorage, DirectoryStorageSettings settings) throws StorageException {
 		try {
 			checkDirectoryName(directoryName);
 			this.directoryName = directoryName;
+			this.settings = settings;
 
 			generator = new FileBasedIDGenerator(directoryName + SLASH + GENERATOR_FILE_NAME, newStorage);
-			index = new FileBasedIndex(directoryName + SLASH + INDEX_FILE_NAME, newStorage);
-			container = new ObjectContainerSupervisor(directoryName, CONTAINER_FILE_PREFIX, newStorage);
+			index = new FileBasedIndex(directoryName + SLASH + INDEX_FILE_NAME, newStorage, settings);
+			container = new ObjectContainerSupervisor(directoryName, CONTAINER_FILE_PREFIX, newStorage, settings);
 		} catch (IOException | ContainerException e) {
 			throw new StorageException(e);
 		}
@@ -61,11 +74,61 @@ public class DirectoryStorage implements Storage {
 	}
 
 	public static Storage newStorage(String directoryName) throws StorageException {
-		return new SafeStorage(new DirectoryStorage(directoryName, true), directoryName + SLASH + SAFETY_FILE_NAME, true);
+		return newStorage(directoryName, DirectoryStorageSettings.DEFAULT);
+	}
+
+	public static Storage newStorage(String directoryName, DirectoryStorageSettings settings) throws StorageException {
+		return new SafeStorage(new DirectoryStorage(directoryName, true, settings), directoryName + SLASH + SAFETY_FILE_NAME, true);
 	}
 
 	public static Storage getStorage(String directoryName) throws StorageException {
-		return new SafeStorage(new DirectoryStorage(directoryName, false), directoryName + SLASH + SAFETY_FILE_NAME, false);
+		return getStorage(directoryName, DirectoryStorageSettings.DEFAULT);
+	}
+
+	public static Storage getStorage(String directoryName, DirectoryStorageSettings settings) throws StorageException {
+		return new SafeStorage(new DirectoryStorage(directoryName, false, settings), directoryName + SLASH + SAFETY_FILE_NAME, false);
+	}
+
+	/**
+	 * Creates new storage in directory and returns importer, which fills it (see DirectoryStorageImporter).
+	 */
+	public static DirectoryStorageImporter newImporter(String directoryName, DirectoryStorageSettings settings) throws StorageException {
+		newStorage(directoryName, settings);
+		try {
+			return new DirectoryStorageImporter(directoryName, directoryName + SLASH + SAFETY_FILE_NAME, settings,
+													   new ObjectContainerSupervisor(directoryName, CONTAINER_FILE_PREFIX, false, settings),
+													   new FileBasedIndex(directoryName + SLASH + INDEX_FILE_NAME, false, settings),
+													   new FileBasedIDGenerator(directoryName + SLASH + GENERATOR_FILE_NAME, false));
+		} catch (IOException | ContainerException e) {
+			throw new StorageException(e);
+		}
+	}
+
+	/**
+	 * Returns scanner of all live objects of storage in directory (see DirectoryStorageScanner). Files of storage are only read.
+	 */
+	public static DirectoryStorageScanner newScanner(String directoryName, DirectoryStorageSettings settings) throws StorageException {
+		try {
+			checkDirectoryName(directoryName);
+			FileBasedIndex index = new FileBasedIndex(directoryName + SLASH + INDEX_FILE_NAME, false, settings);
+			ObjectContainerSupervisor supervisor = ObjectContainerSupervisor.openForReading(directoryName, CONTAINER_FILE_PREFIX, settings);
+			return new DirectoryStorageScanner(index, supervisor, settings, supervisor.findContainerFiles(), true,
+													  settings.isDeduplication() ? index.getIDsByAddress() : null);
+		} catch (IOException | ContainerException | IndexException e) {
+			throw new StorageException(e);
+		}
+	}
+
+	/**
+	 * Returns statistics of index of storage in directory (see IndexStatistics).
+	 */
+	public static IndexStatistics getIndexStatistics(String directoryName, DirectoryStorageSettings settings) throws StorageException {
+		try {
+			checkDirectoryName(directoryName);
+			return new FileBasedIndex(directoryName + SLASH + INDEX_FILE_NAME, false, settings).getStatistics();
+		} catch (IOException | IndexException e) {
+			throw new StorageException(e);
+		}
 	}
 
 	@Override
@@ -95,8 +158,7 @@ public class DirectoryStorage implements Storage {
 		checkBytes(bytes);
 		try {
 			long[] keys = generateKey(bytes.length);
-			ObjectAddress[] addresses = container.put(keys, bytes);
-			index.putAddress(keys, addresses);
+			putObjects(keys, bytes);
 			return keys;
 		} catch (Exception e) {
 			throw new StorageException(e);
@@ -123,14 +185,188 @@ public class DirectoryStorage implements Storage {
 		}
 		checkBytes(bytes);
 		try {
-			ObjectAddress[] addresses = container.put(keys, bytes);
-			index.putAddress(keys, addresses);
+			ObjectAddress[] oldAddresses = index.getAddress(keys, true);
+			if (settings.isOverwriteInPlace() && !settings.isDeduplication()) {
+				List<Integer> notOverwritten = overwrite(keys, bytes, oldAddresses);
+				if (notOverwritten.size() < keys.length) {
+					byte[][] restBytes = new byte[notOverwritten.size()][];
+					ObjectAddress[] restAddresses = new ObjectAddress[notOverwritten.size()];
+					for (int i = 0; i < restBytes.length; i++) {
+						restBytes[i] = bytes[notOverwritten.get(i)];
+						restAddresses[i] = oldAddresses[notOverwritten.get(i)];
+					}
+					keys = getKeys(keys, notOverwritten);
+					bytes = restBytes;
+					oldAddresses = restAddresses;
+				}
+			}
+			if (keys.length > 0) {
+				putObjects(keys, bytes);
+				container.remove(getReplacedAddresses(oldAddresses));
+			}
 			return true;
 		} catch (Exception e) {
 			throw new StorageException(e);
 		}
 	}
 
+	@Override
+	public boolean write(long key, byte[] bytes, long expectedVersion) throws StorageException {
+		return write(new long[] {key}, new byte[][] {bytes}, new long[] {expectedVersion})[0];
+	}
+
+	// Versions are checked and objects are written by one call, repeated key could be written only once
+	@Override
+	public boolean[] write(long[] keys, byte[][] bytes, long[] expectedVersions) throws StorageException {
+		if (bytes == null || keys == null || expectedVersions == null ||
+					bytes.length != keys.length || expectedVersions.length != keys.length) {
+			throw new StorageException(NULL_OR_NOT_SAME_ARRAY_MESSAGE);
+		}
+		checkBytes(bytes);
+		long[] versions = getVersion(keys);
+		boolean[] result = new boolean[keys.length];
+		Set<Long> writtenKeys = new HashSet<>();
+		for (int i = 0; i < keys.length; i++) {
+			result[i] = versions[i] == expectedVersions[i] && writtenKeys.add(keys[i]);
+		}
+		if (writtenKeys.isEmpty()) {
+			return result;
+		}
+		long[] matchedKeys = new long[writtenKeys.size()];
+		byte[][] matchedBytes = new byte[writtenKeys.size()][];
+		int count = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (result[i]) {
+				matchedKeys[count] = keys[i];
+				matchedBytes[count++] = bytes[i];
+			}
+		}
+		write(matchedKeys, matchedBytes);
+		return result;
+	}
+
+	@Override
+	public long getVersion(long key) throws StorageException {
+		return getVersion(new long[] {key})[0];
+	}
+
+	@Override
+	public long[] getVersion(long[] keys) throws StorageException {
+		if (keys == null) {
+			throw new StorageException(NULL_ARRAY_MESSAGE);
+		}
+		try {
+			return index.getVersion(keys);
+		} catch (Exception e) {
+			throw new StorageException(e);
+		}
+	}
+
+	/**
+	 * Writes objects over records of their keys, if they fit (see ObjectContainer.overwriteBytes()).
+	 * Inline objects, objects small enough to become inline and repeated keys are not overwritten.
+	 * Returns indices of not written objects.
+	 */
+	private List<Integer> overwrite(long[] keys, byte[][] bytes, ObjectAddress[] addresses) throws ContainerException, IndexException {
+		int inlineCapacity = index.getInlineCapacity();
+		Set<Long> seenKeys = new HashSet<>();
+		Set<Long> repeatedKeys = new HashSet<>();
+		for (long key : keys) {
+			if (!seenKeys.add(key)) {
+				repeatedKeys.add(key);
+			}
+		}
+		ObjectAddress[] candidates = new ObjectAddress[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			boolean inline = inlineCapacity > 0 && bytes[i].length <= inlineCapacity;
+			candidates[i] = (inline || repeatedKeys.contains(keys[i])) ? ObjectAddress.EMPTY_ADDRESS : addresses[i];
+		}
+		boolean[] overwritten = container.overwrite(candidates, keys, bytes);
+
+		List<Integer> result = new ArrayList<>();
+		List<Integer> overwrittenIndices = new ArrayList<>();
+		for (int i = 0; i < keys.length; i++) {
+			if (overwritten[i]) {
+				overwrittenIndices.add(i);
+			} else {
+				result.add(i);
+			}
+		}
+		// Versions and expiration times are kept in cells, so cells of overwritten keys are updated anyway
+		if (!overwrittenIndices.isEmpty() && (index.hasVersions() || index.hasExpiration())) {
+			ObjectAddress[] overwrittenAddresses = new ObjectAddress[overwrittenIndices.size()];
+			for (int i = 0; i < overwrittenAddresses.length; i++) {
+				overwrittenAddresses[i] = addresses[overwrittenIndices.get(i)];
+			}
+			index.putAddress(getKeys(keys, overwrittenIndices), overwrittenAddresses);
+		}
+		return result;
+	}
+
+	private static long[] getKeys(long[] keys, List<Integer> indices) {
+		long[] result = new long[indices.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = keys[indices.get(i)];
+		}
+		return result;
+	}
+
+	private void putObjects(long[] keys, byte[][] bytes) throws ContainerException, IndexException {
+		int inlineCapacity = index.getInlineCapacity();
+		ObjectAddress[] addresses = new ObjectAddress[keys.length];
+		List<Integer> containerObjects = new ArrayList<>(keys.length);
+		for (int i = 0; i < keys.length; i++) {
+			if (inlineCapacity > 0 && bytes[i].length <= inlineCapacity) {
+				addresses[i] = ObjectAddress.inline(bytes[i]);
+			} else {
+				containerObjects.add(i);
+			}
+		}
+
+		if (containerObjects.size() == keys.length) {
+			addresses = container.put(keys, bytes);
+		} else if (!containerObjects.isEmpty()) {
+			long[] containerKeys = new long[containerObjects.size()];
+			byte[][] containerBytes = new byte[containerObjects.size()][];
+			for (int i = 0; i < containerKeys.length; i++) {
+				containerKeys[i] = keys[containerObjects.get(i)];
+				containerBytes[i] = bytes[containerObjects.get(i)];
+			}
+			ObjectAddress[] containerAddresses = container.put(containerKeys, containerBytes);
+			for (int i = 0; i < containerKeys.length; i++) {
+				addresses[containerObjects.get(i)] = containerAddresses[i];
+			}
+		}
+		index.putAddress(keys, addresses);
+	}
+
+	/**
+	 * Returns container records replaced by write. Records of key could be in containers of different size classes,
+	 * so replaced records are removed, otherwise rebuild could restore replaced object instead of the last one.
+	 * Shared records of deduplication mode release reference of every key, other records are removed once.
+	 */
+	private ObjectAddress[] getReplacedAddresses(ObjectAddress[] oldAddresses) {
+		ObjectAddress[] result = getContainerAddresses(oldAddresses);
+		if (!settings.isDeduplication()) {
+			Set<ObjectAddress> seenAddresses = new HashSet<>();
+			for (int i = 0; i < result.length; i++) {
+				if (result[i] != ObjectAddress.EMPTY_ADDRESS && !seenAddresses.add(result[i])) {
+					result[i] = ObjectAddress.EMPTY_ADDRESS;
+				}
+			}
+		}
+		return result;
+	}
+
+	// Inline objects live in index only, containers should skip them
+	private static ObjectAddress[] getContainerAddresses(ObjectAddress[] addresses) {
+		ObjectAddress[] result = new ObjectAddress[addresses.length];
+		for (int i = 0; i < addresses.length; i++) {
+			result[i] = addresses[i].isInline() ? ObjectAddress.EMPTY_ADDRESS : addresses[i];
+		}
+		return result;
+	}
+
 	@Override
 	public byte[] get(long key) throws StorageException {
 		return get(new long[] {key})[0];
@@ -145,9 +381,13 @@ public class DirectoryStorage implements Storage {
 			int resultLength = keys.length;
 			byte[][] result = new byte[resultLength][];
 			ObjectAddress[] addresses = index.getAddress(keys);
-			RecordData[] data = container.get(addresses);
+			RecordData[] data = container.get(getContainerAddresses(addresses));
 			for (int i = 0; i < resultLength; i++) {
-				result[i] = (data[i] == null) ? null : data[i].getObject();
+				if (addresses[i].isInline()) {
+					result[i] = addresses[i].getInlineObject();
+				} else {
+					result[i] = (data[i] == null) ? null : data[i].getObject();
+				}
 			}
 
 			return result;
@@ -156,6 +396,150 @@ public class DirectoryStorage implements Storage {
 		}
 	}
 
+	@Override
+	public byte[] get(long key, long offset, int length) throws StorageException {
+		return get(new long[] {key}, new long[] {offset}, new int[] {length})[0];
+	}
+
+	@Override
+	public byte[][] get(long[] keys, long[] offsets, int[] lengths) throws StorageException {
+		ObjectRanges.check(keys, offsets, lengths);
+		try {
+			byte[][] result = new byte[keys.length][];
+			ObjectAddress[] addresses = index.getAddress(keys);
+			RecordData[] data = container.get(getContainerAddresses(addresses), offsets, lengths);
+			for (int i = 0; i < keys.length; i++) {
+				if (addresses[i].isInline()) {
+					result[i] = ObjectRanges.slice(addresses[i].getInlineObject(), offsets[i], lengths[i]);
+				} else {
+					result[i] = (data[i] == null) ? null : data[i].getObject();
+				}
+			}
+			return result;
+		} catch (Exception e) {
+			throw new StorageException(e);
+		}
+	}
+
+	@Override
+	public boolean exists(long key) throws StorageException {
+		return exists(new long[] {key})[0];
+	}
+
+	// Index is enough, removed keys are removed from index
+	@Override
+	public boolean[] exists(long[] keys) throws StorageException {
+		if (keys == null) {
+			throw new StorageException(NULL_ARRAY_MESSAGE);
+		}
+		try {
+			boolean[] result = new boolean[keys.length];
+			ObjectAddress[] addresses = index.getAddress(keys);
+			for (int i = 0; i < keys.length; i++) {
+				result[i] = addresses[i] != ObjectAddress.EMPTY_ADDRESS;
+			}
+			return result;
+		} catch (Exception e) {
+			throw new StorageException(e);
+		}
+	}
+
+	@Override
+	public long size(long key) throws StorageException {
+		return size(new long[] {key})[0];
+	}
+
+	// Size of inline object is kept in index cell
+	@Override
+	public long[] size(long[] keys) throws StorageException {
+		if (keys == null) {
+			throw new StorageException(NULL_ARRAY_MESSAGE);
+		}
+		try {
+			ObjectAddress[] addresses = index.getAddress(keys);
+			long[] result = container.getSizes(getContainerAddresses(addresses));
+			for (int i = 0; i < keys.length; i++) {
+				if (addresses[i].isInline()) {
+					result[i] = addresses[i].getInlineObject().length;
+				}
+			}
+			return result;
+		} catch (Exception e) {
+			throw new StorageException(e);
+		}
+	}
+
+	@Override
+	public boolean expire(long key, long expirationTime) throws StorageException {
+		return expire(new long[] {key}, new long[] {expirationTime})[0];
+	}
+
+	@Override
+	public boolean[] expire(long[] keys, long[] expirationTimes) throws StorageException {
+		if (keys == null || expirationTimes == null || keys.length != expirationTimes.length) {
+			throw new StorageException(NULL_OR_NOT_SAME_ARRAY_MESSAGE);
+		}
+		try {
+			return index.setExpiration(keys, expirationTimes);
+		} catch (Exception e) {
+			throw new StorageException(e);
+		}
+	}
+
+	/**
+	 * Expired keys are found by one sequential scan of index, their records are removed container by container
+	 * in order of positions.
+	 */
+	@Override
+	public long[] removeExpired() throws StorageException {
+		if (!index.hasExpiration()) {
+			return new long[0];
+		}
+		try {
+			Map<Long, ObjectAddress> expired = new HashMap<>();
+			index.findExpired(System.currentTimeMillis(), expired, null);
+			List<Map.Entry<Long, ObjectAddress>> entries = new ArrayList<>(expired.entrySet());
+			Collections.sort(entries, new Comparator<Map.Entry<Long, ObjectAddress>>() {
+				@Override
+				public int compare(Map.Entry<Long, ObjectAddress> o1, Map.Entry<Long, ObjectAddress> o2) {
+					ObjectAddress a1 = o1.getValue();
+					ObjectAddress a2 = o2.getValue();
+					if (a1.getFileNumber() != a2.getFileNumber()) {
+						return Integer.compare(a1.getFileNumber(), a2.getFileNumber());
+					}
+					return Long.compare(a1.getFilePosition(), a2.getFilePosition());
+				}
+			});
+			long[] keys = new long[entries.size()];
+			ObjectAddress[] addresses = new ObjectAddress[entries.size()];
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = entries.get(i).getKey();
+				addresses[i] = entries.get(i).getValue();
+			}
+			if (keys.length > 0) {
+				generator.addFreeID(keys);
+				index.removeAddress(keys);
+				container.remove(getContainerAddresses(addresses));
+			}
+			return keys;
+		} catch (Exception e) {
+			throw new StorageException(e);
+		}
+	}
+
+	/**
+	 * Moves containers between data directories and cold directory (see ObjectContainerSupervisor.migrateContainers()).
+	 * Reads only count containers, so migration runs only when this method is called.
+	 */
+	@Override
+	public int migrate() throws StorageException {
+		try {
+			return container.migrateContainers();
+		} catch (ContainerException e) {
+			throw new StorageException(e);
+		}
+	}
+
 	@Override
 	public boolean remove(long key) throws StorageException {
 		return remove(new long[] {key});
@@ -167,10 +551,10 @@ public class DirectoryStorage implements Storage {
 			throw new StorageException(NULL_ARRAY_MESSAGE);
 		}
 		try {
-			ObjectAddress[] addresses = index.getAddress(keys);
+			ObjectAddress[] addresses = index.getAddress(keys, true);
 			generator.addFreeID(keys);
 			index.removeAddress(keys);
-			container.remove(addresses);
+			container.remove(getContainerAddresses(addresses));
 			return true;
 		} catch (Exception e) {
 			throw new StorageException(e);
@@ -182,48 +566,113 @@ public class DirectoryStorage implements Storage {
 		DirectoryStorageRebuildInfo.Builder resultBuilder = new DirectoryStorageRebuildInfo.Builder();
 
 		try {
-			container = new ObjectContainerSupervisor(directoryName, CONTAINER_FILE_PREFIX, true);
-			index = new FileBasedIndex(directoryName + SLASH + INDEX_FILE_NAME, true);
-			String[] files = new File(directoryName).list(new FilenameFilter() {
-				@Override
-				public boolean accept(File dir, String name) {
-					return name.startsWith(CONTAINER_FILE_PREFIX);
-				}
-			});
-			String pathStart = directoryName + System.getProperty("file.separator");
-			for (String fileName: files) {
-					int num;
-					try {
-						num = Integer.parseInt(fileName.substring(CONTAINER_FILE_PREFIX.length()));
-					} catch (NumberFormatException e) {
-						continue;
-					}
-
-					String fullPath = new StringBuilder().append(pathStart).append(fileName).toString();
-					String tempFileName = new StringBuilder().append(fullPath).append(".temp").toString();
-					Files.copy(new File(fullPath).toPath(), new File(tempFileName).toPath(), StandardCopyOption.REPLACE_EXISTING);
+			Map<Long, byte[]> inlineObjects;
+			try {
+				inlineObjects = index.getInlineObjects();
+			} catch (IndexException e) {
+				inlineObjects = new HashMap<>();
+				resultBuilder.addLostContainer(directoryName + SLASH + INDEX_FILE_NAME);
+			}
+			// Expiration times live in index only
+			Map<Long, Long> expirations = new HashMap<>();
+			try {
+				index.findExpired(Long.MAX_VALUE, null, expirations);
+			} catch (IndexException e) {
+				expirations.clear();
+			}
 
-					getDataFromContainer(num, tempFileName, resultBuilder);
+			Map<Integer, String> containerFiles = container.findContainerFiles();
+			container = new ObjectContainerSupervisor(directoryName, CONTAINER_FILE_PREFIX, true, settings);
+			index = new FileBasedIndex(directoryName + SLASH + INDEX_FILE_NAME, true, settings);
+			// New containers reuse old numbers, possibly in other directories,
+			// so all old containers are moved to temporary copies before writing
+			Map<Integer, String> tempFiles = new TreeMap<>();
+			for (Map.Entry<Integer, String> containerFile : containerFiles.entrySet()) {
+				String tempFileName = new StringBuilder().append(containerFile.getValue()).append(".temp").toString();
+				Files.move(new File(containerFile.getValue()).toPath(), new File(tempFileName).toPath(), StandardCopyOption.REPLACE_EXISTING);
+				tempFiles.put(containerFile.getKey(), tempFileName);
+			}
+			// Keys of shared records are taken from reference records before records are copied
+			Map<ObjectAddress, List<Long>> referencingKeys = new HashMap<>();
+			for (Map.Entry<Integer, String> tempFile : tempFiles.entrySet()) {
+				getReferencesFromContainer(tempFile.getKey(), tempFile.getValue(), referencingKeys);
+			}
+			for (Map.Entry<Integer, String> tempFile : tempFiles.entrySet()) {
+					getDataFromContainer(tempFile.getKey(), tempFile.getValue(), referencingKeys, resultBuilder);
 
 					System.gc(); // Attempt to remove FileChannel.map blocks from files
-					new File(tempFileName).delete();
+					new File(tempFile.getValue()).delete();
 			}
 			clearTempFiles();
-		} catch (IOException | ContainerException e) {
+
+			// Inline objects are written last: they are newer than any container record with same key
+			long[] inlineKeys = new long[inlineObjects.size()];
+			byte[][] inlineBytes = new byte[inlineObjects.size()][];
+			int pointer = 0;
+			for (Map.Entry<Long, byte[]> inlineObject : inlineObjects.entrySet()) {
+				inlineKeys[pointer] = inlineObject.getKey();
+				inlineBytes[pointer++] = inlineObject.getValue();
+			}
+			putObjects(inlineKeys, inlineBytes);
+
+			if (index.hasExpiration() && !expirations.isEmpty()) {
+				long[] expiringKeys = new long[expirations.size()];
+				long[] times = new long[expirations.size()];
+				pointer = 0;
+				for (Map.Entry<Long, Long> expiration : expirations.entrySet()) {
+					expiringKeys[pointer] = expiration.getKey();
+					times[pointer++] = expiration.getValue();
+				}
+				index.setExpiration(expiringKeys, times, true);
+			}
+		} catch (IOException | ContainerException | IndexException e) {
 			throw new StorageException(e);
 		}
 
 		return resultBuilder.build();
 	}
 
-	private void getDataFromContainer(int containerNumber, String containerFileName, DirectoryStorageRebuildInfo.Builder resultBuilder) throws StorageException {
-		try (FileReaderWriter rw = FileReaderWriter.openForReadingWriting(containerFileName)) {
+	// Broken container is reported by getDataFromContainer()
+	private void getReferencesFromContainer(int containerNumber, String containerFileName,
+											Map<ObjectAddress, List<Long>> referencingKeys) {
+		try (FileReaderWriter rw = FileReaderWriter.openForReading(containerFileName, FileRole.CONTAINER)) {
+			ObjectContainer tempContainer = new ObjectContainer(rw, containerFileName, containerNumber, false);
+			for (ObjectAddress address : tempContainer.getRecordsAddresses(rw)) {
+				RecordData data = tempContainer.getData(rw, address.getFilePosition());
+				if (data.isReference()) {
+					if (!referencingKeys.containsKey(data.getReference())) {
+						referencingKeys.put(data.getReference(), new ArrayList<Long>());
+					}
+					referencingKeys.get(data.getReference()).add(data.getID());
+				}
+			}
+		} catch (Exception ignored) {
+		}
+	}
+
+	// Object of shared record is put for its own key (unless record is orphan) and for keys of references to it,
+	// so supervisor shares it again and counts its references
+	private void getDataFromContainer(int containerNumber, String containerFileName, Map<ObjectAddress, List<Long>> referencingKeys,
+									  DirectoryStorageRebuildInfo.Builder resultBuilder) throws StorageException {
+		try (FileReaderWriter rw = FileReaderWriter.openForReadingWriting(containerFileName, FileRole.CONTAINER)) {
 			ObjectContainer tempContainer = new ObjectContainer(rw, containerFileName, containerNumber, false);
 			List<ObjectAddress> addresses = tempContainer.getRecordsAddresses(rw);
 			for (ObjectAddress address : addresses) {
 				RecordData data = tempContainer.getData(rw, address.getFilePosition());
-				ObjectAddress newAddress = container.put(data.getID(), data.getObject());
-				index.putAddress(data.getID(), newAddress);
+				if (data.isReference()) {
+					continue;
+				}
+				List<Long> keys = new ArrayList<>();
+				if (!data.isOrphan()) {
+					keys.add(data.getID());
+				}
+				if (referencingKeys.containsKey(address)) {
+					keys.addAll(referencingKeys.get(address));
+				}
+				for (long key : keys) {
+					ObjectAddress newAddress = container.put(key, data.getObject());
+					index.putAddress(key, newAddress);
+				}
 			}
 		} catch (Exception e) {
 			resultBuilder.addLostContainer(containerFileName);
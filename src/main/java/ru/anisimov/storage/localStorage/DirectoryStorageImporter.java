@@ -0,0 +1,153 @@
+package ru.anisimov.storage.localStorage;
+
+import ru.anisimov.storage.SafeStorage;
+import ru.anisimov.storage.Storage;
+import ru.anisimov.storage.exceptions.ContainerException;
+import ru.anisimov.storage.exceptions.IDGeneratorException;
+import ru.anisimov.storage.exceptions.IndexException;
+import ru.anisimov.storage.exceptions.StorageException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * Bulk import of objects into new DirectoryStorage.
+ *
+ * Objects are appended to containers in big batches, index is not touched until finish().
+ * Then index entries are sorted by bucket (IndexEntrySorter) and index is built in one sequential pass.
+ * If key was added several times the last object wins, as with Storage.write(long[], byte[][]).
+ * Imported keys are reserved in ID generator of storage (see FileBasedIDGenerator.reserveID()),
+ * so write(byte[]) of imported storage never returns imported key.
+ *
+ * Storage must not be used until finish() returns it. Safety file of storage (see SafeStorage) is unstable
+ * from creation of importer until index is built, so storage of interrupted import is rebuilt from
+ * containers on opening.
+ *
+ */
+public class DirectoryStorageImporter {
+	private static final int MAX_BATCH_COUNT = 10_000;
+	private static final long MAX_BATCH_BYTES = 16 * 1024 * 1024;
+	private static final String RUN_FILE_PREFIX = "importRun";
+
+	private String directoryName;
+	private String safetyFileName;
+	private DirectoryStorageSettings settings;
+	private ObjectContainerSupervisor container;
+	private FileBasedIndex index;
+	private FileBasedIDGenerator generator;
+	private IndexEntrySorter sorter;
+
+	private List<Long> generatorKeys = new ArrayList<>();
+	private List<Long> batchKeys = new ArrayList<>();
+	private List<Long> batchSequences = new ArrayList<>();
+	private List<byte[]> batchObjects = new ArrayList<>();
+	private long batchBytes;
+	private long importedCount;
+	private boolean finished;
+
+	DirectoryStorageImporter(String directoryName, String safetyFileName, DirectoryStorageSettings settings,
+							 ObjectContainerSupervisor container, FileBasedIndex index, FileBasedIDGenerator generator) throws StorageException {
+		this(directoryName, safetyFileName, settings, container, index, generator,
+			 new IndexEntrySorter(index, directoryName + System.getProperty("file.separator") + RUN_FILE_PREFIX));
+	}
+
+	DirectoryStorageImporter(String directoryName, String safetyFileName, DirectoryStorageSettings settings,
+							 ObjectContainerSupervisor container, FileBasedIndex index, FileBasedIDGenerator generator,
+							 IndexEntrySorter sorter) throws StorageException {
+		SafeStorage.markUnstable(safetyFileName);
+		this.directoryName = directoryName;
+		this.safetyFileName = safetyFileName;
+		this.settings = settings;
+		this.container = container;
+		this.index = index;
+		this.generator = generator;
+		this.sorter = sorter;
+	}
+
+	public void add(long key, byte[] bytes) throws StorageException {
+		if (finished) {
+			throw new StorageException("Import is already finished");
+		}
+		if (bytes == null) {
+			throw new StorageException("Object is null");
+		}
+		try {
+			generatorKeys.add(key);
+			if (index.getInlineCapacity() > 0 && bytes.length <= index.getInlineCapacity()) {
+				sorter.add(key, importedCount, ObjectAddress.inline(bytes));
+			} else {
+				batchKeys.add(key);
+				batchSequences.add(importedCount);
+				batchObjects.add(bytes);
+				batchBytes += bytes.length;
+			}
+			if (generatorKeys.size() >= MAX_BATCH_COUNT || batchBytes >= MAX_BATCH_BYTES) {
+				flushBatch();
+			}
+			importedCount++;
+		} catch (IOException | ContainerException | IDGeneratorException e) {
+			throw new StorageException(e);
+		}
+	}
+
+	public long getImportedCount() {
+		return importedCount;
+	}
+
+	private void flushBatch() throws ContainerException, IOException, IDGeneratorException {
+		long[] reservedKeys = new long[generatorKeys.size()];
+		for (int i = 0; i < reservedKeys.length; i++) {
+			reservedKeys[i] = generatorKeys.get(i);
+		}
+		generator.reserveID(reservedKeys);
+		generatorKeys.clear();
+
+		long[] keys = new long[batchKeys.size()];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = batchKeys.get(i);
+		}
+		ObjectAddress[] addresses = container.put(keys, batchObjects.toArray(new byte[batchObjects.size()][]));
+		for (int i = 0; i < keys.length; i++) {
+			sorter.add(keys[i], batchSequences.get(i), addresses[i]);
+		}
+		batchKeys.clear();
+		batchSequences.clear();
+		batchObjects.clear();
+		batchBytes = 0;
+	}
+
+	/**
+	 * Builds index and opens imported storage.
+	 */
+	public Storage finish() throws StorageException {
+		if (finished) {
+			throw new StorageException("Import is already finished");
+		}
+		finished = true;
+		try {
+			flushBatch();
+			List<ObjectAddress> superseded = new ArrayList<>();
+			index.build(sorter.sortedEntries(superseded));
+			List<ObjectAddress> supersededRecords = new ArrayList<>(superseded.size());
+			for (ObjectAddress address : superseded) {
+				if (!address.isInline()) {
+					supersededRecords.add(address);
+				}
+			}
+			container.remove(supersededRecords.toArray(new ObjectAddress[supersededRecords.size()]));
+			SafeStorage.markStable(safetyFileName);
+		} catch (IOException | ContainerException | IndexException | IDGeneratorException e) {
+			throw new StorageException(e);
+		} finally {
+			try {
+				sorter.clear();
+			} catch (IOException e) {
+				// Run files are temporary, storage is usable without their removal
+			}
+		}
+		return DirectoryStorage.getStorage(directoryName, settings);
+	}
+}
@@ -0,0 +1,198 @@
+package ru.anisimov.storage.localStorage;
+
+import ru.anisimov.storage.exceptions.ContainerException;
+import ru.anisimov.storage.exceptions.IndexException;
+import ru.anisimov.storage.exceptions.StorageException;
+import ru.anisimov.storage.io.FileReaderWriter;
+import ru.anisimov.storage.io.FileRole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * Full scan of live objects of DirectoryStorage.
+ *
+ * Containers are read sequentially by big parts, removed records are skipped.
+ * Record is live if index still points to it, so old versions of rewritten objects are skipped too.
+ * Inline objects are taken from index after all containers.
+ *
+ * trySplit() gives half of not started containers to new scanner, so parts of storage could be scanned
+ * in different threads. Every scanner should be used by one thread and closed after use.
+ * Storage should not be modified during scan.
+ * In deduplication mode record could be shared by several keys and its own key could be removed,
+ * so live keys of records are collected from index before scan (see FileBasedIndex.getIDsByAddress())
+ * and object is returned once for every key.
+ * Objects of reference records (see ObjectContainer) are read from shared records by batches.
+ * Expired objects are skipped.
+ *
+ */
+public class DirectoryStorageScanner implements AutoCloseable {
+	private static final int CHECK_BATCH_SIZE = 1000;
+
+	private FileBasedIndex index;
+	private ObjectContainerSupervisor supervisor;
+	private DirectoryStorageSettings settings;
+	private LinkedList<Map.Entry<Integer, String>> containers;
+	private boolean includeInline;
+	private Map<ObjectAddress, List<Long>> keysByAddress;
+
+	private FileReaderWriter currentIn;
+	private ObjectContainer.RecordIterator currentRecords;
+	private Queue<StoredObject> ready = new LinkedList<>();
+
+	// Keys by addresses are null if every record is live only for its own key
+	DirectoryStorageScanner(FileBasedIndex index, ObjectContainerSupervisor supervisor, DirectoryStorageSettings settings,
+							Map<Integer, String> containerFiles, boolean includeInline, Map<ObjectAddress, List<Long>> keysByAddress) {
+		this.index = index;
+		this.supervisor = supervisor;
+		this.settings = settings;
+		this.containers = new LinkedList<>(containerFiles.entrySet());
+		this.includeInline = includeInline;
+		this.keysByAddress = keysByAddress;
+	}
+
+	public boolean hasNext() throws StorageException {
+		try {
+			while (ready.isEmpty()) {
+				if (currentRecords != null) {
+					readBatch();
+				} else if (!containers.isEmpty()) {
+					openContainer(containers.poll());
+				} else if (includeInline) {
+					includeInline = false;
+					readInlineObjects();
+				} else {
+					return false;
+				}
+			}
+			return true;
+		} catch (IOException | IndexException | ContainerException e) {
+			throw new StorageException(e);
+		}
+	}
+
+	public StoredObject next() throws StorageException {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return ready.poll();
+	}
+
+	/**
+	 * Splits off scanner for half of containers, which are not started yet.
+	 * Returns null if there's nothing to split.
+	 */
+	public DirectoryStorageScanner trySplit() {
+		if (containers.size() < 2) {
+			return null;
+		}
+		Map<Integer, String> splitContainers = new TreeMap<>();
+		int splitCount = containers.size() / 2;
+		for (int i = 0; i < splitCount; i++) {
+			Map.Entry<Integer, String> container = containers.pollLast();
+			splitContainers.put(container.getKey(), container.getValue());
+		}
+		return new DirectoryStorageScanner(index, supervisor, settings, splitContainers, false, keysByAddress);
+	}
+
+	// Index keeps cells of expired objects until they are removed
+	private void readInlineObjects() throws IndexException {
+		Map<Long, byte[]> inlineObjects = index.getInlineObjects();
+		long[] keys = new long[inlineObjects.size()];
+		int pointer = 0;
+		for (Long key : inlineObjects.keySet()) {
+			keys[pointer++] = key;
+		}
+		ObjectAddress[] addresses = index.hasExpiration() ? index.getAddress(keys) : null;
+		for (int i = 0; i < keys.length; i++) {
+			if (addresses == null || addresses[i] != ObjectAddress.EMPTY_ADDRESS) {
+				ready.add(new StoredObject(keys[i], inlineObjects.get(keys[i])));
+			}
+		}
+	}
+
+	private void openContainer(Map.Entry<Integer, String> container) throws IOException {
+		String fileName = container.getValue();
+		currentIn = FileReaderWriter.openForReading(fileName, FileRole.CONTAINER);
+		currentRecords = new ObjectContainer(currentIn, fileName, container.getKey(), false, settings).iterateRecords(currentIn);
+	}
+
+	private void readBatch() throws IOException, IndexException, ContainerException {
+		List<ObjectAddress> addresses = new ArrayList<>(CHECK_BATCH_SIZE);
+		List<RecordData> records = new ArrayList<>(CHECK_BATCH_SIZE);
+		while (records.size() < CHECK_BATCH_SIZE && currentRecords.next()) {
+			addresses.add(currentRecords.getAddress());
+			records.add(currentRecords.getData());
+		}
+		if (records.size() < CHECK_BATCH_SIZE) {
+			closeContainer();
+		}
+		List<Long> liveKeys = new ArrayList<>();
+		List<Integer> liveRecords = new ArrayList<>();
+		if (keysByAddress != null) {
+			for (int i = 0; i < records.size(); i++) {
+				List<Long> keys = keysByAddress.get(addresses.get(i));
+				if (keys != null) {
+					for (long key : keys) {
+						liveKeys.add(key);
+						liveRecords.add(i);
+					}
+				}
+			}
+		} else {
+			long[] keys = new long[records.size()];
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = records.get(i).getID();
+			}
+			ObjectAddress[] indexAddresses = index.getAddress(keys);
+			for (int i = 0; i < keys.length; i++) {
+				if (indexAddresses[i].equals(addresses.get(i))) {
+					liveKeys.add(keys[i]);
+					liveRecords.add(i);
+				}
+			}
+		}
+
+		ObjectAddress[] referenceAddresses = new ObjectAddress[records.size()];
+		Arrays.fill(referenceAddresses, ObjectAddress.EMPTY_ADDRESS);
+		for (int i : liveRecords) {
+			if (records.get(i).isReference()) {
+				referenceAddresses[i] = addresses.get(i);
+			}
+		}
+		RecordData[] sharedRecords = supervisor.get(referenceAddresses);
+		for (int i = 0; i < liveKeys.size(); i++) {
+			int record = liveRecords.get(i);
+			RecordData data = records.get(record).isReference() ? sharedRecords[record] : records.get(record);
+			if (data != null) {
+				ready.add(new StoredObject(liveKeys.get(i), data.getObject()));
+			}
+		}
+	}
+
+	private void closeContainer() throws IOException {
+		currentRecords = null;
+		if (currentIn != null) {
+			currentIn.close();
+			currentIn = null;
+		}
+	}
+
+	@Override
+	public void close() throws StorageException {
+		try {
+			closeContainer();
+		} catch (IOException e) {
+			throw new StorageException(e);
+		}
+	}
+}
@@ -0,0 +1,272 @@
+package ru.anisimov.storage.localStorage;
+
+import ru.anisimov.storage.compression.Compression;
+
+import java.io.File;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * Optional settings of DirectoryStorage. Default settings give storage without any optional features.
+ *
+ */
+public class DirectoryStorageSettings {
+	private static final int DEFAULT_COMPRESSION_THRESHOLD = 256;
+	private static final int[] DEFAULT_SIZE_CLASS_BOUNDS = {4 * 1024, 1024 * 1024};
+	private static final int DEFAULT_READ_GAP = 16 * 1024;
+	private static final int DEFAULT_READ_PARALLELISM = 1;
+
+	public static final DirectoryStorageSettings DEFAULT = new Builder().build();
+
+	private Compression compression;
+	private int compressionThreshold;
+	private boolean deduplication;
+	private int[] sizeClassBounds;
+	private int inlineThreshold;
+	private int readGap;
+	private int readParallelism;
+	private String[] dataDirectories;
+	private ContainerPlacement containerPlacement;
+	private String coldDirectory;
+	private int hotReadsCount;
+	private int tieringPeriod;
+	private boolean versioning;
+	private boolean expiration;
+	private boolean overwriteInPlace;
+
+	private DirectoryStorageSettings() {
+		compression = Compression.NONE;
+		compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+		deduplication = false;
+		sizeClassBounds = DEFAULT_SIZE_CLASS_BOUNDS;
+		inlineThreshold = 0;
+		readGap = DEFAULT_READ_GAP;
+		readParallelism = DEFAULT_READ_PARALLELISM;
+		dataDirectories = new String[0];
+		containerPlacement = ContainerPlacement.ROUND_ROBIN;
+		coldDirectory = null;
+		hotReadsCount = 0;
+		tieringPeriod = 0;
+		versioning = false;
+		expiration = false;
+		overwriteInPlace = false;
+	}
+
+	public Compression getCompression() {
+		return compression;
+	}
+
+	public int getCompressionThreshold() {
+		return compressionThreshold;
+	}
+
+	public boolean isDeduplication() {
+		return deduplication;
+	}
+
+	public int[] getSizeClassBounds() {
+		return sizeClassBounds.clone();
+	}
+
+	public int getInlineThreshold() {
+		return inlineThreshold;
+	}
+
+	public int getReadGap() {
+		return readGap;
+	}
+
+	public int getReadParallelism() {
+		return readParallelism;
+	}
+
+	public String[] getDataDirectories() {
+		return dataDirectories.clone();
+	}
+
+	public ContainerPlacement getContainerPlacement() {
+		return containerPlacement;
+	}
+
+	public String getColdDirectory() {
+		return coldDirectory;
+	}
+
+	public int getHotReadsCount() {
+		return hotReadsCount;
+	}
+
+	public int getTieringPeriod() {
+		return tieringPeriod;
+	}
+
+	public boolean isVersioning() {
+		return versioning;
+	}
+
+	public boolean isExpiration() {
+		return expiration;
+	}
+
+	public boolean isOverwriteInPlace() {
+		return overwriteInPlace;
+	}
+
+	public static class Builder {
+		private DirectoryStorageSettings settings;
+
+		public Builder() {
+			settings = new DirectoryStorageSettings();
+		}
+
+		/**
+		 * Objects not smaller than threshold are compressed with specified codec.
+		 * Object is stored compressed only if it becomes smaller.
+		 */
+		public Builder setCompression(Compression compression, int threshold) {
+			if (compression == null || threshold < 0) {
+				throw new IllegalArgumentException("Wrong compression settings");
+			}
+			settings.compression = compression;
+			settings.compressionThreshold = threshold;
+			return this;
+		}
+
+		/**
+		 * Byte-identical objects are stored once and shared by all their keys.
+		 * Other keys of shared object are kept by reference records, so rebuild restores all keys.
+		 */
+		public Builder setDeduplication(boolean deduplication) {
+			settings.deduplication = deduplication;
+			return this;
+		}
+
+		/**
+		 * Objects smaller than bound[i] (and not smaller than bound[i - 1]) are stored in containers of size class i.
+		 * Objects not smaller than last bound are stored in containers of last size class.
+		 */
+		public Builder setSizeClasses(int... bounds) {
+			for (int i = 0; i < bounds.length; i++) {
+				if (bounds[i] <= 0 || bounds[i] == Integer.MAX_VALUE || (i > 0 && bounds[i] <= bounds[i - 1])) {
+					throw new IllegalArgumentException("Size class bounds should be positive and increasing");
+				}
+			}
+			settings.sizeClassBounds = bounds.clone();
+			return this;
+		}
+
+		/**
+		 * Objects not bigger than threshold are stored right in index cells, without containers.
+		 * Every index cell grows by threshold bytes. Threshold is fixed when index is created.
+		 */
+		public Builder setInlineThreshold(int threshold) {
+			if (threshold < 0) {
+				throw new IllegalArgumentException("Inline threshold should not be negative");
+			}
+			settings.inlineThreshold = threshold;
+			return this;
+		}
+
+		/**
+		 * Records of one batched get are read in file order. Records separated by not more than gap bytes
+		 * are read with one read call, bytes between them are read and skipped.
+		 */
+		public Builder setReadGap(int gap) {
+			if (gap < 0) {
+				throw new IllegalArgumentException("Read gap should not be negative");
+			}
+			settings.readGap = gap;
+			return this;
+		}
+
+		/**
+		 * Maximum number of containers read at the same time by one batched get.
+		 * 1 means that containers are read one after another by calling thread.
+		 */
+		public Builder setReadParallelism(int parallelism) {
+			if (parallelism <= 0) {
+				throw new IllegalArgumentException("Read parallelism should be positive");
+			}
+			settings.readParallelism = parallelism;
+			return this;
+		}
+
+		/**
+		 * New containers are placed to data directories instead of storage directory.
+		 * Index and service files stay in storage directory. Storage directory could be one of data directories.
+		 * Containers created earlier stay where they are, even if their directory is not listed anymore.
+		 */
+		public Builder setDataDirectories(ContainerPlacement placement, String... directories) {
+			if (placement == null || directories == null) {
+				throw new IllegalArgumentException("Wrong data directories settings");
+			}
+			for (String directory : directories) {
+				if (directory == null || !new File(directory).isDirectory()) {
+					throw new IllegalArgumentException("Data directory does not exist: " + directory);
+				}
+			}
+			settings.containerPlacement = placement;
+			settings.dataDirectories = directories.clone();
+			return this;
+		}
+
+		/**
+		 * Containers rarely read are moved to cold directory (slow tier), often read ones are moved back.
+		 * Reads of objects are counted by containers, containers are moved by DirectoryStorage.migrate() only
+		 * (e.g. called periodically in background), which does nothing until period object reads are counted.
+		 * Then container, which is not active and was read less than hotReadsCount times, goes to cold directory,
+		 * cold container read at least hotReadsCount times goes back to data directories, and counting starts again.
+		 * Counts are kept in memory, so after opening of storage period of reads is counted before first migration.
+		 */
+		public Builder setColdTier(String coldDirectory, int hotReadsCount, int period) {
+			if (coldDirectory == null || !new File(coldDirectory).isDirectory()) {
+				throw new IllegalArgumentException("Cold directory does not exist: " + coldDirectory);
+			}
+			if (hotReadsCount <= 0 || period <= 0) {
+				throw new IllegalArgumentException("Wrong cold tier settings");
+			}
+			settings.coldDirectory = coldDirectory;
+			settings.hotReadsCount = hotReadsCount;
+			settings.tieringPeriod = period;
+			return this;
+		}
+
+		/**
+		 * Every write of key gives it new version from storage-wide counter, so writes could be conditional
+		 * (see DirectoryStorage.write(long, byte[], long)). Versions are not reused after removal,
+		 * expiration or rebuild, but rebuild changes versions of all keys. Every index cell grows by 8 bytes.
+		 * Versioning is fixed when index is created.
+		 */
+		public Builder setVersioning(boolean versioning) {
+			settings.versioning = versioning;
+			return this;
+		}
+
+		/**
+		 * Objects could have expiration times (see DirectoryStorage.expire()), expired objects are not readable
+		 * and are removed by DirectoryStorage.removeExpired(). Every index cell grows by 8 bytes.
+		 * Expiration is fixed when index is created.
+		 */
+		public Builder setExpiration(boolean expiration) {
+			settings.expiration = expiration;
+			return this;
+		}
+
+		/**
+		 * Rewritten object, which stored bytes fit record of its key and which is of same size class as object
+		 * of record, is written over that record, index isn't updated (cell is still updated with versioning
+		 * or expiration), so rewrites leave no dead records. New bytes are forced to overwrite log before
+		 * record is changed, so crash (or power loss) keeps either previous or new object: torn record is
+		 * completed from log on opening. Every overwriting batch forces overwrite log once.
+		 * Ignored in deduplication mode, where records are shared.
+		 */
+		public Builder setOverwriteInPlace(boolean overwriteInPlace) {
+			settings.overwriteInPlace = overwriteInPlace;
+			return this;
+		}
+
+		public DirectoryStorageSettings build() {
+			return settings;
+		}
+	}
+}
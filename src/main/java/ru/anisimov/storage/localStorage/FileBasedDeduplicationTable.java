@@ -0,0 +1,161 @@
+package ru.anisimov.storage.localStorage;
+
+import ru.anisimov.storage.commons.TypeSizes;
+import ru.anisimov.storage.io.FileReaderWriter;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * Maps hash of object content to address of stored record and counts references to that record.
+ *
+ * Represents single hash table file with following structure:
+ * |pointer1 - 8 bytes| ... |pointerN - 8 bytes| |end of file position - 8 bytes| |cell1 - CELL_SIZE bytes| ... |cellN - CELL_SIZE bytes|
+ *
+ * Cell structure:
+ * |next cell pointer - 8 bytes| |content hash - 8 bytes| |file number - 4 bytes| |file position - 8 bytes| |references count - 4 bytes|
+ *
+ */
+class FileBasedDeduplicationTable {
+	private static final int ESTIMATED_HASH_TABLE_SIZE = 10_000;
+
+	private static final long FIRST_POINTER_POSITION = 0;
+	private static final int CELL_SIZE = 3 * TypeSizes.BYTES_IN_LONG + 2 * TypeSizes.BYTES_IN_INT;
+	private static final long END_POINTER = -1;
+
+	private static final int CELL_OFFSET_NEXT_POINTER = 0;
+	private static final int CELL_OFFSET_HASH = CELL_OFFSET_NEXT_POINTER + TypeSizes.BYTES_IN_LONG;
+	private static final int CELL_OFFSET_FILE_NUM = CELL_OFFSET_HASH + TypeSizes.BYTES_IN_LONG;
+	private static final int CELL_OFFSET_FILE_POSITION = CELL_OFFSET_FILE_NUM + TypeSizes.BYTES_IN_INT;
+	private static final int CELL_OFFSET_REFERENCES = CELL_OFFSET_FILE_POSITION + TypeSizes.BYTES_IN_LONG;
+
+	private final int HASH_TABLE_SIZE;
+	private final long END_OF_FILE_POSITION;
+	private final long FIRST_CELL_POSITION;
+
+	private String fileName;
+
+	public FileBasedDeduplicationTable(String fileName, boolean newTable) throws IOException {
+		this(fileName, newTable, ESTIMATED_HASH_TABLE_SIZE);
+	}
+
+	FileBasedDeduplicationTable(String fileName, boolean newTable, int HASH_TABLE_SIZE) throws IOException {
+		this.HASH_TABLE_SIZE = HASH_TABLE_SIZE;
+		this.END_OF_FILE_POSITION = FIRST_POINTER_POSITION + (this.HASH_TABLE_SIZE * TypeSizes.BYTES_IN_LONG);
+		this.FIRST_CELL_POSITION = this.END_OF_FILE_POSITION + TypeSizes.BYTES_IN_LONG;
+
+		this.fileName = fileName;
+		if (newTable || !new File(this.fileName).exists()) {
+			try (FileReaderWriter out = FileReaderWriter.openForWriting(this.fileName)) {
+				out.truncate(0);
+				for (int i = 0; i < this.HASH_TABLE_SIZE; i++) {
+					out.writeLong(FIRST_POINTER_POSITION + (i * TypeSizes.BYTES_IN_LONG), END_POINTER);
+				}
+				out.writeLong(END_OF_FILE_POSITION, FIRST_CELL_POSITION);
+			}
+		}
+	}
+
+	public ObjectAddress[] getAddress(long[] hash) throws IOException {
+		try (FileReaderWriter in = FileReaderWriter.openForReading(fileName)) {
+			ObjectAddress[] result = new ObjectAddress[hash.length];
+			for (int i = 0; i < hash.length; i++) {
+				long cellPointer = findCell(in, hash[i]);
+				result[i] = (cellPointer == END_POINTER) ?
+									ObjectAddress.EMPTY_ADDRESS :
+									new ObjectAddress(in.readInt(cellPointer + CELL_OFFSET_FILE_NUM),
+															 in.readLong(cellPointer + CELL_OFFSET_FILE_POSITION));
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Adds references to record. Creates new cell if there's no cell for this hash.
+	 */
+	public void addReferences(long[] hash, ObjectAddress[] address, int[] count) throws IOException {
+		try (FileReaderWriter rw = FileReaderWriter.openForReadingWriting(fileName)) {
+			for (int i = 0; i < hash.length; i++) {
+				long cellPointer = findCell(rw, hash[i]);
+				if (cellPointer != END_POINTER) {
+					int references = rw.readInt(cellPointer + CELL_OFFSET_REFERENCES);
+					rw.writeInt(cellPointer + CELL_OFFSET_REFERENCES, references + count[i]);
+					continue;
+				}
+
+				long bucketPointer = getPointerAddress(hash[i]);
+				long endOfFile = rw.readLong(END_OF_FILE_POSITION);
+				rw.writeLong(END_OF_FILE_POSITION, endOfFile + CELL_SIZE);
+				rw.writeLong(endOfFile + CELL_OFFSET_NEXT_POINTER, rw.readLong(bucketPointer));
+				rw.writeLong(endOfFile + CELL_OFFSET_HASH, hash[i]);
+				rw.writeInt(endOfFile + CELL_OFFSET_FILE_NUM, address[i].getFileNumber());
+				rw.writeLong(endOfFile + CELL_OFFSET_FILE_POSITION, address[i].getFilePosition());
+				rw.writeInt(endOfFile + CELL_OFFSET_REFERENCES, count[i]);
+				rw.writeLong(bucketPointer, endOfFile);
+			}
+		}
+	}
+
+	/**
+	 * Removes one reference to record for every hash.
+	 * Returns true for records, that are not referenced anymore (or were not deduplicated) and could be freed.
+	 */
+	public boolean[] removeReference(long[] hash, ObjectAddress[] address) throws IOException {
+		try (FileReaderWriter rw = FileReaderWriter.openForReadingWriting(fileName)) {
+			boolean[] result = new boolean[hash.length];
+			for (int i = 0; i < hash.length; i++) {
+				result[i] = removeReference(rw, hash[i], address[i]);
+			}
+			return result;
+		}
+	}
+
+	private boolean removeReference(FileReaderWriter rw, long hash, ObjectAddress address) throws IOException {
+		long prevPointer = END_POINTER;
+		long cellPointer = rw.readLong(getPointerAddress(hash));
+		while (cellPointer != END_POINTER && rw.readLong(cellPointer + CELL_OFFSET_HASH) != hash) {
+			prevPointer = cellPointer;
+			cellPointer = rw.readLong(cellPointer + CELL_OFFSET_NEXT_POINTER);
+		}
+		if (cellPointer == END_POINTER) {
+			return true;
+		}
+		ObjectAddress cellAddress = new ObjectAddress(rw.readInt(cellPointer + CELL_OFFSET_FILE_NUM),
+															 rw.readLong(cellPointer + CELL_OFFSET_FILE_POSITION));
+		if (!cellAddress.equals(address)) {
+			return true;
+		}
+
+		int references = rw.readInt(cellPointer + CELL_OFFSET_REFERENCES) - 1;
+		if (references > 0) {
+			rw.writeInt(cellPointer + CELL_OFFSET_REFERENCES, references);
+			return false;
+		}
+
+		long nextPointer = rw.readLong(cellPointer + CELL_OFFSET_NEXT_POINTER);
+		if (prevPointer == END_POINTER) {
+			rw.writeLong(getPointerAddress(hash), nextPointer);
+		} else {
+			rw.writeLong(prevPointer + CELL_OFFSET_NEXT_POINTER, nextPointer);
+		}
+		return true;
+	}
+
+	private long findCell(FileReaderWriter in, long hash) throws IOException {
+		long cellPointer = in.readLong(getPointerAddress(hash));
+		while (cellPointer != END_POINTER) {
+			if (in.readLong(cellPointer + CELL_OFFSET_HASH) == hash) {
+				return cellPointer;
+			}
+			cellPointer = in.readLong(cellPointer + CELL_OFFSET_NEXT_POINTER);
+		}
+		return END_POINTER;
+	}
+
+	private long getPointerAddress(long hash) {
+		long bucket = Math.abs(hash % HASH_TABLE_SIZE);
+		return FIRST_POINTER_POSITION + (bucket * TypeSizes.BYTES_IN_LONG);
+	}
+}
@@ -3,10 +3,12 @@ package ru.anisimov.storage.localStorage;
 import ru.anisimov.storage.commons.TypeSizes;
 import ru.anisimov.storage.exceptions.IDGeneratorException;
 import ru.anisimov.storage.io.FileReaderWriter;
+import ru.anisimov.storage.io.FileRole;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * @author Ivan Anisimov (ivananisimov2010@gmail.com)
@@ -17,6 +19,7 @@ import java.io.Serializable;
  * Optimization counter at start = Integer.MIN_VALUE. It represents maximal free id.
  * While there's free IDs in list generator poll them. If there's no free IDs in list generator increments counter.
  * If counter reaches max value generator throws IDGeneratorException - there's no more free ID's.
+ * IDs taken by caller without generator (see reserveID()) are skipped by counter and removed from free IDs.
  *
  */
 public class FileBasedIDGenerator implements Serializable {
@@ -42,13 +45,9 @@ public class FileBasedIDGenerator implements Serializable {
 		this.MIN_ID = MIN_ID;
 		this.MAX_ID = MAX_ID;
 		this.fileName = fileName;
-		try (FileReaderWriter rw = FileReaderWriter.openForReadingWriting(this.fileName)) {
+		try (FileReaderWriter rw = FileReaderWriter.openForReadingWriting(this.fileName, FileRole.GENERATOR)) {
 			if (newGenerator) {
-				File file = new File(this.fileName);
-				if (file.exists()) {
-					file.delete();
-				}
-				file.createNewFile();
+				rw.truncate(0);
 				rw.writeLong(COUNTER_POSITION, this.MIN_ID);
 				rw.writeLong(FREE_ID_COUNT_POSITION, 0);
 			}
@@ -61,7 +60,7 @@ public class FileBasedIDGenerator implements Serializable {
 	}
 
 	public long[] generateID(int count) throws IDGeneratorException {
-		try (FileReaderWriter rw = FileReaderWriter.openForReadingWriting(fileName)) {
+		try (FileReaderWriter rw = FileReaderWriter.openForReadingWriting(fileName, FileRole.GENERATOR)) {
 			long[] result = new long[count];
 			for (int i = 0; i < count; i++) {
 				result[i] = (freeIDCount == 0) ?
@@ -91,12 +90,49 @@ public class FileBasedIDGenerator implements Serializable {
 		return freeID;
 	}
 
+	/**
+	 * Marks IDs as used, so they are never generated: counter is moved past the largest of them
+	 * and they are removed from free IDs. IDs out of range of generator are ignored.
+	 */
+	public void reserveID(long[] ID) throws IDGeneratorException {
+		Set<Long> reserved = new HashSet<>();
+		for (long id : ID) {
+			if (id >= MIN_ID && id <= MAX_ID) {
+				reserved.add(id);
+			}
+		}
+		if (reserved.isEmpty()) {
+			return;
+		}
+		try (FileReaderWriter rw = FileReaderWriter.openForReadingWriting(fileName, FileRole.GENERATOR)) {
+			long counter = rw.readLong(COUNTER_POSITION);
+			for (long id : reserved) {
+				counter = Math.max(counter, id + 1);
+			}
+			rw.writeLong(COUNTER_POSITION, counter);
+
+			long keptCount = 0;
+			for (long i = 0; i < freeIDCount; i++) {
+				long freeID = rw.readLong(FREE_ID_POSITION + (i * TypeSizes.BYTES_IN_LONG));
+				if (!reserved.contains(freeID)) {
+					rw.writeLong(FREE_ID_POSITION + (keptCount++ * TypeSizes.BYTES_IN_LONG), freeID);
+				}
+			}
+			if (keptCount != freeIDCount) {
+				freeIDCount = keptCount;
+				rw.writeLong(FREE_ID_COUNT_POSITION, freeIDCount);
+			}
+		} catch (IOException e) {
+			throw new IDGeneratorException(e);
+		}
+	}
+
 	public void addFreeID(long ID) throws IDGeneratorException {
 		addFreeID(new long[] {ID});
 	}
 
 	public void addFreeID(long[] ID) throws IDGeneratorException {
-		try (FileReaderWriter rw = FileReaderWriter.openForReadingWriting(fileName)) {
+		try (FileReaderWriter rw = FileReaderWriter.openForReadingWriting(fileName, FileRole.GENERATOR)) {
 			for (int i = 0; i < ID.length; i++) {
 				long positionAfterLastFreeID = FREE_ID_POSITION + ((freeIDCount) * TypeSizes.BYTES_IN_LONG);
 				rw.writeLong(positionAfterLastFreeID, ID[i]);
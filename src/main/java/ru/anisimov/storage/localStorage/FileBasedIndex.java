@@ -3,65 +3,353 @@ package ru.anisimov.storage.localStorage;
 import ru.anisimov.storage.commons.TypeSizes;
 import ru.anisimov.storage.exceptions.IndexException;
 import ru.anisimov.storage.io.FileReaderWriter;
+import ru.anisimov.storage.io.FileRole;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * @author Ivan Anisimov (ivananisimov2010@gmail.com)
  *
  * Represents single index hash table file with following structure:
+ * |magic - 4 bytes| |format version - 4 bytes| |pointer1 - 8 bytes| ... |pointerN - 8 bytes| |end of file position - 8 bytes| |inline capacity and cell flags - 4 bytes| |cell1 - CELL_SIZE bytes| ... |cellN - CELL_SIZE bytes|
+ *
+ * Cell structure:
+ * |next cell pointer - 8 bytes| |ID - 8 bytes| |file number - 4 bytes| |file position - 8 bytes| |version - 8 bytes, optional|
+ * |expiration time - 8 bytes, optional| |inline object - inline capacity bytes|
+ *
+ * Index without magic is index of old format (version 0, written before format version):
  * |pointer1 - 8 bytes| ... |pointerN - 8 bytes| |end of file position - 8 bytes| |cell1 - CELL_SIZE bytes| ... |cellN - CELL_SIZE bytes|
+ * Its cells have the same structure without optional fields, so it is used in place as index without inline objects,
+ * versions and expiration. Rebuild of storage creates index of current format.
+ * Index of unknown format version is refused on opening.
+ *
+ * Objects not bigger than inline capacity could be stored right in the cell.
+ * For such objects file number is ObjectAddress.INLINE_FILE_NUMBER and file position is object size.
+ *
+ * Cells have version field if index is created with versions (VERSIONS_FLAG). Every put of ID stamps
+ * next value of counter of index, so versions never repeat for ID: neither after removal, expiration
+ * and reuse of ID, nor after build (rebuild of storage). Version is 0 for absent IDs.
+ * Counter is kept in memory and reserved in blocks of VERSION_BLOCK_SIZE versions in separate file
+ * (index file name + VERSION_COUNTER_SUFFIX): |last reserved version - 8 bytes|, so file is written once per block,
+ * not on every put. Opened index continues after the last reserved version, so versions of unfinished block are skipped,
+ * but never repeated. Reservation is written before cells and is kept when index is created again.
+ *
+ * Cells have expiration time field if index is created with expiration (EXPIRATION_FLAG).
+ * Expiration time is in milliseconds since epoch, 0 means that ID doesn't expire, every put of the ID clears it.
+ * Expired IDs are absent for lookups until they are removed, but still have cells in their chains.
+ * Expired IDs are found by sequential scan of cells (see findExpired()).
+ *
+ * Batched lookup groups IDs by bucket: head pointers are read by one read call,
+ * every chain is walked once for all IDs of its bucket, every cell is read by one read call.
+ *
+ * Statistics are collected by walking chains through one cached block of cells.
  *
  */
 public class FileBasedIndex {
 	private static final int ESTIMATED_HASH_TABLE_SIZE = 10_000;
 
-	private static final long FIRST_POINTER_POSITION = 0;
-	private static final int CELL_SIZE = 3 * TypeSizes.BYTES_IN_LONG + TypeSizes.BYTES_IN_INT;
+	private static final int MAGIC = 0x494E4458;
+	private static final int FORMAT_VERSION = 1;
+	private static final long MAGIC_POSITION = 0;
+	private static final long FORMAT_VERSION_POSITION = MAGIC_POSITION + TypeSizes.BYTES_IN_INT;
+	private static final long POINTERS_POSITION = FORMAT_VERSION_POSITION + TypeSizes.BYTES_IN_INT;
+	private static final int OLD_FORMAT_VERSION = 0;
+	private static final long OLD_POINTERS_POSITION = 0;
 	private static final long END_POINTER = -1;
+	private static final int BUILD_BUFFER_SIZE = 1024 * 1024;
+	private static final int STATISTICS_READ_SIZE = 4 * 1024 * 1024;
+	private static final int VERSIONS_FLAG = 1 << 31;
+	private static final long NO_VERSION = 0;
+	private static final String VERSION_COUNTER_SUFFIX = ".ver";
+	private static final long LAST_VERSION_POSITION = 0;
+	private static final long VERSION_BLOCK_SIZE = 4096;
+	private static final int EXPIRATION_FLAG = 1 << 30;
+	private static final long NO_EXPIRATION = 0;
 
 	private final int HASH_TABLE_SIZE;
+	private final boolean OLD_FORMAT;
+	private final long FIRST_POINTER_POSITION;
 	private final long END_OF_FILE_POSITION;
+	private final long INLINE_CAPACITY_POSITION;
 	private final long FIRST_CELL_POSITION;
+	private final int INLINE_CAPACITY;
+	private final boolean VERSIONS;
+	private final boolean EXPIRATION;
+	private final int CELL_OFFSET_EXPIRATION;
+	private final int CELL_OFFSET_INLINE_OBJECT;
+	private final int CELL_SIZE;
 
 	private String fileName;
+	private String versionCounterFileName;
+	private long lastVersion;
+	private long reservedVersion;
 
 	public FileBasedIndex(String fileName, boolean newIndex) throws IOException {
-		this(fileName, newIndex, ESTIMATED_HASH_TABLE_SIZE);
+		this(fileName, newIndex, DirectoryStorageSettings.DEFAULT);
+	}
+
+	public FileBasedIndex(String fileName, boolean newIndex, DirectoryStorageSettings settings) throws IOException {
+		this(fileName, newIndex, ESTIMATED_HASH_TABLE_SIZE, settings);
 	}
 
 	FileBasedIndex(String fileName, boolean newIndex, int HASH_TABLE_SIZE) throws IOException {
+		this(fileName, newIndex, HASH_TABLE_SIZE, DirectoryStorageSettings.DEFAULT);
+	}
+
+	FileBasedIndex(String fileName, boolean newIndex, int HASH_TABLE_SIZE, DirectoryStorageSettings settings) throws IOException {
 		this.HASH_TABLE_SIZE = HASH_TABLE_SIZE;
+		this.fileName = fileName;
+		this.OLD_FORMAT = !newIndex && readFormatVersion() == OLD_FORMAT_VERSION;
+		this.FIRST_POINTER_POSITION = OLD_FORMAT ? OLD_POINTERS_POSITION : POINTERS_POSITION;
 		this.END_OF_FILE_POSITION = FIRST_POINTER_POSITION + (this.HASH_TABLE_SIZE * TypeSizes.BYTES_IN_LONG);
-		this.FIRST_CELL_POSITION = this.END_OF_FILE_POSITION + TypeSizes.BYTES_IN_LONG;
+		this.INLINE_CAPACITY_POSITION = this.END_OF_FILE_POSITION + TypeSizes.BYTES_IN_LONG;
+		this.FIRST_CELL_POSITION = this.INLINE_CAPACITY_POSITION + (OLD_FORMAT ? 0 : TypeSizes.BYTES_IN_INT);
 
-		this.fileName = fileName;
 		if (newIndex) {
 			File file = new File(this.fileName);
 			if (file.exists()) {
 				file.delete();
 			}
 			file.createNewFile();
-			try (FileReaderWriter out = FileReaderWriter.openForWriting(this.fileName)) {
+			try (FileReaderWriter out = FileReaderWriter.openForWriting(this.fileName, FileRole.INDEX)) {
+				out.writeInt(MAGIC_POSITION, MAGIC);
+				out.writeInt(FORMAT_VERSION_POSITION, FORMAT_VERSION);
 				for (int i = 0; i < this.HASH_TABLE_SIZE; i++) {
 					out.writeLong(FIRST_POINTER_POSITION + (i * TypeSizes.BYTES_IN_LONG), END_POINTER);
 				}
 				out.writeLong(END_OF_FILE_POSITION, FIRST_CELL_POSITION);
+				out.writeInt(INLINE_CAPACITY_POSITION, settings.getInlineThreshold() |
+															(settings.isVersioning() ? VERSIONS_FLAG : 0) |
+															(settings.isExpiration() ? EXPIRATION_FLAG : 0));
+			}
+		}
+		int inlineCapacityAndFlags = 0;
+		if (!OLD_FORMAT) {
+			try (FileReaderWriter in = FileReaderWriter.openForReading(this.fileName, FileRole.INDEX)) {
+				inlineCapacityAndFlags = in.readInt(INLINE_CAPACITY_POSITION);
+			}
+		}
+		this.INLINE_CAPACITY = inlineCapacityAndFlags & ~(VERSIONS_FLAG | EXPIRATION_FLAG);
+		this.VERSIONS = (inlineCapacityAndFlags & VERSIONS_FLAG) != 0;
+		this.EXPIRATION = (inlineCapacityAndFlags & EXPIRATION_FLAG) != 0;
+		this.CELL_OFFSET_EXPIRATION = ObjectAddressCell.CELL_OFFSET_VERSION + (VERSIONS ? TypeSizes.BYTES_IN_LONG : 0);
+		this.CELL_OFFSET_INLINE_OBJECT = CELL_OFFSET_EXPIRATION + (EXPIRATION ? TypeSizes.BYTES_IN_LONG : 0);
+		this.CELL_SIZE = CELL_OFFSET_INLINE_OBJECT + this.INLINE_CAPACITY;
+
+		this.versionCounterFileName = this.fileName + VERSION_COUNTER_SUFFIX;
+		if (VERSIONS) {
+			if (newIndex) {
+				new File(versionCounterFileName).createNewFile();
+			}
+			reservedVersion = readLastVersion();
+			lastVersion = reservedVersion;
+		}
+	}
+
+	// Index of old format starts with head pointer of first bucket, its high half is never equal to magic
+	private int readFormatVersion() throws IOException {
+		if (new File(fileName).length() < POINTERS_POSITION) {
+			throw new IOException("Index " + fileName + " has no header");
+		}
+		try (FileReaderWriter in = FileReaderWriter.openForReading(fileName, FileRole.INDEX)) {
+			if (in.readInt(MAGIC_POSITION) != MAGIC) {
+				return OLD_FORMAT_VERSION;
 			}
+			int formatVersion = in.readInt(FORMAT_VERSION_POSITION);
+			if (formatVersion != FORMAT_VERSION) {
+				throw new IOException("Unsupported format version of index " + fileName + ": " + formatVersion +
+											  ", expected version " + FORMAT_VERSION);
+			}
+			return formatVersion;
 		}
 	}
 
+	public int getInlineCapacity() {
+		return INLINE_CAPACITY;
+	}
+
+	public boolean hasVersions() {
+		return VERSIONS;
+	}
+
+	public boolean hasExpiration() {
+		return EXPIRATION;
+	}
+
+	private int getInlineCapacityAndFlags() {
+		return INLINE_CAPACITY | (VERSIONS ? VERSIONS_FLAG : 0) | (EXPIRATION ? EXPIRATION_FLAG : 0);
+	}
+
 	public ObjectAddress getAddress(long ID) throws IndexException {
 		return getAddress(new long[] {ID})[0];
 	}
 
 	public ObjectAddress[] getAddress(long[] ID) throws IndexException {
-		try (FileReaderWriter in = FileReaderWriter.openForReading(fileName)) {
-			int resultCount = ID.length;
-			ObjectAddress[] result = new ObjectAddress[resultCount];
-			for (int i = 0; i < resultCount; i++) {
-				result[i] = getAddress(in, ID[i]);
+		return getAddress(ID, false);
+	}
+
+	// Addresses of expired IDs are needed to release their records
+	ObjectAddress[] getAddress(long[] ID, boolean includeExpired) throws IndexException {
+		ObjectAddress[] result = new ObjectAddress[ID.length];
+		find(ID, result, null, includeExpired);
+		return result;
+	}
+
+	public long getVersion(long ID) throws IndexException {
+		return getVersion(new long[] {ID})[0];
+	}
+
+	/**
+	 * Returns versions of IDs, 0 for absent IDs.
+	 */
+	public long[] getVersion(long[] ID) throws IndexException {
+		if (!VERSIONS) {
+			throw new IndexException("Index has no versions");
+		}
+		long[] result = new long[ID.length];
+		find(ID, new ObjectAddress[ID.length], result, false);
+		return result;
+	}
+
+	/**
+	 * Sets expiration times of IDs, 0 means that ID doesn't expire.
+	 * Returns false for absent and expired IDs, their expiration times aren't changed.
+	 */
+	public boolean[] setExpiration(long[] ID, long[] time) throws IndexException {
+		return setExpiration(ID, time, false);
+	}
+
+	// Expiration times of expired IDs are restored on rebuild
+	boolean[] setExpiration(long[] ID, long[] time, boolean includeExpired) throws IndexException {
+		if (!EXPIRATION) {
+			throw new IndexException("Index has no expiration times");
+		}
+		boolean[] result = new boolean[ID.length];
+		long now = System.currentTimeMillis();
+		try (FileReaderWriter rw = FileReaderWriter.openForReadingWriting(fileName, FileRole.INDEX)) {
+			for (int i = 0; i < ID.length; i++) {
+				long cellPointer = rw.readLong(getPointerAddress(ID[i]));
+				while (cellPointer != END_POINTER) {
+					ObjectAddressCell cell = new ObjectAddressCell(cellPointer);
+					CellData data = cell.parse(rw);
+					if (data.getID() == ID[i]) {
+						if (includeExpired || !isExpired(data, now)) {
+							cell.writeExpiration(rw, time[i]);
+							result[i] = true;
+						}
+						break;
+					}
+					cellPointer = data.getNextPointer();
+				}
+			}
+		} catch (IOException e) {
+			throw new IndexException(e);
+		}
+		return result;
+	}
+
+	private boolean isExpired(CellData data, long now) {
+		return EXPIRATION && data.getExpiration() != NO_EXPIRATION && data.getExpiration() <= now;
+	}
+
+	// Fills addresses and versions (if not null) of IDs
+	private void find(long[] ID, ObjectAddress[] result, long[] versions, boolean includeExpired) throws IndexException {
+		if (ID.length == 0) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		TreeMap<Long, List<Integer>> IDsByBucket = new TreeMap<>();
+		for (int i = 0; i < ID.length; i++) {
+			result[i] = ObjectAddress.EMPTY_ADDRESS;
+			long bucket = getBucket(ID[i]);
+			if (!IDsByBucket.containsKey(bucket)) {
+				IDsByBucket.put(bucket, new ArrayList<Integer>());
+			}
+			IDsByBucket.get(bucket).add(i);
+		}
+
+		try (FileReaderWriter in = FileReaderWriter.openForReading(fileName, FileRole.INDEX)) {
+			long firstBucket = IDsByBucket.firstKey();
+			long lastBucket = IDsByBucket.lastKey();
+			ByteBuffer heads = ByteBuffer.wrap(in.readByte(FIRST_POINTER_POSITION + (firstBucket * TypeSizes.BYTES_IN_LONG),
+																  (int) (lastBucket - firstBucket + 1) * TypeSizes.BYTES_IN_LONG));
+			long maxCellsCount = (in.readLong(END_OF_FILE_POSITION) - FIRST_CELL_POSITION) / CELL_SIZE;
+
+			for (Map.Entry<Long, List<Integer>> entry : IDsByBucket.entrySet()) {
+				Map<Long, List<Integer>> wanted = new HashMap<>();
+				for (int index : entry.getValue()) {
+					if (!wanted.containsKey(ID[index])) {
+						wanted.put(ID[index], new ArrayList<Integer>());
+					}
+					wanted.get(ID[index]).add(index);
+				}
+
+				long cellPointer = heads.getLong((int) (entry.getKey() - firstBucket) * TypeSizes.BYTES_IN_LONG);
+				long cellsCount = 0;
+				while (cellPointer != END_POINTER && !wanted.isEmpty()) {
+					if (cellsCount++ > maxCellsCount) {
+						throw new IndexException("Broken index chain");
+					}
+					ObjectAddressCell cell = new ObjectAddressCell(cellPointer);
+					ByteBuffer cellBytes = cell.read(in);
+					CellData data = cell.parse(cellBytes);
+					List<Integer> indices = wanted.remove(data.getID());
+					if (indices != null && (includeExpired || !isExpired(data, now))) {
+						ObjectAddress address = (data.getFileNumber() == ObjectAddress.INLINE_FILE_NUMBER) ?
+														ObjectAddress.inline(cell.readInlineObject(cellBytes, (int) data.getFilePosition())) :
+														new ObjectAddress(data.getFileNumber(), data.getFilePosition());
+						for (int index : indices) {
+							result[index] = address;
+							if (versions != null) {
+								versions[index] = data.getVersion();
+							}
+						}
+					}
+					cellPointer = data.getNextPointer();
+				}
+			}
+		} catch (IOException e) {
+			throw new IndexException(e);
+		}
+	}
+
+	/**
+	 * Collects objects stored right in the index. Used to restore them on rebuild.
+	 */
+	public Map<Long, byte[]> getInlineObjects() throws IndexException {
+		Map<Long, byte[]> result = new HashMap<>();
+		if (INLINE_CAPACITY == 0) {
+			return result;
+		}
+		try (FileReaderWriter in = FileReaderWriter.openForReading(fileName, FileRole.INDEX)) {
+			long endOfFile = in.readLong(END_OF_FILE_POSITION);
+			long maxCellsCount = (endOfFile - FIRST_CELL_POSITION) / CELL_SIZE;
+			for (int i = 0; i < HASH_TABLE_SIZE; i++) {
+				long cellPointer = in.readLong(FIRST_POINTER_POSITION + (i * TypeSizes.BYTES_IN_LONG));
+				long cellsCount = 0;
+				while (cellPointer != END_POINTER) {
+					if (cellPointer < FIRST_CELL_POSITION || cellPointer >= endOfFile || cellsCount++ > maxCellsCount) {
+						throw new IndexException("Broken index chain");
+					}
+					ObjectAddressCell cell = new ObjectAddressCell(cellPointer);
+					CellData data = cell.parse(in);
+					if (data.getFileNumber() == ObjectAddress.INLINE_FILE_NUMBER) {
+						result.put(data.getID(), cell.readInlineObject(in, (int) data.getFilePosition()));
+					}
+					cellPointer = data.getNextPointer();
+				}
 			}
 			return result;
 		} catch (IOException e) {
@@ -69,23 +357,255 @@ public class FileBasedIndex {
 		}
 	}
 
-	private ObjectAddress getAddress(FileReaderWriter in, long ID) throws IOException {
-		long cellPointer = getPointerAddress(ID);
+	/**
+	 * Walks chains of all buckets through one block of cells (STATISTICS_READ_SIZE bytes), block is read again only
+	 * when chain leaves it. Chains of built index are contiguous, so cells are mostly read once, memory doesn't grow
+	 * with number of cells.
+	 */
+	public IndexStatistics getStatistics() throws IndexException {
+		try (FileReaderWriter in = FileReaderWriter.openForReading(fileName, FileRole.INDEX)) {
+			long endOfFile = in.readLong(END_OF_FILE_POSITION);
+			long cellsCount = (endOfFile - FIRST_CELL_POSITION) / CELL_SIZE;
+			ByteBuffer heads = ByteBuffer.wrap(in.readByte(FIRST_POINTER_POSITION, HASH_TABLE_SIZE * TypeSizes.BYTES_IN_LONG));
+
+			int cellsPerRead = Math.max(1, STATISTICS_READ_SIZE / CELL_SIZE);
+			ByteBuffer block = null;
+			long blockFirstCell = -1;
+			int[] chainLengths = new int[HASH_TABLE_SIZE];
+			for (int bucket = 0; bucket < HASH_TABLE_SIZE; bucket++) {
+				long cellPointer = heads.getLong(bucket * TypeSizes.BYTES_IN_LONG);
+				while (cellPointer != END_POINTER) {
+					if (cellPointer < FIRST_CELL_POSITION || cellPointer >= endOfFile ||
+								(cellPointer - FIRST_CELL_POSITION) % CELL_SIZE != 0 || chainLengths[bucket] >= cellsCount) {
+						throw new IndexException("Broken index chain");
+					}
+					chainLengths[bucket]++;
+					long cell = (cellPointer - FIRST_CELL_POSITION) / CELL_SIZE;
+					if (block == null || cell < blockFirstCell || cell >= blockFirstCell + cellsPerRead) {
+						blockFirstCell = cell - (cell % cellsPerRead);
+						int count = (int) Math.min(cellsPerRead, cellsCount - blockFirstCell);
+						block = ByteBuffer.wrap(in.readByte(FIRST_CELL_POSITION + (blockFirstCell * CELL_SIZE), count * CELL_SIZE));
+					}
+					cellPointer = block.getLong((int) (cell - blockFirstCell) * CELL_SIZE + ObjectAddressCell.CELL_OFFSET_NEXT_POINTER);
+				}
+			}
+			return new IndexStatistics(chainLengths, cellsCount, new File(fileName).length());
+		} catch (IOException e) {
+			throw new IndexException(e);
+		}
+	}
+
+	/**
+	 * Finds live IDs with expiration times not later than time, fills their addresses and expiration times (if maps are not null).
+	 * Addresses of inline objects are empty inline addresses.
+	 * Cells are read sequentially by big parts and chains are walked in memory.
+	 */
+	void findExpired(long time, Map<Long, ObjectAddress> addresses, Map<Long, Long> times) throws IndexException {
+		if (!EXPIRATION) {
+			return;
+		}
+		try (FileReaderWriter in = FileReaderWriter.openForReading(fileName, FileRole.INDEX)) {
+			long endOfFile = in.readLong(END_OF_FILE_POSITION);
+			long cellsCount = (endOfFile - FIRST_CELL_POSITION) / CELL_SIZE;
+			if (cellsCount > Integer.MAX_VALUE) {
+				throw new IndexException("Too many cells for expiration scan: " + cellsCount);
+			}
+			ByteBuffer heads = ByteBuffer.wrap(in.readByte(FIRST_POINTER_POSITION, HASH_TABLE_SIZE * TypeSizes.BYTES_IN_LONG));
+
+			long[] nextPointers = new long[(int) cellsCount];
+			Map<Integer, CellData> expired = new HashMap<>();
+			int cellsPerRead = Math.max(1, STATISTICS_READ_SIZE / CELL_SIZE);
+			for (int first = 0; first < cellsCount; first += cellsPerRead) {
+				int count = (int) Math.min(cellsPerRead, cellsCount - first);
+				ByteBuffer cells = ByteBuffer.wrap(in.readByte(FIRST_CELL_POSITION + ((long) first * CELL_SIZE), count * CELL_SIZE));
+				for (int i = 0; i < count; i++) {
+					int cellStart = i * CELL_SIZE;
+					nextPointers[first + i] = cells.getLong(cellStart + ObjectAddressCell.CELL_OFFSET_NEXT_POINTER);
+					long expiration = cells.getLong(cellStart + CELL_OFFSET_EXPIRATION);
+					if (expiration != NO_EXPIRATION && expiration <= time) {
+						expired.put(first + i, new CellData(cells.getLong(cellStart + ObjectAddressCell.CELL_OFFSET_ID),
+															 cells.getInt(cellStart + ObjectAddressCell.CELL_OFFSET_FILE_NUM),
+															 cells.getLong(cellStart + ObjectAddressCell.CELL_OFFSET_FILE_POSITION),
+															 nextPointers[first + i], NO_VERSION, expiration));
+					}
+				}
+			}
+			if (expired.isEmpty()) {
+				return;
+			}
 
-		while (cellPointer != END_POINTER) {
-			CellData data = new ObjectAddressCell(cellPointer).parse(in);
-			if (data.getID() == ID) {
-				return new ObjectAddress(data.getFileNumber(), data.getFilePosition());
+			// Removed cells stay in file, only cells reachable from heads are live
+			for (int bucket = 0; bucket < HASH_TABLE_SIZE; bucket++) {
+				long cellPointer = heads.getLong(bucket * TypeSizes.BYTES_IN_LONG);
+				long chainLength = 0;
+				while (cellPointer != END_POINTER) {
+					if (cellPointer < FIRST_CELL_POSITION || cellPointer >= endOfFile ||
+								(cellPointer - FIRST_CELL_POSITION) % CELL_SIZE != 0 || chainLength++ >= cellsCount) {
+						throw new IndexException("Broken index chain");
+					}
+					int cellIndex = (int) ((cellPointer - FIRST_CELL_POSITION) / CELL_SIZE);
+					CellData data = expired.get(cellIndex);
+					if (data != null) {
+						if (addresses != null) {
+							addresses.put(data.getID(), (data.getFileNumber() == ObjectAddress.INLINE_FILE_NUMBER) ?
+																ObjectAddress.inline(new byte[0]) :
+																new ObjectAddress(data.getFileNumber(), data.getFilePosition()));
+						}
+						if (times != null) {
+							times.put(data.getID(), data.getExpiration());
+						}
+					}
+					cellPointer = nextPointers[cellIndex];
+				}
 			}
+		} catch (IOException e) {
+			throw new IndexException(e);
+		}
+	}
 
-			cellPointer = data.getNextPointer();
+	/**
+	 * Collects live IDs of objects stored in containers by their addresses, expired IDs are skipped.
+	 * In deduplication mode several IDs could share one address.
+	 * Cells are read sequentially by big parts and chains are walked in memory.
+	 * Needs 28 bytes of memory per cell and entry of map per live ID.
+	 */
+	Map<ObjectAddress, List<Long>> getIDsByAddress() throws IndexException {
+		Map<ObjectAddress, List<Long>> result = new HashMap<>();
+		long now = System.currentTimeMillis();
+		try (FileReaderWriter in = FileReaderWriter.openForReading(fileName, FileRole.INDEX)) {
+			long endOfFile = in.readLong(END_OF_FILE_POSITION);
+			long cellsCount = (endOfFile - FIRST_CELL_POSITION) / CELL_SIZE;
+			if (cellsCount > Integer.MAX_VALUE) {
+				throw new IndexException("Too many cells for address scan: " + cellsCount);
+			}
+			ByteBuffer heads = ByteBuffer.wrap(in.readByte(FIRST_POINTER_POSITION, HASH_TABLE_SIZE * TypeSizes.BYTES_IN_LONG));
+
+			long[] nextPointers = new long[(int) cellsCount];
+			long[] IDs = new long[(int) cellsCount];
+			int[] fileNumbers = new int[(int) cellsCount];
+			long[] filePositions = new long[(int) cellsCount];
+			int cellsPerRead = Math.max(1, STATISTICS_READ_SIZE / CELL_SIZE);
+			for (int first = 0; first < cellsCount; first += cellsPerRead) {
+				int count = (int) Math.min(cellsPerRead, cellsCount - first);
+				ByteBuffer cells = ByteBuffer.wrap(in.readByte(FIRST_CELL_POSITION + ((long) first * CELL_SIZE), count * CELL_SIZE));
+				for (int i = 0; i < count; i++) {
+					int cellStart = i * CELL_SIZE;
+					nextPointers[first + i] = cells.getLong(cellStart + ObjectAddressCell.CELL_OFFSET_NEXT_POINTER);
+					IDs[first + i] = cells.getLong(cellStart + ObjectAddressCell.CELL_OFFSET_ID);
+					fileNumbers[first + i] = cells.getInt(cellStart + ObjectAddressCell.CELL_OFFSET_FILE_NUM);
+					filePositions[first + i] = cells.getLong(cellStart + ObjectAddressCell.CELL_OFFSET_FILE_POSITION);
+					long expiration = EXPIRATION ? cells.getLong(cellStart + CELL_OFFSET_EXPIRATION) : NO_EXPIRATION;
+					if (expiration != NO_EXPIRATION && expiration <= now) {
+						fileNumbers[first + i] = ObjectAddress.INLINE_FILE_NUMBER;
+					}
+				}
+			}
+
+			// Removed cells stay in file, only cells reachable from heads are live
+			for (int bucket = 0; bucket < HASH_TABLE_SIZE; bucket++) {
+				long cellPointer = heads.getLong(bucket * TypeSizes.BYTES_IN_LONG);
+				long chainLength = 0;
+				while (cellPointer != END_POINTER) {
+					if (cellPointer < FIRST_CELL_POSITION || cellPointer >= endOfFile ||
+								(cellPointer - FIRST_CELL_POSITION) % CELL_SIZE != 0 || chainLength++ >= cellsCount) {
+						throw new IndexException("Broken index chain");
+					}
+					int cellIndex = (int) ((cellPointer - FIRST_CELL_POSITION) / CELL_SIZE);
+					if (fileNumbers[cellIndex] != ObjectAddress.INLINE_FILE_NUMBER) {
+						ObjectAddress address = new ObjectAddress(fileNumbers[cellIndex], filePositions[cellIndex]);
+						if (!result.containsKey(address)) {
+							result.put(address, new ArrayList<Long>(1));
+						}
+						result.get(address).add(IDs[cellIndex]);
+					}
+					cellPointer = nextPointers[cellIndex];
+				}
+			}
+			return result;
+		} catch (IOException e) {
+			throw new IndexException(e);
 		}
-		return ObjectAddress.EMPTY_ADDRESS;
+	}
+
+	long getBucket(long ID) {
+		return Math.abs(ID % HASH_TABLE_SIZE);
 	}
 
 	private long getPointerAddress(long ID) {
-		long hash = Math.abs(ID) % HASH_TABLE_SIZE;
-		return FIRST_POINTER_POSITION + (hash * TypeSizes.BYTES_IN_LONG);
+		return FIRST_POINTER_POSITION + (getBucket(ID) * TypeSizes.BYTES_IN_LONG);
+	}
+
+	/**
+	 * Replaces content of index with entries sorted by bucket (see IndexEntrySorter), one entry for every ID.
+	 * Cells of one bucket are written one after another in single sequential pass, head pointers are written at the end.
+	 */
+	void build(Iterator<IndexEntrySorter.Entry> sortedEntries) throws IndexException {
+		long[] heads = new long[HASH_TABLE_SIZE];
+		Arrays.fill(heads, END_POINTER);
+		long endOfFile = FIRST_CELL_POSITION;
+		try {
+			long version = VERSIONS ? lastVersion : NO_VERSION;
+			try (FileReaderWriter out = FileReaderWriter.openForWriting(fileName, FileRole.INDEX)) {
+				out.truncate(FIRST_CELL_POSITION);
+			}
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName, true), BUILD_BUFFER_SIZE))) {
+				IndexEntrySorter.Entry previous = null;
+				while (sortedEntries.hasNext()) {
+					IndexEntrySorter.Entry entry = sortedEntries.next();
+					if (previous != null) {
+						boolean sameBucket = getBucket(previous.getID()) == getBucket(entry.getID());
+						writeCell(out, previous, sameBucket ? endOfFile + CELL_SIZE : END_POINTER, VERSIONS ? ++version : NO_VERSION);
+						endOfFile += CELL_SIZE;
+					}
+					if (previous == null || getBucket(previous.getID()) != getBucket(entry.getID())) {
+						heads[(int) getBucket(entry.getID())] = endOfFile;
+					}
+					previous = entry;
+				}
+				if (previous != null) {
+					writeCell(out, previous, END_POINTER, VERSIONS ? ++version : NO_VERSION);
+					endOfFile += CELL_SIZE;
+				}
+			}
+			if (VERSIONS) {
+				lastVersion = version;
+				reserveVersions(0);
+			}
+
+			ByteBuffer header = ByteBuffer.allocate((int) (FIRST_CELL_POSITION - FIRST_POINTER_POSITION));
+			for (long head : heads) {
+				header.putLong(head);
+			}
+			header.putLong(endOfFile);
+			if (!OLD_FORMAT) {
+				header.putInt(getInlineCapacityAndFlags());
+			}
+			try (FileReaderWriter out = FileReaderWriter.openForWriting(fileName, FileRole.INDEX)) {
+				out.writeBytes(FIRST_POINTER_POSITION, header.array());
+			}
+		} catch (IOException | IllegalStateException e) {
+			throw new IndexException(e);
+		}
+	}
+
+	private void writeCell(DataOutputStream out, IndexEntrySorter.Entry entry, long nextPointer, long version) throws IOException {
+		ObjectAddress address = entry.getAddress();
+		byte[] inlineObject = address.isInline() ? address.getInlineObject() : new byte[0];
+		if (inlineObject.length > INLINE_CAPACITY) {
+			throw new IOException("Object is too big to be stored in index");
+		}
+		out.writeLong(nextPointer);
+		out.writeLong(entry.getID());
+		out.writeInt(address.getFileNumber());
+		out.writeLong(address.getFilePosition());
+		if (VERSIONS) {
+			out.writeLong(version);
+		}
+		if (EXPIRATION) {
+			out.writeLong(NO_EXPIRATION);
+		}
+		out.write(inlineObject);
+		out.write(new byte[INLINE_CAPACITY - inlineObject.length]);
 	}
 
 	public void removeAddress(long ID) throws IndexException {
@@ -93,7 +613,7 @@ public class FileBasedIndex {
 	}
 
 	public void removeAddress(long[] ID) throws IndexException {
-		try (FileReaderWriter rw = FileReaderWriter.openForReadingWriting(fileName)) {
+		try (FileReaderWriter rw = FileReaderWriter.openForReadingWriting(fileName, FileRole.INDEX)) {
 			for (int i = 0; i < ID.length; i++) {
 				removeAddress(rw, ID[i]);
 			}
@@ -102,14 +622,16 @@ public class FileBasedIndex {
 		}
 	}
 
+	// Bucket pointer is used as next pointer of sentinel cell, which is never compared with ID
 	private void removeAddress(FileReaderWriter rw, long ID) throws IOException {
-		long cellPointer = getPointerAddress(ID);
+		long bucketPointer = getPointerAddress(ID);
+		long cellPointer = bucketPointer;
 		long prevPointer = -1;
 		boolean found = false;
 		CellData data = null;
 		while (cellPointer != END_POINTER) {
 			data = new ObjectAddressCell(cellPointer).parse(rw);
-			if (data.getID() == ID) {
+			if (cellPointer != bucketPointer && data.getID() == ID) {
 				found = true;
 				break;
 			}
@@ -131,22 +653,52 @@ public class FileBasedIndex {
 	}
 
 	public void putAddress(long[] ID, ObjectAddress[] address) throws IndexException {
-		try (FileReaderWriter rw = FileReaderWriter.openForReadingWriting(fileName)) {
-			for (int i = 0; i < ID.length; i++) {
-				putAddress(rw, ID[i], address[i]);
+		try {
+			long firstVersion = VERSIONS ? reserveVersions(ID.length) : NO_VERSION;
+			try (FileReaderWriter rw = FileReaderWriter.openForReadingWriting(fileName, FileRole.INDEX)) {
+				for (int i = 0; i < ID.length; i++) {
+					putAddress(rw, ID[i], address[i], VERSIONS ? firstVersion + i : NO_VERSION);
+				}
 			}
 		} catch (IOException e) {
 			throw new IndexException(e);
 		}
 	}
 
-	private void putAddress(FileReaderWriter rw, long ID, ObjectAddress address) throws IOException {
-		long cellPointer = getPointerAddress(ID);
+	// Returns first of count versions, counter is advanced before they are used
+	private long reserveVersions(int count) throws IOException {
+		long result = lastVersion + 1;
+		lastVersion += count;
+		if (lastVersion >= reservedVersion) {
+			writeLastVersion(lastVersion + VERSION_BLOCK_SIZE);
+			reservedVersion = lastVersion + VERSION_BLOCK_SIZE;
+		}
+		return result;
+	}
+
+	private long readLastVersion() throws IOException {
+		try (FileReaderWriter in = FileReaderWriter.openForReading(versionCounterFileName, FileRole.INDEX)) {
+			return in.readLong(LAST_VERSION_POSITION);
+		}
+	}
+
+	private void writeLastVersion(long version) throws IOException {
+		try (FileReaderWriter out = FileReaderWriter.openForWriting(versionCounterFileName, FileRole.INDEX)) {
+			out.writeLong(LAST_VERSION_POSITION, version);
+		}
+	}
+
+	private void putAddress(FileReaderWriter rw, long ID, ObjectAddress address, long version) throws IOException {
+		if (address.isInline() && address.getInlineObject().length > INLINE_CAPACITY) {
+			throw new IOException("Object is too big to be stored in index");
+		}
+		long bucketPointer = getPointerAddress(ID);
+		long cellPointer = bucketPointer;
 		long prevPointer = -1;
 		boolean found = false;
 		while (cellPointer != END_POINTER) {
 			CellData data = new ObjectAddressCell(cellPointer).parse(rw);
-			if (data.getID() == ID) {
+			if (cellPointer != bucketPointer && data.getID() == ID) {
 				found = true;
 				break;
 			}
@@ -160,7 +712,7 @@ public class FileBasedIndex {
 			rw.writeLong(END_OF_FILE_POSITION, endOfFile + CELL_SIZE);
 			new ObjectAddressCell(nextPointer).writeNextPointer(rw, END_POINTER);
 		}
-		new ObjectAddressCell(nextPointer).writeIDAndAddress(rw, ID, address);
+		new ObjectAddressCell(nextPointer).writeIDAndAddress(rw, ID, address, version);
 		if (prevPointer != -1) {
 			new ObjectAddressCell(prevPointer).writeNextPointer(rw, nextPointer);
 		}
@@ -171,6 +723,7 @@ public class FileBasedIndex {
 		private static final int CELL_OFFSET_ID = CELL_OFFSET_NEXT_POINTER + TypeSizes.BYTES_IN_LONG;
 		private static final int CELL_OFFSET_FILE_NUM = CELL_OFFSET_ID + TypeSizes.BYTES_IN_LONG;
 		private static final int CELL_OFFSET_FILE_POSITION = CELL_OFFSET_FILE_NUM + TypeSizes.BYTES_IN_INT;
+		private static final int CELL_OFFSET_VERSION = CELL_OFFSET_FILE_POSITION + TypeSizes.BYTES_IN_LONG;
 
 		private long position;
 
@@ -183,13 +736,56 @@ public class FileBasedIndex {
 			int fileNumber = in.readInt(position + CELL_OFFSET_FILE_NUM);
 			long filePosition = in.readLong(position + CELL_OFFSET_FILE_POSITION);
 			long nextPointer = in.readLong(position + CELL_OFFSET_NEXT_POINTER);
-			return new CellData(ID, fileNumber, filePosition, nextPointer);
+			long version = VERSIONS ? in.readLong(position + CELL_OFFSET_VERSION) : NO_VERSION;
+			long expiration = EXPIRATION ? in.readLong(position + CELL_OFFSET_EXPIRATION) : NO_EXPIRATION;
+			return new CellData(ID, fileNumber, filePosition, nextPointer, version, expiration);
+		}
+
+		public ByteBuffer read(FileReaderWriter in) throws IOException {
+			return ByteBuffer.wrap(in.readByte(position, CELL_SIZE));
 		}
 
-		public ObjectAddressCell writeIDAndAddress(FileReaderWriter out, long ID, ObjectAddress address) throws IOException {
+		public CellData parse(ByteBuffer cell) {
+			return new CellData(cell.getLong(CELL_OFFSET_ID), cell.getInt(CELL_OFFSET_FILE_NUM),
+									   cell.getLong(CELL_OFFSET_FILE_POSITION), cell.getLong(CELL_OFFSET_NEXT_POINTER),
+									   VERSIONS ? cell.getLong(CELL_OFFSET_VERSION) : NO_VERSION,
+									   EXPIRATION ? cell.getLong(CELL_OFFSET_EXPIRATION) : NO_EXPIRATION);
+		}
+
+		public ObjectAddressCell writeIDAndAddress(FileReaderWriter out, long ID, ObjectAddress address, long version) throws IOException {
 			out.writeLong(position + CELL_OFFSET_ID, ID);
 			out.writeInt(position + CELL_OFFSET_FILE_NUM, address.getFileNumber());
 			out.writeLong(position + CELL_OFFSET_FILE_POSITION, address.getFilePosition());
+			if (VERSIONS) {
+				out.writeLong(position + CELL_OFFSET_VERSION, version);
+			}
+			if (EXPIRATION) {
+				out.writeLong(position + CELL_OFFSET_EXPIRATION, NO_EXPIRATION);
+			}
+			if (address.isInline() && address.getInlineObject().length > 0) {
+				out.writeBytes(position + CELL_OFFSET_INLINE_OBJECT, address.getInlineObject());
+			}
+			return this;
+		}
+
+		public byte[] readInlineObject(FileReaderWriter in, int size) throws IOException {
+			if (size < 0 || size > INLINE_CAPACITY) {
+				throw new IOException("Wrong inline object size: " + size);
+			}
+			return in.readByte(position + CELL_OFFSET_INLINE_OBJECT, size);
+		}
+
+		public byte[] readInlineObject(ByteBuffer cell, int size) throws IOException {
+			if (size < 0 || size > INLINE_CAPACITY) {
+				throw new IOException("Wrong inline object size: " + size);
+			}
+			byte[] result = new byte[size];
+			System.arraycopy(cell.array(), CELL_OFFSET_INLINE_OBJECT, result, 0, size);
+			return result;
+		}
+
+		public ObjectAddressCell writeExpiration(FileReaderWriter out, long time) throws IOException {
+			out.writeLong(position + CELL_OFFSET_EXPIRATION, time);
 			return this;
 		}
 
@@ -204,12 +800,24 @@ public class FileBasedIndex {
 		private int fileNumber;
 		private long filePosition;
 		private long nextPointer;
+		private long version;
+		private long expiration;
 
-		public CellData(long ID, int fileNumber, long filePosition, long nextPointer) {
+		public CellData(long ID, int fileNumber, long filePosition, long nextPointer, long version, long expiration) {
 			this.ID = ID;
 			this.fileNumber = fileNumber;
 			this.filePosition = filePosition;
 			this.nextPointer = nextPointer;
+			this.version = version;
+			this.expiration = expiration;
+		}
+
+		public long getVersion() {
+			return version;
+		}
+
+		public long getExpiration() {
+			return expiration;
 		}
 
 		public long getID() {
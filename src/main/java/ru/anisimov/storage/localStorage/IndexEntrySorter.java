@@ -0,0 +1,229 @@
+package ru.anisimov.storage.localStorage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * External sort of index entries by bucket of FileBasedIndex.
+ *
+ * Entries are collected in memory, every RUN_SIZE entries are sorted and written to separate run file.
+ * Sorted entries are produced by merge of all runs. If ID was added several times, only the entry
+ * with the biggest sequence number is produced, addresses of other entries are collected as superseded.
+ *
+ * Run file entry structure:
+ * |ID - 8 bytes| |sequence number - 8 bytes| |file number - 4 bytes| |file position - 8 bytes| |inline object - file position bytes|
+ *
+ */
+class IndexEntrySorter {
+	private static final int DEFAULT_RUN_SIZE = 1_000_000;
+	private static final int STREAM_BUFFER_SIZE = 1024 * 1024;
+
+	private final int RUN_SIZE;
+
+	private FileBasedIndex index;
+	private String runFilePrefix;
+	private List<Entry> entries = new ArrayList<>();
+	private List<String> runFiles = new ArrayList<>();
+	private PriorityQueue<RunReader> readers;
+
+	private final Comparator<Entry> comparator = new Comparator<Entry>() {
+		@Override
+		public int compare(Entry first, Entry second) {
+			int result = Long.compare(index.getBucket(first.ID), index.getBucket(second.ID));
+			if (result == 0) {
+				result = Long.compare(first.ID, second.ID);
+			}
+			return (result == 0) ? Long.compare(first.sequence, second.sequence) : result;
+		}
+	};
+
+	public IndexEntrySorter(FileBasedIndex index, String runFilePrefix) {
+		this(index, runFilePrefix, DEFAULT_RUN_SIZE);
+	}
+
+	IndexEntrySorter(FileBasedIndex index, String runFilePrefix, int RUN_SIZE) {
+		this.index = index;
+		this.runFilePrefix = runFilePrefix;
+		this.RUN_SIZE = RUN_SIZE;
+	}
+
+	public void add(long ID, long sequence, ObjectAddress address) throws IOException {
+		entries.add(new Entry(ID, sequence, address));
+		if (entries.size() >= RUN_SIZE) {
+			writeRun();
+		}
+	}
+
+	private void writeRun() throws IOException {
+		Collections.sort(entries, comparator);
+		String runFile = runFilePrefix + runFiles.size();
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile), STREAM_BUFFER_SIZE))) {
+			for (Entry entry : entries) {
+				entry.write(out);
+			}
+		}
+		runFiles.add(runFile);
+		entries.clear();
+	}
+
+	/**
+	 * Returns entries sorted by bucket, one entry for every ID.
+	 * Addresses of entries replaced by entries with same ID and bigger sequence number are added to superseded.
+	 * Run files should be removed by clear() after iteration.
+	 */
+	public Iterator<Entry> sortedEntries(final List<ObjectAddress> superseded) throws IOException {
+		if (!entries.isEmpty()) {
+			writeRun();
+		}
+		readers = new PriorityQueue<>(Math.max(1, runFiles.size()), new Comparator<RunReader>() {
+			@Override
+			public int compare(RunReader first, RunReader second) {
+				return comparator.compare(first.current, second.current);
+			}
+		});
+		for (String runFile : runFiles) {
+			RunReader reader = new RunReader(runFile);
+			if (reader.next()) {
+				readers.add(reader);
+			} else {
+				reader.close();
+			}
+		}
+
+		return new Iterator<Entry>() {
+			@Override
+			public boolean hasNext() {
+				return !readers.isEmpty();
+			}
+
+			@Override
+			public Entry next() {
+				if (readers.isEmpty()) {
+					throw new NoSuchElementException();
+				}
+				try {
+					Entry result = poll();
+					while (!readers.isEmpty() && readers.peek().current.ID == result.ID) {
+						superseded.add(result.address);
+						result = poll();
+					}
+					return result;
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+
+			private Entry poll() throws IOException {
+				RunReader reader = readers.poll();
+				Entry result = reader.current;
+				if (reader.next()) {
+					readers.add(reader);
+				} else {
+					reader.close();
+				}
+				return result;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	public void clear() throws IOException {
+		if (readers != null) {
+			for (RunReader reader : readers) {
+				reader.close();
+			}
+			readers = null;
+		}
+		for (String runFile : runFiles) {
+			new File(runFile).delete();
+		}
+		runFiles.clear();
+		entries.clear();
+	}
+
+	static class Entry {
+		private long ID;
+		private long sequence;
+		private ObjectAddress address;
+
+		private Entry(long ID, long sequence, ObjectAddress address) {
+			this.ID = ID;
+			this.sequence = sequence;
+			this.address = address;
+		}
+
+		public long getID() {
+			return ID;
+		}
+
+		public ObjectAddress getAddress() {
+			return address;
+		}
+
+		private void write(DataOutputStream out) throws IOException {
+			out.writeLong(ID);
+			out.writeLong(sequence);
+			out.writeInt(address.getFileNumber());
+			out.writeLong(address.getFilePosition());
+			if (address.isInline()) {
+				out.write(address.getInlineObject());
+			}
+		}
+
+		private static Entry read(DataInputStream in) throws IOException {
+			long ID = in.readLong();
+			long sequence = in.readLong();
+			int fileNumber = in.readInt();
+			long filePosition = in.readLong();
+			if (fileNumber != ObjectAddress.INLINE_FILE_NUMBER) {
+				return new Entry(ID, sequence, new ObjectAddress(fileNumber, filePosition));
+			}
+			byte[] object = new byte[(int) filePosition];
+			in.readFully(object);
+			return new Entry(ID, sequence, ObjectAddress.inline(object));
+		}
+	}
+
+	private static class RunReader {
+		private DataInputStream in;
+		private Entry current;
+
+		public RunReader(String fileName) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName), STREAM_BUFFER_SIZE));
+		}
+
+		public boolean next() throws IOException {
+			try {
+				current = Entry.read(in);
+				return true;
+			} catch (EOFException e) {
+				current = null;
+				return false;
+			}
+		}
+
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package ru.anisimov.storage.localStorage;
+
+import java.util.Arrays;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * State of FileBasedIndex hash table (see FileBasedIndex.getStatistics()).
+ *
+ * Load factor is number of entries per bucket. Dead cells are cells of removed entries,
+ * they are not reachable from buckets, but still take place in the file.
+ *
+ */
+public class IndexStatistics {
+	private final int[] sortedChainLengths;
+	private final long entriesCount;
+	private final long cellsCount;
+	private final long fileSize;
+
+	IndexStatistics(int[] chainLengths, long cellsCount, long fileSize) {
+		this.sortedChainLengths = chainLengths.clone();
+		Arrays.sort(this.sortedChainLengths);
+		long entries = 0;
+		for (int length : chainLengths) {
+			entries += length;
+		}
+		this.entriesCount = entries;
+		this.cellsCount = cellsCount;
+		this.fileSize = fileSize;
+	}
+
+	public int getBucketsCount() {
+		return sortedChainLengths.length;
+	}
+
+	public long getEntriesCount() {
+		return entriesCount;
+	}
+
+	public long getCellsCount() {
+		return cellsCount;
+	}
+
+	public long getDeadCellsCount() {
+		return cellsCount - entriesCount;
+	}
+
+	public long getFileSize() {
+		return fileSize;
+	}
+
+	public double getLoadFactor() {
+		return (double) entriesCount / sortedChainLengths.length;
+	}
+
+	public long getEmptyBucketsCount() {
+		int result = 0;
+		while (result < sortedChainLengths.length && sortedChainLengths[result] == 0) {
+			result++;
+		}
+		return result;
+	}
+
+	public int getMaxChainLength() {
+		return sortedChainLengths[sortedChainLengths.length - 1];
+	}
+
+	/**
+	 * Chain length, which is not exceeded by percentile percents of buckets.
+	 */
+	public int getChainLengthPercentile(double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("Percentile should be between 0 and 100");
+		}
+		int rank = (int) Math.ceil(percentile / 100 * sortedChainLengths.length);
+		return sortedChainLengths[Math.max(0, rank - 1)];
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuilder()
+					   .append("Buckets: ").append(getBucketsCount()).append(" (empty ").append(getEmptyBucketsCount()).append(")\n")
+					   .append("Entries: ").append(getEntriesCount()).append("\n")
+					   .append("Load factor: ").append(String.format("%.2f", getLoadFactor())).append("\n")
+					   .append("Chain length: p50 ").append(getChainLengthPercentile(50))
+					   .append(", p99 ").append(getChainLengthPercentile(99))
+					   .append(", max ").append(getMaxChainLength()).append("\n")
+					   .append("Dead cells: ").append(getDeadCellsCount()).append(" of ").append(getCellsCount()).append("\n")
+					   .append("File size: ").append(getFileSize()).append(" bytes").toString();
+	}
+}
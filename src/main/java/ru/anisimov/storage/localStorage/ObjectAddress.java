@@ -4,18 +4,38 @@ import java.util.Arrays;
 
 /**
  * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * Inline address carries small object itself instead of its position in container.
+ *
  */
 public class ObjectAddress {
 	public static final ObjectAddress EMPTY_ADDRESS = new ObjectAddress(-1, -1);
 
+	public static final int INLINE_FILE_NUMBER = -2;
+
 	private int fileNumber;
 	private long filePosition;
+	private byte[] inlineObject;
 
 	public ObjectAddress(int fileNumber, long filePosition) {
 		this.fileNumber = fileNumber;
 		this.filePosition = filePosition;
 	}
 
+	public static ObjectAddress inline(byte[] object) {
+		ObjectAddress result = new ObjectAddress(INLINE_FILE_NUMBER, object.length);
+		result.inlineObject = object;
+		return result;
+	}
+
+	public boolean isInline() {
+		return fileNumber == INLINE_FILE_NUMBER;
+	}
+
+	public byte[] getInlineObject() {
+		return inlineObject;
+	}
+
 	public int getFileNumber() {
 		return fileNumber;
 	}
@@ -25,12 +45,12 @@ public class ObjectAddress {
 	}
 
 	private Object[] keyArray() {
-		return new Object[]{fileNumber, filePosition};
+		return new Object[]{fileNumber, filePosition, inlineObject};
 	}
 
 	@Override
 	public int hashCode() {
-		return Arrays.hashCode(keyArray());
+		return Arrays.deepHashCode(keyArray());
 	}
 
 	@Override
@@ -43,11 +63,11 @@ public class ObjectAddress {
 		}
 
 		ObjectAddress that = (ObjectAddress) obj;
-		return Arrays.equals(this.keyArray(), that.keyArray());
+		return Arrays.deepEquals(this.keyArray(), that.keyArray());
 	}
 
 	@Override
 	public String toString() {
-		return Arrays.toString(this.keyArray());
+		return Arrays.toString(new Object[]{fileNumber, filePosition});
 	}
 }
@@ -1,10 +1,16 @@
 package ru.anisimov.storage.localStorage;
 
+import ru.anisimov.storage.commons.ObjectRanges;
 import ru.anisimov.storage.commons.TypeSizes;
+import ru.anisimov.storage.compression.Compression;
 import ru.anisimov.storage.io.FileReaderWriter;
 
-import java.io.File;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -13,34 +19,88 @@ import java.util.List;
  * @author Ivan Anisimov (ivananisimov2010@gmail.com)
  *
  * ObjectContainer represents single storage file with following structure:
- * |records count - 4 bytes| |last byte pointer - 8 bytes| |ObjectRecord1| ... |ObjectRecordN|
+ * |magic - 4 bytes| |format version - 4 bytes| |records count - 4 bytes| |last byte pointer - 8 bytes| |ObjectRecord1| ... |ObjectRecordN|
+ *
+ * Container without magic is container of old format (version 0, written before format version):
+ * |records count - 4 bytes| |last byte pointer - 8 bytes| |ObjectRecord1| ... |ObjectRecordN|,
+ * its records have no compression code. Such container is read and its records are removed in place,
+ * but it is never appended or overwritten, so new records always have current format.
+ * Rebuild of storage copies records of old containers into containers of current format.
+ * Container of unknown format version is refused on opening, so records are never parsed by wrong layout.
  *
  * Object record structure:
- * |removed record flag - 1 byte| |object ID - 8 bytes| |object size - 4 bytes| |object bytes|
+ * |removed record flag - 1 byte| |object ID - 8 bytes| |compression code - 1 byte| |object size - 4 bytes| |object bytes|
+ *
+ * Object size is size of stored (possibly compressed) bytes.
+ *
+ * In deduplication mode object of ID could be kept by shared record of other ID, then reference record of ID
+ * has address of shared record instead of object: |file number - 4 bytes| |file position - 8 bytes|.
+ * Shared record of removed ID stays as orphan record while reference records point to it. Rebuild of storage
+ * takes IDs of shared record from reference records, so IDs and reference counts of shared objects are restored.
+ *
+ * Record could be overwritten in place (see getOverwriteContents()) by object of same ID and same size class,
+ * which stored bytes are not bigger than stored bytes of record. Rest of record becomes removed record, so it should
+ * be empty or not smaller than record header. New content is written after header flag, so flag of record
+ * is not changed. Content should be durable in overwrite log before it's written (see ObjectContainerSupervisor),
+ * so record torn by crash is restored from log. Updating flag was used by earlier versions for records
+ * being overwritten, such records are read as removed.
+ *
+ * Batched get reads records in file order. Requested records, which are close to each other,
+ * are read by one read call (see DirectoryStorageSettings.getReadGap).
+ * Full scan (RecordIterator) reads container sequentially by big parts.
+ * Sizes are read from headers (and original size field of compressed data), headers are read like in batched get.
+ * Ranged get reads only header and requested part of not compressed record, header and part are read
+ * by one call if part ends within readGap from object start.
  *
 */
 class ObjectContainer {
-	private static final long RECORDS_COUNT_POSITION = 0;
+	private static final int MAGIC = 0x434F4E54;
+	private static final int FORMAT_VERSION = 1;
+	private static final long MAGIC_POSITION = 0;
+	private static final long FORMAT_VERSION_POSITION = MAGIC_POSITION + TypeSizes.BYTES_IN_INT;
+	private static final long RECORDS_COUNT_POSITION = FORMAT_VERSION_POSITION + TypeSizes.BYTES_IN_INT;
 	private static final long LAST_BYTE_POINTER_POSITION = RECORDS_COUNT_POSITION + TypeSizes.BYTES_IN_INT;
 	private static final long OBJECT_RECORDS_START_POSITION = LAST_BYTE_POINTER_POSITION + TypeSizes.BYTES_IN_LONG;
-	private static final int OBJECT_RECORD_HEADER_SIZE = 1 + TypeSizes.BYTES_IN_LONG + TypeSizes.BYTES_IN_INT;
+	private static final int OBJECT_RECORD_HEADER_SIZE = 1 + TypeSizes.BYTES_IN_LONG + 1 + TypeSizes.BYTES_IN_INT;
+	private static final int OLD_FORMAT_VERSION = 0;
+	private static final long OLD_RECORDS_COUNT_POSITION = 0;
+	private static final long OLD_LAST_BYTE_POINTER_POSITION = OLD_RECORDS_COUNT_POSITION + TypeSizes.BYTES_IN_INT;
+	private static final long OLD_OBJECT_RECORDS_START_POSITION = OLD_LAST_BYTE_POINTER_POSITION + TypeSizes.BYTES_IN_LONG;
+	private static final int OLD_OBJECT_RECORD_HEADER_SIZE = OBJECT_RECORD_HEADER_SIZE - 1;
+	private static final int WRITE_CHUNK_SIZE = 4 * 1024 * 1024;
+	private static final int SCAN_BUFFER_SIZE = 4 * 1024 * 1024;
+	private static final int REFERENCE_SIZE = TypeSizes.BYTES_IN_INT + TypeSizes.BYTES_IN_LONG;
+
+	static final long REFERENCE_RECORD_SIZE = -2;
 
 	private String fileName;
 	private int number;
 	private long lastByte;
 	private int recordsCount;
+	private int formatVersion;
+	private long recordsCountPosition;
+	private long recordsStart;
+	private int recordHeaderSize;
+
+	private Compression compression;
+	private int compressionThreshold;
+	private int readGap;
 
 	public ObjectContainer(FileReaderWriter rw, String fileName, int number, boolean createNew) throws IOException {
+		this(rw, fileName, number, createNew, DirectoryStorageSettings.DEFAULT);
+	}
+
+	public ObjectContainer(FileReaderWriter rw, String fileName, int number, boolean createNew, DirectoryStorageSettings settings) throws IOException {
 		this.fileName = fileName;
 		this.number = number;
+		this.compression = settings.getCompression();
+		this.compressionThreshold = settings.getCompressionThreshold();
+		this.readGap = settings.getReadGap();
 		if (createNew) {
-			File file = new File(this.fileName);
-			if (file.exists()) {
-				file.delete();
-			}
-			file.createNewFile();
-			rw.writeInt(RECORDS_COUNT_POSITION, 0);
-			rw.writeLong(LAST_BYTE_POINTER_POSITION, OBJECT_RECORDS_START_POSITION);
+			rw.truncate(0);
+			ByteBuffer header = ByteBuffer.allocate((int) OBJECT_RECORDS_START_POSITION);
+			header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(0).putLong(OBJECT_RECORDS_START_POSITION);
+			rw.writeBytes(MAGIC_POSITION, header.array());
 		}
 		parseFields(rw);
 	}
@@ -49,9 +109,38 @@ class ObjectContainer {
 		return bytes.length + OBJECT_RECORD_HEADER_SIZE;
 	}
 
+	// Header is read by one call. Records count of old format is never equal to magic: so many records
+	// don't fit into container
 	private void parseFields(FileReaderWriter in) throws IOException {
-		recordsCount = in.readInt(RECORDS_COUNT_POSITION);
-		lastByte = in.readLong(LAST_BYTE_POINTER_POSITION);
+		ByteBuffer header = ByteBuffer.wrap(in.readByte(MAGIC_POSITION, (int) OBJECT_RECORDS_START_POSITION));
+		int magic = header.getInt((int) MAGIC_POSITION);
+		if (magic != MAGIC) {
+			formatVersion = OLD_FORMAT_VERSION;
+			recordsCountPosition = OLD_RECORDS_COUNT_POSITION;
+			recordsStart = OLD_OBJECT_RECORDS_START_POSITION;
+			recordHeaderSize = OLD_OBJECT_RECORD_HEADER_SIZE;
+			recordsCount = header.getInt((int) OLD_RECORDS_COUNT_POSITION);
+			lastByte = header.getLong((int) OLD_LAST_BYTE_POINTER_POSITION);
+			return;
+		}
+		formatVersion = header.getInt((int) FORMAT_VERSION_POSITION);
+		if (formatVersion != FORMAT_VERSION) {
+			throw new IOException("Unsupported format version of container " + fileName + ": " + formatVersion +
+										  ", expected version " + FORMAT_VERSION);
+		}
+		recordsCountPosition = RECORDS_COUNT_POSITION;
+		recordsStart = OBJECT_RECORDS_START_POSITION;
+		recordHeaderSize = OBJECT_RECORD_HEADER_SIZE;
+		recordsCount = header.getInt((int) RECORDS_COUNT_POSITION);
+		lastByte = header.getLong((int) LAST_BYTE_POINTER_POSITION);
+	}
+
+	boolean isOldFormat() {
+		return formatVersion == OLD_FORMAT_VERSION;
+	}
+
+	static int getHeaderSize() {
+		return (int) OBJECT_RECORDS_START_POSITION;
 	}
 
 	public int getNumber() {
@@ -62,6 +151,19 @@ class ObjectContainer {
 		return recordsCount;//in.readLong(RECORDS_COUNT_POSITION);
 	}
 
+	static byte[] getReferenceBytes(ObjectAddress address) {
+		return ByteBuffer.allocate(REFERENCE_SIZE).putInt(address.getFileNumber()).putLong(address.getFilePosition()).array();
+	}
+
+	// Orphan record is still readable and counted, but it's not object of its own ID anymore
+	public void markOrphans(FileReaderWriter out, long[] positions) throws IOException {
+		for (long position : positions) {
+			if (position >= 0) {
+				new ObjectRecord(position).markOrphan(out);
+			}
+		}
+	}
+
 	public void removeBytes(FileReaderWriter out, long position) throws  IOException {
 		removeBytes(out, new long[] {position});
 	}
@@ -74,7 +176,7 @@ class ObjectContainer {
 			new ObjectRecord(positions[i]).remove(out);
 			recordsCount--;
 		}
-		out.writeInt(RECORDS_COUNT_POSITION, recordsCount);
+		out.writeInt(recordsCountPosition, recordsCount);
 	}
 
 	public ObjectAddress writeBytes(FileReaderWriter out, long ID, byte[] bytes) throws IOException {
@@ -86,54 +188,211 @@ class ObjectContainer {
 	}
 
 	public ObjectAddress[] writeBytes(FileReaderWriter out, long[] ID, byte[][] bytes, int from, int count) throws IOException {
+		return writeBytes(out, ID, bytes, from, count, false);
+	}
+
+	/**
+	 * Records are serialized in memory and written by chunks, not field by field.
+	 * Reference records are written if references is true, their bytes are given by getReferenceBytes().
+	 */
+	public ObjectAddress[] writeBytes(FileReaderWriter out, long[] ID, byte[][] bytes, int from, int count,
+									  boolean references) throws IOException {
+		if (isOldFormat()) {
+			throw new IOException("Records are not appended to container of old format " + fileName);
+		}
 		int objectsCount = count;
 		ObjectAddress[] result = new ObjectAddress[objectsCount];
+		ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+		DataOutputStream chunkOut = new DataOutputStream(chunk);
+		long chunkStart = lastByte;
 		for (int i = from; i < from + count; i++) {
-			result[i - from] = writeObject(out, ID[i], bytes[i]);
+			result[i - from] = writeObject(chunkOut, ID[i], bytes[i], references);
 			recordsCount++;
+			if (chunk.size() >= WRITE_CHUNK_SIZE) {
+				out.writeBytes(chunkStart, chunk.toByteArray());
+				chunk.reset();
+				chunkStart = lastByte;
+			}
+		}
+		if (chunk.size() > 0) {
+			out.writeBytes(chunkStart, chunk.toByteArray());
 		}
-		out.writeInt(RECORDS_COUNT_POSITION, recordsCount);
+		out.writeInt(recordsCountPosition, recordsCount);
+		out.writeLong(LAST_BYTE_POINTER_POSITION, lastByte);
 		return result;
 	}
 
-	private ObjectAddress writeObject(FileReaderWriter out, long ID, byte[] bytes) throws IOException {
-		long nextLastByte = lastByte + getNeededSpace(bytes);
-		new ObjectRecord(lastByte).write(out, new RecordData(ID, bytes.length, bytes));
+	private ObjectAddress writeObject(DataOutputStream out, long ID, byte[] bytes, boolean reference) throws IOException {
+		byte[] storedBytes = reference ? bytes : getStoredBytes(bytes);
+		Compression recordCompression = (storedBytes != bytes) ? compression : Compression.NONE;
+
+		long nextLastByte = lastByte + getNeededSpace(storedBytes);
+		new ObjectRecord(lastByte).write(out, new RecordData(ID, storedBytes.length, storedBytes), recordCompression, reference);
 		long lastRecord = lastByte;
 		lastByte = nextLastByte;
 		return new ObjectAddress(getNumber(), lastRecord);
 	}
 
+	// Compressed bytes, if compression is worth it, otherwise bytes themselves
+	private byte[] getStoredBytes(byte[] bytes) throws IOException {
+		if (compression != Compression.NONE && bytes.length >= compressionThreshold) {
+			byte[] compressed = compression.compress(bytes);
+			if (compressed.length < bytes.length) {
+				return compressed;
+			}
+		}
+		return bytes;
+	}
+
+	// Objects smaller than bounds[i] (and not smaller than bounds[i - 1]) are of size class i, last class has no bound
+	static int getSizeClass(int[] sizeClassBounds, long size) {
+		for (int i = 0; i < sizeClassBounds.length - 1; i++) {
+			if (size < sizeClassBounds[i]) {
+				return i;
+			}
+		}
+		return sizeClassBounds.length - 1;
+	}
+
+	/**
+	 * Returns new contents of records of IDs (see writeContents()), null for records, which are removed,
+	 * belong to other IDs, have no room for new objects or keep objects of other size class than new objects.
+	 * Nothing is written.
+	 */
+	public byte[][] getOverwriteContents(FileReaderWriter in, long[] positions, long[] ID, byte[][] bytes,
+										 int[] sizeClassBounds) throws IOException {
+		byte[][] result = new byte[positions.length][];
+		if (isOldFormat()) {
+			return result;
+		}
+		for (int i : getReadOrder(positions)) {
+			// Compressed object starts with its original size
+			ByteBuffer header = ByteBuffer.wrap(in.readByte(positions[i], recordHeaderSize + TypeSizes.BYTES_IN_INT));
+			ObjectRecord record = new ObjectRecord(positions[i]);
+			if (!record.isActive(header) || record.getID(header) != ID[i] ||
+						getSizeClass(sizeClassBounds, record.getObjectSize(header)) != getSizeClass(sizeClassBounds, bytes[i].length)) {
+				continue;
+			}
+			byte[] storedBytes = getStoredBytes(bytes[i]);
+			int rest = record.getStoredSize(header) - storedBytes.length;
+			if (rest < 0 || (rest > 0 && rest < OBJECT_RECORD_HEADER_SIZE)) {
+				continue;
+			}
+			Compression recordCompression = (storedBytes != bytes[i]) ? compression : Compression.NONE;
+			result[i] = record.getContent(storedBytes, recordCompression, rest);
+		}
+		return result;
+	}
+
+	/**
+	 * Writes contents of getOverwriteContents() over records, null contents are skipped.
+	 * Writing same content again is harmless, so contents could be replayed after crash.
+	 */
+	public void writeContents(FileReaderWriter out, long[] positions, byte[][] contents) throws IOException {
+		if (isOldFormat()) {
+			throw new IOException("Records are not overwritten in container of old format " + fileName);
+		}
+		for (int i = 0; i < positions.length; i++) {
+			if (contents[i] != null) {
+				new ObjectRecord(positions[i]).writeContent(out, contents[i]);
+			}
+		}
+	}
+
 	public RecordData getData(FileReaderWriter in, long position) throws IOException {
 		return getData(in, new long[] {position})[0];
 	}
 
 	public RecordData[] getData(FileReaderWriter in, long[] positions) throws IOException {
 		RecordData[] result = new RecordData[positions.length];
-		for (int i = 0; i < positions.length; i++) {
-			if (positions[i] < 0) {
-				result[i] = null;
-				continue;
+		Integer[] order = getReadOrder(positions);
+
+		ReadBuffer buffer = new ReadBuffer(in);
+		for (int i = 0; i < order.length; i++) {
+			long position = positions[order[i]];
+			if (!buffer.contains(position, recordHeaderSize)) {
+				// Headers of next records are read too, if they are not farther than readGap
+				long end = position + recordHeaderSize;
+				for (int j = i + 1; j < order.length && positions[order[j]] - end <= readGap; j++) {
+					end = Math.max(end, positions[order[j]] + recordHeaderSize);
+				}
+				buffer.load(position, end);
 			}
-			ObjectRecord record = new ObjectRecord(positions[i]);
-			if (record.isRemoved(in)) {
-				result[i] = null;
-				continue;
+			result[order[i]] = new ObjectRecord(position).parseAll(buffer);
+		}
+		return result;
+	}
+
+	// Object of result is range of stored object, size is size of whole object
+	public RecordData[] getData(FileReaderWriter in, long[] positions, long[] offsets, int[] lengths) throws IOException {
+		RecordData[] result = new RecordData[positions.length];
+		ReadBuffer buffer = new ReadBuffer(in);
+		for (int i : getReadOrder(positions)) {
+			long position = positions[i];
+			long end = position + recordHeaderSize;
+			if (offsets[i] <= readGap && offsets[i] + lengths[i] <= readGap) {
+				end += offsets[i] + lengths[i];
+			}
+			buffer.load(position, end);
+			result[i] = new ObjectRecord(position).parseRange(buffer, offsets[i], lengths[i]);
+		}
+		return result;
+	}
+
+	// Size is -1 for removed record and REFERENCE_RECORD_SIZE for reference record
+	public long[] getSizes(FileReaderWriter in, long[] positions) throws IOException {
+		long[] result = new long[positions.length];
+		Arrays.fill(result, -1);
+		Integer[] order = getReadOrder(positions);
+
+		int sizeHeaderSize = recordHeaderSize + TypeSizes.BYTES_IN_INT;
+		ReadBuffer buffer = new ReadBuffer(in);
+		for (int i = 0; i < order.length; i++) {
+			long position = positions[order[i]];
+			if (!buffer.contains(position, sizeHeaderSize)) {
+				long end = position + sizeHeaderSize;
+				for (int j = i + 1; j < order.length && positions[order[j]] - end <= readGap; j++) {
+					end = Math.max(end, positions[order[j]] + sizeHeaderSize);
+				}
+				buffer.load(position, end);
 			}
-			result[i] = record.parseAll(in);
+			result[order[i]] = new ObjectRecord(position).parseSize(buffer);
 		}
 		return result;
 	}
 
+	// Indices of requested (not negative) positions in file order
+	private static Integer[] getReadOrder(final long[] positions) {
+		int requested = 0;
+		Integer[] order = new Integer[positions.length];
+		for (int i = 0; i < positions.length; i++) {
+			if (positions[i] >= 0) {
+				order[requested++] = i;
+			}
+		}
+		order = Arrays.copyOf(order, requested);
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer first, Integer second) {
+				return Long.compare(positions[first], positions[second]);
+			}
+		});
+		return order;
+	}
+
 	public long getSize() {
 		return lastByte;
 	}
 
+	public long getDataSize() {
+		return lastByte - recordsStart;
+	}
+
 	public List<ObjectAddress> getRecordsAddresses(FileReaderWriter in) throws IOException {
 		long recordsCount = getRecordsCount();
 		List<ObjectAddress> result = new LinkedList<>();
 
-		long pointer = OBJECT_RECORDS_START_POSITION;
+		long pointer = recordsStart;
 		while (recordsCount > 0 && pointer <= getSize()) {
 			ObjectRecord record = new ObjectRecord(pointer);
 			if (!record.isRemoved(in)) {
@@ -155,6 +414,52 @@ class ObjectContainer {
 		return result;
 	}
 
+	public RecordIterator iterateRecords(FileReaderWriter in) {
+		return new RecordIterator(in);
+	}
+
+	/**
+	 * Walks through not removed records in file order, reading container by SCAN_BUFFER_SIZE parts.
+	 */
+	class RecordIterator {
+		private ReadBuffer buffer;
+		private long position = recordsStart;
+		private ObjectAddress address;
+		private RecordData data;
+
+		private RecordIterator(FileReaderWriter in) {
+			this.buffer = new ReadBuffer(in);
+		}
+
+		public boolean next() throws IOException {
+			while (position + recordHeaderSize <= lastByte) {
+				if (!buffer.contains(position, recordHeaderSize)) {
+					buffer.load(position, Math.min(lastByte, position + SCAN_BUFFER_SIZE));
+				}
+				long recordPosition = position;
+				ObjectRecord record = new ObjectRecord(recordPosition);
+				position = record.getNextRecord(buffer);
+				if (position <= recordPosition || position > lastByte) {
+					throw new IOException("Broken record at " + recordPosition + " in " + fileName);
+				}
+				data = record.parseAll(buffer);
+				if (data != null) {
+					address = new ObjectAddress(number, recordPosition);
+					return true;
+				}
+			}
+			return false;
+		}
+
+		public ObjectAddress getAddress() {
+			return address;
+		}
+
+		public RecordData getData() {
+			return data;
+		}
+	}
+
 	@Override
 	public String toString() {
 		return "[Object container, file: " + fileName + " " + getSize() +  "]";
@@ -163,44 +468,256 @@ class ObjectContainer {
 	protected class ObjectRecord {
 		private static final int REMOVE_FLAG_OFFSET = 0;
 		private static final int OBJECT_ID_OFFSET = REMOVE_FLAG_OFFSET + 1;
-		private static final int OBJECT_SIZE_OFFSET = OBJECT_ID_OFFSET + TypeSizes.BYTES_IN_LONG;
-		private static final int OBJECT_OFFSET = OBJECT_SIZE_OFFSET + TypeSizes.BYTES_IN_INT;
+		private static final int COMPRESSION_OFFSET = OBJECT_ID_OFFSET + TypeSizes.BYTES_IN_LONG;
 
 		private static final byte ACTIVE = 1;
 		private static final byte REMOVED = -1;
+		// Flag of record being overwritten, it was written by earlier versions
+		private static final byte UPDATING = 2;
+		private static final byte ORPHAN = 3;
+		private static final byte REFERENCE = 4;
 
 		private long position;
+		// Records of old format have no compression code
+		private final int sizeOffset = (formatVersion == OLD_FORMAT_VERSION) ? COMPRESSION_OFFSET : COMPRESSION_OFFSET + 1;
+		private final int objectOffset = sizeOffset + TypeSizes.BYTES_IN_INT;
 
 		public ObjectRecord(long position) {
 			this.position = position;
 		}
 
+		private Compression getCompression(FileReaderWriter in) throws IOException {
+			return (formatVersion == OLD_FORMAT_VERSION) ? Compression.NONE : Compression.forCode(in.readByte(position + COMPRESSION_OFFSET));
+		}
+
+		private Compression getCompression(ReadBuffer buffer) throws IOException {
+			return (formatVersion == OLD_FORMAT_VERSION) ? Compression.NONE : Compression.forCode(buffer.getByte(position + COMPRESSION_OFFSET));
+		}
+
 		public long getNextRecord(FileReaderWriter in) throws IOException {
-			int objectSize = in.readInt(position + OBJECT_SIZE_OFFSET);
-			return position + OBJECT_RECORD_HEADER_SIZE + objectSize;
+			int objectSize = in.readInt(position + sizeOffset);
+			return position + recordHeaderSize + objectSize;
+		}
+
+		public long getNextRecord(ReadBuffer buffer) {
+			return position + recordHeaderSize + buffer.getInt(position + sizeOffset);
 		}
 
 		public void remove(FileReaderWriter out) throws IOException {
 			out.writeBytes(position + REMOVE_FLAG_OFFSET, REMOVED);
 		}
 
+		// Updating record is torn by crash, it is not readable
 		public boolean isRemoved(FileReaderWriter in) throws IOException {
-			byte removeFlag = in.readByte(position + REMOVE_FLAG_OFFSET);
-			return removeFlag == REMOVED;
+			return isRemoved(in.readByte(position + REMOVE_FLAG_OFFSET));
+		}
+
+		private boolean isRemoved(ReadBuffer buffer) {
+			return isRemoved(buffer.getByte(position + REMOVE_FLAG_OFFSET));
+		}
+
+		private boolean isRemoved(byte flag) {
+			return flag != ACTIVE && flag != ORPHAN && flag != REFERENCE;
+		}
+
+		private boolean isReference(ReadBuffer buffer) {
+			return buffer.getByte(position + REMOVE_FLAG_OFFSET) == REFERENCE;
+		}
+
+		// Header methods take buffer with header of this record only
+		public boolean isActive(ByteBuffer header) {
+			return header.get(REMOVE_FLAG_OFFSET) == ACTIVE;
+		}
+
+		public long getID(ByteBuffer header) {
+			return header.getLong(OBJECT_ID_OFFSET);
+		}
+
+		public int getStoredSize(ByteBuffer header) {
+			return header.getInt(sizeOffset);
+		}
+
+		// Header should be followed by original size of compressed object
+		public int getObjectSize(ByteBuffer header) throws IOException {
+			Compression recordCompression = (formatVersion == OLD_FORMAT_VERSION) ? Compression.NONE :
+														Compression.forCode(header.get(COMPRESSION_OFFSET));
+			return (recordCompression == Compression.NONE) ? getStoredSize(header) : header.getInt(objectOffset);
+		}
+
+		/**
+		 * Returns new compression, size and bytes of record, rest of old bytes becomes removed record.
+		 * Content is written after flag of record, flag is not changed.
+		 */
+		public byte[] getContent(byte[] storedBytes, Compression recordCompression, int rest) {
+			ByteBuffer record = ByteBuffer.allocate(objectOffset - COMPRESSION_OFFSET + storedBytes.length +
+															(rest > 0 ? OBJECT_RECORD_HEADER_SIZE : 0));
+			record.put(recordCompression.getCode()).putInt(storedBytes.length).put(storedBytes);
+			if (rest > 0) {
+				record.put(REMOVED).putLong(0).put(Compression.NONE.getCode()).putInt(rest - OBJECT_RECORD_HEADER_SIZE);
+			}
+			return record.array();
+		}
+
+		public void writeContent(FileReaderWriter out, byte[] content) throws IOException {
+			out.writeBytes(position + COMPRESSION_OFFSET, content);
+		}
+
+		public void markOrphan(FileReaderWriter out) throws IOException {
+			out.writeBytes(position + REMOVE_FLAG_OFFSET, ORPHAN);
 		}
 
 		public RecordData parseAll(FileReaderWriter in) throws IOException {
 			long ID = in.readLong(position + OBJECT_ID_OFFSET);
-			int size = in.readInt(position + OBJECT_SIZE_OFFSET);
-			byte[] object = in.readByte(position + OBJECT_OFFSET, size);
-			return new RecordData(ID, size, object);
+			Compression recordCompression = getCompression(in);
+			int size = in.readInt(position + sizeOffset);
+			byte[] object = recordCompression.decompress(in.readByte(position + objectOffset, size));
+			return new RecordData(ID, object.length, object);
 		}
 
-		public void write(FileReaderWriter out, RecordData data) throws IOException {
-			out.writeBytes(position + REMOVE_FLAG_OFFSET, ObjectRecord.ACTIVE);
-			out.writeLong(position + OBJECT_ID_OFFSET, data.getID());
-			out.writeInt(position + OBJECT_SIZE_OFFSET, data.getSize());
-			out.writeBytes(position + OBJECT_OFFSET, data.getObject());
+		// Returns null for removed record
+		public RecordData parseAll(ReadBuffer buffer) throws IOException {
+			if (isRemoved(buffer)) {
+				return null;
+			}
+			long ID = buffer.getLong(position + OBJECT_ID_OFFSET);
+			Compression recordCompression = getCompression(buffer);
+			int size = buffer.getInt(position + sizeOffset);
+			if (size < 0) {
+				throw new IOException("Wrong record size: " + size);
+			}
+			if (!buffer.contains(position, objectOffset + size)) {
+				buffer.extend(position, position + objectOffset + size);
+			}
+			byte[] object = recordCompression.decompress(buffer.getBytes(position + objectOffset, size));
+			byte flag = buffer.getByte(position + REMOVE_FLAG_OFFSET);
+			if (flag == REFERENCE) {
+				if (size != REFERENCE_SIZE) {
+					throw new IOException("Wrong reference record size: " + size);
+				}
+				ByteBuffer reference = ByteBuffer.wrap(object);
+				return new RecordData(ID, size, object, new ObjectAddress(reference.getInt(), reference.getLong()), false);
+			}
+			return new RecordData(ID, object.length, object, null, flag == ORPHAN);
+		}
+
+		// Returns -1 for removed record, compressed data starts with original size
+		public long parseSize(ReadBuffer buffer) throws IOException {
+			if (isRemoved(buffer)) {
+				return -1;
+			}
+			if (isReference(buffer)) {
+				return REFERENCE_RECORD_SIZE;
+			}
+			Compression recordCompression = getCompression(buffer);
+			int size = buffer.getInt(position + sizeOffset);
+			if (recordCompression != Compression.NONE) {
+				size = buffer.getInt(position + objectOffset);
+			}
+			if (size < 0) {
+				throw new IOException("Wrong record size: " + size);
+			}
+			return size;
+		}
+
+		// Returns null for removed record, compressed and reference records are parsed entirely
+		public RecordData parseRange(ReadBuffer buffer, long offset, int length) throws IOException {
+			if (isRemoved(buffer)) {
+				return null;
+			}
+			if (isReference(buffer)) {
+				return parseAll(buffer);
+			}
+			long ID = buffer.getLong(position + OBJECT_ID_OFFSET);
+			Compression recordCompression = getCompression(buffer);
+			if (recordCompression != Compression.NONE) {
+				RecordData data = parseAll(buffer);
+				return new RecordData(ID, data.getSize(), ObjectRanges.slice(data.getObject(), offset, length));
+			}
+			int size = buffer.getInt(position + sizeOffset);
+			if (size < 0) {
+				throw new IOException("Wrong record size: " + size);
+			}
+			long from = position + objectOffset + Math.min(offset, size);
+			int count = (int) Math.min(length, position + objectOffset + size - from);
+			if (!buffer.contains(from, count)) {
+				buffer.load(from, from + count);
+			}
+			return new RecordData(ID, size, buffer.getBytes(from, count));
+		}
+
+		// Writes record to stream, which is positioned at record start
+		public void write(DataOutputStream out, RecordData data, Compression recordCompression, boolean reference) throws IOException {
+			out.writeByte(reference ? REFERENCE : ACTIVE);
+			out.writeLong(data.getID());
+			out.writeByte(recordCompression.getCode());
+			out.writeInt(data.getSize());
+			out.write(data.getObject());
+		}
+	}
+
+	/**
+	 * Keeps one continuous part of container file read by single read call.
+	 */
+	private static class ReadBuffer {
+		private FileReaderWriter in;
+		private long start;
+		private ByteBuffer bytes = ByteBuffer.allocate(0);
+
+		public ReadBuffer(FileReaderWriter in) {
+			this.in = in;
+		}
+
+		public boolean contains(long position, long length) {
+			return position >= start && position + length <= start + bytes.capacity();
+		}
+
+		public void load(long from, long to) throws IOException {
+			start = from;
+			bytes = ByteBuffer.wrap(in.readByte(from, getLength(from, to)));
+		}
+
+		// Keeps already read bytes starting with from, reads only missing tail
+		public void extend(long from, long to) throws IOException {
+			long end = start + bytes.capacity();
+			if (from < start || from > end) {
+				load(from, to);
+				return;
+			}
+			byte[] extended = new byte[getLength(from, to)];
+			int kept = (int) (end - from);
+			System.arraycopy(bytes.array(), (int) (from - start), extended, 0, kept);
+			byte[] tail = in.readByte(end, extended.length - kept);
+			System.arraycopy(tail, 0, extended, kept, tail.length);
+			start = from;
+			bytes = ByteBuffer.wrap(extended);
+		}
+
+		public byte getByte(long position) {
+			return bytes.get(getOffset(position));
+		}
+
+		public int getInt(long position) {
+			return bytes.getInt(getOffset(position));
+		}
+
+		public long getLong(long position) {
+			return bytes.getLong(getOffset(position));
+		}
+
+		public byte[] getBytes(long position, int count) {
+			int offset = getOffset(position);
+			return Arrays.copyOfRange(bytes.array(), offset, offset + count);
+		}
+
+		private int getOffset(long position) {
+			return (int) (position - start);
+		}
+
+		private static int getLength(long from, long to) throws IOException {
+			if (to - from > Integer.MAX_VALUE) {
+				throw new IOException("Too big read: " + (to - from));
+			}
+			return (int) (to - from);
 		}
 	}
 }
@@ -3,10 +3,30 @@ package ru.anisimov.storage.localStorage;
 import ru.anisimov.storage.commons.TypeSizes;
 import ru.anisimov.storage.exceptions.ContainerException;
 import ru.anisimov.storage.io.FileReaderWriter;
+import ru.anisimov.storage.io.FileRole;
+import ru.anisimov.storage.io.IOScope;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
 
 /**
  * @author Ivan Anisimov (ivananisimov2010@gmail.com)
@@ -14,62 +34,439 @@ import java.util.*;
  * Manages ObjectContainers. Checkes size of incoming files.
  * Creates new ObjectContainers if necessary.
  *
+ * Objects are spread by size classes, every size class has its own active container.
+ * New objects of size class are appended to its active container until it is full.
+ *
+ * Supervisor info file structure:
+ * |next container number - 4 bytes| |size classes count - 4 bytes| |size class1| ... |size classN|
+ * |directories count - 4 bytes| |directory1| ... |directoryM| |directory index of container 0 - 1 byte| ... |directory index of container K|
+ *
+ * Size class structure:
+ * |upper bound of object size - 4 bytes| |active container number - 4 bytes|
+ *
+ * Directory structure:
+ * |path size - 4 bytes| |UTF-8 path bytes|
+ *
+ * Directory 0 is the storage directory itself, its path is empty. New containers are placed to data directories
+ * from settings (see ContainerPlacement), or to storage directory if there are no data directories.
+ * Info without directories (older format) means that all containers are in storage directory.
+ *
+ * With cold tier in settings object reads are counted by containers, and containers are moved between
+ * data directories and cold directory by their reads (see DirectoryStorageSettings.Builder.setColdTier()).
+ * Reads only count, containers are moved by explicit call of migrateContainers(), never on read path.
+ * Container is copied to new directory, then its directory index is switched in supervisor info, then old file
+ * is deleted, so container is readable at any moment. Addresses in index stay the same.
+ * Read counts are kept in memory only, so after opening containers are not moved until tiering period
+ * of reads is counted again.
+ *
  * Uses primitive grouping algorythm if many objects added.
  *
+ * In deduplication mode byte-identical objects share one record.
+ * Shared record is removed only when last reference to it is removed.
+ * Record is written with ID of first object, other IDs get reference records pointing to it
+ * (see ObjectContainer), so every ID has its own address and reads of reference cost one more read.
+ * Shared record of removed ID is marked as orphan until its last reference is removed.
+ *
+ * Records are overwritten in place (see overwrite()) through overwrite log: new contents of batch are appended
+ * to log and log is forced once, then contents are written over records. Log is replayed on opening, so record
+ * torn by crash (or power loss) is completed from log, and previous object of record is never lost: it stays
+ * in place until new content is durable in log. Log is cleared, when it's longer than OVERWRITE_LOG_CHECKPOINT_SIZE,
+ * after forcing of overwritten containers. Read-only supervisor doesn't replay log, so storage should be opened
+ * after crash before scanning.
+ *
+ * Overwrite log entry structure:
+ * |container number - 4 bytes| |record position - 8 bytes| |content size - 4 bytes| |content| |CRC32 of entry - 4 bytes|
+ *
+ * Batched get reads different containers in parallel, not more than settings.getReadParallelism() at once.
+ * Reading threads are daemons and stop after READ_THREAD_KEEP_ALIVE_SECONDS of idleness.
+ *
+ * Read-only supervisor (see openForReading()) only locates containers: supervisor info is not written,
+ * deduplication table is not opened, reading threads are not started and modifications are rejected.
+ *
  */
 public class ObjectContainerSupervisor {
 	private static final long ESTIMATED_MAX_FILE_SIZE = Integer.MAX_VALUE;
 	private static final String SUPERVISOR_INFO_FILE_NAME = "supervisorInfo";
+	private static final String DEDUPLICATION_TABLE_FILE_NAME = "dedupTable";
+	private static final String OVERWRITE_LOG_FILE_NAME = "overwriteLog";
+	private static final long OVERWRITE_LOG_CHECKPOINT_SIZE = 4 * 1024 * 1024;
+	private static final int OVERWRITE_LOG_ENTRY_HEADER_SIZE = TypeSizes.BYTES_IN_INT + TypeSizes.BYTES_IN_LONG + TypeSizes.BYTES_IN_INT;
+	private static final String CONTENT_HASH_ALGORITHM = "MD5";
+
+	private static final long NEXT_CONTAINER_NUMBER_POSITION = 0;
+	private static final long SIZE_CLASSES_COUNT_POSITION = NEXT_CONTAINER_NUMBER_POSITION + TypeSizes.BYTES_IN_INT;
+	private static final long FIRST_SIZE_CLASS_POSITION = SIZE_CLASSES_COUNT_POSITION + TypeSizes.BYTES_IN_INT;
+	private static final int SIZE_CLASS_INFO_SIZE = 2 * TypeSizes.BYTES_IN_INT;
+	private static final int NO_CONTAINER = -1;
+	private static final long READ_THREAD_KEEP_ALIVE_SECONDS = 60;
+	private static final int MAIN_DIRECTORY = 0;
+	private static final int MAX_DIRECTORIES_COUNT = 256;
+	private static final Charset PATH_CHARSET = Charset.forName("UTF-8");
+	private static final int NO_DIRECTORY = -1;
+	private static final String MOVED_CONTAINER_SUFFIX = ".moved";
 
 	private final long MAX_FILE_SIZE;
 	private final String CONTAINER_FILE_NAME_PREFIX;
 	private final String CONTAINER_PATH_START;
 	private final String SUPERVISOR_INFO_FILE_PATH;
+	private final String DEDUPLICATION_TABLE_FILE_PATH;
+	private final String OVERWRITE_LOG_FILE_PATH;
 
 	private String directoryName;
 	private int nextContainerNumber;
+	private int[] sizeClassBounds;
+	private int[] activeContainers;
+	private List<String> directories;
+	private List<Integer> containerDirectories;
+	private int[] placementDirectories;
+	private int coldDirectory = NO_DIRECTORY;
+	private Map<Integer, Integer> containerReads = new HashMap<>();
+	private long readsSinceMigration;
+	private DirectoryStorageSettings settings;
+	private FileBasedDeduplicationTable deduplicationTable;
+	private ThreadPoolExecutor readExecutor;
+	private long overwriteLogSize;
+	private Set<Integer> overwrittenContainers = new HashSet<>();
+	private final boolean readOnly;
 
 	public ObjectContainerSupervisor(String directoryName, String CONTAINER_FILE_NAME_PREFIX, boolean newSupervisor) throws ContainerException {
-		this(directoryName, CONTAINER_FILE_NAME_PREFIX, newSupervisor, ESTIMATED_MAX_FILE_SIZE);
+		this(directoryName, CONTAINER_FILE_NAME_PREFIX, newSupervisor, DirectoryStorageSettings.DEFAULT);
+	}
+
+	public ObjectContainerSupervisor(String directoryName, String CONTAINER_FILE_NAME_PREFIX, boolean newSupervisor, DirectoryStorageSettings settings) throws ContainerException {
+		this(directoryName, CONTAINER_FILE_NAME_PREFIX, newSupervisor, ESTIMATED_MAX_FILE_SIZE, settings);
 	}
 
 	ObjectContainerSupervisor(String directoryName, String CONTAINER_FILE_NAME_PREFIX, boolean newSupervisor, long MAX_FILE_SIZE) throws ContainerException {
-		if (CONTAINER_FILE_NAME_PREFIX.equals(SUPERVISOR_INFO_FILE_NAME)) {
-			throw  new ContainerException("CONTAINER_FILE_NAME_PREFIX could not be " + SUPERVISOR_INFO_FILE_NAME);
+		this(directoryName, CONTAINER_FILE_NAME_PREFIX, newSupervisor, MAX_FILE_SIZE, DirectoryStorageSettings.DEFAULT);
+	}
+
+	ObjectContainerSupervisor(String directoryName, String CONTAINER_FILE_NAME_PREFIX, boolean newSupervisor, long MAX_FILE_SIZE, DirectoryStorageSettings settings) throws ContainerException {
+		this(directoryName, CONTAINER_FILE_NAME_PREFIX, newSupervisor, MAX_FILE_SIZE, settings, false);
+	}
+
+	private ObjectContainerSupervisor(String directoryName, String CONTAINER_FILE_NAME_PREFIX, boolean newSupervisor, long MAX_FILE_SIZE,
+									  DirectoryStorageSettings settings, boolean readOnly) throws ContainerException {
+		if (CONTAINER_FILE_NAME_PREFIX.equals(SUPERVISOR_INFO_FILE_NAME) || CONTAINER_FILE_NAME_PREFIX.equals(DEDUPLICATION_TABLE_FILE_NAME) ||
+					CONTAINER_FILE_NAME_PREFIX.equals(OVERWRITE_LOG_FILE_NAME)) {
+			throw  new ContainerException("CONTAINER_FILE_NAME_PREFIX could not be " + CONTAINER_FILE_NAME_PREFIX);
 		}
 		this.CONTAINER_FILE_NAME_PREFIX = CONTAINER_FILE_NAME_PREFIX;
 		this.MAX_FILE_SIZE = MAX_FILE_SIZE;
 		this.directoryName = directoryName;
+		this.settings = settings;
+		this.readOnly = readOnly;
 		this.CONTAINER_PATH_START = new StringBuilder().append(this.directoryName)
 											.append(System.getProperty("file.separator"))
 											.append(this.CONTAINER_FILE_NAME_PREFIX).toString();
 		this.SUPERVISOR_INFO_FILE_PATH = new StringBuilder().append(this.directoryName)
 												 .append(System.getProperty("file.separator"))
 												 .append(SUPERVISOR_INFO_FILE_NAME).toString();
-		try (FileReaderWriter rw = FileReaderWriter.openForReadingWriting(SUPERVISOR_INFO_FILE_PATH)) {
+		this.DEDUPLICATION_TABLE_FILE_PATH = new StringBuilder().append(this.directoryName)
+													 .append(System.getProperty("file.separator"))
+													 .append(DEDUPLICATION_TABLE_FILE_NAME).toString();
+		this.OVERWRITE_LOG_FILE_PATH = new StringBuilder().append(this.directoryName)
+											   .append(System.getProperty("file.separator"))
+											   .append(OVERWRITE_LOG_FILE_NAME).toString();
+		try (FileReaderWriter rw = readOnly ? FileReaderWriter.openForReading(SUPERVISOR_INFO_FILE_PATH)
+										   : FileReaderWriter.openForReadingWriting(SUPERVISOR_INFO_FILE_PATH)) {
 			if (newSupervisor) {
-				File file = new File(SUPERVISOR_INFO_FILE_PATH);
-				if (file.exists()) {
-					file.delete();
-				}
-				rw.writeInt(0, 0);
+				rw.truncate(0);
+				rw.writeInt(NEXT_CONTAINER_NUMBER_POSITION, 0);
 			}
 			nextContainerNumber = parseMaxContainerNumber(rw);
+			int storedSizeClassesCount = parseActiveContainers(rw);
+			parseContainerDirectories(rw, storedSizeClassesCount);
+			if (readOnly) {
+				return;
+			}
+			writeSupervisorInfo(rw);
+			openDeduplicationTable(newSupervisor);
+			openOverwriteLog(newSupervisor);
 		} catch (IOException e) {
 			throw  new ContainerException(e);
 		}
+		if (settings.getReadParallelism() > 1) {
+			readExecutor = createReadExecutor(settings.getReadParallelism());
+		}
+	}
+
+	/**
+	 * Opens existing supervisor only to locate containers, nothing is written.
+	 */
+	static ObjectContainerSupervisor openForReading(String directoryName, String CONTAINER_FILE_NAME_PREFIX,
+													DirectoryStorageSettings settings) throws ContainerException {
+		return new ObjectContainerSupervisor(directoryName, CONTAINER_FILE_NAME_PREFIX, false, ESTIMATED_MAX_FILE_SIZE, settings, true);
+	}
+
+	private void checkWritable() throws ContainerException {
+		if (readOnly) {
+			throw new ContainerException("Supervisor is opened for reading");
+		}
+	}
+
+	private static ThreadPoolExecutor createReadExecutor(int parallelism) {
+		ThreadPoolExecutor result = new ThreadPoolExecutor(parallelism, parallelism,
+																  READ_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+																  new LinkedBlockingQueue<Runnable>(),
+																  new ThreadFactory() {
+																	  @Override
+																	  public Thread newThread(Runnable task) {
+																		  Thread thread = new Thread(task, "container-reader");
+																		  thread.setDaemon(true);
+																		  return thread;
+																	  }
+																  });
+		result.allowCoreThreadTimeOut(true);
+		return result;
+	}
+
+	private void openDeduplicationTable(boolean newSupervisor) throws IOException {
+		File tableFile = new File(DEDUPLICATION_TABLE_FILE_PATH);
+		if (settings.isDeduplication()) {
+			deduplicationTable = new FileBasedDeduplicationTable(DEDUPLICATION_TABLE_FILE_PATH, newSupervisor);
+		} else if (newSupervisor) {
+			tableFile.delete();
+		} else if (tableFile.exists()) {
+			// Records were shared earlier, so references should be counted on remove anyway
+			deduplicationTable = new FileBasedDeduplicationTable(DEDUPLICATION_TABLE_FILE_PATH, false);
+		}
+	}
+
+	// Containers of new supervisor are new, so log of old ones is dropped
+	private void openOverwriteLog(boolean newSupervisor) throws IOException {
+		File logFile = new File(OVERWRITE_LOG_FILE_PATH);
+		if (newSupervisor) {
+			logFile.delete();
+		} else if (logFile.length() > 0) {
+			replayOverwriteLog(logFile.length());
+		}
+	}
+
+	// Entries are applied up to first torn one: torn entry wasn't forced, so its record wasn't changed
+	private void replayOverwriteLog(long logSize) throws IOException {
+		if (logSize > Integer.MAX_VALUE) {
+			throw new IOException("Too long overwrite log: " + logSize);
+		}
+		ByteBuffer log;
+		try (FileReaderWriter in = FileReaderWriter.openForReading(OVERWRITE_LOG_FILE_PATH)) {
+			log = ByteBuffer.wrap(in.readByte(0, (int) logSize));
+		}
+		while (log.remaining() >= OVERWRITE_LOG_ENTRY_HEADER_SIZE + TypeSizes.BYTES_IN_INT) {
+			int entryStart = log.position();
+			int number = log.getInt();
+			long position = log.getLong();
+			int contentSize = log.getInt();
+			if (contentSize < 0 || contentSize > log.remaining() - TypeSizes.BYTES_IN_INT) {
+				break;
+			}
+			byte[] content = new byte[contentSize];
+			log.get(content);
+			CRC32 checksum = new CRC32();
+			checksum.update(log.array(), entryStart, log.position() - entryStart);
+			if (log.getInt() != (int) checksum.getValue() || number < 0 || number >= nextContainerNumber) {
+				break;
+			}
+			String containerFileName = getContainerFileName(number);
+			try (FileReaderWriter rw = FileReaderWriter.openForReadingWriting(containerFileName, FileRole.CONTAINER)) {
+				new ObjectContainer(rw, containerFileName, number, false, settings)
+						.writeContents(rw, new long[] {position}, new byte[][] {content});
+			}
+			overwrittenContainers.add(number);
+		}
+		checkpointOverwriteLog();
+	}
+
+	private void checkpointOverwriteLog() throws IOException {
+		for (int number : overwrittenContainers) {
+			String containerFileName = getContainerFileName(number);
+			if (new File(containerFileName).isFile()) {
+				try (FileReaderWriter rw = FileReaderWriter.openForReadingWriting(containerFileName, FileRole.CONTAINER)) {
+					rw.force();
+				}
+			}
+		}
+		try (FileReaderWriter out = FileReaderWriter.openForReadingWriting(OVERWRITE_LOG_FILE_PATH)) {
+			out.truncate(0);
+			out.force();
+		}
+		overwrittenContainers.clear();
+		overwriteLogSize = 0;
 	}
 
 	private int parseMaxContainerNumber(FileReaderWriter in) throws IOException {
-		return in.readInt(0);
+		return in.readInt(NEXT_CONTAINER_NUMBER_POSITION);
+	}
+
+	// Active containers are kept only for size classes with same bounds
+	private int parseActiveContainers(FileReaderWriter in) throws IOException {
+		int[] configuredBounds = settings.getSizeClassBounds();
+		sizeClassBounds = Arrays.copyOf(configuredBounds, configuredBounds.length + 1);
+		sizeClassBounds[configuredBounds.length] = Integer.MAX_VALUE;
+		activeContainers = new int[sizeClassBounds.length];
+		Arrays.fill(activeContainers, NO_CONTAINER);
+
+		int storedCount = in.readInt(SIZE_CLASSES_COUNT_POSITION);
+		for (int i = 0; i < storedCount; i++) {
+			long position = FIRST_SIZE_CLASS_POSITION + (i * SIZE_CLASS_INFO_SIZE);
+			int bound = in.readInt(position);
+			int sizeClass = Arrays.binarySearch(sizeClassBounds, bound);
+			if (sizeClass >= 0) {
+				activeContainers[sizeClass] = in.readInt(position + TypeSizes.BYTES_IN_INT);
+			}
+		}
+		return storedCount;
+	}
+
+	private void parseContainerDirectories(FileReaderWriter in, int storedSizeClassesCount) throws IOException, ContainerException {
+		long position = FIRST_SIZE_CLASS_POSITION + (storedSizeClassesCount * SIZE_CLASS_INFO_SIZE);
+		int storedCount = in.readInt(position);
+		position += TypeSizes.BYTES_IN_INT;
+		directories = new ArrayList<>();
+		directories.add("");
+		for (int i = 0; i < storedCount; i++) {
+			int pathSize = in.readInt(position);
+			position += TypeSizes.BYTES_IN_INT;
+			String path = new String(in.readByte(position, pathSize), PATH_CHARSET);
+			position += pathSize;
+			if (i != MAIN_DIRECTORY) {
+				directories.add(path);
+			}
+		}
+		containerDirectories = new ArrayList<>(nextContainerNumber);
+		byte[] storedContainerDirectories = (nextContainerNumber > 0) ? in.readByte(position, nextContainerNumber) : new byte[0];
+		for (byte directory : storedContainerDirectories) {
+			containerDirectories.add(directory & 0xFF);
+		}
+
+		String[] dataDirectories = settings.getDataDirectories();
+		placementDirectories = new int[Math.max(1, dataDirectories.length)];
+		for (int i = 0; i < dataDirectories.length; i++) {
+			placementDirectories[i] = registerDirectory(dataDirectories[i]);
+		}
+		if (settings.getColdDirectory() != null) {
+			coldDirectory = registerDirectory(settings.getColdDirectory());
+			for (int directory : placementDirectories) {
+				if (directory == coldDirectory) {
+					throw new ContainerException("Cold directory could not be data directory");
+				}
+			}
+		}
+		if (directories.size() > MAX_DIRECTORIES_COUNT) {
+			throw new ContainerException("Too many data directories: " + directories.size());
+		}
+	}
+
+	private int registerDirectory(String directory) {
+		String path = new File(directory).getAbsolutePath();
+		if (path.equals(new File(directoryName).getAbsolutePath())) {
+			return MAIN_DIRECTORY;
+		}
+		int result = directories.indexOf(path);
+		if (result < 0) {
+			result = directories.size();
+			directories.add(path);
+		}
+		return result;
+	}
+
+	private void writeSupervisorInfo(FileReaderWriter out) throws IOException {
+		out.writeInt(NEXT_CONTAINER_NUMBER_POSITION, nextContainerNumber);
+		out.writeInt(SIZE_CLASSES_COUNT_POSITION, sizeClassBounds.length);
+		for (int i = 0; i < sizeClassBounds.length; i++) {
+			long position = FIRST_SIZE_CLASS_POSITION + (i * SIZE_CLASS_INFO_SIZE);
+			out.writeInt(position, sizeClassBounds[i]);
+			out.writeInt(position + TypeSizes.BYTES_IN_INT, activeContainers[i]);
+		}
+
+		ByteArrayOutputStream directoriesInfo = new ByteArrayOutputStream();
+		DataOutputStream directoriesOut = new DataOutputStream(directoriesInfo);
+		directoriesOut.writeInt(directories.size());
+		for (String directory : directories) {
+			byte[] path = directory.getBytes(PATH_CHARSET);
+			directoriesOut.writeInt(path.length);
+			directoriesOut.write(path);
+		}
+		for (int directory : containerDirectories) {
+			directoriesOut.writeByte(directory);
+		}
+		out.writeBytes(FIRST_SIZE_CLASS_POSITION + (sizeClassBounds.length * SIZE_CLASS_INFO_SIZE), directoriesInfo.toByteArray());
+	}
+
+	private int chooseDirectory(int containerNumber) {
+		if (settings.getContainerPlacement() == ContainerPlacement.ROUND_ROBIN) {
+			return placementDirectories[containerNumber % placementDirectories.length];
+		}
+		int result = placementDirectories[0];
+		long maxSpace = -1;
+		for (int directory : placementDirectories) {
+			long space = new File(getDirectoryPath(directory)).getUsableSpace();
+			if (space > maxSpace) {
+				maxSpace = space;
+				result = directory;
+			}
+		}
+		return result;
+	}
+
+	private String getDirectoryPath(int directory) {
+		return (directory == MAIN_DIRECTORY) ? directoryName : directories.get(directory);
+	}
+
+	/**
+	 * Returns files of existing containers by their numbers.
+	 * Containers of storage directory, which are unknown to supervisor info, are included too.
+	 */
+	public Map<Integer, String> findContainerFiles() {
+		Map<Integer, String> result = new TreeMap<>();
+		for (int number = 0; number < nextContainerNumber; number++) {
+			String fileName = getContainerFileName(number);
+			if (new File(fileName).isFile()) {
+				result.put(number, fileName);
+			}
+		}
+		String[] files = new File(directoryName).list();
+		for (String fileName : (files == null) ? new String[0] : files) {
+			if (!fileName.startsWith(CONTAINER_FILE_NAME_PREFIX)) {
+				continue;
+			}
+			int number;
+			try {
+				number = Integer.parseInt(fileName.substring(CONTAINER_FILE_NAME_PREFIX.length()));
+			} catch (NumberFormatException e) {
+				continue;
+			}
+			if (number >= 0 && !result.containsKey(number)) {
+				result.put(number, CONTAINER_PATH_START + number);
+			}
+		}
+		return result;
+	}
+
+	private int getSizeClass(byte[] bytes) {
+		return ObjectContainer.getSizeClass(sizeClassBounds, bytes.length);
 	}
 
 	public long getMaxObjectSize(int objectsCount) {
-		return ((MAX_FILE_SIZE - TypeSizes.BYTES_IN_LONG) / objectsCount) - (ObjectContainer.getNeededSpace(new byte[0]) * objectsCount);
+		return ((MAX_FILE_SIZE - ObjectContainer.getHeaderSize()) / objectsCount) - (ObjectContainer.getNeededSpace(new byte[0]) * objectsCount);
 	}
 
 	private String getContainerFileName(int number) {
-		return new StringBuilder().append(CONTAINER_PATH_START)
+		return getContainerFileName(number, getContainerDirectory(number));
+	}
+
+	private int getContainerDirectory(int number) {
+		return (number < containerDirectories.size()) ? containerDirectories.get(number) : MAIN_DIRECTORY;
+	}
+
+	private String getContainerFileName(int number, int directory) {
+		if (directory == MAIN_DIRECTORY) {
+			return new StringBuilder().append(CONTAINER_PATH_START)
+						   .append(number).toString();
+		}
+		return new StringBuilder().append(getDirectoryPath(directory))
+					   .append(System.getProperty("file.separator"))
+					   .append(CONTAINER_FILE_NAME_PREFIX)
 					   .append(number).toString();
 	}
 
@@ -78,6 +475,15 @@ public class ObjectContainerSupervisor {
 	}
 
 	public void remove(ObjectAddress[] addresses) throws ContainerException {
+		checkWritable();
+		if (deduplicationTable != null) {
+			addresses = releaseReferences(addresses);
+		}
+		changeRecords(addresses, false);
+	}
+
+	// Records are removed, or marked as orphans if orphans is true
+	private void changeRecords(ObjectAddress[] addresses, boolean orphans) throws ContainerException {
 		try {
 			Map<Integer, List<ObjectAddress>> addressesByContainer = spreadByContainerNumber(addresses);
 			for (Integer containerIndex : addressesByContainer.keySet()) {
@@ -85,8 +491,13 @@ public class ObjectContainerSupervisor {
 				long[] positions = getPositionsFromAddressList(containerAddresses);
 
 				String containerFileName = getContainerFileName(containerIndex);
-				try (FileReaderWriter rw = FileReaderWriter.openForReadingWriting(containerFileName)) {
-					new ObjectContainer(rw, containerFileName, containerIndex, false).removeBytes(rw, positions);
+				try (FileReaderWriter rw = FileReaderWriter.openForReadingWriting(containerFileName, FileRole.CONTAINER)) {
+					ObjectContainer container = new ObjectContainer(rw, containerFileName, containerIndex, false);
+					if (orphans) {
+						container.markOrphans(rw, positions);
+					} else {
+						container.removeBytes(rw, positions);
+					}
 				}
 			}
 		} catch (Exception e) {
@@ -94,28 +505,317 @@ public class ObjectContainerSupervisor {
 		}
 	}
 
+	/**
+	 * Overwrites records of IDs in place (see ObjectContainer.getOverwriteContents()), returns false for objects,
+	 * which are not written. Shared records of deduplication mode are never overwritten.
+	 * Contents of all containers are forced to overwrite log by one force, see class description.
+	 */
+	public boolean[] overwrite(ObjectAddress[] addresses, long[] ID, byte[][] bytes) throws ContainerException {
+		checkWritable();
+		boolean[] result = new boolean[addresses.length];
+		if (deduplicationTable != null) {
+			return result;
+		}
+		Map<Integer, List<Integer>> addressesByContainer = new TreeMap<>();
+		for (int i = 0; i < addresses.length; i++) {
+			ObjectAddress address = addresses[i];
+			if (address == null || address == ObjectAddress.EMPTY_ADDRESS || address.isInline()) {
+				continue;
+			}
+			if (!addressesByContainer.containsKey(address.getFileNumber())) {
+				addressesByContainer.put(address.getFileNumber(), new ArrayList<Integer>());
+			}
+			addressesByContainer.get(address.getFileNumber()).add(i);
+		}
+		try {
+			Map<Integer, byte[][]> contentsByContainer = new TreeMap<>();
+			ByteArrayOutputStream log = new ByteArrayOutputStream();
+			DataOutputStream logOut = new DataOutputStream(log);
+			for (Map.Entry<Integer, List<Integer>> entry : addressesByContainer.entrySet()) {
+				List<Integer> indices = entry.getValue();
+				long[] positions = getPositionsFromAddressList(addresses, indices);
+				long[] containerIDs = new long[indices.size()];
+				byte[][] containerBytes = new byte[indices.size()][];
+				for (int i = 0; i < containerIDs.length; i++) {
+					containerIDs[i] = ID[indices.get(i)];
+					containerBytes[i] = bytes[indices.get(i)];
+				}
+				String containerFileName = getContainerFileName(entry.getKey());
+				byte[][] contents;
+				try (FileReaderWriter in = FileReaderWriter.openForReading(containerFileName, FileRole.CONTAINER)) {
+					contents = new ObjectContainer(in, containerFileName, entry.getKey(), false, settings)
+									   .getOverwriteContents(in, positions, containerIDs, containerBytes, sizeClassBounds);
+				}
+				for (int i = 0; i < contents.length; i++) {
+					if (contents[i] != null) {
+						writeOverwriteLogEntry(logOut, entry.getKey(), positions[i], contents[i]);
+						result[indices.get(i)] = true;
+					}
+				}
+				contentsByContainer.put(entry.getKey(), contents);
+			}
+			if (log.size() == 0) {
+				return result;
+			}
+
+			try (FileReaderWriter out = FileReaderWriter.openForReadingWriting(OVERWRITE_LOG_FILE_PATH)) {
+				out.writeBytes(overwriteLogSize, log.toByteArray());
+				out.force();
+			}
+			overwriteLogSize += log.size();
+			for (Map.Entry<Integer, byte[][]> entry : contentsByContainer.entrySet()) {
+				long[] positions = getPositionsFromAddressList(addresses, addressesByContainer.get(entry.getKey()));
+				String containerFileName = getContainerFileName(entry.getKey());
+				try (FileReaderWriter rw = FileReaderWriter.openForReadingWriting(containerFileName, FileRole.CONTAINER)) {
+					new ObjectContainer(rw, containerFileName, entry.getKey(), false, settings).writeContents(rw, positions, entry.getValue());
+				}
+				overwrittenContainers.add(entry.getKey());
+			}
+			if (overwriteLogSize >= OVERWRITE_LOG_CHECKPOINT_SIZE) {
+				checkpointOverwriteLog();
+			}
+		} catch (Exception e) {
+			throw new ContainerException(e);
+		}
+		return result;
+	}
+
+	private static void writeOverwriteLogEntry(DataOutputStream out, int number, long position, byte[] content) throws IOException {
+		ByteBuffer entry = ByteBuffer.allocate(OVERWRITE_LOG_ENTRY_HEADER_SIZE + content.length);
+		entry.putInt(number).putLong(position).putInt(content.length).put(content);
+		CRC32 checksum = new CRC32();
+		checksum.update(entry.array());
+		out.write(entry.array());
+		out.writeInt((int) checksum.getValue());
+	}
+
 	public ObjectAddress put(long ID, byte[] bytes) throws ContainerException {
 		return put(new long[] {ID}, new byte[][] {bytes})[0];
 	}
 
-	// Container packaging task is NP-complex, so, I don't think that it should be solved here
-	// Objects packs with primitive algorithm
 	public ObjectAddress[] put(long[] ID, byte[][] bytes) throws ContainerException {
-		int objectsCount = ID.length;
-		for (int i = 0; i < objectsCount; i++) {
+		checkWritable();
+		for (int i = 0; i < ID.length; i++) {
 			if (ObjectContainer.getNeededSpace(bytes[i]) > MAX_FILE_SIZE) {
 				throw new ContainerException("Too big object");
 			}
 		}
+		return settings.isDeduplication() ? putDeduplicated(ID, bytes) : writeRecords(ID, bytes);
+	}
 
-		int startObject = 0;
-		int curCount = 0;
+	private ObjectAddress[] putDeduplicated(long[] ID, byte[][] bytes) throws ContainerException {
+		int objectsCount = ID.length;
 		try {
+			long[] hashes = new long[objectsCount];
+			for (int i = 0; i < objectsCount; i++) {
+				hashes[i] = getContentHash(bytes[i]);
+			}
+			ObjectAddress[] tableAddresses = deduplicationTable.getAddress(hashes);
+			RecordData[] storedData = readRecords(tableAddresses, null, null, false);
+
+			// Object is counted if its record is referenced from deduplication table
 			ObjectAddress[] result = new ObjectAddress[objectsCount];
-			int pointer = 0;
-			while (startObject < objectsCount) {
-				long sumSize = 0;
-				while (startObject + curCount < bytes.length) {
+			boolean[] counted = new boolean[objectsCount];
+			int[] sameObject = new int[objectsCount];
+			Map<Long, Integer> newCountedObjects = new HashMap<>();
+			List<Integer> newObjects = new ArrayList<>();
+			for (int i = 0; i < objectsCount; i++) {
+				sameObject[i] = i;
+				if (storedData[i] != null && Arrays.equals(storedData[i].getObject(), bytes[i])) {
+					result[i] = tableAddresses[i];
+					counted[i] = true;
+					continue;
+				}
+				Integer first = newCountedObjects.get(hashes[i]);
+				if (first != null && Arrays.equals(bytes[first], bytes[i])) {
+					sameObject[i] = first;
+					counted[i] = true;
+					continue;
+				}
+				if (first == null && tableAddresses[i] == ObjectAddress.EMPTY_ADDRESS) {
+					newCountedObjects.put(hashes[i], i);
+					counted[i] = true;
+				}
+				newObjects.add(i);
+			}
+
+			int newCount = newObjects.size();
+			long[] newID = new long[newCount];
+			byte[][] newBytes = new byte[newCount][];
+			for (int i = 0; i < newCount; i++) {
+				newID[i] = ID[newObjects.get(i)];
+				newBytes[i] = bytes[newObjects.get(i)];
+			}
+			ObjectAddress[] newAddresses = writeRecords(newID, newBytes);
+			for (int i = 0; i < newCount; i++) {
+				result[newObjects.get(i)] = newAddresses[i];
+			}
+
+			List<Integer> countedObjects = new ArrayList<>();
+			for (int i = 0; i < objectsCount; i++) {
+				result[i] = result[sameObject[i]];
+				if (counted[i]) {
+					countedObjects.add(i);
+				}
+			}
+			long[] countedHashes = new long[countedObjects.size()];
+			ObjectAddress[] countedAddresses = new ObjectAddress[countedObjects.size()];
+			int[] references = new int[countedObjects.size()];
+			for (int i = 0; i < countedObjects.size(); i++) {
+				countedHashes[i] = hashes[countedObjects.get(i)];
+				countedAddresses[i] = result[countedObjects.get(i)];
+				references[i] = 1;
+			}
+			deduplicationTable.addReferences(countedHashes, countedAddresses, references);
+
+			// Objects, which records were not written for their own IDs, get reference records
+			Set<Integer> ownObjects = new HashSet<>(newObjects);
+			List<Integer> referencingObjects = new ArrayList<>();
+			for (int i = 0; i < objectsCount; i++) {
+				if (!ownObjects.contains(i)) {
+					referencingObjects.add(i);
+				}
+			}
+			long[] referencingID = new long[referencingObjects.size()];
+			byte[][] referenceBytes = new byte[referencingObjects.size()][];
+			for (int i = 0; i < referencingObjects.size(); i++) {
+				referencingID[i] = ID[referencingObjects.get(i)];
+				referenceBytes[i] = ObjectContainer.getReferenceBytes(result[referencingObjects.get(i)]);
+			}
+			ObjectAddress[] referenceAddresses = writeRecords(referencingID, referenceBytes, true);
+			for (int i = 0; i < referencingObjects.size(); i++) {
+				result[referencingObjects.get(i)] = referenceAddresses[i];
+			}
+
+			return result;
+		} catch (IOException e) {
+			throw new ContainerException(e);
+		}
+	}
+
+	/**
+	 * Returns addresses of records, that are not referenced anymore, reference records are always returned.
+	 * Shared records of removed IDs, which are still referenced, are marked as orphans.
+	 */
+	private ObjectAddress[] releaseReferences(ObjectAddress[] addresses) throws ContainerException {
+		RecordData[] storedData = readRecords(addresses, null, null, false);
+		ObjectAddress[] sharedAddresses = new ObjectAddress[addresses.length];
+		Arrays.fill(sharedAddresses, ObjectAddress.EMPTY_ADDRESS);
+		List<ObjectAddress> result = new ArrayList<>();
+		for (int i = 0; i < addresses.length; i++) {
+			if (storedData[i] != null && storedData[i].isReference()) {
+				sharedAddresses[i] = storedData[i].getReference();
+				result.add(addresses[i]);
+			}
+		}
+		RecordData[] sharedData = readRecords(sharedAddresses, null, null, false);
+
+		List<Integer> storedObjects = new ArrayList<>();
+		for (int i = 0; i < addresses.length; i++) {
+			if (sharedData[i] != null) {
+				storedData[i] = sharedData[i];
+			} else if (storedData[i] != null && !storedData[i].isReference()) {
+				sharedAddresses[i] = addresses[i];
+			} else {
+				continue;
+			}
+			storedObjects.add(i);
+		}
+		long[] hashes = new long[storedObjects.size()];
+		ObjectAddress[] storedAddresses = new ObjectAddress[storedObjects.size()];
+		for (int i = 0; i < storedObjects.size(); i++) {
+			hashes[i] = getContentHash(storedData[storedObjects.get(i)].getObject());
+			storedAddresses[i] = sharedAddresses[storedObjects.get(i)];
+		}
+		boolean[] unreferenced;
+		try {
+			unreferenced = deduplicationTable.removeReference(hashes, storedAddresses);
+		} catch (IOException e) {
+			throw new ContainerException(e);
+		}
+
+		List<ObjectAddress> orphans = new ArrayList<>();
+		for (int i = 0; i < storedObjects.size(); i++) {
+			if (unreferenced[i]) {
+				result.add(storedAddresses[i]);
+			} else if (storedAddresses[i].equals(addresses[storedObjects.get(i)])) {
+				orphans.add(storedAddresses[i]);
+			}
+		}
+		orphans.removeAll(result);
+		changeRecords(orphans.toArray(new ObjectAddress[orphans.size()]), true);
+		return result.toArray(new ObjectAddress[result.size()]);
+	}
+
+	private long getContentHash(byte[] bytes) throws ContainerException {
+		try {
+			byte[] digest = MessageDigest.getInstance(CONTENT_HASH_ALGORITHM).digest(bytes);
+			return ByteBuffer.wrap(digest).getLong();
+		} catch (NoSuchAlgorithmException e) {
+			throw new ContainerException(e);
+		}
+	}
+
+	private ObjectAddress[] writeRecords(long[] ID, byte[][] bytes) throws ContainerException {
+		return writeRecords(ID, bytes, false);
+	}
+
+	// Reference records are written if references is true (see ObjectContainer.writeBytes())
+	private ObjectAddress[] writeRecords(long[] ID, byte[][] bytes, boolean references) throws ContainerException {
+		int objectsCount = ID.length;
+		List<List<Integer>> objectsBySizeClass = new ArrayList<>(sizeClassBounds.length);
+		for (int i = 0; i < sizeClassBounds.length; i++) {
+			objectsBySizeClass.add(new ArrayList<Integer>());
+		}
+		for (int i = 0; i < objectsCount; i++) {
+			objectsBySizeClass.get(getSizeClass(bytes[i])).add(i);
+		}
+
+		try {
+			ObjectAddress[] result = new ObjectAddress[objectsCount];
+			for (int sizeClass = 0; sizeClass < sizeClassBounds.length; sizeClass++) {
+				List<Integer> objects = objectsBySizeClass.get(sizeClass);
+				if (objects.isEmpty()) {
+					continue;
+				}
+				long[] classID = new long[objects.size()];
+				byte[][] classBytes = new byte[objects.size()][];
+				for (int i = 0; i < objects.size(); i++) {
+					classID[i] = ID[objects.get(i)];
+					classBytes[i] = bytes[objects.get(i)];
+				}
+				ObjectAddress[] classResult = writeRecords(sizeClass, classID, classBytes, references);
+				for (int i = 0; i < objects.size(); i++) {
+					result[objects.get(i)] = classResult[i];
+				}
+			}
+			return result;
+		} catch (IOException e) {
+			throw new ContainerException(e);
+		}
+	}
+
+	// Container packaging task is NP-complex, so, I don't think that it should be solved here
+	// Objects packs with primitive algorithm
+	private ObjectAddress[] writeRecords(int sizeClass, long[] ID, byte[][] bytes, boolean references) throws ContainerException, IOException {
+		int objectsCount = ID.length;
+		ObjectAddress[] result = new ObjectAddress[objectsCount];
+		int startObject = 0;
+		while (startObject < objectsCount) {
+			boolean newContainer = activeContainers[sizeClass] == NO_CONTAINER;
+			if (newContainer) {
+				startNewContainer(sizeClass);
+			}
+
+			int containerNumber = activeContainers[sizeClass];
+			String containerName = getContainerFileName(containerNumber);
+			try (FileReaderWriter rw = FileReaderWriter.openForReadingWriting(containerName, FileRole.CONTAINER)) {
+				ObjectContainer container =
+						new ObjectContainer(rw, containerName, containerNumber, newContainer, settings);
+
+				long sumSize = container.getDataSize();
+				int curCount = 0;
+				while (startObject + curCount < objectsCount) {
 					long neededSize = ObjectContainer.getNeededSpace(bytes[startObject + curCount]);
 					if (sumSize + neededSize > MAX_FILE_SIZE) {
 						break;
@@ -123,27 +823,29 @@ public class ObjectContainerSupervisor {
 					sumSize += neededSize;
 					curCount++;
 				}
+
 				if (curCount <= 0) {
-					throw new ContainerException("Could not write objects to container");
+					if (newContainer) {
+						throw new ContainerException("Could not write objects to container");
+					}
+					activeContainers[sizeClass] = NO_CONTAINER;
+					continue;
 				}
 
-				String nextContainerName = getContainerFileName(nextContainerNumber);
-				new File(nextContainerName).createNewFile();
-				try (FileReaderWriter rw = FileReaderWriter.openForReadingWriting(nextContainerName)) {
-					ObjectContainer container =
-							new ObjectContainer(rw, nextContainerName, nextContainerNumber, true);
-					nextContainerNumber++;
-
-					ObjectAddress[] subResult = container.writeBytes(rw, ID, bytes, startObject, curCount);
-					System.arraycopy(subResult, 0, result, pointer, subResult.length);
-					pointer += subResult.length;
-				}
+				ObjectAddress[] subResult = container.writeBytes(rw, ID, bytes, startObject, curCount, references);
+				System.arraycopy(subResult, 0, result, startObject, subResult.length);
 				startObject += curCount;
-				curCount = 0;
 			}
-			return result;
-		} catch (IOException e) {
-			throw new ContainerException(e);
+		}
+		return result;
+	}
+
+	private void startNewContainer(int sizeClass) throws IOException {
+		int number = nextContainerNumber++;
+		activeContainers[sizeClass] = number;
+		containerDirectories.add(chooseDirectory(number));
+		try (FileReaderWriter out = FileReaderWriter.openForReadingWriting(SUPERVISOR_INFO_FILE_PATH)) {
+			writeSupervisorInfo(out);
 		}
 	}
 
@@ -152,40 +854,258 @@ public class ObjectContainerSupervisor {
 	}
 
 	public RecordData[] get(ObjectAddress[] addresses) throws ContainerException {
-		try {
-			RecordData[] result = new RecordData[addresses.length];
-			Map<Integer, List<Integer>> addressesByContainer = new HashMap<>(addresses.length);
-			for (int i = 0; i < addresses.length; i++) {
-				ObjectAddress address = addresses[i];;
-				if (address == null || address == ObjectAddress.EMPTY_ADDRESS) {
-					continue;
+		return get(addresses, null, null);
+	}
+
+	/**
+	 * Reads only ranges of objects (see ObjectContainer.getData), whole objects are read if offsets are null.
+	 */
+	public RecordData[] get(ObjectAddress[] addresses, long[] offsets, int[] lengths) throws ContainerException {
+		return read(addresses, offsets, lengths, true);
+	}
+
+	// Reference records are replaced by data of shared records, which they point to
+	private RecordData[] read(ObjectAddress[] addresses, long[] offsets, int[] lengths, boolean countReads) throws ContainerException {
+		RecordData[] result = readRecords(addresses, offsets, lengths, countReads);
+		ObjectAddress[] sharedAddresses = new ObjectAddress[addresses.length];
+		Arrays.fill(sharedAddresses, ObjectAddress.EMPTY_ADDRESS);
+		boolean hasReferences = false;
+		for (int i = 0; i < result.length; i++) {
+			if (result[i] != null && result[i].isReference()) {
+				sharedAddresses[i] = result[i].getReference();
+				hasReferences = true;
+			}
+		}
+		if (hasReferences) {
+			RecordData[] sharedData = readRecords(sharedAddresses, offsets, lengths, countReads);
+			for (int i = 0; i < result.length; i++) {
+				if (sharedAddresses[i] != ObjectAddress.EMPTY_ADDRESS) {
+					result[i] = sharedData[i];
 				}
-				int fileNumber = address.getFileNumber();
-				if (!addressesByContainer.containsKey(fileNumber)) {
-					addressesByContainer.put(fileNumber, new LinkedList<Integer>());
+			}
+		}
+		return result;
+	}
+
+	// Only reads of objects by clients are counted for tiering
+	private RecordData[] readRecords(final ObjectAddress[] addresses, final long[] offsets, final int[] lengths,
+									 boolean countReads) throws ContainerException {
+		final RecordData[] result = new RecordData[addresses.length];
+		readContainers(addresses, countReads, new ContainerReader() {
+			@Override
+			public void read(int containerIndex, List<Integer> addressesIndecies) throws IOException {
+				readContainer(containerIndex, addresses, offsets, lengths, addressesIndecies, result);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Returns sizes of objects, -1 for removed records. Only record headers are read,
+	 * sizes of references are read from headers of shared records.
+	 * Metadata lookups aren't counted as reads for tiering.
+	 */
+	public long[] getSizes(ObjectAddress[] addresses) throws ContainerException {
+		long[] result = readSizes(addresses);
+		ObjectAddress[] referenceAddresses = new ObjectAddress[addresses.length];
+		Arrays.fill(referenceAddresses, ObjectAddress.EMPTY_ADDRESS);
+		boolean hasReferences = false;
+		for (int i = 0; i < result.length; i++) {
+			if (result[i] == ObjectContainer.REFERENCE_RECORD_SIZE) {
+				referenceAddresses[i] = addresses[i];
+				hasReferences = true;
+			}
+		}
+		if (hasReferences) {
+			RecordData[] references = readRecords(referenceAddresses, null, null, false);
+			ObjectAddress[] sharedAddresses = new ObjectAddress[addresses.length];
+			Arrays.fill(sharedAddresses, ObjectAddress.EMPTY_ADDRESS);
+			for (int i = 0; i < result.length; i++) {
+				if (references[i] != null) {
+					sharedAddresses[i] = references[i].getReference();
 				}
-				addressesByContainer.get(fileNumber).add(i);
 			}
-			for (Integer containerIndex : addressesByContainer.keySet()) {
-				List<Integer> addressesIndecies = addressesByContainer.get(containerIndex);
-				long[] positions = getPositionsFromAddressList(addresses, addressesIndecies);
+			long[] sharedSizes = readSizes(sharedAddresses);
+			for (int i = 0; i < result.length; i++) {
+				if (referenceAddresses[i] != ObjectAddress.EMPTY_ADDRESS) {
+					result[i] = sharedSizes[i];
+				}
+			}
+		}
+		return result;
+	}
 
-				RecordData[] subResult;
+	private long[] readSizes(final ObjectAddress[] addresses) throws ContainerException {
+		final long[] result = new long[addresses.length];
+		Arrays.fill(result, -1);
+		readContainers(addresses, false, new ContainerReader() {
+			@Override
+			public void read(int containerIndex, List<Integer> addressesIndecies) throws IOException {
+				long[] positions = getPositionsFromAddressList(addresses, addressesIndecies);
 				String containerFileName = getContainerFileName(containerIndex);
-				try (FileReaderWriter in = FileReaderWriter.openForReading(containerFileName)) {
-					subResult = new ObjectContainer(in, containerFileName, containerIndex, false).getData(in, positions);
-				}
-				for (int i = 0; i < addressesIndecies.size(); i++) {
-					result[addressesIndecies.get(i)] = subResult[i];
+				try (FileReaderWriter in = FileReaderWriter.openForReading(containerFileName, FileRole.CONTAINER)) {
+					long[] sizes = new ObjectContainer(in, containerFileName, containerIndex, false, settings).getSizes(in, positions);
+					for (int i = 0; i < addressesIndecies.size(); i++) {
+						result[addressesIndecies.get(i)] = sizes[i];
+					}
 				}
+			}
+		});
+		return result;
+	}
+
+	// Containers are read in parallel by read executor, every reader fills its own cells of result
+	private void readContainers(ObjectAddress[] addresses, boolean countReads, final ContainerReader reader) throws ContainerException {
+		Map<Integer, List<Integer>> addressesByContainer = new TreeMap<>();
+		for (int i = 0; i < addresses.length; i++) {
+			ObjectAddress address = addresses[i];
+			if (address == null || address == ObjectAddress.EMPTY_ADDRESS) {
 				continue;
 			}
-			return result;
+			int fileNumber = address.getFileNumber();
+			if (!addressesByContainer.containsKey(fileNumber)) {
+				addressesByContainer.put(fileNumber, new ArrayList<Integer>());
+			}
+			addressesByContainer.get(fileNumber).add(i);
+		}
+		// Read-only supervisor could be shared by threads of scanners, so its reads are not counted
+		if (coldDirectory != NO_DIRECTORY && countReads && !readOnly) {
+			countReads(addressesByContainer);
+		}
+
+		List<Callable<Void>> reads = new ArrayList<>(addressesByContainer.size());
+		final IOScope callerScope = IOScope.current();
+		for (final Map.Entry<Integer, List<Integer>> entry : addressesByContainer.entrySet()) {
+			reads.add(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					IOScope scope = IOScope.join(callerScope);
+					try {
+						reader.read(entry.getKey(), entry.getValue());
+					} finally {
+						scope.close();
+					}
+					return null;
+				}
+			});
+		}
+
+		try {
+			if (readExecutor == null || reads.size() <= 1) {
+				for (Callable<Void> read : reads) {
+					read.call();
+				}
+			} else {
+				for (Future<Void> future : readExecutor.invokeAll(reads)) {
+					future.get();
+				}
+			}
+		} catch (ExecutionException e) {
+			throw new ContainerException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ContainerException(e);
 		} catch (Exception e) {
 			throw new ContainerException(e);
 		}
 	}
 
+	private interface ContainerReader {
+		void read(int containerIndex, List<Integer> addressesIndecies) throws IOException;
+	}
+
+	private void countReads(Map<Integer, List<Integer>> addressesByContainer) {
+		for (Map.Entry<Integer, List<Integer>> entry : addressesByContainer.entrySet()) {
+			Integer reads = containerReads.get(entry.getKey());
+			int containerReadsCount = entry.getValue().size();
+			containerReads.put(entry.getKey(), (reads == null) ? containerReadsCount : reads + containerReadsCount);
+			readsSinceMigration += containerReadsCount;
+		}
+	}
+
+	/**
+	 * Moves containers between data directories and cold directory by reads counted since previous migration.
+	 * Active containers are not moved to cold directory. Returns number of moved containers.
+	 * Nothing is moved until tiering period of reads is counted (warm-up after opening), so containers
+	 * aren't demoted by counts of too few reads.
+	 */
+	public int migrateContainers() throws ContainerException {
+		checkWritable();
+		if (coldDirectory == NO_DIRECTORY || readsSinceMigration < settings.getTieringPeriod()) {
+			return 0;
+		}
+		Set<Integer> active = new HashSet<>();
+		for (int number : activeContainers) {
+			active.add(number);
+		}
+		int result = 0;
+		try {
+			for (int number = 0; number < nextContainerNumber; number++) {
+				Integer reads = containerReads.get(number);
+				boolean hot = reads != null && reads >= settings.getHotReadsCount();
+				int directory = getContainerDirectory(number);
+				int newDirectory;
+				if (directory == coldDirectory && hot) {
+					newDirectory = chooseDirectory(number);
+				} else if (directory != coldDirectory && !hot && !active.contains(number)) {
+					newDirectory = coldDirectory;
+				} else {
+					continue;
+				}
+				if (new File(getContainerFileName(number)).isFile()) {
+					moveContainer(number, newDirectory);
+					result++;
+				}
+			}
+		} catch (IOException e) {
+			throw new ContainerException(e);
+		}
+		containerReads.clear();
+		readsSinceMigration = 0;
+		return result;
+	}
+
+	// Copy is renamed to container name only when it's complete, so both files are valid containers
+	private void moveContainer(int number, int directory) throws IOException {
+		Path source = Paths.get(getContainerFileName(number));
+		Path target = Paths.get(getContainerFileName(number, directory));
+		Path copy = Paths.get(target.toString() + MOVED_CONTAINER_SUFFIX);
+		Files.copy(source, copy, StandardCopyOption.REPLACE_EXISTING);
+		Files.move(copy, target, StandardCopyOption.ATOMIC_MOVE);
+
+		containerDirectories.set(number, directory);
+		try (FileReaderWriter out = FileReaderWriter.openForReadingWriting(SUPERVISOR_INFO_FILE_PATH)) {
+			writeSupervisorInfo(out);
+		}
+		Files.delete(source);
+	}
+
+	// Every container fills its own cells of result
+	private void readContainer(int containerIndex, ObjectAddress[] addresses, long[] offsets, int[] lengths,
+							   List<Integer> addressesIndecies, RecordData[] result) throws IOException {
+		long[] positions = getPositionsFromAddressList(addresses, addressesIndecies);
+
+		RecordData[] subResult;
+		String containerFileName = getContainerFileName(containerIndex);
+		try (FileReaderWriter in = FileReaderWriter.openForReading(containerFileName, FileRole.CONTAINER)) {
+			ObjectContainer container = new ObjectContainer(in, containerFileName, containerIndex, false, settings);
+			if (offsets == null) {
+				subResult = container.getData(in, positions);
+			} else {
+				long[] subOffsets = new long[addressesIndecies.size()];
+				int[] subLengths = new int[addressesIndecies.size()];
+				for (int i = 0; i < subOffsets.length; i++) {
+					subOffsets[i] = offsets[addressesIndecies.get(i)];
+					subLengths[i] = lengths[addressesIndecies.get(i)];
+				}
+				subResult = container.getData(in, positions, subOffsets, subLengths);
+			}
+		}
+		for (int i = 0; i < addressesIndecies.size(); i++) {
+			result[addressesIndecies.get(i)] = subResult[i];
+		}
+	}
+
 	private long[] getPositionsFromAddressList(List<ObjectAddress> addresses) {
 		long[] result = new long[addresses.size()];
 		Iterator<ObjectAddress> iterator = addresses.iterator();
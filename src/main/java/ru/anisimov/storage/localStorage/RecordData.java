@@ -4,16 +4,27 @@ import java.util.Arrays;
 
 /**
 * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+*
+* Data of reference record (see ObjectContainer) has address of shared record, which keeps object of reference ID.
+* Orphan record keeps object of removed ID for reference records, which still point to it.
 */
 public class RecordData {
 	private long ID;
 	private int size;
 	private byte[] object;
+	private ObjectAddress reference;
+	private boolean orphan;
 
 	public RecordData(long ID, int size, byte[] object) {
+		this(ID, size, object, null, false);
+	}
+
+	RecordData(long ID, int size, byte[] object, ObjectAddress reference, boolean orphan) {
 		this.ID = ID;
 		this.size = size;
 		this.object = object;
+		this.reference = reference;
+		this.orphan = orphan;
 	}
 
 	public byte[] getObject() {
@@ -28,6 +39,18 @@ public class RecordData {
 		return ID;
 	}
 
+	public boolean isReference() {
+		return reference != null;
+	}
+
+	public ObjectAddress getReference() {
+		return reference;
+	}
+
+	public boolean isOrphan() {
+		return orphan;
+	}
+
 	private Object[] keyArray() {
 		return new Object[] {ID, size};
 	}
@@ -0,0 +1,22 @@
+package ru.anisimov.storage.localStorage;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ */
+public class StoredObject {
+	private long key;
+	private byte[] object;
+
+	public StoredObject(long key, byte[] object) {
+		this.key = key;
+		this.object = object;
+	}
+
+	public long getKey() {
+		return key;
+	}
+
+	public byte[] getObject() {
+		return object;
+	}
+}
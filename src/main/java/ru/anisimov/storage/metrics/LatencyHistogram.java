@@ -0,0 +1,72 @@
+package ru.anisimov.storage.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * Histogram of latencies in nanoseconds with log-linear buckets (like HdrHistogram).
+ * Values below 2 * SUB_BUCKETS_COUNT have own buckets, bigger values are counted by buckets
+ * of width 2^k, SUB_BUCKETS_COUNT buckets for every power of two. So relative error is not more
+ * than 1 / SUB_BUCKETS_COUNT (about 3%). Values bigger than MAX_VALUE are counted as MAX_VALUE.
+ *
+ * Recording is lock-free and could be done from any threads. Snapshot taken during recording
+ * could miss values recorded at the same moment.
+ *
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS_COUNT = 1 << SUB_BUCKET_BITS;
+	static final long MAX_VALUE = (1L << 40) - 1;
+	static final int BUCKETS_COUNT = getBucket(MAX_VALUE) + 1;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS_COUNT);
+	private final AtomicLong totalCount = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong max = new AtomicLong(0);
+
+	public void record(long nanos) {
+		long value = Math.max(0, Math.min(nanos, MAX_VALUE));
+		counts.incrementAndGet(getBucket(value));
+		totalCount.incrementAndGet();
+		sum.addAndGet(value);
+		long currentMin;
+		while (value < (currentMin = min.get()) && !min.compareAndSet(currentMin, value)) {
+			// retry
+		}
+		long currentMax;
+		while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+			// retry
+		}
+	}
+
+	public LatencySnapshot snapshot() {
+		long[] snapshotCounts = new long[BUCKETS_COUNT];
+		long count = 0;
+		for (int i = 0; i < BUCKETS_COUNT; i++) {
+			snapshotCounts[i] = counts.get(i);
+			count += snapshotCounts[i];
+		}
+		return new LatencySnapshot(snapshotCounts, count, sum.get(), (count == 0) ? 0 : min.get(), max.get());
+	}
+
+	static int getBucket(long value) {
+		if (value < 2 * SUB_BUCKETS_COUNT) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return (shift * SUB_BUCKETS_COUNT) + (int) (value >>> shift);
+	}
+
+	// Highest value counted by bucket
+	static long getBucketMaxValue(int bucket) {
+		if (bucket < 2 * SUB_BUCKETS_COUNT) {
+			return bucket;
+		}
+		int shift = (bucket / SUB_BUCKETS_COUNT) - 1;
+		long top = (bucket % SUB_BUCKETS_COUNT) + SUB_BUCKETS_COUNT;
+		return ((top + 1) << shift) - 1;
+	}
+}
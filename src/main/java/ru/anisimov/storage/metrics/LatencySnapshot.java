@@ -0,0 +1,91 @@
+package ru.anisimov.storage.metrics;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * Immutable state of LatencyHistogram. All values are in nanoseconds.
+ * Percentile is the highest value of bucket, where it falls, but not more than max.
+ *
+ */
+public class LatencySnapshot {
+	public static final LatencySnapshot EMPTY = new LatencySnapshot(new long[LatencyHistogram.BUCKETS_COUNT], 0, 0, 0, 0);
+
+	private final long[] counts;
+	private final long count;
+	private final long sum;
+	private final long min;
+	private final long max;
+
+	LatencySnapshot(long[] counts, long count, long sum, long min, long max) {
+		this.counts = counts;
+		this.count = count;
+		this.sum = sum;
+		this.min = min;
+		this.max = max;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getMin() {
+		return min;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	public double getMean() {
+		return (count == 0) ? 0 : (double) sum / count;
+	}
+
+	public long getP50() {
+		return getValueAtPercentile(50);
+	}
+
+	public long getP90() {
+		return getValueAtPercentile(90);
+	}
+
+	public long getP99() {
+		return getValueAtPercentile(99);
+	}
+
+	public long getP999() {
+		return getValueAtPercentile(99.9);
+	}
+
+	public long getValueAtPercentile(double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("Percentile should be between 0 and 100");
+		}
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.max(min, Math.min(max, LatencyHistogram.getBucketMaxValue(i)));
+			}
+		}
+		return max;
+	}
+
+	public LatencySnapshot merge(LatencySnapshot other) {
+		if (other.count == 0) {
+			return this;
+		}
+		if (count == 0) {
+			return other;
+		}
+		long[] mergedCounts = new long[counts.length];
+		for (int i = 0; i < counts.length; i++) {
+			mergedCounts[i] = counts[i] + other.counts[i];
+		}
+		return new LatencySnapshot(mergedCounts, count + other.count, sum + other.sum,
+										  Math.min(min, other.min), Math.max(max, other.max));
+	}
+}
@@ -0,0 +1,22 @@
+package ru.anisimov.storage.metrics;
+
+import java.util.Map;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * JMX view of InstrumentedStorage.
+ * Latencies are keyed by operation and batch size class, e.g. "GET 2-10".
+ *
+ */
+public interface StorageMetricsMXBean {
+	Map<String, LatencySnapshot> getLatencies();
+
+	long getBytesRead();
+
+	long getBytesWritten();
+
+	long getErrorCount();
+
+	void reset();
+}
@@ -0,0 +1,28 @@
+package ru.anisimov.storage.metrics;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * Storage calls measured by InstrumentedStorage. WRITE is write without keys, REWRITE is write by keys,
+ * CONDITIONAL_WRITE is write by keys with expected versions, GET_RANGE is get of object ranges,
+ * GET_VERSION, EXISTS and SIZE are metadata lookups, EXPIRE sets expiration times,
+ * REMOVE_EXPIRED is removal of expired objects (batch size is count of removed objects),
+ * MIGRATE is migration between tiers (batch size is count of moved containers).
+ *
+ */
+public enum StorageOperation {
+	GENERATE_KEY,
+	WRITE,
+	REWRITE,
+	CONDITIONAL_WRITE,
+	GET_VERSION,
+	GET,
+	GET_RANGE,
+	EXISTS,
+	SIZE,
+	REMOVE,
+	EXPIRE,
+	REMOVE_EXPIRED,
+	MIGRATE,
+	REBUILD
+}
@@ -0,0 +1,347 @@
+package ru.anisimov.storage.remote;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import ru.anisimov.storage.ExpirationSweeper;
+import ru.anisimov.storage.Storage;
+import ru.anisimov.storage.SynchronizedStorage;
+import ru.anisimov.storage.exceptions.StorageException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * HTTP/1.1 front-end of Storage (JDK HttpServer).
+ *
+ * POST /objects           - writes new object, returns 201 with key in body and Location header
+ * PUT /objects/{key}      - writes object with key, returns 204
+ *                           (POST and PUT give 413 for body longer than max body size or max object size of storage)
+ * GET /objects/{key}      - returns object or 404, single range (Range: bytes=first-last, first- or -suffix)
+ *                           gives 206 with Content-Range, unsatisfiable range gives 416,
+ *                           object or range longer than max body size gives 413 (longer object is read by ranges)
+ * HEAD /objects/{key}     - returns headers of GET, object is not read
+ * DELETE /objects/{key}   - removes object, returns 204
+ *
+ * Requests are handled by pool of daemon threads. Storage is wrapped into SynchronizedStorage
+ * (unless it is one already), so storage shouldn't be thread-safe. Other threads should call storage
+ * through the same SynchronizedStorage. Bodies are read and written outside of lock.
+ * With sweep period expired objects are removed by ExpirationSweeper on the same SynchronizedStorage.
+ * Ranges are read by ranged get, so only requested part of object is read.
+ *
+ * Storage takes and returns objects as byte arrays, so bodies are not streamed: every body is buffered whole.
+ * Buffered body is limited by max body size (DEFAULT_MAX_BODY_SIZE is 64 MB), so server buffers at most
+ * threads count * max body size bytes. Request body of declared length is read into array of that length,
+ * chunked body is checked while reading. Size of response is read from record header before object is read,
+ * if storage could keep objects longer than max body size.
+ * Error of storage (checked or runtime) gives 500 with message in body.
+ *
+ */
+public class HttpStorageServer implements AutoCloseable {
+	static final String OBJECTS_PATH = "/objects";
+
+	private static final int DEFAULT_THREADS_COUNT = 4;
+	private static final long THREAD_KEEP_ALIVE_SECONDS = 60;
+	private static final int BODY_BUFFER_SIZE = 64 * 1024;
+	private static final int DEFAULT_MAX_BODY_SIZE = 64 * 1024 * 1024;
+	private static final String RANGE_UNIT = "bytes=";
+
+	private final SynchronizedStorage storage;
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final ExpirationSweeper sweeper;
+	private final int maxBodySize;
+
+	public HttpStorageServer(Storage storage, InetSocketAddress address) throws StorageException {
+		this(storage, address, DEFAULT_THREADS_COUNT);
+	}
+
+	public HttpStorageServer(Storage storage, InetSocketAddress address, int threadsCount) throws StorageException {
+		this(storage, address, threadsCount, 0);
+	}
+
+	// Expired objects aren't removed by server if sweep period is 0
+	public HttpStorageServer(Storage storage, InetSocketAddress address, int threadsCount, long sweepPeriodMillis) throws StorageException {
+		this(storage, address, threadsCount, sweepPeriodMillis, DEFAULT_MAX_BODY_SIZE);
+	}
+
+	public HttpStorageServer(Storage storage, InetSocketAddress address, int threadsCount, long sweepPeriodMillis,
+							 int maxBodySize) throws StorageException {
+		if (sweepPeriodMillis < 0) {
+			throw new IllegalArgumentException("Sweep period should not be negative");
+		}
+		if (maxBodySize <= 0) {
+			throw new IllegalArgumentException("Max body size should be positive");
+		}
+		this.maxBodySize = maxBodySize;
+		this.storage = SynchronizedStorage.of(storage);
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threadsCount, threadsCount,
+														 THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+														 new LinkedBlockingQueue<Runnable>(),
+														 new ThreadFactory() {
+															 @Override
+															 public Thread newThread(Runnable task) {
+																 Thread thread = new Thread(task, "storage-http");
+																 thread.setDaemon(true);
+																 return thread;
+															 }
+														 });
+		pool.allowCoreThreadTimeOut(true);
+		this.executor = pool;
+		try {
+			server = HttpServer.create(address, 0);
+		} catch (IOException e) {
+			throw new StorageException(e);
+		}
+		server.createContext(OBJECTS_PATH, new ObjectsHandler());
+		server.setExecutor(executor);
+		server.start();
+		sweeper = (sweepPeriodMillis > 0) ? new ExpirationSweeper(this.storage, sweepPeriodMillis) : null;
+	}
+
+	public InetSocketAddress getAddress() {
+		return server.getAddress();
+	}
+
+	@Override
+	public void close() {
+		if (sweeper != null) {
+			sweeper.close();
+		}
+		server.stop(0);
+		executor.shutdown();
+	}
+
+	private class ObjectsHandler implements HttpHandler {
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				String method = exchange.getRequestMethod();
+				String path = exchange.getRequestURI().getPath();
+				if (path.equals(OBJECTS_PATH) || path.equals(OBJECTS_PATH + "/")) {
+					if ("POST".equals(method)) {
+						handlePost(exchange);
+					} else {
+						sendStatus(exchange, 405);
+					}
+					return;
+				}
+				long key;
+				try {
+					key = Long.parseLong(path.substring(OBJECTS_PATH.length() + 1));
+				} catch (NumberFormatException e) {
+					sendStatus(exchange, 404);
+					return;
+				}
+				switch (method) {
+					case "GET":
+						handleGet(exchange, key, false);
+						break;
+					case "HEAD":
+						handleGet(exchange, key, true);
+						break;
+					case "PUT":
+						handlePut(exchange, key);
+						break;
+					case "DELETE":
+						storage.remove(key);
+						sendStatus(exchange, 204);
+						break;
+					default:
+						sendStatus(exchange, 405);
+				}
+			} catch (StorageException | RuntimeException e) {
+				byte[] message = String.valueOf(e.getMessage()).getBytes(Protocol.UTF8);
+				exchange.sendResponseHeaders(500, message.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(message);
+				}
+			} finally {
+				exchange.close();
+			}
+		}
+
+		private void handlePost(HttpExchange exchange) throws IOException, StorageException {
+			byte[] object = readBody(exchange, Math.min(maxBodySize, storage.getMaxObjectSize()));
+			if (object == null) {
+				sendTooLarge(exchange);
+				return;
+			}
+			long key = storage.write(object);
+			byte[] body = String.valueOf(key).getBytes(Protocol.UTF8);
+			exchange.getResponseHeaders().set("Location", OBJECTS_PATH + "/" + key);
+			exchange.sendResponseHeaders(201, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		}
+
+		private void handlePut(HttpExchange exchange, long key) throws IOException, StorageException {
+			byte[] object = readBody(exchange, Math.min(maxBodySize, storage.getMaxObjectSize()));
+			if (object == null) {
+				sendTooLarge(exchange);
+				return;
+			}
+			storage.write(key, object);
+			sendStatus(exchange, 204);
+		}
+
+		// Size and range are read under lock of storage, so they belong to the same object
+		private void handleGet(HttpExchange exchange, long key, boolean headersOnly) throws IOException, StorageException {
+			String rangeHeader = exchange.getRequestHeaders().getFirst("Range");
+			long size;
+			long[] range = null;
+			byte[] object = null;
+			boolean tooLong = false;
+			synchronized (storage) {
+				if (rangeHeader == null && !headersOnly && storage.getMaxObjectSize() <= maxBodySize) {
+					object = storage.get(key);
+					size = (object == null) ? -1 : object.length;
+				} else {
+					size = storage.size(key);
+					range = (rangeHeader == null || size < 0) ? null : parseRange(rangeHeader, size);
+					tooLong = ((range == null) ? size : range[1] - range[0] + 1) > maxBodySize;
+					if (!headersOnly && size >= 0 && !tooLong) {
+						object = (range == null) ? storage.get(key) :
+										 storage.get(key, range[0], (int) Math.max(0, range[1] - range[0] + 1));
+					}
+				}
+			}
+			if (size < 0 || (!headersOnly && object == null && !tooLong)) {
+				sendStatus(exchange, 404);
+				return;
+			}
+			if (tooLong) {
+				exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+				sendStatus(exchange, 413);
+				return;
+			}
+			exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+			if (range != null && range[0] > range[1]) {
+				exchange.getResponseHeaders().set("Content-Range", "bytes */" + size);
+				sendStatus(exchange, 416);
+				return;
+			}
+			int status = 200;
+			long length = size;
+			if (range != null) {
+				status = 206;
+				length = range[1] - range[0] + 1;
+				exchange.getResponseHeaders().set("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + size);
+			}
+			if (headersOnly) {
+				exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+				exchange.getResponseHeaders().set("Content-Length", String.valueOf(length));
+				sendStatus(exchange, status);
+				return;
+			}
+			sendBody(exchange, status, object, 0, object.length);
+		}
+	}
+
+	/**
+	 * Returns first and last positions of single byte range, first > last if range is unsatisfiable.
+	 * Returns null if header is not a single byte range, so whole object is sent.
+	 */
+	static long[] parseRange(String header, long size) {
+		if (!header.startsWith(RANGE_UNIT) || header.indexOf(',') >= 0) {
+			return null;
+		}
+		String range = header.substring(RANGE_UNIT.length()).trim();
+		int dash = range.indexOf('-');
+		if (dash < 0) {
+			return null;
+		}
+		try {
+			long first;
+			long last;
+			if (dash == 0) {
+				long suffix = Long.parseLong(range.substring(1));
+				first = Math.max(0, size - suffix);
+				last = (suffix == 0) ? -1 : size - 1;
+			} else {
+				first = Long.parseLong(range.substring(0, dash));
+				last = (dash == range.length() - 1) ? size - 1 : Math.min(size - 1, Long.parseLong(range.substring(dash + 1)));
+				if (last < first && first < size) {
+					return null;
+				}
+			}
+			return (first >= size) ? new long[] {1, 0} : new long[] {first, last};
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	// Returns null if body is longer than max size, declared length is checked before reading,
+	// chunked body is checked while reading, so too long body isn't buffered
+	private static byte[] readBody(HttpExchange exchange, long maxSize) throws IOException {
+		long length = -1;
+		String declaredLength = exchange.getRequestHeaders().getFirst("Content-Length");
+		if (declaredLength != null) {
+			try {
+				length = Long.parseLong(declaredLength.trim());
+			} catch (NumberFormatException ignored) {
+			}
+		}
+		if (length > maxSize) {
+			return null;
+		}
+		if (length >= 0) {
+			// Body of declared length is read without copies
+			byte[] result = new byte[(int) length];
+			try (InputStream in = exchange.getRequestBody()) {
+				int offset = 0;
+				while (offset < result.length) {
+					int read = in.read(result, offset, result.length - offset);
+					if (read < 0) {
+						throw new IOException("Body is shorter than Content-Length: " + offset);
+					}
+					offset += read;
+				}
+			}
+			return result;
+		}
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		byte[] buffer = new byte[BODY_BUFFER_SIZE];
+		boolean tooLong = false;
+		try (InputStream in = exchange.getRequestBody()) {
+			int read;
+			while ((read = in.read(buffer)) >= 0) {
+				// Rest of too long body is skipped, so client, which is still sending it, gets the response
+				tooLong |= result.size() + (long) read > maxSize;
+				if (!tooLong) {
+					result.write(buffer, 0, read);
+				}
+			}
+		}
+		return tooLong ? null : result.toByteArray();
+	}
+
+	private static void sendBody(HttpExchange exchange, int status, byte[] object, int offset, int length) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+		exchange.sendResponseHeaders(status, (length == 0) ? -1 : length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(object, offset, length);
+		}
+	}
+
+	// Rest of declared body isn't read, so connection can't be reused
+	private static void sendTooLarge(HttpExchange exchange) throws IOException {
+		exchange.getResponseHeaders().set("Connection", "close");
+		sendStatus(exchange, 413);
+	}
+
+	private static void sendStatus(HttpExchange exchange, int status) throws IOException {
+		exchange.sendResponseHeaders(status, -1);
+	}
+}
@@ -0,0 +1,234 @@
+package ru.anisimov.storage.remote;
+
+import ru.anisimov.storage.commons.TypeSizes;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * Binary protocol of StorageServer.
+ *
+ * Request:  |frame length 4| |request id 8| |operation 1| |payload|
+ * Response: |frame length 4| |request id 8| |status 1|    |payload|
+ * Frame length doesn't include itself.
+ *
+ * Keys (and sizes, versions, times) are |count 4| {key 8}*, booleans are |count 4| {boolean 1}*, objects are |count 4| {object}*, object is |size 4| |bytes|,
+ * null array or object has count or size -1. Boolean is one byte, message is UTF-8 object.
+ * Payload of ERROR response is message.
+ *
+ * Client could send requests without waiting for responses, server answers requests of one
+ * connection in order. Response which would be longer than max frame length is replaced by ERROR response.
+ *
+ */
+final class Protocol {
+	static final int LENGTH_SIZE = TypeSizes.BYTES_IN_INT;
+	static final int HEADER_SIZE = TypeSizes.BYTES_IN_LONG + 1;
+	static final int DEFAULT_MAX_FRAME_LENGTH = 256 * 1024 * 1024;
+
+	static final byte GENERATE_KEY = 1;             // -> key
+	static final byte GENERATE_KEYS = 2;            // |count 4| -> keys
+	static final byte WRITE_NEW = 3;                // object -> key
+	static final byte WRITE_NEW_BATCH = 4;          // objects -> keys
+	static final byte WRITE = 5;                    // key, object -> boolean
+	static final byte WRITE_BATCH = 6;              // keys, objects -> boolean
+	static final byte GET = 7;                      // key -> object
+	static final byte GET_BATCH = 8;                // keys -> objects
+	static final byte REMOVE = 9;                   // key -> boolean
+	static final byte REMOVE_BATCH = 10;            // keys -> boolean
+	static final byte REBUILD = 11;                 // -> message
+	static final byte MAX_OBJECT_SIZE = 12;         // -> |size 8|, limited by max frame length of server
+	static final byte GET_RANGE = 13;               // key, |offset 8| |length 4| -> object
+	static final byte GET_RANGE_BATCH = 14;         // keys, |count 4| {|offset 8| |length 4|}* -> objects
+	static final byte EXISTS = 15;                  // key -> boolean
+	static final byte EXISTS_BATCH = 16;            // keys -> booleans
+	static final byte SIZE = 17;                    // key -> |size 8|
+	static final byte SIZE_BATCH = 18;              // keys -> sizes
+	static final byte WRITE_IF_VERSION = 19;        // key, |version 8|, object -> boolean
+	static final byte WRITE_IF_VERSION_BATCH = 20;  // keys, versions, objects -> booleans
+	static final byte GET_VERSION = 21;             // key -> |version 8|
+	static final byte GET_VERSION_BATCH = 22;       // keys -> versions
+	static final byte EXPIRE = 23;                  // key, |time 8| -> boolean
+	static final byte EXPIRE_BATCH = 24;            // keys, times -> booleans
+	static final byte REMOVE_EXPIRED = 25;          // -> keys
+	static final byte MIGRATE = 26;                 // -> |count 8|
+
+	static final byte STATUS_OK = 0;
+	static final byte STATUS_ERROR = 1;
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int NULL_SIZE = -1;
+
+	private Protocol() {
+	}
+
+	static ByteBuffer newFrame(long requestId, byte code, int payloadSize) {
+		ByteBuffer result = ByteBuffer.allocate(LENGTH_SIZE + HEADER_SIZE + payloadSize);
+		result.putInt(HEADER_SIZE + payloadSize).putLong(requestId).put(code);
+		return result;
+	}
+
+	// Sizes are longs, so payload of big batch can't overflow into small frame, see fits()
+	static boolean fits(long payloadSize, int maxFrameLength) {
+		return HEADER_SIZE + payloadSize <= maxFrameLength;
+	}
+
+	// Single object should fit into one frame together with header of largest request (key, version, size)
+	static long getMaxObjectSize(int maxFrameLength) {
+		return Math.max(0, maxFrameLength - HEADER_SIZE - 2 * TypeSizes.BYTES_IN_LONG - TypeSizes.BYTES_IN_INT);
+	}
+
+	static long getKeysSize(long[] keys) {
+		return TypeSizes.BYTES_IN_INT + ((keys == null) ? 0 : (long) keys.length * TypeSizes.BYTES_IN_LONG);
+	}
+
+	static long getBooleansSize(boolean[] values) {
+		return TypeSizes.BYTES_IN_INT + ((values == null) ? 0 : values.length);
+	}
+
+	static long getRangesSize(long[] offsets) {
+		return TypeSizes.BYTES_IN_INT +
+					   ((offsets == null) ? 0 : (long) offsets.length * (TypeSizes.BYTES_IN_LONG + TypeSizes.BYTES_IN_INT));
+	}
+
+	static long getObjectSize(byte[] object) {
+		return TypeSizes.BYTES_IN_INT + ((object == null) ? 0 : object.length);
+	}
+
+	static long getObjectsSize(byte[][] objects) {
+		long result = TypeSizes.BYTES_IN_INT;
+		if (objects != null) {
+			for (byte[] object : objects) {
+				result += getObjectSize(object);
+			}
+		}
+		return result;
+	}
+
+	static void putKeys(ByteBuffer buffer, long[] keys) {
+		if (keys == null) {
+			buffer.putInt(NULL_SIZE);
+			return;
+		}
+		buffer.putInt(keys.length);
+		for (long key : keys) {
+			buffer.putLong(key);
+		}
+	}
+
+	static void putBooleans(ByteBuffer buffer, boolean[] values) {
+		if (values == null) {
+			buffer.putInt(NULL_SIZE);
+			return;
+		}
+		buffer.putInt(values.length);
+		for (boolean value : values) {
+			buffer.put((byte) (value ? 1 : 0));
+		}
+	}
+
+	// Arrays should be checked by ObjectRanges
+	static void putRanges(ByteBuffer buffer, long[] offsets, int[] lengths) {
+		buffer.putInt(offsets.length);
+		for (int i = 0; i < offsets.length; i++) {
+			buffer.putLong(offsets[i]).putInt(lengths[i]);
+		}
+	}
+
+	static void putObject(ByteBuffer buffer, byte[] object) {
+		if (object == null) {
+			buffer.putInt(NULL_SIZE);
+			return;
+		}
+		buffer.putInt(object.length).put(object);
+	}
+
+	static void putObjects(ByteBuffer buffer, byte[][] objects) {
+		if (objects == null) {
+			buffer.putInt(NULL_SIZE);
+			return;
+		}
+		buffer.putInt(objects.length);
+		for (byte[] object : objects) {
+			putObject(buffer, object);
+		}
+	}
+
+	// Objects are not copied, only sizes are written to list of buffers
+	static void addObject(List<ByteBuffer> buffers, byte[] object) {
+		ByteBuffer size = ByteBuffer.allocate(TypeSizes.BYTES_IN_INT);
+		size.putInt((object == null) ? NULL_SIZE : object.length).flip();
+		buffers.add(size);
+		if (object != null && object.length > 0) {
+			buffers.add(ByteBuffer.wrap(object));
+		}
+	}
+
+	static long[] getKeys(ByteBuffer buffer) throws IOException {
+		int count = getCount(buffer, TypeSizes.BYTES_IN_LONG);
+		if (count == NULL_SIZE) {
+			return null;
+		}
+		long[] result = new long[count];
+		for (int i = 0; i < count; i++) {
+			result[i] = buffer.getLong();
+		}
+		return result;
+	}
+
+	static boolean[] getBooleans(ByteBuffer buffer) throws IOException {
+		int count = getCount(buffer, 1);
+		if (count == NULL_SIZE) {
+			return null;
+		}
+		boolean[] result = new boolean[count];
+		for (int i = 0; i < count; i++) {
+			result[i] = buffer.get() != 0;
+		}
+		return result;
+	}
+
+	static byte[] getObject(ByteBuffer buffer) throws IOException {
+		int size = getCount(buffer, 1);
+		if (size == NULL_SIZE) {
+			return null;
+		}
+		byte[] result = new byte[size];
+		buffer.get(result);
+		return result;
+	}
+
+	static byte[][] getObjects(ByteBuffer buffer) throws IOException {
+		int count = getCount(buffer, TypeSizes.BYTES_IN_INT);
+		if (count == NULL_SIZE) {
+			return null;
+		}
+		byte[][] result = new byte[count][];
+		for (int i = 0; i < count; i++) {
+			result[i] = getObject(buffer);
+		}
+		return result;
+	}
+
+	// Ranges are read by caller: count offsets and lengths
+	static int getRangesCount(ByteBuffer buffer) throws IOException {
+		int result = getCount(buffer, TypeSizes.BYTES_IN_LONG + TypeSizes.BYTES_IN_INT);
+		if (result == NULL_SIZE) {
+			throw new IOException("Ranges are null");
+		}
+		return result;
+	}
+
+	// Count is checked against rest of frame, so broken frame can't make huge allocation
+	private static int getCount(ByteBuffer buffer, int minElementSize) throws IOException {
+		int result = buffer.getInt();
+		if (result < NULL_SIZE || (long) result * minElementSize > buffer.remaining()) {
+			throw new IOException("Wrong count in frame: " + result);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,19 @@
+package ru.anisimov.storage.remote;
+
+import ru.anisimov.storage.RebuildInfo;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ */
+public class RemoteRebuildInfo implements RebuildInfo {
+	private String message;
+
+	RemoteRebuildInfo(String message) {
+		this.message = message;
+	}
+
+	@Override
+	public String getMessage() {
+		return message;
+	}
+}
@@ -0,0 +1,395 @@
+package ru.anisimov.storage.remote;
+
+import ru.anisimov.storage.RebuildInfo;
+import ru.anisimov.storage.Storage;
+import ru.anisimov.storage.commons.ObjectRanges;
+import ru.anisimov.storage.commons.TypeSizes;
+import ru.anisimov.storage.exceptions.StorageException;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * Storage served by StorageServer, uses one connection.
+ *
+ * Client is thread-safe and pipelines requests: every thread sends its request without waiting
+ * for other threads. Thread waiting for response reads responses of other threads too and leaves them
+ * for their owners.
+ * Connection error makes client unusable, every next call fails. Request or response longer than
+ * max frame length fails only its own call.
+ *
+ */
+public class RemoteStorage implements Storage, AutoCloseable {
+	private static final int SKIP_CHUNK_SIZE = 64 * 1024;
+
+	private final SocketChannel channel;
+	private final int maxFrameLength;
+	private final long maxObjectSize;
+
+	private final Object writeLock = new Object();
+	private final Object readLock = new Object();
+	private long nextRequestId;
+	private final Map<Long, ByteBuffer> responses = new HashMap<>();
+	private volatile IOException failure;
+
+	public RemoteStorage(InetSocketAddress address) throws StorageException {
+		this(address, Protocol.DEFAULT_MAX_FRAME_LENGTH);
+	}
+
+	public RemoteStorage(InetSocketAddress address, int maxFrameLength) throws StorageException {
+		this.maxFrameLength = maxFrameLength;
+		try {
+			channel = SocketChannel.open(address);
+			channel.socket().setTcpNoDelay(true);
+		} catch (IOException e) {
+			throw new StorageException(e);
+		}
+		maxObjectSize = call(newFrame(Protocol.MAX_OBJECT_SIZE, 0)).getLong();
+	}
+
+	@Override
+	public long generateKey() throws StorageException {
+		return call(newFrame(Protocol.GENERATE_KEY, 0)).getLong();
+	}
+
+	@Override
+	public long[] generateKey(int count) throws StorageException {
+		ByteBuffer frame = newFrame(Protocol.GENERATE_KEYS, TypeSizes.BYTES_IN_INT);
+		frame.putInt(count);
+		return getKeys(call(frame));
+	}
+
+	@Override
+	public long write(byte[] bytes) throws StorageException {
+		ByteBuffer frame = newFrame(Protocol.WRITE_NEW, Protocol.getObjectSize(bytes));
+		Protocol.putObject(frame, bytes);
+		return call(frame).getLong();
+	}
+
+	@Override
+	public long[] write(byte[][] bytes) throws StorageException {
+		ByteBuffer frame = newFrame(Protocol.WRITE_NEW_BATCH, Protocol.getObjectsSize(bytes));
+		Protocol.putObjects(frame, bytes);
+		return getKeys(call(frame));
+	}
+
+	@Override
+	public boolean write(long key, byte[] bytes) throws StorageException {
+		ByteBuffer frame = newFrame(Protocol.WRITE, TypeSizes.BYTES_IN_LONG + Protocol.getObjectSize(bytes));
+		frame.putLong(key);
+		Protocol.putObject(frame, bytes);
+		return call(frame).get() != 0;
+	}
+
+	@Override
+	public boolean write(long[] keys, byte[][] bytes) throws StorageException {
+		ByteBuffer frame = newFrame(Protocol.WRITE_BATCH,
+											 Protocol.getKeysSize(keys) + Protocol.getObjectsSize(bytes));
+		Protocol.putKeys(frame, keys);
+		Protocol.putObjects(frame, bytes);
+		return call(frame).get() != 0;
+	}
+
+	@Override
+	public boolean write(long key, byte[] bytes, long expectedVersion) throws StorageException {
+		ByteBuffer frame = newFrame(Protocol.WRITE_IF_VERSION,
+											 2 * TypeSizes.BYTES_IN_LONG + Protocol.getObjectSize(bytes));
+		frame.putLong(key).putLong(expectedVersion);
+		Protocol.putObject(frame, bytes);
+		return call(frame).get() != 0;
+	}
+
+	@Override
+	public boolean[] write(long[] keys, byte[][] bytes, long[] expectedVersions) throws StorageException {
+		ByteBuffer frame = newFrame(Protocol.WRITE_IF_VERSION_BATCH, Protocol.getKeysSize(keys) +
+											 Protocol.getKeysSize(expectedVersions) + Protocol.getObjectsSize(bytes));
+		Protocol.putKeys(frame, keys);
+		Protocol.putKeys(frame, expectedVersions);
+		Protocol.putObjects(frame, bytes);
+		try {
+			return Protocol.getBooleans(call(frame));
+		} catch (IOException e) {
+			throw new StorageException(e);
+		}
+	}
+
+	@Override
+	public long getVersion(long key) throws StorageException {
+		ByteBuffer frame = newFrame(Protocol.GET_VERSION, TypeSizes.BYTES_IN_LONG);
+		frame.putLong(key);
+		return call(frame).getLong();
+	}
+
+	@Override
+	public long[] getVersion(long[] keys) throws StorageException {
+		ByteBuffer frame = newFrame(Protocol.GET_VERSION_BATCH, Protocol.getKeysSize(keys));
+		Protocol.putKeys(frame, keys);
+		return getKeys(call(frame));
+	}
+
+	@Override
+	public byte[] get(long key) throws StorageException {
+		ByteBuffer frame = newFrame(Protocol.GET, TypeSizes.BYTES_IN_LONG);
+		frame.putLong(key);
+		return getObject(call(frame));
+	}
+
+	@Override
+	public byte[][] get(long[] keys) throws StorageException {
+		ByteBuffer frame = newFrame(Protocol.GET_BATCH, Protocol.getKeysSize(keys));
+		Protocol.putKeys(frame, keys);
+		return getObjects(call(frame));
+	}
+
+	@Override
+	public byte[] get(long key, long offset, int length) throws StorageException {
+		ByteBuffer frame = newFrame(Protocol.GET_RANGE,
+											 2 * TypeSizes.BYTES_IN_LONG + TypeSizes.BYTES_IN_INT);
+		frame.putLong(key).putLong(offset).putInt(length);
+		return getObject(call(frame));
+	}
+
+	@Override
+	public byte[][] get(long[] keys, long[] offsets, int[] lengths) throws StorageException {
+		ObjectRanges.check(keys, offsets, lengths);
+		ByteBuffer frame = newFrame(Protocol.GET_RANGE_BATCH,
+											 Protocol.getKeysSize(keys) + Protocol.getRangesSize(offsets));
+		Protocol.putKeys(frame, keys);
+		Protocol.putRanges(frame, offsets, lengths);
+		return getObjects(call(frame));
+	}
+
+	@Override
+	public boolean exists(long key) throws StorageException {
+		ByteBuffer frame = newFrame(Protocol.EXISTS, TypeSizes.BYTES_IN_LONG);
+		frame.putLong(key);
+		return call(frame).get() != 0;
+	}
+
+	@Override
+	public boolean[] exists(long[] keys) throws StorageException {
+		ByteBuffer frame = newFrame(Protocol.EXISTS_BATCH, Protocol.getKeysSize(keys));
+		Protocol.putKeys(frame, keys);
+		try {
+			return Protocol.getBooleans(call(frame));
+		} catch (IOException e) {
+			throw new StorageException(e);
+		}
+	}
+
+	@Override
+	public long size(long key) throws StorageException {
+		ByteBuffer frame = newFrame(Protocol.SIZE, TypeSizes.BYTES_IN_LONG);
+		frame.putLong(key);
+		return call(frame).getLong();
+	}
+
+	@Override
+	public long[] size(long[] keys) throws StorageException {
+		ByteBuffer frame = newFrame(Protocol.SIZE_BATCH, Protocol.getKeysSize(keys));
+		Protocol.putKeys(frame, keys);
+		return getKeys(call(frame));
+	}
+
+	@Override
+	public boolean expire(long key, long expirationTime) throws StorageException {
+		ByteBuffer frame = newFrame(Protocol.EXPIRE, 2 * TypeSizes.BYTES_IN_LONG);
+		frame.putLong(key).putLong(expirationTime);
+		return call(frame).get() != 0;
+	}
+
+	@Override
+	public boolean[] expire(long[] keys, long[] expirationTimes) throws StorageException {
+		ByteBuffer frame = newFrame(Protocol.EXPIRE_BATCH,
+											 Protocol.getKeysSize(keys) + Protocol.getKeysSize(expirationTimes));
+		Protocol.putKeys(frame, keys);
+		Protocol.putKeys(frame, expirationTimes);
+		try {
+			return Protocol.getBooleans(call(frame));
+		} catch (IOException e) {
+			throw new StorageException(e);
+		}
+	}
+
+	@Override
+	public long[] removeExpired() throws StorageException {
+		return getKeys(call(newFrame(Protocol.REMOVE_EXPIRED, 0)));
+	}
+
+	@Override
+	public int migrate() throws StorageException {
+		return (int) call(newFrame(Protocol.MIGRATE, 0)).getLong();
+	}
+
+	@Override
+	public boolean remove(long key) throws StorageException {
+		ByteBuffer frame = newFrame(Protocol.REMOVE, TypeSizes.BYTES_IN_LONG);
+		frame.putLong(key);
+		return call(frame).get() != 0;
+	}
+
+	@Override
+	public boolean remove(long[] keys) throws StorageException {
+		ByteBuffer frame = newFrame(Protocol.REMOVE_BATCH, Protocol.getKeysSize(keys));
+		Protocol.putKeys(frame, keys);
+		return call(frame).get() != 0;
+	}
+
+	@Override
+	public RebuildInfo rebuild() throws StorageException {
+		byte[] message = getObject(call(newFrame(Protocol.REBUILD, 0)));
+		return new RemoteRebuildInfo(new String(message, Protocol.UTF8));
+	}
+
+	// Limited by max frame lengths of both server and client
+	@Override
+	public long getMaxObjectSize() {
+		return Math.min(maxObjectSize, Protocol.getMaxObjectSize(maxFrameLength));
+	}
+
+	// Size is checked before allocation, so too long request fails without touching connection
+	private ByteBuffer newFrame(byte code, long payloadSize) throws StorageException {
+		if (!Protocol.fits(payloadSize, maxFrameLength)) {
+			throw new StorageException("Request is too long: " + (Protocol.HEADER_SIZE + payloadSize) +
+											   " bytes, max frame length is " + maxFrameLength);
+		}
+		return Protocol.newFrame(0, code, (int) payloadSize);
+	}
+
+	private static long[] getKeys(ByteBuffer payload) throws StorageException {
+		try {
+			return Protocol.getKeys(payload);
+		} catch (IOException e) {
+			throw new StorageException(e);
+		}
+	}
+
+	private static byte[] getObject(ByteBuffer payload) throws StorageException {
+		try {
+			return Protocol.getObject(payload);
+		} catch (IOException e) {
+			throw new StorageException(e);
+		}
+	}
+
+	private static byte[][] getObjects(ByteBuffer payload) throws StorageException {
+		try {
+			return Protocol.getObjects(payload);
+		} catch (IOException e) {
+			throw new StorageException(e);
+		}
+	}
+
+	// Sends frame with placeholder request id and returns payload of successful response
+	private ByteBuffer call(ByteBuffer frame) throws StorageException {
+		frame.flip();
+		try {
+			long requestId;
+			synchronized (writeLock) {
+				checkFailure();
+				requestId = nextRequestId++;
+				frame.putLong(Protocol.LENGTH_SIZE, requestId);
+				while (frame.hasRemaining()) {
+					channel.write(frame);
+				}
+			}
+			ByteBuffer response = awaitResponse(requestId);
+			byte status = response.get();
+			if (status != Protocol.STATUS_OK) {
+				throw new StorageException(new String(getObject(response), Protocol.UTF8));
+			}
+			return response;
+		} catch (IOException e) {
+			fail(e);
+			throw new StorageException(e);
+		}
+	}
+
+	// Response is |status 1| |payload|
+	private ByteBuffer awaitResponse(long requestId) throws IOException {
+		synchronized (readLock) {
+			while (true) {
+				ByteBuffer response = responses.remove(requestId);
+				if (response != null) {
+					return response;
+				}
+				checkFailure();
+				ByteBuffer length = readFully(Protocol.LENGTH_SIZE);
+				int frameLength = length.getInt();
+				if (frameLength < Protocol.HEADER_SIZE) {
+					throw new IOException("Wrong frame length: " + frameLength);
+				}
+				if (frameLength > maxFrameLength) {
+					skipFrame(frameLength);
+					continue;
+				}
+				ByteBuffer body = readFully(frameLength);
+				responses.put(body.getLong(), body.slice());
+			}
+		}
+	}
+
+	// Too long response (server with bigger limit) is read in chunks and answered by error,
+	// so its call fails and connection stays usable for other threads
+	private void skipFrame(int frameLength) throws IOException {
+		long requestId = readFully(Protocol.HEADER_SIZE).getLong();
+		int rest = frameLength - Protocol.HEADER_SIZE;
+		ByteBuffer chunk = ByteBuffer.allocate(Math.min(rest, SKIP_CHUNK_SIZE));
+		while (rest > 0) {
+			chunk.clear().limit(Math.min(rest, chunk.capacity()));
+			if (channel.read(chunk) < 0) {
+				throw new IOException("Connection is closed by server");
+			}
+			rest -= chunk.position();
+		}
+		byte[] message = ("Response is too long: " + frameLength + " bytes, max frame length is " + maxFrameLength)
+								 .getBytes(Protocol.UTF8);
+		ByteBuffer error = ByteBuffer.allocate(1 + (int) Protocol.getObjectSize(message));
+		error.put(Protocol.STATUS_ERROR);
+		Protocol.putObject(error, message);
+		error.flip();
+		responses.put(requestId, error);
+	}
+
+	private ByteBuffer readFully(int size) throws IOException {
+		ByteBuffer result = ByteBuffer.allocate(size);
+		while (result.hasRemaining()) {
+			if (channel.read(result) < 0) {
+				throw new IOException("Connection is closed by server");
+			}
+		}
+		result.flip();
+		return result;
+	}
+
+	private void checkFailure() throws IOException {
+		if (failure != null) {
+			throw new IOException("Connection is broken", failure);
+		}
+	}
+
+	private void fail(IOException e) {
+		if (failure == null) {
+			failure = e;
+		}
+		try {
+			channel.close();
+		} catch (IOException ignored) {
+		}
+	}
+
+	@Override
+	public void close() throws StorageException {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			throw new StorageException(e);
+		}
+	}
+}
@@ -0,0 +1,477 @@
+package ru.anisimov.storage.remote;
+
+import ru.anisimov.storage.Storage;
+import ru.anisimov.storage.commons.TypeSizes;
+import ru.anisimov.storage.exceptions.StorageException;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * Network front-end of Storage (see Protocol and RemoteStorage).
+ *
+ * One daemon thread accepts connections, reads requests, calls storage and writes responses,
+ * so storage is called by one thread at a time and shouldn't be thread-safe.
+ * All complete requests read from connection are processed at once, successive GET requests
+ * are merged into one batch get. Objects of responses are written by gathering writes without copying.
+ * Connection isn't read until its responses are written.
+ * Connection sending frame longer than max frame length is closed, response longer than max frame length
+ * is replaced by error.
+ * With sweep period expired objects are removed by the same thread (see Storage.removeExpired()),
+ * between processing of requests.
+ *
+ */
+public class StorageServer implements AutoCloseable {
+	private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+	private final Storage storage;
+	private final int maxFrameLength;
+	private final Selector selector;
+	private final ServerSocketChannel serverChannel;
+	private final long sweepPeriodMillis;
+	private final Thread thread;
+	private volatile boolean running = true;
+	private long nextSweep;
+
+	public StorageServer(Storage storage, InetSocketAddress address) throws StorageException {
+		this(storage, address, Protocol.DEFAULT_MAX_FRAME_LENGTH);
+	}
+
+	public StorageServer(Storage storage, InetSocketAddress address, int maxFrameLength) throws StorageException {
+		this(storage, address, maxFrameLength, 0);
+	}
+
+	// Expired objects aren't removed by server if sweep period is 0
+	public StorageServer(Storage storage, InetSocketAddress address, int maxFrameLength, long sweepPeriodMillis) throws StorageException {
+		if (maxFrameLength < Protocol.HEADER_SIZE) {
+			throw new IllegalArgumentException("Max frame length is too small");
+		}
+		if (sweepPeriodMillis < 0) {
+			throw new IllegalArgumentException("Sweep period should not be negative");
+		}
+		this.storage = storage;
+		this.maxFrameLength = maxFrameLength;
+		this.sweepPeriodMillis = sweepPeriodMillis;
+		this.nextSweep = System.currentTimeMillis() + sweepPeriodMillis;
+		try {
+			selector = Selector.open();
+			serverChannel = ServerSocketChannel.open();
+			serverChannel.bind(address);
+			serverChannel.configureBlocking(false);
+			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			throw new StorageException(e);
+		}
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				serve();
+			}
+		}, "storage-server");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public int getPort() {
+		return serverChannel.socket().getLocalPort();
+	}
+
+	public InetSocketAddress getAddress() {
+		return (InetSocketAddress) serverChannel.socket().getLocalSocketAddress();
+	}
+
+	private void serve() {
+		while (running) {
+			try {
+				if (sweepPeriodMillis > 0) {
+					selector.select(Math.max(1, nextSweep - System.currentTimeMillis()));
+				} else {
+					selector.select();
+				}
+			} catch (IOException e) {
+				break;
+			}
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				if (!key.isValid()) {
+					continue;
+				}
+				try {
+					if (key.isAcceptable()) {
+						accept();
+					} else {
+						Connection connection = (Connection) key.attachment();
+						if (key.isWritable()) {
+							connection.flush();
+						}
+						if (key.isValid() && key.isReadable()) {
+							connection.read();
+						}
+					}
+				} catch (IOException e) {
+					closeKey(key);
+				}
+			}
+			if (sweepPeriodMillis > 0 && System.currentTimeMillis() >= nextSweep) {
+				sweep();
+			}
+		}
+		for (SelectionKey key : selector.keys()) {
+			closeKey(key);
+		}
+		try {
+			selector.close();
+		} catch (IOException ignored) {
+		}
+	}
+
+	// Failed removal is repeated after next period
+	private void sweep() {
+		try {
+			storage.removeExpired();
+		} catch (StorageException | RuntimeException ignored) {
+		}
+		nextSweep = System.currentTimeMillis() + sweepPeriodMillis;
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel = serverChannel.accept();
+		if (channel == null) {
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+		key.attach(new Connection(channel, key));
+	}
+
+	private static void closeKey(SelectionKey key) {
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException ignored) {
+		}
+	}
+
+	@Override
+	public void close() throws StorageException {
+		running = false;
+		selector.wakeup();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private class Connection {
+		private final SocketChannel channel;
+		private final SelectionKey key;
+		private ByteBuffer in = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+		private final LinkedList<ByteBuffer> out = new LinkedList<>();
+
+		private final List<Long> getRequests = new ArrayList<>();
+		private final List<Long> getKeys = new ArrayList<>();
+
+		private Connection(SocketChannel channel, SelectionKey key) {
+			this.channel = channel;
+			this.key = key;
+		}
+
+		private void read() throws IOException {
+			if (channel.read(in) < 0) {
+				throw new IOException("Connection is closed by client");
+			}
+			in.flip();
+			processFrames();
+			in.compact();
+			ensureBufferSize();
+			flush();
+		}
+
+		private void processFrames() throws IOException {
+			while (in.remaining() >= Protocol.LENGTH_SIZE) {
+				int length = in.getInt(in.position());
+				if (length < Protocol.HEADER_SIZE || length > maxFrameLength) {
+					throw new IOException("Wrong frame length: " + length);
+				}
+				if (in.remaining() < Protocol.LENGTH_SIZE + length) {
+					break;
+				}
+				in.getInt();
+				long requestId = in.getLong();
+				byte operation = in.get();
+				ByteBuffer payload = in.slice();
+				payload.limit(length - Protocol.HEADER_SIZE);
+				in.position(in.position() + length - Protocol.HEADER_SIZE);
+
+				if (operation == Protocol.GET && payload.remaining() == TypeSizes.BYTES_IN_LONG) {
+					getRequests.add(requestId);
+					getKeys.add(payload.getLong());
+					continue;
+				}
+				processGets();
+				process(requestId, operation, payload);
+			}
+			processGets();
+		}
+
+		// Frame, which doesn't fit in buffer, gets buffer of its size
+		private void ensureBufferSize() {
+			if (in.position() >= Protocol.LENGTH_SIZE) {
+				int frameSize = Protocol.LENGTH_SIZE + in.getInt(0);
+				if (frameSize > in.capacity()) {
+					ByteBuffer newIn = ByteBuffer.allocate(frameSize);
+					in.flip();
+					newIn.put(in);
+					in = newIn;
+				}
+			} else if (in.capacity() > INITIAL_BUFFER_SIZE) {
+				ByteBuffer newIn = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+				in.flip();
+				newIn.put(in);
+				in = newIn;
+			}
+		}
+
+		private void processGets() {
+			if (getRequests.isEmpty()) {
+				return;
+			}
+			long[] keys = new long[getKeys.size()];
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = getKeys.get(i);
+			}
+			byte[][] objects = null;
+			if (keys.length > 1) {
+				try {
+					objects = storage.get(keys);
+				} catch (StorageException | RuntimeException e) {
+					// Every request gets its own result then
+				}
+			}
+			for (int i = 0; i < keys.length; i++) {
+				try {
+					byte[] object = (objects != null) ? objects[i] : storage.get(keys[i]);
+					addObjectResponse(getRequests.get(i), object);
+				} catch (StorageException | RuntimeException e) {
+					addErrorResponse(getRequests.get(i), e);
+				}
+			}
+			getRequests.clear();
+			getKeys.clear();
+		}
+
+		private void process(long requestId, byte operation, ByteBuffer payload) {
+			try {
+				switch (operation) {
+					case Protocol.GENERATE_KEY:
+						addLongResponse(requestId, storage.generateKey());
+						break;
+					case Protocol.GENERATE_KEYS:
+						addKeysResponse(requestId, storage.generateKey(payload.getInt()));
+						break;
+					case Protocol.WRITE_NEW:
+						addLongResponse(requestId, storage.write(Protocol.getObject(payload)));
+						break;
+					case Protocol.WRITE_NEW_BATCH:
+						addKeysResponse(requestId, storage.write(Protocol.getObjects(payload)));
+						break;
+					case Protocol.WRITE:
+						long key = payload.getLong();
+						addBooleanResponse(requestId, storage.write(key, Protocol.getObject(payload)));
+						break;
+					case Protocol.WRITE_BATCH:
+						long[] keys = Protocol.getKeys(payload);
+						addBooleanResponse(requestId, storage.write(keys, Protocol.getObjects(payload)));
+						break;
+					case Protocol.GET:
+						addObjectResponse(requestId, storage.get(payload.getLong()));
+						break;
+					case Protocol.GET_BATCH:
+						addObjectsResponse(requestId, storage.get(Protocol.getKeys(payload)));
+						break;
+					case Protocol.GET_RANGE:
+						long rangeKey = payload.getLong();
+						long offset = payload.getLong();
+						addObjectResponse(requestId, storage.get(rangeKey, offset, payload.getInt()));
+						break;
+					case Protocol.GET_RANGE_BATCH:
+						long[] rangeKeys = Protocol.getKeys(payload);
+						long[] offsets = new long[Protocol.getRangesCount(payload)];
+						int[] lengths = new int[offsets.length];
+						for (int i = 0; i < offsets.length; i++) {
+							offsets[i] = payload.getLong();
+							lengths[i] = payload.getInt();
+						}
+						addObjectsResponse(requestId, storage.get(rangeKeys, offsets, lengths));
+						break;
+					case Protocol.EXISTS:
+						addBooleanResponse(requestId, storage.exists(payload.getLong()));
+						break;
+					case Protocol.EXISTS_BATCH:
+						addBooleansResponse(requestId, storage.exists(Protocol.getKeys(payload)));
+						break;
+					case Protocol.SIZE:
+						addLongResponse(requestId, storage.size(payload.getLong()));
+						break;
+					case Protocol.SIZE_BATCH:
+						addKeysResponse(requestId, storage.size(Protocol.getKeys(payload)));
+						break;
+					case Protocol.WRITE_IF_VERSION:
+						long versionKey = payload.getLong();
+						long version = payload.getLong();
+						addBooleanResponse(requestId, storage.write(versionKey, Protocol.getObject(payload), version));
+						break;
+					case Protocol.WRITE_IF_VERSION_BATCH:
+						long[] versionKeys = Protocol.getKeys(payload);
+						long[] versions = Protocol.getKeys(payload);
+						addBooleansResponse(requestId, storage.write(versionKeys, Protocol.getObjects(payload), versions));
+						break;
+					case Protocol.GET_VERSION:
+						addLongResponse(requestId, storage.getVersion(payload.getLong()));
+						break;
+					case Protocol.GET_VERSION_BATCH:
+						addKeysResponse(requestId, storage.getVersion(Protocol.getKeys(payload)));
+						break;
+					case Protocol.EXPIRE:
+						long expiringKey = payload.getLong();
+						addBooleanResponse(requestId, storage.expire(expiringKey, payload.getLong()));
+						break;
+					case Protocol.EXPIRE_BATCH:
+						long[] expiringKeys = Protocol.getKeys(payload);
+						addBooleansResponse(requestId, storage.expire(expiringKeys, Protocol.getKeys(payload)));
+						break;
+					case Protocol.REMOVE_EXPIRED:
+						addKeysResponse(requestId, storage.removeExpired());
+						break;
+					case Protocol.MIGRATE:
+						addLongResponse(requestId, storage.migrate());
+						break;
+					case Protocol.REMOVE:
+						addBooleanResponse(requestId, storage.remove(payload.getLong()));
+						break;
+					case Protocol.REMOVE_BATCH:
+						addBooleanResponse(requestId, storage.remove(Protocol.getKeys(payload)));
+						break;
+					case Protocol.REBUILD:
+						addObjectResponse(requestId, storage.rebuild().getMessage().getBytes(Protocol.UTF8));
+						break;
+					case Protocol.MAX_OBJECT_SIZE:
+						addLongResponse(requestId, Math.min(storage.getMaxObjectSize(), Protocol.getMaxObjectSize(maxFrameLength)));
+						break;
+					default:
+						throw new StorageException("Unknown operation: " + operation);
+				}
+			} catch (Exception e) {
+				addErrorResponse(requestId, e);
+			}
+		}
+
+		private void addLongResponse(long requestId, long value) {
+			ByteBuffer frame = Protocol.newFrame(requestId, Protocol.STATUS_OK, TypeSizes.BYTES_IN_LONG);
+			frame.putLong(value).flip();
+			out.add(frame);
+		}
+
+		private void addBooleanResponse(long requestId, boolean value) {
+			ByteBuffer frame = Protocol.newFrame(requestId, Protocol.STATUS_OK, 1);
+			frame.put((byte) (value ? 1 : 0)).flip();
+			out.add(frame);
+		}
+
+		private void addBooleansResponse(long requestId, boolean[] values) {
+			long size = Protocol.getBooleansSize(values);
+			if (!checkResponseSize(requestId, size)) {
+				return;
+			}
+			ByteBuffer frame = Protocol.newFrame(requestId, Protocol.STATUS_OK, (int) size);
+			Protocol.putBooleans(frame, values);
+			frame.flip();
+			out.add(frame);
+		}
+
+		private void addKeysResponse(long requestId, long[] keys) {
+			long size = Protocol.getKeysSize(keys);
+			if (!checkResponseSize(requestId, size)) {
+				return;
+			}
+			ByteBuffer frame = Protocol.newFrame(requestId, Protocol.STATUS_OK, (int) size);
+			Protocol.putKeys(frame, keys);
+			frame.flip();
+			out.add(frame);
+		}
+
+		private void addObjectResponse(long requestId, byte[] object) {
+			long size = Protocol.getObjectSize(object);
+			if (!checkResponseSize(requestId, size)) {
+				return;
+			}
+			ByteBuffer header = Protocol.newFrame(requestId, Protocol.STATUS_OK, 0);
+			header.putInt(0, Protocol.HEADER_SIZE + (int) size).flip();
+			out.add(header);
+			Protocol.addObject(out, object);
+		}
+
+		private void addObjectsResponse(long requestId, byte[][] objects) {
+			long size = Protocol.getObjectsSize(objects);
+			if (!checkResponseSize(requestId, size)) {
+				return;
+			}
+			ByteBuffer header = Protocol.newFrame(requestId, Protocol.STATUS_OK, TypeSizes.BYTES_IN_INT);
+			header.putInt(0, Protocol.HEADER_SIZE + (int) size);
+			header.putInt((objects == null) ? -1 : objects.length).flip();
+			out.add(header);
+			if (objects != null) {
+				for (byte[] object : objects) {
+					Protocol.addObject(out, object);
+				}
+			}
+		}
+
+		private void addErrorResponse(long requestId, Exception error) {
+			String message = (error.getMessage() != null) ? error.getMessage() : error.toString();
+			byte[] bytes = message.getBytes(Protocol.UTF8);
+			ByteBuffer frame = Protocol.newFrame(requestId, Protocol.STATUS_ERROR, (int) Protocol.getObjectSize(bytes));
+			Protocol.putObject(frame, bytes);
+			frame.flip();
+			out.add(frame);
+		}
+
+		// Client drops connection on frame longer than its limit, so too long response is replaced by error
+		private boolean checkResponseSize(long requestId, long payloadSize) {
+			if (Protocol.fits(payloadSize, maxFrameLength)) {
+				return true;
+			}
+			addErrorResponse(requestId, new StorageException("Response is too long: " + (Protocol.HEADER_SIZE + payloadSize) +
+																	 " bytes, max frame length is " + maxFrameLength));
+			return false;
+		}
+
+		private void flush() throws IOException {
+			while (!out.isEmpty()) {
+				channel.write(out.toArray(new ByteBuffer[out.size()]));
+				while (!out.isEmpty() && !out.getFirst().hasRemaining()) {
+					out.removeFirst();
+				}
+				if (!out.isEmpty() && out.getFirst().hasRemaining()) {
+					break;
+				}
+			}
+			key.interestOps(out.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_WRITE);
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package ru.anisimov.storage.tools;
+
+import ru.anisimov.storage.localStorage.DirectoryStorage;
+import ru.anisimov.storage.localStorage.DirectoryStorageScanner;
+import ru.anisimov.storage.localStorage.DirectoryStorageSettings;
+import ru.anisimov.storage.localStorage.StoredObject;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * Command line export of all live objects of DirectoryStorage.
+ *
+ * Usage: BulkExportTool <storage directory> <output file or - for standard output>
+ *
+ * Output has the same structure as input of BulkImportTool:
+ * |key - 8 bytes| |object size - 4 bytes| |object bytes|
+ *
+ */
+public class BulkExportTool {
+	private static final int OUTPUT_BUFFER_SIZE = 1024 * 1024;
+	private static final String STANDARD_OUTPUT = "-";
+
+	public static void main(String[] args) throws Exception {
+		if (args.length != 2) {
+			System.err.println("Usage: BulkExportTool <storage directory> <output file or ->");
+			System.exit(1);
+		}
+
+		long startTime = System.currentTimeMillis();
+		long count = 0;
+		OutputStream output = STANDARD_OUTPUT.equals(args[1]) ? System.out : new FileOutputStream(args[1]);
+		try (DirectoryStorageScanner scanner = DirectoryStorage.newScanner(args[0], DirectoryStorageSettings.DEFAULT);
+			 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output, OUTPUT_BUFFER_SIZE))) {
+			while (scanner.hasNext()) {
+				StoredObject object = scanner.next();
+				out.writeLong(object.getKey());
+				out.writeInt(object.getObject().length);
+				out.write(object.getObject());
+				count++;
+			}
+		}
+
+		System.err.println("Exported " + count + " objects in " + (System.currentTimeMillis() - startTime) + " ms");
+	}
+}
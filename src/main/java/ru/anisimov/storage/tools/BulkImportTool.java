@@ -0,0 +1,64 @@
+package ru.anisimov.storage.tools;
+
+import ru.anisimov.storage.localStorage.DirectoryStorage;
+import ru.anisimov.storage.localStorage.DirectoryStorageImporter;
+import ru.anisimov.storage.localStorage.DirectoryStorageSettings;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * Command line bulk import into new DirectoryStorage.
+ *
+ * Usage: BulkImportTool <storage directory> <input file or - for standard input> [inline threshold]
+ *
+ * Input is a stream of records with following structure:
+ * |key - 8 bytes| |object size - 4 bytes| |object bytes|
+ *
+ */
+public class BulkImportTool {
+	private static final int INPUT_BUFFER_SIZE = 1024 * 1024;
+	private static final String STANDARD_INPUT = "-";
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2 || args.length > 3) {
+			System.err.println("Usage: BulkImportTool <storage directory> <input file or -> [inline threshold]");
+			System.exit(1);
+		}
+		DirectoryStorageSettings.Builder settings = new DirectoryStorageSettings.Builder();
+		if (args.length == 3) {
+			settings.setInlineThreshold(Integer.parseInt(args[2]));
+		}
+
+		long startTime = System.currentTimeMillis();
+		DirectoryStorageImporter importer = DirectoryStorage.newImporter(args[0], settings.build());
+		InputStream input = STANDARD_INPUT.equals(args[1]) ? System.in : new FileInputStream(args[1]);
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(input, INPUT_BUFFER_SIZE))) {
+			while (true) {
+				long key;
+				try {
+					key = in.readLong();
+				} catch (EOFException e) {
+					break;
+				}
+				int size = in.readInt();
+				if (size < 0) {
+					throw new IOException("Wrong object size: " + size);
+				}
+				byte[] bytes = new byte[size];
+				in.readFully(bytes);
+				importer.add(key, bytes);
+			}
+		}
+		importer.finish();
+
+		System.out.println("Imported " + importer.getImportedCount() + " objects in " +
+								   (System.currentTimeMillis() - startTime) + " ms");
+	}
+}
@@ -0,0 +1,28 @@
+package ru.anisimov.storage.tools;
+
+import ru.anisimov.storage.localStorage.DirectoryStorage;
+import ru.anisimov.storage.localStorage.DirectoryStorageSettings;
+import ru.anisimov.storage.localStorage.IndexStatistics;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * Command line report of index state of DirectoryStorage: buckets, load factor,
+ * chain lengths, dead cells and file size.
+ *
+ * Usage: IndexStatisticsTool <storage directory>
+ *
+ */
+public class IndexStatisticsTool {
+	public static void main(String[] args) throws Exception {
+		if (args.length != 1) {
+			System.err.println("Usage: IndexStatisticsTool <storage directory>");
+			System.exit(1);
+		}
+
+		long startTime = System.currentTimeMillis();
+		IndexStatistics statistics = DirectoryStorage.getIndexStatistics(args[0], DirectoryStorageSettings.DEFAULT);
+		System.out.println(statistics);
+		System.err.println("Collected in " + (System.currentTimeMillis() - startTime) + " ms");
+	}
+}
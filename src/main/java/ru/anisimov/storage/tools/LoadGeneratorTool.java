@@ -0,0 +1,121 @@
+package ru.anisimov.storage.tools;
+
+import ru.anisimov.storage.ShardedStorage;
+import ru.anisimov.storage.Storage;
+import ru.anisimov.storage.localStorage.DirectoryStorage;
+import ru.anisimov.storage.tools.load.KeyDistribution;
+import ru.anisimov.storage.tools.load.LoadGenerator;
+import ru.anisimov.storage.tools.load.LoadOperation;
+import ru.anisimov.storage.tools.load.SizeDistribution;
+import ru.anisimov.storage.tools.load.Workload;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * Command line load test of new DirectoryStorage (see LoadGenerator).
+ *
+ * Usage: LoadGeneratorTool <storage directory> [--option=value ...]
+ *
+ * Options:
+ * --records=100000                       objects written before run
+ * --operations=100000                    calls of run, or
+ * --duration=60                          seconds of run
+ * --mix=read:95,update:5,insert:0,remove:0
+ * --keys=zipfian|uniform|latest
+ * --sizes=constant:1024|uniform:100-4096|zipfian:100-65536
+ * --batch=1                              keys per call
+ * --threads=1
+ * --rate=0                               calls per second of all threads, 0 is unlimited
+ * --shards=1                             DirectoryStorages in subdirectories of storage directory
+ * --seed=<current time>
+ *
+ * Operations of one DirectoryStorage are serialized (see SafeStorage), so several threads work in parallel
+ * only with several shards.
+ *
+ */
+public class LoadGeneratorTool {
+	private static final String OPTION_PREFIX = "--";
+	private static final String SHARD_DIRECTORY_PREFIX = "shard";
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("Usage: LoadGeneratorTool <storage directory> [--option=value ...]");
+			System.exit(1);
+		}
+
+		Workload.Builder builder = new Workload.Builder();
+		int shardsCount = 1;
+		for (int i = 1; i < args.length; i++) {
+			int separator = args[i].indexOf('=');
+			if (!args[i].startsWith(OPTION_PREFIX) || separator < 0) {
+				throw new IllegalArgumentException("Wrong option: " + args[i]);
+			}
+			String name = args[i].substring(OPTION_PREFIX.length(), separator);
+			String value = args[i].substring(separator + 1);
+			switch (name) {
+				case "records":
+					builder.setRecordsCount(Long.parseLong(value));
+					break;
+				case "operations":
+					builder.setOperationsCount(Long.parseLong(value));
+					break;
+				case "duration":
+					builder.setDurationMillis(Long.parseLong(value) * 1000);
+					break;
+				case "mix":
+					for (LoadOperation operation : LoadOperation.values()) {
+						builder.setProportion(operation, 0);
+					}
+					for (String part : value.split(",")) {
+						String[] proportion = part.split(":");
+						builder.setProportion(LoadOperation.valueOf(proportion[0].toUpperCase()), Double.parseDouble(proportion[1]));
+					}
+					break;
+				case "keys":
+					builder.setKeyDistribution(KeyDistribution.valueOf(value.toUpperCase()));
+					break;
+				case "sizes":
+					builder.setSizeDistribution(SizeDistribution.parse(value));
+					break;
+				case "batch":
+					builder.setBatchSize(Integer.parseInt(value));
+					break;
+				case "threads":
+					builder.setThreadsCount(Integer.parseInt(value));
+					break;
+				case "rate":
+					builder.setTargetRate(Double.parseDouble(value));
+					break;
+				case "shards":
+					shardsCount = Integer.parseInt(value);
+					break;
+				case "seed":
+					builder.setSeed(Long.parseLong(value));
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option: " + name);
+			}
+		}
+		Workload workload = builder.build();
+
+		Storage storage;
+		if (shardsCount == 1) {
+			storage = DirectoryStorage.newStorage(args[0]);
+		} else {
+			List<Storage> shards = new ArrayList<>(shardsCount);
+			for (int i = 0; i < shardsCount; i++) {
+				File shardDirectory = new File(args[0], SHARD_DIRECTORY_PREFIX + i);
+				shardDirectory.mkdirs();
+				shards.add(DirectoryStorage.newStorage(shardDirectory.getPath()));
+			}
+			storage = new ShardedStorage(shards);
+		}
+
+		System.out.println("Workload: " + workload + ", shards " + shardsCount);
+		System.out.print(new LoadGenerator(storage, workload).run());
+	}
+}
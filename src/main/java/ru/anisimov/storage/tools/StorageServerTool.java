@@ -0,0 +1,53 @@
+package ru.anisimov.storage.tools;
+
+import ru.anisimov.storage.Storage;
+import ru.anisimov.storage.localStorage.DirectoryStorage;
+import ru.anisimov.storage.remote.HttpStorageServer;
+import ru.anisimov.storage.remote.StorageServer;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * Command line server of DirectoryStorage (see StorageServer and RemoteStorage).
+ *
+ * Usage: StorageServerTool <storage directory> <port> [<bind address>] [--http]
+ *
+ * With --http storage is served by HttpStorageServer instead of binary protocol.
+ * Existing storage is opened, new storage is created in empty directory.
+ * Server works until process is stopped.
+ *
+ */
+public class StorageServerTool {
+	private static final String HTTP_OPTION = "--http";
+
+	public static void main(String[] args) throws Exception {
+		boolean http = args.length > 0 && HTTP_OPTION.equals(args[args.length - 1]);
+		if (http) {
+			args = Arrays.copyOf(args, args.length - 1);
+		}
+		if (args.length < 2 || args.length > 3) {
+			System.err.println("Usage: StorageServerTool <storage directory> <port> [<bind address>] [--http]");
+			System.exit(1);
+		}
+
+		String[] files = new File(args[0]).list();
+		Storage storage = (files == null || files.length == 0) ?
+								  DirectoryStorage.newStorage(args[0]) :
+								  DirectoryStorage.getStorage(args[0]);
+		int port = Integer.parseInt(args[1]);
+		InetSocketAddress address = (args.length == 3) ? new InetSocketAddress(args[2], port) : new InetSocketAddress(port);
+
+		if (http) {
+			HttpStorageServer server = new HttpStorageServer(storage, address);
+			System.err.println("Serving " + args[0] + " over HTTP on " + server.getAddress());
+		} else {
+			StorageServer server = new StorageServer(storage, address);
+			System.err.println("Serving " + args[0] + " on " + server.getAddress());
+		}
+		Thread.currentThread().join();
+	}
+}
@@ -0,0 +1,17 @@
+package ru.anisimov.storage.tools.load;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * How keys of existing objects are chosen for reads, updates and removes.
+ *
+ * UNIFORM - every key with the same probability.
+ * ZIPFIAN - few keys are very popular, popular keys are spread over the whole key space.
+ * LATEST - recently inserted keys are the most popular.
+ *
+ */
+public enum KeyDistribution {
+	UNIFORM,
+	ZIPFIAN,
+	LATEST
+}
@@ -0,0 +1,42 @@
+package ru.anisimov.storage.tools.load;
+
+import java.util.Arrays;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * Keys of written objects in order of writing. Keys are kept by chunks, so growth does not copy them.
+ * Adding is synchronized, reading is not: size is published after keys are stored.
+ *
+ */
+class KeySpace {
+	private static final int CHUNK_BITS = 16;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+	private volatile long[][] chunks = new long[1][];
+	private volatile long size;
+
+	synchronized void add(long[] keys) {
+		long newSize = size;
+		for (long key : keys) {
+			int chunk = (int) (newSize >>> CHUNK_BITS);
+			if (chunk >= chunks.length) {
+				chunks = Arrays.copyOf(chunks, chunks.length * 2);
+			}
+			if (chunks[chunk] == null) {
+				chunks[chunk] = new long[CHUNK_SIZE];
+			}
+			chunks[chunk][(int) (newSize & (CHUNK_SIZE - 1))] = key;
+			newSize++;
+		}
+		size = newSize;
+	}
+
+	long size() {
+		return size;
+	}
+
+	long get(long index) {
+		return chunks[(int) (index >>> CHUNK_BITS)][(int) (index & (CHUNK_SIZE - 1))];
+	}
+}
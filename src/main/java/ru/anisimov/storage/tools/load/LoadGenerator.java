@@ -0,0 +1,259 @@
+package ru.anisimov.storage.tools.load;
+
+import ru.anisimov.storage.Storage;
+import ru.anisimov.storage.exceptions.StorageException;
+import ru.anisimov.storage.metrics.LatencyHistogram;
+import ru.anisimov.storage.metrics.LatencySnapshot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * Runs Workload against Storage (in the spirit of YCSB).
+ *
+ * Load phase writes records count objects by batches. Run phase calls storage from workload threads,
+ * operation of every call is chosen randomly by proportions, keys by key distribution.
+ * Removed keys stay in key space, so later reads of them are counted as misses.
+ *
+ * Storage is called from several threads, if workload has them, so it should be thread-safe then.
+ *
+ */
+public class LoadGenerator {
+	private static final int LOAD_BATCH_SIZE = 1000;
+	private static final int OBJECT_POOL_EXTRA_SIZE = 1024 * 1024;
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final Storage storage;
+	private final Workload workload;
+	private final KeySpace keySpace = new KeySpace();
+	private final byte[] objectPool;
+
+	private final LatencyHistogram[] histograms = new LatencyHistogram[LoadOperation.values().length];
+	private final AtomicLongArray errors = new AtomicLongArray(LoadOperation.values().length);
+	private final AtomicLongArray keys = new AtomicLongArray(LoadOperation.values().length);
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong bytesRead = new AtomicLong();
+	private final AtomicLong bytesWritten = new AtomicLong();
+
+	public LoadGenerator(Storage storage, Workload workload) {
+		this.storage = storage;
+		this.workload = workload;
+		this.objectPool = new byte[workload.getSizeDistribution().getMaxSize() + OBJECT_POOL_EXTRA_SIZE];
+		new Random(workload.getSeed()).nextBytes(objectPool);
+		for (int i = 0; i < histograms.length; i++) {
+			histograms[i] = new LatencyHistogram();
+		}
+	}
+
+	public LoadReport run() throws StorageException, InterruptedException {
+		long loadStart = System.currentTimeMillis();
+		load();
+		long loadMillis = System.currentTimeMillis() - loadStart;
+
+		ExecutorService executor = Executors.newFixedThreadPool(workload.getThreadsCount());
+		final AtomicLong operationsLeft = new AtomicLong(workload.getOperationsCount());
+		final long start = System.nanoTime();
+		final long deadline = start + (workload.getDurationMillis() * 1_000_000);
+		List<Future<Void>> results = new ArrayList<>();
+		for (int i = 0; i < workload.getThreadsCount(); i++) {
+			final Random rnd = new Random(workload.getSeed() + i + 1);
+			results.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					runThread(rnd, operationsLeft, start, deadline);
+					return null;
+				}
+			}));
+		}
+		try {
+			for (Future<Void> result : results) {
+				result.get();
+			}
+		} catch (ExecutionException e) {
+			throw (e.getCause() instanceof StorageException) ?
+						  (StorageException) e.getCause() :
+						  new StorageException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		long runNanos = System.nanoTime() - start;
+
+		LatencySnapshot[] latencies = new LatencySnapshot[histograms.length];
+		long[] errorsCounts = new long[histograms.length];
+		long[] keysCounts = new long[histograms.length];
+		for (int i = 0; i < histograms.length; i++) {
+			latencies[i] = histograms[i].snapshot();
+			errorsCounts[i] = errors.get(i);
+			keysCounts[i] = keys.get(i);
+		}
+		return new LoadReport(loadMillis, runNanos, latencies, errorsCounts, keysCounts,
+									 misses.get(), bytesRead.get(), bytesWritten.get());
+	}
+
+	private void load() throws StorageException {
+		SizeDistribution.Chooser sizes = workload.getSizeDistribution().newChooser(new Random(workload.getSeed()));
+		Random rnd = new Random(workload.getSeed());
+		for (long loaded = 0; loaded < workload.getRecordsCount(); loaded += LOAD_BATCH_SIZE) {
+			byte[][] objects = new byte[(int) Math.min(LOAD_BATCH_SIZE, workload.getRecordsCount() - loaded)][];
+			for (int i = 0; i < objects.length; i++) {
+				objects[i] = newObject(rnd, sizes);
+			}
+			keySpace.add(storage.write(objects));
+		}
+	}
+
+	// With target rate every thread calls storage at fixed intervals, latency is counted from planned start
+	private void runThread(Random rnd, AtomicLong operationsLeft, long start, long deadline) {
+		SizeDistribution.Chooser sizes = workload.getSizeDistribution().newChooser(rnd);
+		ZipfianGenerator zipfian = (workload.getKeyDistribution() == KeyDistribution.UNIFORM) ?
+										   null : new ZipfianGenerator(keySpace.size(), rnd);
+		long interval = (workload.getTargetRate() > 0) ?
+								(long) (1e9 * workload.getThreadsCount() / workload.getTargetRate()) : 0;
+		long plannedStart = start;
+		while (!Thread.currentThread().isInterrupted()) {
+			if (workload.getDurationMillis() > 0 ? System.nanoTime() >= deadline : operationsLeft.decrementAndGet() < 0) {
+				return;
+			}
+			long callStart;
+			if (interval > 0) {
+				long now;
+				while ((now = System.nanoTime()) < plannedStart) {
+					LockSupport.parkNanos(plannedStart - now);
+				}
+				callStart = plannedStart;
+				plannedStart += interval;
+			} else {
+				callStart = System.nanoTime();
+			}
+
+			LoadOperation operation = chooseOperation(rnd);
+			try {
+				perform(operation, rnd, zipfian, sizes);
+				histograms[operation.ordinal()].record(System.nanoTime() - callStart);
+			} catch (StorageException | RuntimeException e) {
+				errors.incrementAndGet(operation.ordinal());
+			}
+		}
+	}
+
+	private LoadOperation chooseOperation(Random rnd) {
+		double value = rnd.nextDouble();
+		LoadOperation[] operations = LoadOperation.values();
+		for (LoadOperation operation : operations) {
+			value -= workload.getProportion(operation);
+			if (value < 0) {
+				return operation;
+			}
+		}
+		for (int i = operations.length - 1; i >= 0; i--) {
+			if (workload.getProportion(operations[i]) > 0) {
+				return operations[i];
+			}
+		}
+		return operations[0];
+	}
+
+	private void perform(LoadOperation operation, Random rnd, ZipfianGenerator zipfian,
+						 SizeDistribution.Chooser sizes) throws StorageException {
+		int batchSize = workload.getBatchSize();
+		keys.addAndGet(operation.ordinal(), batchSize);
+		switch (operation) {
+			case READ: {
+				long[] chosenKeys = chooseKeys(batchSize, rnd, zipfian);
+				byte[][] objects = (batchSize == 1) ?
+										   new byte[][] {storage.get(chosenKeys[0])} :
+										   storage.get(chosenKeys);
+				for (byte[] object : objects) {
+					if (object == null) {
+						misses.incrementAndGet();
+					} else {
+						bytesRead.addAndGet(object.length);
+					}
+				}
+				break;
+			}
+			case UPDATE: {
+				long[] chosenKeys = chooseKeys(batchSize, rnd, zipfian);
+				byte[][] objects = newObjects(batchSize, rnd, sizes);
+				if (batchSize == 1) {
+					storage.write(chosenKeys[0], objects[0]);
+				} else {
+					storage.write(chosenKeys, objects);
+				}
+				break;
+			}
+			case INSERT: {
+				byte[][] objects = newObjects(batchSize, rnd, sizes);
+				keySpace.add((batchSize == 1) ? new long[] {storage.write(objects[0])} : storage.write(objects));
+				break;
+			}
+			case REMOVE: {
+				long[] chosenKeys = chooseKeys(batchSize, rnd, zipfian);
+				if (batchSize == 1) {
+					storage.remove(chosenKeys[0]);
+				} else {
+					storage.remove(chosenKeys);
+				}
+				break;
+			}
+		}
+	}
+
+	private long[] chooseKeys(int count, Random rnd, ZipfianGenerator zipfian) {
+		long size = keySpace.size();
+		long[] result = new long[count];
+		for (int i = 0; i < count; i++) {
+			long index;
+			switch (workload.getKeyDistribution()) {
+				case ZIPFIAN:
+					// Popular ranks are scrambled over the whole key space
+					index = Math.abs(fnvHash(zipfian.next(size)) % size);
+					break;
+				case LATEST:
+					index = size - 1 - zipfian.next(size);
+					break;
+				default:
+					index = (long) (rnd.nextDouble() * size);
+			}
+			result[i] = keySpace.get(index);
+		}
+		return result;
+	}
+
+	private static long fnvHash(long value) {
+		long result = FNV_OFFSET_BASIS;
+		for (int i = 0; i < 8; i++) {
+			result ^= (value >>> (i * 8)) & 0xFF;
+			result *= FNV_PRIME;
+		}
+		return result;
+	}
+
+	private byte[][] newObjects(int count, Random rnd, SizeDistribution.Chooser sizes) {
+		byte[][] result = new byte[count][];
+		for (int i = 0; i < count; i++) {
+			result[i] = newObject(rnd, sizes);
+			bytesWritten.addAndGet(result[i].length);
+		}
+		return result;
+	}
+
+	private byte[] newObject(Random rnd, SizeDistribution.Chooser sizes) {
+		int size = sizes.next();
+		int offset = rnd.nextInt(OBJECT_POOL_EXTRA_SIZE);
+		return Arrays.copyOfRange(objectPool, offset, offset + size);
+	}
+}
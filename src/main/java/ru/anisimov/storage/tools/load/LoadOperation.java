@@ -0,0 +1,14 @@
+package ru.anisimov.storage.tools.load;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * READ gets existing keys, UPDATE rewrites existing keys, INSERT writes new objects, REMOVE removes existing keys.
+ *
+ */
+public enum LoadOperation {
+	READ,
+	UPDATE,
+	INSERT,
+	REMOVE
+}
@@ -0,0 +1,112 @@
+package ru.anisimov.storage.tools.load;
+
+import ru.anisimov.storage.metrics.LatencySnapshot;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * Results of LoadGenerator run. Latencies are in nanoseconds, one value per call (batch).
+ * Misses are keys, for which get returned nothing (e.g. removed earlier).
+ *
+ */
+public class LoadReport {
+	private final long loadMillis;
+	private final long runNanos;
+	private final LatencySnapshot[] latencies;
+	private final long[] errors;
+	private final long[] keys;
+	private final long misses;
+	private final long bytesRead;
+	private final long bytesWritten;
+
+	LoadReport(long loadMillis, long runNanos, LatencySnapshot[] latencies, long[] errors, long[] keys,
+			   long misses, long bytesRead, long bytesWritten) {
+		this.loadMillis = loadMillis;
+		this.runNanos = runNanos;
+		this.latencies = latencies;
+		this.errors = errors;
+		this.keys = keys;
+		this.misses = misses;
+		this.bytesRead = bytesRead;
+		this.bytesWritten = bytesWritten;
+	}
+
+	public long getLoadMillis() {
+		return loadMillis;
+	}
+
+	public long getRunNanos() {
+		return runNanos;
+	}
+
+	public LatencySnapshot getLatency(LoadOperation operation) {
+		return latencies[operation.ordinal()];
+	}
+
+	public long getCallsCount(LoadOperation operation) {
+		return latencies[operation.ordinal()].getCount();
+	}
+
+	public long getErrorsCount(LoadOperation operation) {
+		return errors[operation.ordinal()];
+	}
+
+	public long getKeysCount(LoadOperation operation) {
+		return keys[operation.ordinal()];
+	}
+
+	public long getCallsCount() {
+		long result = 0;
+		for (LatencySnapshot latency : latencies) {
+			result += latency.getCount();
+		}
+		return result;
+	}
+
+	public long getKeysCount() {
+		long result = 0;
+		for (long operationKeys : keys) {
+			result += operationKeys;
+		}
+		return result;
+	}
+
+	public long getMissesCount() {
+		return misses;
+	}
+
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	public double getThroughput() {
+		return (runNanos == 0) ? 0 : getCallsCount() * 1e9 / runNanos;
+	}
+
+	@Override
+	public String toString() {
+		double seconds = runNanos / 1e9;
+		StringBuilder result = new StringBuilder()
+									   .append("Load: ").append(loadMillis).append(" ms\n")
+									   .append(String.format("Run: %d calls (%d keys) in %.3f s, %.1f calls/s, %.1f keys/s, read %.1f MB/s, written %.1f MB/s, misses %d%n",
+															 getCallsCount(), getKeysCount(), seconds, getThroughput(),
+															 (seconds == 0) ? 0 : getKeysCount() / seconds,
+															 (seconds == 0) ? 0 : bytesRead / seconds / (1024 * 1024),
+															 (seconds == 0) ? 0 : bytesWritten / seconds / (1024 * 1024), misses));
+		for (LoadOperation operation : LoadOperation.values()) {
+			LatencySnapshot latency = getLatency(operation);
+			if (latency.getCount() == 0 && getErrorsCount(operation) == 0) {
+				continue;
+			}
+			result.append(String.format("%-6s calls %d, errors %d, latency us: mean %.1f, p50 %.1f, p90 %.1f, p99 %.1f, p99.9 %.1f, max %.1f%n",
+										operation, latency.getCount(), getErrorsCount(operation), latency.getMean() / 1000,
+										latency.getP50() / 1000.0, latency.getP90() / 1000.0, latency.getP99() / 1000.0,
+										latency.getP999() / 1000.0, latency.getMax() / 1000.0));
+		}
+		return result.toString();
+	}
+}
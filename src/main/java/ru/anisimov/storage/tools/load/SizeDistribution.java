@@ -0,0 +1,91 @@
+package ru.anisimov.storage.tools.load;
+
+import java.util.Random;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * Sizes of written objects: constant, uniform between min and max, or zipfian between min and max
+ * (small objects are the most frequent).
+ *
+ * Text form: "constant:1024", "uniform:100-4096", "zipfian:100-65536".
+ *
+ */
+public class SizeDistribution {
+	private enum Type {
+		CONSTANT,
+		UNIFORM,
+		ZIPFIAN
+	}
+
+	private final Type type;
+	private final int min;
+	private final int max;
+
+	private SizeDistribution(Type type, int min, int max) {
+		if (min < 0 || max < min) {
+			throw new IllegalArgumentException("Wrong object sizes: " + min + "-" + max);
+		}
+		this.type = type;
+		this.min = min;
+		this.max = max;
+	}
+
+	public static SizeDistribution constant(int size) {
+		return new SizeDistribution(Type.CONSTANT, size, size);
+	}
+
+	public static SizeDistribution uniform(int min, int max) {
+		return new SizeDistribution(Type.UNIFORM, min, max);
+	}
+
+	public static SizeDistribution zipfian(int min, int max) {
+		return new SizeDistribution(Type.ZIPFIAN, min, max);
+	}
+
+	public static SizeDistribution parse(String text) {
+		String[] parts = text.split(":");
+		if (parts.length != 2) {
+			throw new IllegalArgumentException("Wrong size distribution: " + text);
+		}
+		String[] bounds = parts[1].split("-");
+		int min = Integer.parseInt(bounds[0]);
+		int max = (bounds.length > 1) ? Integer.parseInt(bounds[1]) : min;
+		return new SizeDistribution(Type.valueOf(parts[0].toUpperCase()), min, max);
+	}
+
+	public int getMaxSize() {
+		return max;
+	}
+
+	// Every thread has its own chooser
+	Chooser newChooser(Random rnd) {
+		return new Chooser(rnd);
+	}
+
+	@Override
+	public String toString() {
+		return type.toString().toLowerCase() + ":" + ((min == max) ? String.valueOf(min) : min + "-" + max);
+	}
+
+	class Chooser {
+		private final Random rnd;
+		private final ZipfianGenerator zipfian;
+
+		private Chooser(Random rnd) {
+			this.rnd = rnd;
+			this.zipfian = (type == Type.ZIPFIAN) ? new ZipfianGenerator(max - min + 1, rnd) : null;
+		}
+
+		int next() {
+			switch (type) {
+				case UNIFORM:
+					return min + rnd.nextInt(max - min + 1);
+				case ZIPFIAN:
+					return min + (int) zipfian.next();
+				default:
+					return min;
+			}
+		}
+	}
+}
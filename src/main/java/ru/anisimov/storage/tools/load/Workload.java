@@ -0,0 +1,217 @@
+package ru.anisimov.storage.tools.load;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * Description of load for LoadGenerator. Default workload is read-mostly (95% reads, 5% updates)
+ * with zipfian keys and 1 KB objects, one key per call, one thread, without rate limit.
+ *
+ */
+public class Workload {
+	private long recordsCount;
+	private long operationsCount;
+	private long durationMillis;
+	private double[] proportions;
+	private KeyDistribution keyDistribution;
+	private SizeDistribution sizeDistribution;
+	private int batchSize;
+	private int threadsCount;
+	private double targetRate;
+	private long seed;
+
+	private Workload() {
+		recordsCount = 100_000;
+		operationsCount = 100_000;
+		durationMillis = 0;
+		proportions = new double[LoadOperation.values().length];
+		proportions[LoadOperation.READ.ordinal()] = 0.95;
+		proportions[LoadOperation.UPDATE.ordinal()] = 0.05;
+		keyDistribution = KeyDistribution.ZIPFIAN;
+		sizeDistribution = SizeDistribution.constant(1024);
+		batchSize = 1;
+		threadsCount = 1;
+		targetRate = 0;
+		seed = System.currentTimeMillis();
+	}
+
+	public long getRecordsCount() {
+		return recordsCount;
+	}
+
+	public long getOperationsCount() {
+		return operationsCount;
+	}
+
+	public long getDurationMillis() {
+		return durationMillis;
+	}
+
+	// Proportions are normalized to sum 1
+	public double getProportion(LoadOperation operation) {
+		double sum = 0;
+		for (double proportion : proportions) {
+			sum += proportion;
+		}
+		return proportions[operation.ordinal()] / sum;
+	}
+
+	public KeyDistribution getKeyDistribution() {
+		return keyDistribution;
+	}
+
+	public SizeDistribution getSizeDistribution() {
+		return sizeDistribution;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public int getThreadsCount() {
+		return threadsCount;
+	}
+
+	public double getTargetRate() {
+		return targetRate;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+		result.append("records ").append(recordsCount);
+		if (durationMillis > 0) {
+			result.append(", duration ").append(durationMillis).append(" ms");
+		} else {
+			result.append(", operations ").append(operationsCount);
+		}
+		result.append(", mix");
+		for (LoadOperation operation : LoadOperation.values()) {
+			result.append(' ').append(operation.toString().toLowerCase()).append(':').append(getProportion(operation));
+		}
+		return result.append(", keys ").append(keyDistribution.toString().toLowerCase())
+					   .append(", sizes ").append(sizeDistribution)
+					   .append(", batch ").append(batchSize)
+					   .append(", threads ").append(threadsCount)
+					   .append(", rate ").append((targetRate > 0) ? String.valueOf(targetRate) : "unlimited")
+					   .append(", seed ").append(seed).toString();
+	}
+
+	public static class Builder {
+		private Workload workload;
+
+		public Builder() {
+			workload = new Workload();
+		}
+
+		/**
+		 * Objects written before measured operations.
+		 */
+		public Builder setRecordsCount(long count) {
+			if (count <= 0) {
+				throw new IllegalArgumentException("Records count should be positive");
+			}
+			workload.recordsCount = count;
+			return this;
+		}
+
+		/**
+		 * Run stops after count calls to storage. Used if duration is not set.
+		 */
+		public Builder setOperationsCount(long count) {
+			if (count <= 0) {
+				throw new IllegalArgumentException("Operations count should be positive");
+			}
+			workload.operationsCount = count;
+			return this;
+		}
+
+		/**
+		 * Run stops after duration instead of operations count.
+		 */
+		public Builder setDurationMillis(long duration) {
+			if (duration < 0) {
+				throw new IllegalArgumentException("Duration should not be negative");
+			}
+			workload.durationMillis = duration;
+			return this;
+		}
+
+		/**
+		 * Proportion of operation among calls. Proportions are normalized, so they need not sum to 1.
+		 */
+		public Builder setProportion(LoadOperation operation, double proportion) {
+			if (proportion < 0) {
+				throw new IllegalArgumentException("Proportion should not be negative");
+			}
+			workload.proportions[operation.ordinal()] = proportion;
+			return this;
+		}
+
+		public Builder setKeyDistribution(KeyDistribution distribution) {
+			if (distribution == null) {
+				throw new IllegalArgumentException("Key distribution is null");
+			}
+			workload.keyDistribution = distribution;
+			return this;
+		}
+
+		public Builder setSizeDistribution(SizeDistribution distribution) {
+			if (distribution == null) {
+				throw new IllegalArgumentException("Size distribution is null");
+			}
+			workload.sizeDistribution = distribution;
+			return this;
+		}
+
+		/**
+		 * Keys per call. Batch size 1 uses single key methods of storage.
+		 */
+		public Builder setBatchSize(int batchSize) {
+			if (batchSize <= 0) {
+				throw new IllegalArgumentException("Batch size should be positive");
+			}
+			workload.batchSize = batchSize;
+			return this;
+		}
+
+		public Builder setThreadsCount(int threadsCount) {
+			if (threadsCount <= 0) {
+				throw new IllegalArgumentException("Threads count should be positive");
+			}
+			workload.threadsCount = threadsCount;
+			return this;
+		}
+
+		/**
+		 * Calls per second of all threads, 0 means as fast as possible. With target rate latency is measured
+		 * from the moment call was scheduled, so stalls of storage are not hidden by waiting threads.
+		 */
+		public Builder setTargetRate(double rate) {
+			if (rate < 0) {
+				throw new IllegalArgumentException("Target rate should not be negative");
+			}
+			workload.targetRate = rate;
+			return this;
+		}
+
+		public Builder setSeed(long seed) {
+			workload.seed = seed;
+			return this;
+		}
+
+		public Workload build() {
+			double sum = 0;
+			for (double proportion : workload.proportions) {
+				sum += proportion;
+			}
+			if (sum <= 0) {
+				throw new IllegalArgumentException("At least one operation should have positive proportion");
+			}
+			return workload;
+		}
+	}
+}
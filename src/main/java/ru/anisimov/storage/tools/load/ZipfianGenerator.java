@@ -0,0 +1,76 @@
+package ru.anisimov.storage.tools.load;
+
+import java.util.Random;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ *
+ * Generates ranks 0 .. itemsCount - 1, rank 0 is the most popular (algorithm of Gray et al.,
+ * "Quickly generating billion-record synthetic databases", as in YCSB).
+ * Items count could grow, zeta constant is updated incrementally then.
+ *
+ * Not thread-safe.
+ *
+ */
+class ZipfianGenerator {
+	static final double DEFAULT_THETA = 0.99;
+
+	private final Random rnd;
+	private final double theta;
+	private final double alpha;
+	private final double zeta2;
+	private long itemsCount;
+	private double zetaN;
+	private double eta;
+
+	ZipfianGenerator(long itemsCount, Random rnd) {
+		this(itemsCount, DEFAULT_THETA, rnd);
+	}
+
+	ZipfianGenerator(long itemsCount, double theta, Random rnd) {
+		if (itemsCount <= 0) {
+			throw new IllegalArgumentException("Items count should be positive");
+		}
+		this.rnd = rnd;
+		this.theta = theta;
+		this.alpha = 1.0 / (1.0 - theta);
+		this.zeta2 = zeta(0, 2, 0);
+		this.zetaN = zeta(0, itemsCount, 0);
+		this.itemsCount = itemsCount;
+		this.eta = computeEta();
+	}
+
+	private double zeta(long from, long to, double initialSum) {
+		double result = initialSum;
+		for (long i = from; i < to; i++) {
+			result += 1.0 / Math.pow(i + 1, theta);
+		}
+		return result;
+	}
+
+	private double computeEta() {
+		return (1.0 - Math.pow(2.0 / itemsCount, 1.0 - theta)) / (1.0 - zeta2 / zetaN);
+	}
+
+	long next() {
+		return next(itemsCount);
+	}
+
+	long next(long newItemsCount) {
+		if (newItemsCount > itemsCount) {
+			zetaN = zeta(itemsCount, newItemsCount, zetaN);
+			itemsCount = newItemsCount;
+			eta = computeEta();
+		}
+		double u = rnd.nextDouble();
+		double uz = u * zetaN;
+		if (uz < 1.0) {
+			return 0;
+		}
+		if (uz < 1.0 + Math.pow(0.5, theta)) {
+			return Math.min(1, itemsCount - 1);
+		}
+		long result = (long) (itemsCount * Math.pow(eta * u - eta + 1, alpha));
+		return Math.min(result, itemsCount - 1);
+	}
+}
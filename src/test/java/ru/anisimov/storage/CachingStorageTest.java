@@ -0,0 +1,154 @@
+package ru.anisimov.storage;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import ru.anisimov.storage.localStorage.DirectoryStorage;
+import ru.anisimov.storage.localStorage.DirectoryStorageSettings;
+import ru.anisimov.storage.localStorage.FileBasedIndexTest;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ */
+public class CachingStorageTest {
+	private static final String RESOURCE_FILE_NAME = "/testStorage/testFile";
+	private static final String TEST_FILE_NAME = FileBasedIndexTest.class.getResource(RESOURCE_FILE_NAME).getFile();
+	private static final Random rnd = new Random(System.currentTimeMillis());
+	private static String TEST_DIR_NAME = new File(TEST_FILE_NAME).getParent();
+
+	@BeforeClass
+	@AfterClass
+	public static void tearDown() throws Exception {
+		File dir = new File(TEST_DIR_NAME);
+		File[] files = dir.listFiles();
+		for (File file: files) {
+			file.delete();
+		}
+		new File(TEST_FILE_NAME).createNewFile();
+	}
+
+	@Test
+	public void testHitsAndMisses() throws Exception {
+		CachingStorage storage = new CachingStorage(DirectoryStorage.newStorage(TEST_DIR_NAME), 1024 * 1024);
+		byte[][] objects = generateObjects(100, 100);
+		long[] IDs = storage.write(objects);
+
+		assertArrayEquals(objects, storage.get(IDs));
+		assertEquals(0, storage.getHitCount());
+		assertEquals(IDs.length, storage.getMissCount());
+
+		assertArrayEquals(objects, storage.get(IDs));
+		assertEquals(IDs.length, storage.getHitCount());
+		assertEquals(IDs.length, storage.getMissCount());
+	}
+
+	@Test
+	public void testGetRange() throws Exception {
+		CachingStorage storage = new CachingStorage(DirectoryStorage.newStorage(TEST_DIR_NAME), 1024 * 1024);
+		byte[][] objects = new byte[2][100];
+		rnd.nextBytes(objects[0]);
+		rnd.nextBytes(objects[1]);
+		long[] IDs = storage.write(objects);
+		storage.get(IDs[0]);
+
+		long[] offsets = {10, 90};
+		int[] lengths = {20, 20};
+		byte[][] ranges = storage.get(IDs, offsets, lengths);
+		assertArrayEquals(Arrays.copyOfRange(objects[0], 10, 30), ranges[0]);
+		assertArrayEquals(Arrays.copyOfRange(objects[1], 90, 100), ranges[1]);
+		assertEquals(1, storage.getHitCount());
+		assertEquals(2, storage.getMissCount());
+	}
+
+	@Test
+	public void testInvalidation() throws Exception {
+		CachingStorage storage = new CachingStorage(DirectoryStorage.newStorage(TEST_DIR_NAME), 1024 * 1024);
+		byte[][] objects = generateObjects(100, 100);
+		long[] IDs = storage.write(objects);
+		storage.get(IDs);
+
+		for (int i = 0; i < IDs.length / 2; i++) {
+			objects[i] = generateObjects(1, 100)[0];
+			storage.write(IDs[i], objects[i]);
+		}
+		for (int i = IDs.length / 2; i < IDs.length; i++) {
+			storage.remove(IDs[i]);
+			objects[i] = null;
+		}
+
+		assertArrayEquals(objects, storage.get(IDs));
+	}
+
+	@Test
+	public void testExpiration() throws Exception {
+		DirectoryStorageSettings settings = new DirectoryStorageSettings.Builder().setExpiration(true).build();
+		CachingStorage storage = new CachingStorage(DirectoryStorage.newStorage(TEST_DIR_NAME, settings), 1024 * 1024);
+		byte[][] objects = generateObjects(2, 100);
+		long[] IDs = storage.write(objects);
+		storage.get(IDs);
+
+		long now = System.currentTimeMillis();
+		assertTrue(storage.expire(IDs[0], now - 1));
+		assertTrue(storage.expire(IDs[1], now + 3600 * 1000));
+		assertNull(storage.get(IDs[0]));
+		assertFalse(storage.exists(IDs[0]));
+		assertArrayEquals(objects[1], storage.get(IDs[1]));
+		assertArrayEquals(new long[] {IDs[0]}, storage.removeExpired());
+	}
+
+	@Test
+	public void testSizeLimit() throws Exception {
+		long maxCacheBytes = 10 * 1024;
+		CachingStorage storage = new CachingStorage(DirectoryStorage.newStorage(TEST_DIR_NAME), maxCacheBytes, false);
+		byte[][] objects = generateObjects(1000, 1000);
+		long[] IDs = storage.write(objects);
+
+		for (int i = 0; i < 3; i++) {
+			assertArrayEquals(objects, storage.get(IDs));
+			assertTrue(storage.getCachedBytes() <= maxCacheBytes);
+		}
+		assertTrue(storage.getEvictionCount() > 0);
+	}
+
+	@Test
+	public void testFrequentObjectsStay() throws Exception {
+		CachingStorage storage = new CachingStorage(DirectoryStorage.newStorage(TEST_DIR_NAME), 100 * 1024);
+		byte[][] objects = generateObjects(1000, 100);
+		long[] IDs = storage.write(objects);
+
+		for (int i = 0; i < 10; i++) {
+			storage.get(IDs[0]);
+		}
+		for (int i = 1; i < IDs.length; i++) {
+			storage.get(IDs[i]);
+		}
+		long hits = storage.getHitCount();
+		assertArrayEquals(objects[0], storage.get(IDs[0]));
+		assertEquals(hits + 1, storage.getHitCount());
+	}
+
+	@Test
+	public void testCopyObjects() throws Exception {
+		CachingStorage storage = new CachingStorage(DirectoryStorage.newStorage(TEST_DIR_NAME), 1024 * 1024);
+		byte[] object = generateObjects(1, 100)[0];
+		long ID = storage.write(object);
+
+		storage.get(ID)[0]++;
+		assertArrayEquals(object, storage.get(ID));
+	}
+
+	private static byte[][] generateObjects(int count, int maxSize) {
+		byte[][] result = new byte[count][];
+		for (int i = 0; i < count; i++) {
+			result[i] = new byte[rnd.nextInt(maxSize) + 1];
+			rnd.nextBytes(result[i]);
+		}
+		return result;
+	}
+}
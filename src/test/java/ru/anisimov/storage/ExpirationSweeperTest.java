@@ -0,0 +1,59 @@
+package ru.anisimov.storage;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import ru.anisimov.storage.localStorage.DirectoryStorage;
+import ru.anisimov.storage.localStorage.DirectoryStorageSettings;
+import ru.anisimov.storage.localStorage.FileBasedIndexTest;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ */
+public class ExpirationSweeperTest {
+	private static final String RESOURCE_FILE_NAME = "/testStorage/testFile";
+	private static final String TEST_FILE_NAME = FileBasedIndexTest.class.getResource(RESOURCE_FILE_NAME).getFile();
+	private static String TEST_DIR_NAME = new File(TEST_FILE_NAME).getParent();
+
+	@BeforeClass
+	@AfterClass
+	public static void tearDown() throws Exception {
+		System.gc();
+		File dir = new File(TEST_DIR_NAME);
+		File[] files = dir.listFiles();
+		for (File file: files) {
+			file.delete();
+		}
+		new File(TEST_FILE_NAME).createNewFile();
+	}
+
+	@Test
+	public void testSweep() throws Exception {
+		tearDown();
+		DirectoryStorageSettings settings = new DirectoryStorageSettings.Builder().setExpiration(true).build();
+		Storage storage = new SynchronizedStorage(DirectoryStorage.newStorage(TEST_DIR_NAME, settings));
+		long[] IDs = storage.write(new byte[10][100]);
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < IDs.length / 2; i++) {
+			storage.expire(IDs[i], now - 1);
+		}
+
+		try (ExpirationSweeper sweeper = new ExpirationSweeper(storage, 10)) {
+			long deadline = System.currentTimeMillis() + 10_000;
+			while (sweeper.getRemovedCount() < IDs.length / 2 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertEquals(IDs.length / 2, sweeper.getRemovedCount());
+			assertEquals(0, sweeper.getErrorCount());
+			assertEquals(0, storage.removeExpired().length);
+			assertNull(storage.get(IDs[0]));
+			assertNotNull(storage.get(IDs[IDs.length - 1]));
+		}
+	}
+}
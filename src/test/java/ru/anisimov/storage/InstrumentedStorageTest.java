@@ -0,0 +1,123 @@
+package ru.anisimov.storage;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import ru.anisimov.storage.exceptions.StorageException;
+import ru.anisimov.storage.io.FileRole;
+import ru.anisimov.storage.io.IOCounters;
+import ru.anisimov.storage.localStorage.DirectoryStorage;
+import ru.anisimov.storage.localStorage.FileBasedIndexTest;
+import ru.anisimov.storage.metrics.LatencySnapshot;
+import ru.anisimov.storage.metrics.StorageOperation;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ */
+public class InstrumentedStorageTest {
+	private static final String RESOURCE_FILE_NAME = "/testStorage/testFile";
+	private static final String TEST_FILE_NAME = FileBasedIndexTest.class.getResource(RESOURCE_FILE_NAME).getFile();
+	private static final Random rnd = new Random(System.currentTimeMillis());
+	private static String TEST_DIR_NAME = new File(TEST_FILE_NAME).getParent();
+
+	@BeforeClass
+	@AfterClass
+	public static void tearDown() throws Exception {
+		File dir = new File(TEST_DIR_NAME);
+		File[] files = dir.listFiles();
+		for (File file: files) {
+			file.delete();
+		}
+		new File(TEST_FILE_NAME).createNewFile();
+	}
+
+	@Test
+	public void testLatenciesAndCounters() throws Exception {
+		InstrumentedStorage storage = new InstrumentedStorage(DirectoryStorage.newStorage(TEST_DIR_NAME));
+		byte[][] objects = new byte[50][];
+		for (int i = 0; i < objects.length; i++) {
+			objects[i] = new byte[100];
+			rnd.nextBytes(objects[i]);
+		}
+		long[] IDs = storage.write(objects);
+		storage.write(IDs[0], objects[0]);
+		for (long ID : IDs) {
+			storage.get(ID);
+		}
+		storage.get(IDs);
+		storage.remove(IDs[0]);
+		try {
+			storage.write((byte[][]) null);
+			fail();
+		} catch (StorageException e) {
+			// expected
+		}
+
+		assertEquals(1, storage.getLatency(StorageOperation.WRITE).getCount());
+		assertEquals(1, storage.getLatency(StorageOperation.WRITE, 50).getCount());
+		assertEquals(1, storage.getLatency(StorageOperation.REWRITE).getCount());
+		assertEquals(IDs.length + 1, storage.getLatency(StorageOperation.GET).getCount());
+		assertEquals(IDs.length, storage.getLatency(StorageOperation.GET, 1).getCount());
+		assertEquals(1, storage.getLatency(StorageOperation.GET, 11).getCount());
+		assertEquals(1, storage.getLatency(StorageOperation.REMOVE).getCount());
+		assertEquals(0, storage.getLatency(StorageOperation.REBUILD).getCount());
+		LatencySnapshot get = storage.getLatency(StorageOperation.GET);
+		assertTrue(get.getMin() > 0);
+		assertTrue(get.getP50() <= get.getP999());
+		assertTrue(get.getP999() <= get.getMax());
+
+		assertEquals((IDs.length + 1) * 100, storage.getBytesWritten());
+		assertEquals(2 * IDs.length * 100, storage.getBytesRead());
+		assertEquals(1, storage.getErrorCount());
+
+		Map<String, LatencySnapshot> latencies = storage.getLatencies();
+		assertEquals(5, latencies.size());
+		assertEquals(IDs.length, latencies.get("GET 1").getCount());
+		assertEquals(1, latencies.get("GET 11-100").getCount());
+
+		IOCounters getIO = storage.getIOCounters(StorageOperation.GET);
+		assertTrue(getIO.getReads(FileRole.INDEX) >= IDs.length);
+		assertTrue(getIO.getBytesRead(FileRole.CONTAINER) >= 2 * IDs.length * 100);
+		assertEquals(0, getIO.getWrites(FileRole.INDEX));
+		assertTrue(storage.getIOCounters(StorageOperation.WRITE).getWrites(FileRole.SAFETY) > 0);
+		assertTrue(storage.getIOCounters(StorageOperation.WRITE).getWrites(FileRole.GENERATOR) > 0);
+
+		storage.reset();
+		assertEquals(0, storage.getLatency(StorageOperation.GET).getCount());
+		assertEquals(0, storage.getIOCounters(StorageOperation.GET).getReads(FileRole.INDEX));
+		assertEquals(0, storage.getBytesRead());
+		assertTrue(storage.getLatencies().isEmpty());
+	}
+
+	@Test
+	public void testMBean() throws Exception {
+		InstrumentedStorage storage = new InstrumentedStorage(DirectoryStorage.newStorage(TEST_DIR_NAME));
+		ObjectName name = storage.registerMBean("test");
+		try {
+			long ID = storage.write(new byte[10]);
+			storage.get(ID);
+
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			assertEquals(10L, server.getAttribute(name, "BytesWritten"));
+			assertEquals(10L, server.getAttribute(name, "BytesRead"));
+			TabularData latencies = (TabularData) server.getAttribute(name, "Latencies");
+			assertEquals(2, latencies.size());
+
+			server.invoke(name, "reset", null, null);
+			assertEquals(0L, server.getAttribute(name, "BytesRead"));
+		} finally {
+			storage.unregisterMBean();
+		}
+		assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+	}
+}
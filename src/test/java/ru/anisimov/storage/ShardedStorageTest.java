@@ -0,0 +1,150 @@
+package ru.anisimov.storage;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import ru.anisimov.storage.localStorage.DirectoryStorage;
+import ru.anisimov.storage.localStorage.FileBasedIndexTest;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ */
+public class ShardedStorageTest {
+	private static final String RESOURCE_FILE_NAME = "/testStorage/testFile";
+	private static final String TEST_FILE_NAME = FileBasedIndexTest.class.getResource(RESOURCE_FILE_NAME).getFile();
+	private static final Random rnd = new Random(System.currentTimeMillis());
+	private static String TEST_DIR_NAME = new File(TEST_FILE_NAME).getParent();
+	private static final int SHARDS_COUNT = 3;
+
+	@BeforeClass
+	@AfterClass
+	public static void tearDown() throws Exception {
+		System.gc();
+		File dir = new File(TEST_DIR_NAME);
+		for (File file: dir.listFiles()) {
+			if (file.isDirectory()) {
+				for (File shardFile : file.listFiles()) {
+					shardFile.delete();
+				}
+			}
+			file.delete();
+		}
+		new File(TEST_FILE_NAME).createNewFile();
+	}
+
+	@Test
+	public void testKeyMapping() throws Exception {
+		ShardedStorage storage = newStorage();
+		long[] keys = {0, 1, 2, -1, -2, -3, Long.MIN_VALUE, Long.MAX_VALUE, Integer.MIN_VALUE, 12345};
+		for (long key : keys) {
+			int shard = storage.getShard(key);
+			assertTrue(shard >= 0 && shard < SHARDS_COUNT);
+			assertEquals(key, storage.getKey(shard, storage.getLocalKey(key)));
+		}
+
+		// Shards own contiguous ranges in key order
+		assertEquals(0, storage.getShard(Long.MIN_VALUE));
+		assertEquals(SHARDS_COUNT - 1, storage.getShard(Long.MAX_VALUE));
+		int previous = 0;
+		for (long key = Long.MIN_VALUE; key < Long.MAX_VALUE - Long.MAX_VALUE / 1000; key += Long.MAX_VALUE / 1000) {
+			int shard = storage.getShard(key);
+			assertTrue(shard == previous || shard == previous + 1);
+			previous = shard;
+		}
+
+		// Keys generated by shards are routed back to them
+		for (int shard = 0; shard < SHARDS_COUNT; shard++) {
+			for (long localKey : new long[] {Integer.MIN_VALUE, Integer.MIN_VALUE + 100_000_000L, 0}) {
+				long key = storage.getKey(shard, localKey);
+				assertEquals(shard, storage.getShard(key));
+				assertEquals(localKey, storage.getLocalKey(key));
+			}
+		}
+	}
+
+	@Test
+	public void testWriteAndGet() throws Exception {
+		ShardedStorage storage = newStorage();
+		byte[][] objects = generateObjects(1000);
+		long[] keys = storage.write(objects);
+		assertArrayEquals(objects, storage.get(keys));
+
+		int[] shardObjects = new int[SHARDS_COUNT];
+		for (long key : keys) {
+			shardObjects[storage.getShard(key)]++;
+		}
+		for (int count : shardObjects) {
+			assertTrue(count > 0);
+		}
+
+		long single = storage.write(objects[0]);
+		assertArrayEquals(objects[0], storage.get(single));
+	}
+
+	@Test
+	public void testWriteWithKeys() throws Exception {
+		ShardedStorage storage = newStorage();
+		long[] keys = {-5, -4, -3, -2, -1, 0, 1, 2, 3, 4, 5, Integer.MIN_VALUE};
+		byte[][] objects = generateObjects(keys.length);
+		assertTrue(storage.write(keys, objects));
+		assertArrayEquals(objects, storage.get(keys));
+
+		assertTrue(storage.remove(new long[] {-5, 0, 5}));
+		byte[][] result = storage.get(keys);
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] == -5 || keys[i] == 0 || keys[i] == 5) {
+				assertNull(result[i]);
+			} else {
+				assertArrayEquals(objects[i], result[i]);
+			}
+		}
+
+		storage.write(1, objects[0]);
+		assertArrayEquals(objects[0], storage.get(1));
+		storage.rebuild();
+		assertArrayEquals(objects[0], storage.get(1));
+		assertNull(storage.get(0));
+	}
+
+	@Test
+	public void testGenerateKey() throws Exception {
+		ShardedStorage storage = newStorage();
+		long[] keys = storage.generateKey(100);
+		for (int i = 0; i < keys.length; i++) {
+			for (int j = 0; j < i; j++) {
+				assertNotEquals(keys[i], keys[j]);
+			}
+		}
+		long key = storage.generateKey();
+		byte[] object = generateObjects(1)[0];
+		storage.write(key, object);
+		assertArrayEquals(object, storage.get(key));
+	}
+
+	private static ShardedStorage newStorage() throws Exception {
+		tearDown();
+		List<Storage> shards = new ArrayList<>();
+		for (int i = 0; i < SHARDS_COUNT; i++) {
+			File shardDir = new File(TEST_DIR_NAME, "shard" + i);
+			shardDir.mkdir();
+			shards.add(DirectoryStorage.newStorage(shardDir.getPath()));
+		}
+		return new ShardedStorage(shards);
+	}
+
+	private static byte[][] generateObjects(int count) {
+		byte[][] result = new byte[count][];
+		for (int i = 0; i < count; i++) {
+			result[i] = new byte[rnd.nextInt(100) + 1];
+			rnd.nextBytes(result[i]);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,85 @@
+package ru.anisimov.storage.compression;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ */
+public class CompressionTest {
+	private static final Random rnd = new Random(System.currentTimeMillis());
+
+	private static final String TEXT = "{\"id\": 12345, \"name\": \"object storage\", \"tags\": [\"json\", \"text\", \"blob\"]}";
+
+	@Test
+	public void testCompressText() throws Exception {
+		byte[] bytes = repeatText(1000);
+		for (Compression compression : Compression.values()) {
+			byte[] compressed = compression.compress(bytes);
+			if (compression != Compression.NONE) {
+				assertTrue(compressed.length < bytes.length / 4);
+			}
+			assertArrayEquals(bytes, compression.decompress(compressed));
+		}
+	}
+
+	@Test
+	public void testCompressRandom() throws Exception {
+		for (Compression compression : Compression.values()) {
+			for (int i = 0; i < 1000; i++) {
+				byte[] bytes = new byte[rnd.nextInt(5000)];
+				rnd.nextBytes(bytes);
+				assertArrayEquals(bytes, compression.decompress(compression.compress(bytes)));
+			}
+		}
+	}
+
+	@Test
+	public void testCompressSmallAlphabet() throws Exception {
+		for (Compression compression : Compression.values()) {
+			for (int i = 0; i < 1000; i++) {
+				byte[] bytes = new byte[rnd.nextInt(10_000)];
+				for (int j = 0; j < bytes.length; j++) {
+					bytes[j] = (byte) rnd.nextInt(3);
+				}
+				assertArrayEquals(bytes, compression.decompress(compression.compress(bytes)));
+			}
+		}
+	}
+
+	@Test
+	public void testCompressShortAndEmpty() throws Exception {
+		for (Compression compression : Compression.values()) {
+			for (int size = 0; size < 64; size++) {
+				byte[] bytes = new byte[size];
+				Arrays.fill(bytes, (byte) 7);
+				assertArrayEquals(bytes, compression.decompress(compression.compress(bytes)));
+			}
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testMalformedLZ4Block() throws Exception {
+		byte[] compressed = Compression.LZ4.compress(repeatText(100));
+		Compression.LZ4.decompress(Arrays.copyOf(compressed, compressed.length / 2));
+	}
+
+	@Test(expected = IOException.class)
+	public void testUnknownCode() throws Exception {
+		Compression.forCode((byte) 100);
+	}
+
+	private static byte[] repeatText(int count) {
+		StringBuilder result = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			result.append(TEXT).append(i % 10);
+		}
+		return result.toString().getBytes();
+	}
+}
@@ -0,0 +1,81 @@
+package ru.anisimov.storage.io;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ */
+public class IOCountersTest {
+	private static final String RESOURCE_FILE_NAME = "fileReaderTest";
+	private static final String TEST_FILE_NAME = IOCountersTest.class.getResource(RESOURCE_FILE_NAME).getFile();
+
+	@Test
+	public void testCountsByRole() throws Exception {
+		IOCounters counters = new IOCounters();
+		try (IOScope scope = IOScope.open(counters)) {
+			try (FileReaderWriter out = FileReaderWriter.openForWriting(TEST_FILE_NAME, FileRole.INDEX)) {
+				out.writeBytes(0, new byte[10]);
+				out.writeLong(10, 1);
+			}
+			try (FileReaderWriter in = FileReaderWriter.openForReading(TEST_FILE_NAME, FileRole.CONTAINER)) {
+				in.readByte(0, 5);
+			}
+		}
+		assertNull(IOScope.current());
+
+		assertEquals(1, counters.getOpens(FileRole.INDEX));
+		assertEquals(2, counters.getWrites(FileRole.INDEX));
+		assertEquals(18, counters.getBytesWritten(FileRole.INDEX));
+		assertEquals(0, counters.getReads(FileRole.INDEX));
+		assertEquals(1, counters.getOpens(FileRole.CONTAINER));
+		assertEquals(1, counters.getReads(FileRole.CONTAINER));
+		assertEquals(5, counters.getBytesRead(FileRole.CONTAINER));
+		assertEquals(0, counters.getOpens(FileRole.SAFETY));
+		assertTrue(counters.getNanos(FileRole.INDEX) > 0);
+		assertTrue(IOCounters.getGlobal().getWrites(FileRole.INDEX) >= 2);
+
+		// Out of scope
+		try (FileReaderWriter in = FileReaderWriter.openForReading(TEST_FILE_NAME, FileRole.CONTAINER)) {
+			in.readByte(0, 5);
+		}
+		assertEquals(1, counters.getReads(FileRole.CONTAINER));
+	}
+
+	@Test
+	public void testNestedAndJoinedScopes() throws Exception {
+		IOCounters outer = new IOCounters();
+		final IOCounters inner = new IOCounters();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try (IOScope outerScope = IOScope.open(outer)) {
+			try (IOScope innerScope = IOScope.open(inner)) {
+				final IOScope callerScope = IOScope.current();
+				executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						try (IOScope scope = IOScope.join(callerScope);
+							 FileReaderWriter in = FileReaderWriter.openForReading(TEST_FILE_NAME, FileRole.GENERATOR)) {
+							in.readByte(0, 1);
+						}
+						assertNull(IOScope.current());
+						return null;
+					}
+				}).get();
+			}
+			try (FileReaderWriter in = FileReaderWriter.openForReading(TEST_FILE_NAME, FileRole.GENERATOR)) {
+				in.readByte(0, 1);
+			}
+		}
+		executor.shutdown();
+
+		assertEquals(1, inner.getReads(FileRole.GENERATOR));
+		assertEquals(2, outer.getReads(FileRole.GENERATOR));
+	}
+}
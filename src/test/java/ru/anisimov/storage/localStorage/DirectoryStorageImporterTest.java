@@ -0,0 +1,153 @@
+package ru.anisimov.storage.localStorage;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import ru.anisimov.storage.Storage;
+import ru.anisimov.storage.exceptions.StorageException;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ */
+public class DirectoryStorageImporterTest {
+	private static final String RESOURCE_FILE_NAME = "/testStorage/testFile";
+	private static final String TEST_FILE_NAME = FileBasedIndexTest.class.getResource(RESOURCE_FILE_NAME).getFile();
+	private static final Random rnd = new Random(System.currentTimeMillis());
+	private static String TEST_DIR_NAME = new File(TEST_FILE_NAME).getParent();
+
+	@BeforeClass
+	@AfterClass
+	public static void tearDown() throws Exception {
+		System.gc();
+		File dir = new File(TEST_DIR_NAME);
+		File[] files = dir.listFiles();
+		for (File file: files) {
+			file.delete();
+		}
+		new File(TEST_FILE_NAME).createNewFile();
+	}
+
+	@Test
+	public void testImport() throws Exception {
+		tearDown();
+		DirectoryStorageSettings settings = new DirectoryStorageSettings.Builder().setInlineThreshold(16).build();
+		DirectoryStorage.newStorage(TEST_DIR_NAME, settings);
+		FileBasedIndex index = new FileBasedIndex(TEST_DIR_NAME + File.separator + "ind", false, settings);
+		ObjectContainerSupervisor container = new ObjectContainerSupervisor(TEST_DIR_NAME, "cont", false, settings);
+		DirectoryStorageImporter importer = new DirectoryStorageImporter(TEST_DIR_NAME, TEST_DIR_NAME + File.separator + "safe",
+																		  settings, container, index,
+																		  new FileBasedIDGenerator(TEST_DIR_NAME + File.separator + "gen", false),
+																		  new IndexEntrySorter(index, TEST_DIR_NAME + File.separator + "run", 100));
+
+		int testCount = 2000;
+		Map<Long, byte[]> expected = new HashMap<>();
+		for (int i = 0; i < testCount; i++) {
+			long key = rnd.nextInt(testCount);
+			byte[] object = new byte[rnd.nextInt(100)];
+			rnd.nextBytes(object);
+			importer.add(key, object);
+			expected.put(key, object);
+		}
+		assertEquals(testCount, importer.getImportedCount());
+		Storage storage = importer.finish();
+
+		long[] keys = new long[testCount];
+		for (int i = 0; i < testCount; i++) {
+			keys[i] = i;
+		}
+		byte[][] result = storage.get(keys);
+		for (int i = 0; i < testCount; i++) {
+			assertArrayEquals(expected.get((long) i), result[i]);
+		}
+
+		byte[] object = new byte[1000];
+		rnd.nextBytes(object);
+		storage.write(testCount, object);
+		storage.remove(0);
+		assertArrayEquals(object, storage.get(testCount));
+		assertNull(storage.get(0));
+
+		storage.rebuild();
+		expected.remove(0L);
+		for (Map.Entry<Long, byte[]> entry : expected.entrySet()) {
+			assertArrayEquals(entry.getValue(), storage.get(entry.getKey()));
+		}
+		assertArrayEquals(object, storage.get(testCount));
+		assertEquals(0, countFiles("run"));
+	}
+
+	@Test
+	public void testImportedKeysAreNotGenerated() throws Exception {
+		tearDown();
+		DirectoryStorageImporter importer = DirectoryStorage.newImporter(TEST_DIR_NAME, DirectoryStorageSettings.DEFAULT);
+		// Generator starts from Integer.MIN_VALUE
+		long[] importedKeys = {Integer.MIN_VALUE, Integer.MIN_VALUE + 2L, Long.MAX_VALUE};
+		byte[][] objects = new byte[importedKeys.length][];
+		for (int i = 0; i < importedKeys.length; i++) {
+			objects[i] = new byte[100];
+			rnd.nextBytes(objects[i]);
+			importer.add(importedKeys[i], objects[i]);
+		}
+		Storage storage = importer.finish();
+
+		long key = storage.write(new byte[100]);
+		assertEquals(Integer.MIN_VALUE + 3L, key);
+		for (int i = 0; i < importedKeys.length; i++) {
+			assertArrayEquals(objects[i], storage.get(importedKeys[i]));
+		}
+	}
+
+	@Test(expected = StorageException.class)
+	public void testAddAfterFinish() throws Exception {
+		tearDown();
+		DirectoryStorageImporter importer = DirectoryStorage.newImporter(TEST_DIR_NAME, DirectoryStorageSettings.DEFAULT);
+		importer.add(1, new byte[10]);
+		importer.finish();
+		importer.add(2, new byte[10]);
+	}
+
+	@Test
+	public void testInterruptedImport() throws Exception {
+		tearDown();
+		DirectoryStorageImporter importer = DirectoryStorage.newImporter(TEST_DIR_NAME, DirectoryStorageSettings.DEFAULT);
+		int testCount = 20_000;
+		byte[][] objects = new byte[testCount][];
+		for (int i = 0; i < testCount; i++) {
+			objects[i] = new byte[20];
+			rnd.nextBytes(objects[i]);
+			importer.add(i, objects[i]);
+		}
+
+		// Import isn't finished, so storage is rebuilt from flushed batches on opening
+		Storage storage = DirectoryStorage.getStorage(TEST_DIR_NAME);
+		int found = 0;
+		for (int i = 0; i < testCount; i++) {
+			byte[] object = storage.get(i);
+			if (object != null) {
+				assertArrayEquals(objects[i], object);
+				found++;
+			}
+		}
+		assertTrue(found > 0);
+	}
+
+	private static int countFiles(String prefix) {
+		int result = 0;
+		for (String file : new File(TEST_DIR_NAME).list()) {
+			if (file.startsWith(prefix)) {
+				result++;
+			}
+		}
+		return result;
+	}
+}
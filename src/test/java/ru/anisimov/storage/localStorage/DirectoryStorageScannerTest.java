@@ -0,0 +1,187 @@
+package ru.anisimov.storage.localStorage;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import ru.anisimov.storage.Storage;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ */
+public class DirectoryStorageScannerTest {
+	private static final String RESOURCE_FILE_NAME = "/testStorage/testFile";
+	private static final String TEST_FILE_NAME = FileBasedIndexTest.class.getResource(RESOURCE_FILE_NAME).getFile();
+	private static final Random rnd = new Random(System.currentTimeMillis());
+	private static String TEST_DIR_NAME = new File(TEST_FILE_NAME).getParent();
+
+	private static final DirectoryStorageSettings SETTINGS =
+			new DirectoryStorageSettings.Builder().setInlineThreshold(16).setSizeClasses(100, 1000).build();
+
+	@BeforeClass
+	@AfterClass
+	public static void tearDown() throws Exception {
+		System.gc();
+		File dir = new File(TEST_DIR_NAME);
+		File[] files = dir.listFiles();
+		for (File file: files) {
+			file.delete();
+		}
+		new File(TEST_FILE_NAME).createNewFile();
+	}
+
+	@Test
+	public void testScanLiveObjects() throws Exception {
+		Map<Long, byte[]> expected = fillStorage();
+		Map<Long, byte[]> scanned = new HashMap<>();
+		try (DirectoryStorageScanner scanner = DirectoryStorage.newScanner(TEST_DIR_NAME, SETTINGS)) {
+			scan(scanner, scanned);
+		}
+		assertEquals(expected.size(), scanned.size());
+		for (Map.Entry<Long, byte[]> entry : expected.entrySet()) {
+			assertArrayEquals(entry.getValue(), scanned.get(entry.getKey()));
+		}
+	}
+
+	@Test
+	public void testParallelScan() throws Exception {
+		Map<Long, byte[]> expected = fillStorage();
+
+		List<DirectoryStorageScanner> scanners = new ArrayList<>();
+		scanners.add(DirectoryStorage.newScanner(TEST_DIR_NAME, SETTINGS));
+		DirectoryStorageScanner split = scanners.get(0).trySplit();
+		assertNotNull(split);
+		scanners.add(split);
+		assertNull(split.trySplit());
+
+		ExecutorService executor = Executors.newFixedThreadPool(scanners.size());
+		List<Future<Map<Long, byte[]>>> results = new ArrayList<>();
+		for (final DirectoryStorageScanner scanner : scanners) {
+			results.add(executor.submit(new Callable<Map<Long, byte[]>>() {
+				@Override
+				public Map<Long, byte[]> call() throws Exception {
+					Map<Long, byte[]> result = new HashMap<>();
+					try (DirectoryStorageScanner closedScanner = scanner) {
+						scan(closedScanner, result);
+					}
+					return result;
+				}
+			}));
+		}
+		Map<Long, byte[]> scanned = new HashMap<>();
+		for (Future<Map<Long, byte[]>> result : results) {
+			for (Map.Entry<Long, byte[]> entry : result.get().entrySet()) {
+				assertFalse(scanned.containsKey(entry.getKey()));
+				scanned.put(entry.getKey(), entry.getValue());
+			}
+		}
+		executor.shutdown();
+
+		assertEquals(expected.size(), scanned.size());
+		for (Map.Entry<Long, byte[]> entry : expected.entrySet()) {
+			assertArrayEquals(entry.getValue(), scanned.get(entry.getKey()));
+		}
+	}
+
+	@Test
+	public void testScanDoesNotWrite() throws Exception {
+		fillStorage();
+		Map<String, byte[]> files = readFiles();
+		// Other size classes would be stored into supervisor info by writable supervisor
+		DirectoryStorageSettings settings = new DirectoryStorageSettings.Builder().setInlineThreshold(16).setSizeClasses(10).build();
+		Map<Long, byte[]> scanned = new HashMap<>();
+		try (DirectoryStorageScanner scanner = DirectoryStorage.newScanner(TEST_DIR_NAME, settings)) {
+			scan(scanner, scanned);
+		}
+		assertFalse(scanned.isEmpty());
+		Map<String, byte[]> filesAfterScan = readFiles();
+		assertEquals(files.keySet(), filesAfterScan.keySet());
+		for (Map.Entry<String, byte[]> entry : files.entrySet()) {
+			assertArrayEquals(entry.getKey(), entry.getValue(), filesAfterScan.get(entry.getKey()));
+		}
+	}
+
+	@Test
+	public void testDeduplicatedScan() throws Exception {
+		tearDown();
+		DirectoryStorageSettings settings = new DirectoryStorageSettings.Builder().setDeduplication(true).build();
+		Storage storage = DirectoryStorage.newStorage(TEST_DIR_NAME, settings);
+		byte[] shared = new byte[500];
+		rnd.nextBytes(shared);
+		byte[] single = new byte[500];
+		rnd.nextBytes(single);
+		long[] keys = storage.write(new byte[][] {shared, shared, shared, single});
+		// Record of shared object was written with first key
+		storage.remove(keys[0]);
+
+		Map<Long, byte[]> scanned = new HashMap<>();
+		try (DirectoryStorageScanner scanner = DirectoryStorage.newScanner(TEST_DIR_NAME, settings)) {
+			scan(scanner, scanned);
+		}
+		assertEquals(3, scanned.size());
+		assertArrayEquals(shared, scanned.get(keys[1]));
+		assertArrayEquals(shared, scanned.get(keys[2]));
+		assertArrayEquals(single, scanned.get(keys[3]));
+	}
+
+	private static Map<String, byte[]> readFiles() throws Exception {
+		Map<String, byte[]> result = new HashMap<>();
+		for (File file : new File(TEST_DIR_NAME).listFiles()) {
+			result.put(file.getName(), Files.readAllBytes(file.toPath()));
+		}
+		return result;
+	}
+
+	private static void scan(DirectoryStorageScanner scanner, Map<Long, byte[]> result) throws Exception {
+		while (scanner.hasNext()) {
+			StoredObject object = scanner.next();
+			result.put(object.getKey(), object.getObject());
+		}
+	}
+
+	// Objects of all size classes, inline objects, rewritten and removed objects
+	private static Map<Long, byte[]> fillStorage() throws Exception {
+		tearDown();
+		Storage storage = DirectoryStorage.newStorage(TEST_DIR_NAME, SETTINGS);
+		int testCount = 3000;
+		byte[][] objects = new byte[testCount][];
+		for (int i = 0; i < testCount; i++) {
+			objects[i] = new byte[rnd.nextInt(2000)];
+			rnd.nextBytes(objects[i]);
+		}
+		long[] keys = storage.write(objects);
+
+		Map<Long, byte[]> result = new HashMap<>();
+		for (int i = 0; i < testCount; i++) {
+			result.put(keys[i], objects[i]);
+		}
+		for (int i = 0; i < testCount / 10; i++) {
+			byte[] object = new byte[rnd.nextInt(2000)];
+			rnd.nextBytes(object);
+			storage.write(keys[i], object);
+			result.put(keys[i], object);
+		}
+		for (int i = testCount - testCount / 10; i < testCount; i++) {
+			storage.remove(keys[i]);
+			result.remove(keys[i]);
+		}
+		return result;
+	}
+}
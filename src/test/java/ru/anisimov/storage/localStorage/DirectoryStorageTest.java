@@ -4,9 +4,15 @@ import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import ru.anisimov.storage.Storage;
+import ru.anisimov.storage.compression.Compression;
+import ru.anisimov.storage.exceptions.StorageException;
+import ru.anisimov.storage.io.FileReaderWriter;
 
 import java.io.File;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 import static org.junit.Assert.assertArrayEquals;
@@ -176,4 +182,555 @@ public class DirectoryStorageTest {
 			assertArrayEquals(objects[i], storage.get(IDs[i]));
 		}
 	}
+
+	@Test
+	public void testWorksWithCompression() throws Exception {
+		for (Compression compression : Compression.values()) {
+			tearDown();
+			DirectoryStorageSettings settings = new DirectoryStorageSettings.Builder().setCompression(compression, 16).build();
+			Storage storage = DirectoryStorage.newStorage(TEST_DIR_NAME, settings);
+
+			int testCount = 100;
+			byte[][] objects = new byte[testCount][];
+			for (int i = 0; i < testCount; i++) {
+				StringBuilder text = new StringBuilder();
+				int length = rnd.nextInt(100);
+				for (int j = 0; j < length; j++) {
+					text.append("{\"key\": ").append(rnd.nextInt(10)).append("}");
+				}
+				objects[i] = text.toString().getBytes();
+			}
+			objects[0] = new byte[1000];
+			rnd.nextBytes(objects[0]);
+			long[] IDs = storage.write(objects);
+			assertArrayEquals(objects, storage.get(IDs));
+
+			storage = DirectoryStorage.getStorage(TEST_DIR_NAME);
+			assertArrayEquals(objects, storage.get(IDs));
+
+			storage.rebuild();
+			assertArrayEquals(objects, storage.get(IDs));
+		}
+	}
+
+	@Test
+	public void testWorksWithDeduplication() throws Exception {
+		DirectoryStorageSettings settings = new DirectoryStorageSettings.Builder().setDeduplication(true).build();
+		Storage storage = DirectoryStorage.newStorage(TEST_DIR_NAME, settings);
+
+		int testCount = 100;
+		byte[][] objects = new byte[testCount][];
+		for (int i = 0; i < testCount; i++) {
+			objects[i] = new byte[] {(byte) (i % 10)};
+		}
+		long[] IDs = storage.write(objects);
+		assertArrayEquals(objects, storage.get(IDs));
+
+		for (int i = 0; i < testCount; i += 2) {
+			storage.write(IDs[i], new byte[] {(byte) (i % 10 + 1)});
+			objects[i] = new byte[] {(byte) (i % 10 + 1)};
+		}
+		assertArrayEquals(objects, storage.get(IDs));
+
+		for (int i = 0; i < testCount / 2; i++) {
+			storage.remove(IDs[i]);
+			assertNull(storage.get(IDs[i]));
+		}
+		for (int i = testCount / 2; i < testCount; i++) {
+			assertArrayEquals(objects[i], storage.get(IDs[i]));
+		}
+	}
+
+	@Test
+	public void testWorksWithInlineObjects() throws Exception {
+		tearDown();
+		DirectoryStorageSettings settings = new DirectoryStorageSettings.Builder().setInlineThreshold(32).build();
+		Storage storage = DirectoryStorage.newStorage(TEST_DIR_NAME, settings);
+
+		int testCount = 100;
+		byte[][] objects = new byte[testCount][];
+		for (int i = 0; i < testCount; i++) {
+			objects[i] = new byte[rnd.nextInt(64)];
+			rnd.nextBytes(objects[i]);
+		}
+		long[] IDs = storage.write(objects);
+		assertArrayEquals(objects, storage.get(IDs));
+
+		for (int i = 0; i < testCount / 2; i++) {
+			storage.remove(IDs[i]);
+			objects[i] = null;
+		}
+
+		storage = DirectoryStorage.getStorage(TEST_DIR_NAME, settings);
+		assertArrayEquals(objects, storage.get(IDs));
+
+		storage.rebuild();
+		assertArrayEquals(objects, storage.get(IDs));
+	}
+
+	@Test
+	public void testWorksWithDataDirectories() throws Exception {
+		tearDown();
+		File[] dataDirectories = {new File(TEST_DIR_NAME, "data0"), new File(TEST_DIR_NAME, "data1")};
+		for (File directory : dataDirectories) {
+			directory.mkdir();
+		}
+		try {
+			DirectoryStorageSettings settings = new DirectoryStorageSettings.Builder()
+														.setDataDirectories(ContainerPlacement.MOST_FREE_SPACE,
+																			dataDirectories[0].getPath(), dataDirectories[1].getPath())
+														.setSizeClasses(100, 1000)
+														.build();
+			Storage storage = DirectoryStorage.newStorage(TEST_DIR_NAME, settings);
+			int testCount = 300;
+			byte[][] objects = new byte[testCount][];
+			for (int i = 0; i < testCount; i++) {
+				objects[i] = new byte[rnd.nextInt(2000)];
+				rnd.nextBytes(objects[i]);
+			}
+			long[] IDs = storage.write(objects);
+			assertEquals(3, dataDirectories[0].list().length + dataDirectories[1].list().length);
+
+			storage = DirectoryStorage.getStorage(TEST_DIR_NAME, settings);
+			assertArrayEquals(objects, storage.get(IDs));
+			storage.rebuild();
+			assertArrayEquals(objects, storage.get(IDs));
+			assertEquals(3, dataDirectories[0].list().length + dataDirectories[1].list().length);
+		} finally {
+			System.gc();
+			for (File directory : dataDirectories) {
+				for (File file : directory.listFiles()) {
+					file.delete();
+				}
+				directory.delete();
+			}
+		}
+	}
+
+	@Test
+	public void testGetRange() throws Exception {
+		DirectoryStorageSettings[] allSettings = {
+				DirectoryStorageSettings.DEFAULT,
+				new DirectoryStorageSettings.Builder().setInlineThreshold(32).build(),
+				new DirectoryStorageSettings.Builder().setCompression(Compression.DEFLATE, 16).build()
+		};
+		for (DirectoryStorageSettings settings : allSettings) {
+			tearDown();
+			Storage storage = DirectoryStorage.newStorage(TEST_DIR_NAME, settings);
+			int testCount = 100;
+			byte[][] objects = new byte[testCount][];
+			for (int i = 0; i < testCount; i++) {
+				objects[i] = new byte[rnd.nextInt(i < testCount / 2 ? 64 : 100000) + 4];
+				rnd.nextBytes(objects[i]);
+			}
+			long[] IDs = storage.write(objects);
+			storage.remove(IDs[testCount - 1]);
+
+			long[] offsets = new long[testCount];
+			int[] lengths = new int[testCount];
+			for (int i = 0; i < testCount; i++) {
+				offsets[i] = rnd.nextInt(objects[i].length + 10);
+				lengths[i] = rnd.nextInt(objects[i].length + 10);
+			}
+			byte[][] ranges = storage.get(IDs, offsets, lengths);
+			for (int i = 0; i < testCount - 1; i++) {
+				int from = (int) Math.min(offsets[i], objects[i].length);
+				int to = (int) Math.min(from + (long) lengths[i], objects[i].length);
+				assertArrayEquals(Arrays.copyOfRange(objects[i], from, to), ranges[i]);
+			}
+			assertNull(ranges[testCount - 1]);
+
+			assertArrayEquals(Arrays.copyOfRange(objects[testCount - 2], 1, 3), storage.get(IDs[testCount - 2], 1, 2));
+			assertEquals(0, storage.get(IDs[0], Long.MAX_VALUE, Integer.MAX_VALUE).length);
+			try {
+				storage.get(IDs[0], -1, 1);
+				fail();
+			} catch (StorageException ignored) {
+			}
+		}
+	}
+
+	@Test
+	public void testExistsAndSize() throws Exception {
+		DirectoryStorageSettings[] allSettings = {
+				DirectoryStorageSettings.DEFAULT,
+				new DirectoryStorageSettings.Builder().setInlineThreshold(32).build(),
+				new DirectoryStorageSettings.Builder().setCompression(Compression.LZ4, 16).build()
+		};
+		for (DirectoryStorageSettings settings : allSettings) {
+			tearDown();
+			Storage storage = DirectoryStorage.newStorage(TEST_DIR_NAME, settings);
+			int testCount = 100;
+			byte[][] objects = new byte[testCount][];
+			for (int i = 0; i < testCount; i++) {
+				// Zeros are compressed well
+				objects[i] = new byte[rnd.nextInt(i < testCount / 2 ? 64 : 10000)];
+			}
+			long[] IDs = storage.write(objects);
+			for (int i = 0; i < testCount; i += 10) {
+				storage.remove(IDs[i]);
+			}
+
+			boolean[] exist = storage.exists(IDs);
+			long[] sizes = storage.size(IDs);
+			for (int i = 0; i < testCount; i++) {
+				assertEquals(i % 10 != 0, exist[i]);
+				assertEquals((i % 10 != 0) ? objects[i].length : -1, sizes[i]);
+			}
+			assertTrue(storage.exists(IDs[1]));
+			assertEquals(objects[1].length, storage.size(IDs[1]));
+			assertFalse(storage.exists(IDs[0]));
+			assertEquals(-1, storage.size(IDs[0]));
+		}
+	}
+
+	@Test
+	public void testConcurrentConditionalWrite() throws Exception {
+		tearDown();
+		DirectoryStorageSettings settings = new DirectoryStorageSettings.Builder().setVersioning(true).build();
+		final Storage storage = DirectoryStorage.newStorage(TEST_DIR_NAME, settings);
+		final long key = storage.write(generateObject(16));
+		final long version = storage.getVersion(key);
+		final AtomicInteger written = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						if (storage.write(key, generateObject(16), version)) {
+							written.incrementAndGet();
+						}
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+			});
+			thread.start();
+			threads.add(thread);
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(1, written.get());
+	}
+
+	@Test
+	public void testConditionalWrite() throws Exception {
+		DirectoryStorageSettings[] allSettings = {
+				new DirectoryStorageSettings.Builder().setVersioning(true).build(),
+				new DirectoryStorageSettings.Builder().setVersioning(true).setInlineThreshold(32).build()
+		};
+		for (DirectoryStorageSettings settings : allSettings) {
+			tearDown();
+			Storage storage = DirectoryStorage.newStorage(TEST_DIR_NAME, settings);
+			byte[] object = generateObject(16);
+			long key = storage.write(object);
+			long version = storage.getVersion(key);
+			assertTrue(version > 0);
+
+			byte[] newObject = generateObject(100);
+			assertFalse(storage.write(key, newObject, 0));
+			assertFalse(storage.write(key, newObject, version + 1));
+			assertArrayEquals(object, storage.get(key));
+			assertTrue(storage.write(key, newObject, version));
+			assertArrayEquals(newObject, storage.get(key));
+			assertTrue(storage.getVersion(key) > version);
+			version = storage.getVersion(key);
+			assertTrue(storage.write(key, object));
+			assertTrue(storage.getVersion(key) > version);
+			version = storage.getVersion(key);
+
+			long newKey = storage.generateKey();
+			assertEquals(0, storage.getVersion(newKey));
+			boolean[] result = storage.write(new long[] {newKey, key, newKey},
+											 new byte[][] {object, newObject, newObject}, new long[] {0, version, 0});
+			assertEquals(Arrays.toString(new boolean[] {true, true, false}), Arrays.toString(result));
+			assertArrayEquals(object, storage.get(newKey));
+			long[] versions = storage.getVersion(new long[] {newKey, key});
+			assertTrue(versions[0] > version && versions[1] > version && versions[0] != versions[1]);
+
+			storage = DirectoryStorage.getStorage(TEST_DIR_NAME, settings);
+			assertArrayEquals(versions, storage.getVersion(new long[] {newKey, key}));
+
+			// Versions never repeat: neither after removal nor after rebuild
+			storage.remove(key);
+			assertEquals(0, storage.getVersion(key));
+			assertTrue(storage.write(key, object, 0));
+			assertTrue(storage.getVersion(key) > versions[1]);
+			version = storage.getVersion(key);
+			storage.rebuild();
+			assertTrue(storage.getVersion(key) > version);
+			assertFalse(storage.write(key, newObject, version));
+			assertArrayEquals(object, storage.get(key));
+		}
+
+		tearDown();
+		Storage storage = DirectoryStorage.newStorage(TEST_DIR_NAME);
+		long key = storage.write(generateObject(10));
+		try {
+			storage.write(key, generateObject(10), 1);
+			fail();
+		} catch (StorageException e) {
+			assertNotNull(e.getMessage());
+		}
+	}
+
+	@Test
+	public void testExpiration() throws Exception {
+		DirectoryStorageSettings[] allSettings = {
+				new DirectoryStorageSettings.Builder().setExpiration(true).build(),
+				new DirectoryStorageSettings.Builder().setExpiration(true).setVersioning(true).setInlineThreshold(32).build()
+		};
+		for (DirectoryStorageSettings settings : allSettings) {
+			tearDown();
+			Storage storage = DirectoryStorage.newStorage(TEST_DIR_NAME, settings);
+			int testCount = 100;
+			byte[][] objects = new byte[testCount][];
+			for (int i = 0; i < testCount; i++) {
+				objects[i] = generateObject(rnd.nextInt(1000));
+			}
+			long[] IDs = storage.write(objects);
+			long now = System.currentTimeMillis();
+			long[] times = new long[testCount];
+			Set<Long> expired = new HashSet<>();
+			for (int i = 0; i < testCount; i++) {
+				times[i] = (i % 3 == 0) ? now - 1 : (i % 3 == 1) ? now + 3600 * 1000 : 0;
+				if (i % 3 == 0) {
+					expired.add(IDs[i]);
+				}
+			}
+			boolean[] result = storage.expire(IDs, times);
+			for (int i = 0; i < testCount; i++) {
+				assertTrue(result[i]);
+			}
+
+			byte[][] stored = storage.get(IDs);
+			boolean[] exist = storage.exists(IDs);
+			long[] sizes = storage.size(IDs);
+			for (int i = 0; i < testCount; i++) {
+				assertEquals(i % 3 != 0, exist[i]);
+				if (i % 3 == 0) {
+					assertNull(stored[i]);
+					assertEquals(-1, sizes[i]);
+				} else {
+					assertArrayEquals(objects[i], stored[i]);
+				}
+			}
+			assertFalse(storage.expire(IDs[0], 0));
+			assertNull(storage.get(IDs[0], 0, 0));
+
+			// Write clears expiration
+			assertTrue(storage.write(IDs[3], objects[3]));
+			expired.remove(IDs[3]);
+			assertArrayEquals(objects[3], storage.get(IDs[3]));
+			if (settings.isVersioning()) {
+				assertTrue(storage.getVersion(IDs[3]) > storage.getVersion(IDs[testCount - 1]));
+				assertEquals(0, storage.getVersion(IDs[6]));
+			}
+
+			// Expiration times survive rebuild
+			storage.rebuild();
+			assertNull(storage.get(IDs[6]));
+			assertArrayEquals(objects[3], storage.get(IDs[3]));
+
+			long[] removed = storage.removeExpired();
+			assertEquals(expired.size(), removed.length);
+			for (long ID : removed) {
+				assertTrue(expired.contains(ID));
+			}
+			assertEquals(0, storage.removeExpired().length);
+
+			storage = DirectoryStorage.getStorage(TEST_DIR_NAME, settings);
+			assertTrue(storage.expire(IDs[1], now - 1));
+			assertNull(storage.get(IDs[1]));
+			assertArrayEquals(new long[] {IDs[1]}, storage.removeExpired());
+			for (int i = 2; i < testCount; i++) {
+				if (!expired.contains(IDs[i]) && i != 1) {
+					assertArrayEquals(objects[i], storage.get(IDs[i]));
+				}
+			}
+		}
+
+		tearDown();
+		Storage storage = DirectoryStorage.newStorage(TEST_DIR_NAME);
+		long key = storage.write(generateObject(10));
+		assertEquals(0, storage.removeExpired().length);
+		try {
+			storage.expire(key, 1);
+			fail();
+		} catch (StorageException e) {
+			assertNotNull(e.getMessage());
+		}
+	}
+
+	@Test
+	public void testRebuildAfterRewriteToOtherSizeClass() throws Exception {
+		DirectoryStorageSettings[] allSettings = {
+				new DirectoryStorageSettings.Builder().setSizeClasses(100, 1000).build(),
+				new DirectoryStorageSettings.Builder().setSizeClasses(100, 1000).setOverwriteInPlace(true).build()
+		};
+		for (DirectoryStorageSettings settings : allSettings) {
+			tearDown();
+			Storage storage = DirectoryStorage.newStorage(TEST_DIR_NAME, settings);
+			long[] IDs = storage.write(new byte[][] {generateObject(8000), generateObject(3), generateObject(500)});
+			// Big objects become small and small become big, so newer records are in containers with lower numbers
+			byte[][] objects = {generateObject(3), generateObject(8000), generateObject(3)};
+			assertTrue(storage.write(IDs, objects));
+			assertTrue(storage.write(IDs[2], objects[2]));
+
+			storage.rebuild();
+			assertArrayEquals(objects, storage.get(IDs));
+		}
+	}
+
+	@Test
+	public void testRebuildWithDeduplication() throws Exception {
+		tearDown();
+		DirectoryStorageSettings settings = new DirectoryStorageSettings.Builder().setDeduplication(true).build();
+		Storage storage = DirectoryStorage.newStorage(TEST_DIR_NAME, settings);
+		byte[] shared = generateObject(500);
+		byte[] single = generateObject(500);
+		long[] IDs = storage.write(new byte[][] {shared, shared, shared, single});
+		// Record of shared object was written with first key
+		assertTrue(storage.remove(IDs[0]));
+		assertTrue(storage.write(IDs[3], shared));
+
+		storage.rebuild();
+		assertNull(storage.get(IDs[0]));
+		for (int i = 1; i < IDs.length; i++) {
+			assertArrayEquals(shared, storage.get(IDs[i]));
+		}
+
+		// References are counted again, so shared record lives until its last key is removed
+		assertTrue(storage.remove(new long[] {IDs[1], IDs[2]}));
+		assertArrayEquals(shared, storage.get(IDs[3]));
+		assertTrue(storage.remove(IDs[3]));
+		assertEquals(0, getRecordsCount());
+	}
+
+	@Test
+	public void testOverwriteInPlace() throws Exception {
+		DirectoryStorageSettings[] allSettings = {
+				new DirectoryStorageSettings.Builder().setOverwriteInPlace(true).build(),
+				new DirectoryStorageSettings.Builder().setOverwriteInPlace(true).setVersioning(true)
+						.setCompression(Compression.LZ4, 16).setInlineThreshold(32).build()
+		};
+		for (DirectoryStorageSettings settings : allSettings) {
+			tearDown();
+			Storage storage = DirectoryStorage.newStorage(TEST_DIR_NAME, settings);
+			int testCount = 100;
+			byte[][] objects = new byte[testCount][];
+			for (int i = 0; i < testCount; i++) {
+				objects[i] = generateObject(100);
+			}
+			long[] IDs = storage.write(objects);
+			long containersSize = getContainersSize();
+			long version = settings.isVersioning() ? storage.getVersion(IDs[0]) : 0;
+
+			for (int round = 0; round < 3; round++) {
+				for (int i = 0; i < testCount; i++) {
+					objects[i] = generateObject((i % 2 == 0) ? 100 : 60);
+				}
+				assertTrue(storage.write(IDs, objects));
+				assertEquals(containersSize, getContainersSize());
+			}
+			assertArrayEquals(objects, storage.get(IDs));
+			if (settings.isVersioning()) {
+				assertTrue(storage.getVersion(IDs[0]) > version);
+			}
+
+			// Bigger object is appended
+			objects[0] = generateObject(200);
+			assertTrue(storage.write(IDs[0], objects[0]));
+			assertTrue(getContainersSize() > containersSize);
+			assertArrayEquals(objects, storage.get(IDs));
+
+			storage.rebuild();
+			assertArrayEquals(objects, storage.get(IDs));
+		}
+	}
+
+	@Test
+	public void testOpensOldStorage() throws Exception {
+		tearDown();
+		// Storage written before format versions: containers and index have no headers, records have no compression code
+		long[] keys = {Integer.MIN_VALUE, Integer.MIN_VALUE + 1L};
+		byte[][] objects = {generateObject(100), generateObject(50)};
+		ByteBuffer container = ByteBuffer.allocate(12 + 2 * 13 + 150);
+		container.putInt(2).putLong(container.capacity());
+		long[] positions = new long[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			positions[i] = container.position();
+			container.put((byte) 1).putLong(keys[i]).putInt(objects[i].length).put(objects[i]);
+		}
+		int tableSize = 10_000;
+		long firstCell = tableSize * 8 + 8;
+		ByteBuffer index = ByteBuffer.allocate((int) firstCell + 2 * 28);
+		for (int i = 0; i < tableSize; i++) {
+			index.putLong(-1);
+		}
+		index.putLong(index.capacity());
+		for (int i = 0; i < keys.length; i++) {
+			index.putLong((int) Math.abs(keys[i] % tableSize) * 8, firstCell + i * 28);
+			index.putLong(-1).putLong(keys[i]).putInt(0).putLong(positions[i]);
+		}
+		writeFile("cont0", container.array());
+		writeFile("ind", index.array());
+		writeFile("supervisorInfo", ByteBuffer.allocate(4).putInt(1).array());
+		writeFile("gen", ByteBuffer.allocate(16).putLong(Integer.MIN_VALUE + 2L).putLong(0).array());
+		writeFile("safe", new byte[] {1});
+
+		Storage storage = DirectoryStorage.getStorage(TEST_DIR_NAME);
+		assertArrayEquals(objects, storage.get(keys));
+		byte[] object = generateObject(70);
+		long key = storage.write(object);
+		assertEquals(Integer.MIN_VALUE + 2L, key);
+		assertTrue(storage.write(keys[1], object));
+		assertTrue(storage.remove(keys[0]));
+		assertArrayEquals(new byte[][] {null, object, object}, storage.get(new long[] {keys[0], keys[1], key}));
+
+		// Rebuild moves objects to containers and index of current format
+		storage.rebuild();
+		assertArrayEquals(new byte[][] {null, object, object}, storage.get(new long[] {keys[0], keys[1], key}));
+		storage = DirectoryStorage.getStorage(TEST_DIR_NAME);
+		assertArrayEquals(new byte[][] {null, object, object}, storage.get(new long[] {keys[0], keys[1], key}));
+	}
+
+	private static void writeFile(String name, byte[] content) throws Exception {
+		try (FileReaderWriter out = FileReaderWriter.openForWriting(TEST_DIR_NAME + File.separator + name)) {
+			out.writeBytes(0, content);
+		}
+	}
+
+	private static long getRecordsCount() throws Exception {
+		long result = 0;
+		for (File file : new File(TEST_DIR_NAME).listFiles()) {
+			if (file.getName().startsWith("cont")) {
+				try (FileReaderWriter in = FileReaderWriter.openForReading(file.getPath())) {
+					result += new ObjectContainer(in, file.getPath(), 0, false).getRecordsCount();
+				}
+			}
+		}
+		return result;
+	}
+
+	private static long getContainersSize() {
+		long result = 0;
+		for (File file : new File(TEST_DIR_NAME).listFiles()) {
+			if (file.getName().startsWith("cont")) {
+				result += file.length();
+			}
+		}
+		return result;
+	}
+
+	private static byte[] generateObject(int size) {
+		byte[] result = new byte[size];
+		rnd.nextBytes(result);
+		return result;
+	}
 }
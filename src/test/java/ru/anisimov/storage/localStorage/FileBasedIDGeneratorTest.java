@@ -51,6 +51,17 @@ public class FileBasedIDGeneratorTest {
 		}
 	}
 
+	@Test
+	public void testReserveID() throws Exception {
+		FileBasedIDGenerator generator = new FileBasedIDGenerator(TEST_FILE_NAME, true, 0, 1000);
+		long[] generated = generator.generateID(10);
+		generator.addFreeID(new long[] {generated[3], generated[5]});
+		generator.reserveID(new long[] {generated[3], 20, -1, 5000});
+
+		assertEquals(generated[5], generator.generateID());
+		assertEquals(21, generator.generateID());
+	}
+
 	@Test
 	public void testIDRemainsUniqueAfterFree() throws Exception {
 		FileBasedIDGenerator generator = new FileBasedIDGenerator(TEST_FILE_NAME, true, 0, 1000);
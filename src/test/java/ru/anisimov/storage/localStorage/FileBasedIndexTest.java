@@ -3,13 +3,19 @@ package ru.anisimov.storage.localStorage;
 import org.junit.After;
 import org.junit.Test;
 import ru.anisimov.storage.commons.DataGenerator;
+import ru.anisimov.storage.exceptions.IndexException;
+import ru.anisimov.storage.io.FileReaderWriter;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Map;
 import java.util.Random;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * @author Ivan Anisimov (ivananisimov2010@gmail.com)
@@ -60,6 +66,49 @@ public class FileBasedIndexTest {
 		assertArrayEquals(addresses, index.getAddress(IDs));
 	}
 
+	@Test
+	public void testBatchedGetAddress() throws Exception {
+		FileBasedIndex index = new FileBasedIndex(TEST_FILE_NAME, true, 10);
+
+		int testCount = 500;
+		long[] IDs = DataGenerator.generateDifferentLongs(testCount);
+		ObjectAddress[] addresses = new ObjectAddress[testCount];
+		for (int i = 0; i < testCount; i++) {
+			addresses[i] = new ObjectAddress(i, i);
+		}
+		index.putAddress(IDs, addresses);
+
+		long[] requested = new long[2 * testCount];
+		ObjectAddress[] expected = new ObjectAddress[2 * testCount];
+		for (int i = 0; i < testCount; i++) {
+			requested[2 * i] = IDs[testCount - i - 1];
+			expected[2 * i] = addresses[testCount - i - 1];
+			requested[2 * i + 1] = (i % 2 == 0) ? IDs[i] : Long.MIN_VALUE + i;
+			expected[2 * i + 1] = (i % 2 == 0) ? addresses[i] : ObjectAddress.EMPTY_ADDRESS;
+		}
+		assertArrayEquals(expected, index.getAddress(requested));
+		assertEquals(0, index.getAddress(new long[0]).length);
+	}
+
+	@Test
+	public void testIDEqualToBucketPointer() throws Exception {
+		FileBasedIndex index = new FileBasedIndex(TEST_FILE_NAME, true, 1000);
+		// Pointer of empty bucket, which follows bucket of ID -1, is -1 too
+		ObjectAddress address = new ObjectAddress(1, 2);
+		index.putAddress(-1, address);
+		assertEquals(address, index.getAddress(-1));
+		assertEquals(ObjectAddress.EMPTY_ADDRESS, index.getAddress(3));
+
+		ObjectAddress otherAddress = new ObjectAddress(3, 4);
+		index.putAddress(3, otherAddress);
+		assertEquals(address, index.getAddress(-1));
+		assertEquals(otherAddress, index.getAddress(3));
+
+		index.removeAddress(-1);
+		assertEquals(ObjectAddress.EMPTY_ADDRESS, index.getAddress(-1));
+		assertEquals(otherAddress, index.getAddress(3));
+	}
+
 	@Test
 	public void testSameIDPutRewritesAddress() throws Exception {
 		FileBasedIndex index = new FileBasedIndex(TEST_FILE_NAME, true, 1000);
@@ -147,6 +196,46 @@ public class FileBasedIndexTest {
 		}
 	}
 
+	@Test
+	public void testReadsOldFormat() throws Exception {
+		// Index without format version: |pointers| |end of file 8| |cells 28|, IDs 1 and 11 share bucket 1
+		int tableSize = 10;
+		int firstCell = tableSize * 8 + 8;
+		ByteBuffer file = ByteBuffer.allocate(firstCell + 3 * 28);
+		for (int i = 0; i < tableSize; i++) {
+			file.putLong(i == 1 ? firstCell : (i == 5 ? firstCell + 56 : -1));
+		}
+		file.putLong(file.capacity());
+		file.putLong(firstCell + 28).putLong(1).putInt(0).putLong(100);
+		file.putLong(-1).putLong(11).putInt(1).putLong(200);
+		file.putLong(-1).putLong(5).putInt(2).putLong(300);
+		new File(TEST_FILE_NAME).delete();
+		try (FileReaderWriter out = FileReaderWriter.openForWriting(TEST_FILE_NAME)) {
+			out.writeBytes(0, file.array());
+		}
+
+		FileBasedIndex index = new FileBasedIndex(TEST_FILE_NAME, false, tableSize);
+		assertEquals(0, index.getInlineCapacity());
+		assertArrayEquals(new ObjectAddress[] {new ObjectAddress(0, 100), new ObjectAddress(1, 200),
+											   new ObjectAddress(2, 300), ObjectAddress.EMPTY_ADDRESS},
+						  index.getAddress(new long[] {1, 11, 5, 7}));
+
+		index.putAddress(21, new ObjectAddress(3, 400));
+		index.removeAddress(1);
+		index = new FileBasedIndex(TEST_FILE_NAME, false, tableSize);
+		assertArrayEquals(new ObjectAddress[] {ObjectAddress.EMPTY_ADDRESS, new ObjectAddress(1, 200), new ObjectAddress(3, 400)},
+						  index.getAddress(new long[] {1, 11, 21}));
+	}
+
+	@Test(expected = IOException.class)
+	public void testRefusesUnknownVersion() throws Exception {
+		new FileBasedIndex(TEST_FILE_NAME, true, 1000);
+		try (FileReaderWriter out = FileReaderWriter.openForWriting(TEST_FILE_NAME)) {
+			out.writeInt(4, 100);
+		}
+		new FileBasedIndex(TEST_FILE_NAME, false, 1000);
+	}
+
 	@Test
 	public void testWorksOnOldFile() throws Exception {
 		FileBasedIndex index = new FileBasedIndex(TEST_FILE_NAME, true, 1000);
@@ -184,4 +273,111 @@ public class FileBasedIndexTest {
 			assertEquals(addresses[i], index.getAddress(IDs[i]));
 		}
 	}
+
+	@Test
+	public void testInlineObjects() throws Exception {
+		DirectoryStorageSettings settings = new DirectoryStorageSettings.Builder().setInlineThreshold(16).build();
+		FileBasedIndex index = new FileBasedIndex(TEST_FILE_NAME, true, 1000, settings);
+
+		int testCount = 2000;
+
+		long[] IDs = DataGenerator.generateDifferentLongs(testCount);
+		ObjectAddress[] addresses = new ObjectAddress[testCount];
+		DataGenerator.generateObjects(addresses, new DataGenerator.ObjectGenerator<ObjectAddress>() {
+			@Override
+			public ObjectAddress generate(Random rnd) {
+				if (rnd.nextBoolean()) {
+					return new ObjectAddress(rnd.nextInt(Integer.MAX_VALUE), rnd.nextLong());
+				}
+				byte[] object = new byte[rnd.nextInt(17)];
+				rnd.nextBytes(object);
+				return ObjectAddress.inline(object);
+			}
+		});
+
+		index.putAddress(IDs, addresses);
+		assertArrayEquals(addresses, index.getAddress(IDs));
+
+		index = new FileBasedIndex(TEST_FILE_NAME, false, 1000);
+		assertEquals(16, index.getInlineCapacity());
+		assertArrayEquals(addresses, index.getAddress(IDs));
+
+		Map<Long, byte[]> inlineObjects = index.getInlineObjects();
+		int inlineCount = 0;
+		for (int i = 0; i < testCount; i++) {
+			if (addresses[i].isInline()) {
+				inlineCount++;
+				assertArrayEquals(addresses[i].getInlineObject(), inlineObjects.get(IDs[i]));
+			}
+		}
+		assertEquals(inlineCount, inlineObjects.size());
+	}
+
+	@Test(expected = IndexException.class)
+	public void testTooBigInlineObject() throws Exception {
+		DirectoryStorageSettings settings = new DirectoryStorageSettings.Builder().setInlineThreshold(16).build();
+		FileBasedIndex index = new FileBasedIndex(TEST_FILE_NAME, true, 1000, settings);
+		index.putAddress(1, ObjectAddress.inline(new byte[17]));
+	}
+
+	@Test
+	public void testVersionsAfterReopen() throws Exception {
+		DirectoryStorageSettings settings = new DirectoryStorageSettings.Builder().setVersioning(true).build();
+		FileBasedIndex index = new FileBasedIndex(TEST_FILE_NAME, true, 1000, settings);
+		index.putAddress(-1, new ObjectAddress(0, 0));
+		long reserved = readReservedVersion();
+		long previous = index.getVersion(-1);
+		for (int i = 0; i < 100; i++) {
+			index.putAddress(i, new ObjectAddress(0, i));
+			long version = index.getVersion(i);
+			assertTrue(version > previous);
+			previous = version;
+		}
+		// Counter is reserved by blocks, not written on every put
+		assertEquals(reserved, readReservedVersion());
+		assertTrue(reserved >= previous);
+
+		index = new FileBasedIndex(TEST_FILE_NAME, false, 1000, settings);
+		index.putAddress(0, new ObjectAddress(0, 0));
+		assertTrue(index.getVersion(0) > previous);
+		new File(TEST_FILE_NAME + ".ver").delete();
+	}
+
+	private static long readReservedVersion() throws Exception {
+		try (FileReaderWriter in = FileReaderWriter.openForReading(TEST_FILE_NAME + ".ver")) {
+			return in.readLong(0);
+		}
+	}
+
+	@Test
+	public void testStatistics() throws Exception {
+		FileBasedIndex index = new FileBasedIndex(TEST_FILE_NAME, true, 10);
+		IndexStatistics empty = index.getStatistics();
+		assertEquals(10, empty.getBucketsCount());
+		assertEquals(0, empty.getEntriesCount());
+		assertEquals(10, empty.getEmptyBucketsCount());
+		assertEquals(0, empty.getMaxChainLength());
+
+		// Bucket i gets i + 1 entries
+		int entriesCount = 0;
+		for (int bucket = 0; bucket < 10; bucket++) {
+			for (int i = 0; i <= bucket; i++) {
+				index.putAddress(bucket + (i * 10), new ObjectAddress(0, i));
+				entriesCount++;
+			}
+		}
+		index.putAddress(0, new ObjectAddress(1, 1));
+		index.removeAddress(new long[] {9, 19, 29});
+
+		IndexStatistics statistics = index.getStatistics();
+		assertEquals(entriesCount - 3, statistics.getEntriesCount());
+		assertEquals(entriesCount, statistics.getCellsCount());
+		assertEquals(3, statistics.getDeadCellsCount());
+		assertEquals((entriesCount - 3) / 10.0, statistics.getLoadFactor(), 1e-9);
+		assertEquals(0, statistics.getEmptyBucketsCount());
+		assertEquals(9, statistics.getMaxChainLength());
+		assertEquals(5, statistics.getChainLengthPercentile(50));
+		assertEquals(9, statistics.getChainLengthPercentile(99));
+		assertEquals(new File(TEST_FILE_NAME).length(), statistics.getFileSize());
+	}
 }
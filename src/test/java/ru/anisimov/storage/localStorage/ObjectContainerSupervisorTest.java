@@ -3,6 +3,7 @@ package ru.anisimov.storage.localStorage;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import ru.anisimov.storage.io.FileReaderWriter;
 
 import java.io.File;
 import java.util.Arrays;
@@ -11,6 +12,9 @@ import java.util.Random;
 import static junit.framework.Assert.assertNull;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * @author Ivan Anisimov (ivananisimov2010@gmail.com)
@@ -174,4 +178,255 @@ public class ObjectContainerSupervisorTest {
 			assertNull(supervisor.get(addresses[i]));
 		}
 	}
+
+	@Test
+	public void testDeduplication() throws Exception {
+		DirectoryStorageSettings settings = new DirectoryStorageSettings.Builder().setDeduplication(true).build();
+		ObjectContainerSupervisor supervisor = new ObjectContainerSupervisor(TEST_DIR_NAME, "dedupCont", true, 1000, settings);
+
+		int testCount = 100;
+		byte[] object = new byte[100];
+		rnd.nextBytes(object);
+		byte[][] objects = new byte[testCount][];
+		long[] IDs = new long[testCount];
+		for (int i = 0; i < testCount; i++) {
+			objects[i] = (i % 2 == 0) ? object.clone() : new byte[] {(byte) i};
+			IDs[i] = i;
+		}
+		ObjectAddress[] addresses = supervisor.put(IDs, objects);
+		ObjectAddress sharedAddress = supervisor.put(testCount, object.clone());
+		// Other keys of shared record get reference records
+		for (int i = 0; i < testCount; i += 2) {
+			if (i > 0) {
+				assertNotEquals(addresses[0], addresses[i]);
+			}
+			assertArrayEquals(object, supervisor.get(addresses[i]).getObject());
+			assertEquals(object.length, supervisor.getSizes(new ObjectAddress[] {addresses[i]})[0]);
+		}
+		assertArrayEquals(Arrays.copyOfRange(object, 10, 20),
+						  supervisor.get(new ObjectAddress[] {sharedAddress}, new long[] {10}, new int[] {10})[0].getObject());
+
+		supervisor = new ObjectContainerSupervisor(TEST_DIR_NAME, "dedupCont", false, 1000, DirectoryStorageSettings.DEFAULT);
+		for (int i = 0; i < testCount; i++) {
+			supervisor.remove(addresses[i]);
+			assertArrayEquals(object, supervisor.get(sharedAddress).getObject());
+		}
+		supervisor.remove(sharedAddress);
+		assertNull(supervisor.get(sharedAddress));
+		assertNull(supervisor.get(addresses[0]));
+	}
+
+	@Test
+	public void testSizeClasses() throws Exception {
+		DirectoryStorageSettings settings = new DirectoryStorageSettings.Builder().setSizeClasses(10, 100).build();
+		ObjectContainerSupervisor supervisor = new ObjectContainerSupervisor(TEST_DIR_NAME, "sizeCont", true, 10_000, settings);
+
+		int testCount = 30;
+		byte[][] objects = new byte[testCount][];
+		long[] IDs = new long[testCount];
+		for (int i = 0; i < testCount; i++) {
+			objects[i] = new byte[(i % 3 == 0) ? 5 : (i % 3 == 1) ? 50 : 500];
+			rnd.nextBytes(objects[i]);
+			IDs[i] = i;
+		}
+		ObjectAddress[] addresses = supervisor.put(IDs, objects);
+
+		supervisor = new ObjectContainerSupervisor(TEST_DIR_NAME, "sizeCont", false, 10_000, settings);
+		ObjectAddress[] newAddresses = supervisor.put(IDs, objects);
+
+		for (int i = 0; i < testCount; i++) {
+			assertEquals(addresses[i % 3].getFileNumber(), addresses[i].getFileNumber());
+			if (i % 3 != 2) {
+				assertEquals(addresses[i].getFileNumber(), newAddresses[i].getFileNumber());
+			}
+			assertArrayEquals(objects[i], supervisor.get(addresses[i]).getObject());
+			assertArrayEquals(objects[i], supervisor.get(newAddresses[i]).getObject());
+		}
+		for (int i = 0; i < 3; i++) {
+			for (int j = i + 1; j < 3; j++) {
+				assertNotEquals(addresses[i].getFileNumber(), addresses[j].getFileNumber());
+			}
+		}
+	}
+
+	@Test
+	public void testReplaysOverwriteLog() throws Exception {
+		tearDown();
+		ObjectContainerSupervisor supervisor = new ObjectContainerSupervisor(TEST_DIR_NAME, "logCont", true, 10_000);
+		byte[] object = new byte[100];
+		rnd.nextBytes(object);
+		ObjectAddress address = supervisor.put(1, object);
+		byte[] newObject = new byte[100];
+		rnd.nextBytes(newObject);
+		assertTrue(supervisor.overwrite(new ObjectAddress[] {address}, new long[] {1}, new byte[][] {newObject})[0]);
+
+		// Crash tears record after its content is forced to log
+		String separator = System.getProperty("file.separator");
+		try (FileReaderWriter rw = FileReaderWriter.openForReadingWriting(TEST_DIR_NAME + separator + "logCont" + address.getFileNumber())) {
+			rw.writeBytes(address.getFilePosition() + 20, new byte[50]);
+		}
+		supervisor = new ObjectContainerSupervisor(TEST_DIR_NAME, "logCont", false, 10_000);
+		assertArrayEquals(newObject, supervisor.get(address).getObject());
+		assertEquals(0, new File(TEST_DIR_NAME + separator + "overwriteLog").length());
+
+		// Torn entry of log was not forced, so its record was not changed
+		byte[] tornEntry = new byte[30];
+		rnd.nextBytes(tornEntry);
+		try (FileReaderWriter rw = FileReaderWriter.openForReadingWriting(TEST_DIR_NAME + separator + "overwriteLog")) {
+			rw.writeBytes(0, tornEntry);
+		}
+		supervisor = new ObjectContainerSupervisor(TEST_DIR_NAME, "logCont", false, 10_000);
+		assertArrayEquals(newObject, supervisor.get(address).getObject());
+	}
+
+	@Test
+	public void testParallelGet() throws Exception {
+		int testCount = 2000;
+		byte[][] objects = new byte[testCount][];
+		long[] IDs = new long[testCount];
+		for (int i = 0; i < testCount; i++) {
+			objects[i] = new byte[rnd.nextInt(100) + 1];
+			rnd.nextBytes(objects[i]);
+			IDs[i] = i;
+		}
+		ObjectAddress[] addresses = new ObjectContainerSupervisor(TEST_DIR_NAME, "", true, 10_000).put(IDs, objects);
+
+		ObjectAddress[] requested = new ObjectAddress[testCount];
+		for (int i = 0; i < testCount; i++) {
+			requested[i] = addresses[testCount - i - 1];
+		}
+		for (int parallelism : new int[] {1, 8}) {
+			DirectoryStorageSettings settings = new DirectoryStorageSettings.Builder().setReadParallelism(parallelism).build();
+			ObjectContainerSupervisor supervisor = new ObjectContainerSupervisor(TEST_DIR_NAME, "", false, 10_000, settings);
+			RecordData[] result = supervisor.get(requested);
+			for (int i = 0; i < testCount; i++) {
+				assertEquals(testCount - i - 1, result[i].getID());
+				assertArrayEquals(objects[testCount - i - 1], result[i].getObject());
+			}
+		}
+	}
+
+	@Test
+	public void testDataDirectories() throws Exception {
+		tearDown();
+		File[] dataDirectories = {new File(TEST_DIR_NAME, "data0"), new File(TEST_DIR_NAME, "data1")};
+		for (File directory : dataDirectories) {
+			directory.mkdir();
+		}
+		try {
+			DirectoryStorageSettings settings = new DirectoryStorageSettings.Builder()
+														.setDataDirectories(ContainerPlacement.ROUND_ROBIN,
+																			dataDirectories[0].getPath(), dataDirectories[1].getPath())
+														.build();
+			ObjectContainerSupervisor supervisor = new ObjectContainerSupervisor(TEST_DIR_NAME, "", true, 1000, settings);
+			int testCount = 100;
+			byte[][] objects = new byte[testCount][];
+			long[] IDs = new long[testCount];
+			for (int i = 0; i < testCount; i++) {
+				objects[i] = new byte[rnd.nextInt(100) + 1];
+				rnd.nextBytes(objects[i]);
+				IDs[i] = i;
+			}
+			ObjectAddress[] addresses = supervisor.put(IDs, objects);
+			for (File directory : dataDirectories) {
+				assertTrue(directory.list().length > 0);
+			}
+			assertEquals(dataDirectories[0].list().length + dataDirectories[1].list().length,
+						 supervisor.findContainerFiles().size());
+
+			// Placement of existing containers is read from supervisor info
+			supervisor = new ObjectContainerSupervisor(TEST_DIR_NAME, "", false, 1000);
+			RecordData[] result = supervisor.get(addresses);
+			for (int i = 0; i < testCount; i++) {
+				assertArrayEquals(objects[i], result[i].getObject());
+			}
+			// New containers go to storage directory without data directories in settings
+			ObjectAddress address = null;
+			for (int i = 0; i < 10; i++) {
+				address = supervisor.put(testCount + i, new byte[100]);
+			}
+			assertTrue(new File(TEST_DIR_NAME, String.valueOf(address.getFileNumber())).exists());
+		} finally {
+			for (File directory : dataDirectories) {
+				for (File file : directory.listFiles()) {
+					file.delete();
+				}
+				directory.delete();
+			}
+		}
+	}
+
+	@Test
+	public void testColdTier() throws Exception {
+		tearDown();
+		File coldDirectory = new File(TEST_DIR_NAME, "cold");
+		coldDirectory.mkdir();
+		try {
+			DirectoryStorageSettings settings = new DirectoryStorageSettings.Builder()
+														.setColdTier(coldDirectory.getPath(), 5, 5)
+														.build();
+			ObjectContainerSupervisor supervisor = new ObjectContainerSupervisor(TEST_DIR_NAME, "", true, 1000, settings);
+			int testCount = 40;
+			byte[][] objects = new byte[testCount][];
+			long[] IDs = new long[testCount];
+			for (int i = 0; i < testCount; i++) {
+				objects[i] = new byte[100];
+				rnd.nextBytes(objects[i]);
+				IDs[i] = i;
+			}
+			ObjectAddress[] addresses = supervisor.put(IDs, objects);
+			int first = addresses[0].getFileNumber();
+			int last = addresses[testCount - 1].getFileNumber();
+			assertTrue(last - first >= 3);
+
+			// Metadata lookups aren't counted as reads
+			supervisor.getSizes(addresses);
+			assertEquals(0, supervisor.migrateContainers());
+			for (int i = 0; i < 5; i++) {
+				// Reads don't move containers
+				assertEquals(0, supervisor.migrateContainers());
+				supervisor.get(addresses[0]);
+			}
+			// All containers except read one and active one go to cold directory
+			assertEquals(last - first - 1, supervisor.migrateContainers());
+			assertTrue(new File(TEST_DIR_NAME, String.valueOf(first)).exists());
+			assertTrue(new File(TEST_DIR_NAME, String.valueOf(last)).exists());
+			assertEquals(last - first - 1, coldDirectory.list().length);
+			RecordData[] result = supervisor.get(addresses);
+			for (int i = 0; i < testCount; i++) {
+				assertArrayEquals(objects[i], result[i].getObject());
+			}
+
+			// Cold container read often enough is moved back after tiering period
+			settings = new DirectoryStorageSettings.Builder().setColdTier(coldDirectory.getPath(), 2, 2).build();
+			supervisor = new ObjectContainerSupervisor(TEST_DIR_NAME, "", false, 1000, settings);
+			int cold = first + 1;
+			assertTrue(new File(coldDirectory, String.valueOf(cold)).exists());
+			ObjectAddress coldAddress = null;
+			for (ObjectAddress address : addresses) {
+				if (address.getFileNumber() == cold) {
+					coldAddress = address;
+				}
+			}
+			supervisor.get(coldAddress);
+			assertEquals(0, supervisor.migrateContainers());
+			supervisor.get(coldAddress);
+			assertTrue(new File(coldDirectory, String.valueOf(cold)).exists());
+			assertEquals(2, supervisor.migrateContainers());
+			assertTrue(new File(TEST_DIR_NAME, String.valueOf(cold)).exists());
+			assertFalse(new File(coldDirectory, String.valueOf(cold)).exists());
+			assertFalse(new File(TEST_DIR_NAME, String.valueOf(first)).exists());
+
+			supervisor = new ObjectContainerSupervisor(TEST_DIR_NAME, "", false, 1000);
+			result = supervisor.get(addresses);
+			for (int i = 0; i < testCount; i++) {
+				assertArrayEquals(objects[i], result[i].getObject());
+			}
+		} finally {
+			for (File file : coldDirectory.listFiles()) {
+				file.delete();
+			}
+			coldDirectory.delete();
+		}
+	}
 }
@@ -5,6 +5,8 @@ import org.junit.Test;
 import ru.anisimov.storage.io.FileReaderWriter;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -13,6 +15,9 @@ import java.util.Random;
 import static junit.framework.Assert.assertNull;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * @author Ivan Anisimov (ivananisimov2010@gmail.com)
@@ -125,6 +130,60 @@ public class ObjectContainerTest {
 		}
 	}
 
+	@Test
+	public void testOverwrite() throws Exception {
+		try (FileReaderWriter rw = FileReaderWriter.openForReadingWriting(TEST_FILE_NAME)) {
+			ObjectContainer container = new ObjectContainer(rw, TEST_FILE_NAME, 0, true);
+
+			long[] IDs = {0, 1, 2, 3, 4, 5};
+			byte[][] bytes = new byte[IDs.length][100];
+			for (byte[] object : bytes) {
+				rnd.nextBytes(object);
+			}
+			ObjectAddress[] addresses = container.writeBytes(rw, IDs, bytes);
+			long[] positions = new long[addresses.length];
+			for (int i = 0; i < addresses.length; i++) {
+				positions[i] = addresses[i].getFilePosition();
+			}
+			long size = container.getSize();
+
+			// Same size, smaller, rest smaller than header, bigger, other ID, removed record
+			byte[][] newBytes = {new byte[100], new byte[50], new byte[95], new byte[101], new byte[100], new byte[100]};
+			for (byte[] object : newBytes) {
+				rnd.nextBytes(object);
+			}
+			long[] newIDs = {0, 1, 2, 3, 5, 5};
+			container.removeBytes(rw, positions[5]);
+			byte[][] contents = container.getOverwriteContents(rw, positions, newIDs, newBytes, new int[] {Integer.MAX_VALUE});
+			boolean[] written = new boolean[contents.length];
+			for (int i = 0; i < contents.length; i++) {
+				written[i] = contents[i] != null;
+			}
+			assertEquals("[true, true, false, false, false, false]", Arrays.toString(written));
+			// Object of other size class is not written over record
+			assertNull(container.getOverwriteContents(rw, positions, newIDs, newBytes, new int[] {60, Integer.MAX_VALUE})[1]);
+			container.writeContents(rw, positions, contents);
+			assertEquals(size, container.getSize());
+
+			RecordData[] result = container.getData(rw, positions);
+			assertArrayEquals(newBytes[0], result[0].getObject());
+			assertArrayEquals(newBytes[1], result[1].getObject());
+			for (int i = 2; i < 5; i++) {
+				assertArrayEquals(bytes[i], result[i].getObject());
+			}
+			assertNull(result[5]);
+
+			container = new ObjectContainer(rw, TEST_FILE_NAME, 0, false);
+			assertEquals(Arrays.asList(addresses).subList(0, 5), container.getRecordsAddresses(rw));
+			ObjectContainer.RecordIterator records = container.iterateRecords(rw);
+			int count = 0;
+			while (records.next()) {
+				assertEquals(addresses[count++], records.getAddress());
+			}
+			assertEquals(5, count);
+		}
+	}
+
 	@Test
 	public void testGetAfterRemove() throws Exception {
 		try (FileReaderWriter rw = FileReaderWriter.openForReadingWriting(TEST_FILE_NAME)) {
@@ -232,6 +291,56 @@ public class ObjectContainerTest {
 		}
 	}
 
+	@Test
+	public void testReadsOldFormat() throws Exception {
+		try (FileReaderWriter rw = FileReaderWriter.openForReadingWriting(TEST_FILE_NAME)) {
+			// Container without format version: |records count 4| |last byte pointer 8|,
+			// records: |removed flag 1| |ID 8| |size 4| |bytes|
+			byte[][] objects = {new byte[100], new byte[10], new byte[50]};
+			ByteBuffer file = ByteBuffer.allocate(12 + 3 * 13 + 160);
+			file.putInt(2).putLong(file.capacity());
+			long[] positions = new long[objects.length];
+			for (int i = 0; i < objects.length; i++) {
+				rnd.nextBytes(objects[i]);
+				positions[i] = file.position();
+				file.put((byte) (i == 1 ? -1 : 1)).putLong(i).putInt(objects[i].length).put(objects[i]);
+			}
+			rw.truncate(0);
+			rw.writeBytes(0, file.array());
+
+			ObjectContainer container = new ObjectContainer(rw, TEST_FILE_NAME, 0, false);
+			assertArrayEquals(objects[0], container.getData(rw, positions[0]).getObject());
+			assertArrayEquals(Arrays.copyOfRange(objects[2], 5, 15),
+							  container.getData(rw, new long[] {positions[2]}, new long[] {5}, new int[] {10})[0].getObject());
+			assertEquals(Arrays.toString(new long[] {100, -1, 50}), Arrays.toString(container.getSizes(rw, positions)));
+			assertEquals(Arrays.asList(new ObjectAddress(0, positions[0]), new ObjectAddress(0, positions[2])),
+						 container.getRecordsAddresses(rw));
+
+			// Records are removed in place, but new records are not written to old container
+			assertNull(container.getOverwriteContents(rw, new long[] {positions[0]}, new long[] {0}, new byte[][] {new byte[1]},
+													 new int[] {Integer.MAX_VALUE})[0]);
+			container.removeBytes(rw, positions[0]);
+			ObjectContainer.RecordIterator records = container.iterateRecords(rw);
+			assertTrue(records.next());
+			assertEquals(positions[2], records.getAddress().getFilePosition());
+			assertFalse(records.next());
+			try {
+				container.writeBytes(rw, 3, new byte[10]);
+				fail();
+			} catch (IOException ignored) {
+			}
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testRefusesUnknownVersion() throws Exception {
+		try (FileReaderWriter rw = FileReaderWriter.openForReadingWriting(TEST_FILE_NAME)) {
+			new ObjectContainer(rw, TEST_FILE_NAME, 0, true);
+			rw.writeInt(4, 100);
+			new ObjectContainer(rw, TEST_FILE_NAME, 0, false);
+		}
+	}
+
 	@Test
 	public void testWorksOnOldFile() throws Exception {
 		try (FileReaderWriter rw = FileReaderWriter.openForReadingWriting(TEST_FILE_NAME)) {
@@ -281,4 +390,42 @@ public class ObjectContainerTest {
 			}
 		}
 	}
+
+	@Test
+	public void testReadShuffledWithGaps() throws Exception {
+		try (FileReaderWriter rw = FileReaderWriter.openForReadingWriting(TEST_FILE_NAME)) {
+			ObjectContainer container = new ObjectContainer(rw, TEST_FILE_NAME, 0, true);
+
+			int testCount = 1000;
+			byte[][] bytes = new byte[testCount][];
+			long[] IDs = new long[testCount];
+			for (int i = 0; i < testCount; i++) {
+				bytes[i] = new byte[rnd.nextInt(1000) + 1];
+				rnd.nextBytes(bytes[i]);
+				IDs[i] = i;
+			}
+			ObjectAddress[] addresses = container.writeBytes(rw, IDs, bytes);
+
+			for (int readGap : new int[] {0, 100, 100_000}) {
+				DirectoryStorageSettings settings = new DirectoryStorageSettings.Builder().setReadGap(readGap).build();
+				container = new ObjectContainer(rw, TEST_FILE_NAME, 0, false, settings);
+
+				int requestCount = testCount / 2;
+				int[] requested = new int[requestCount];
+				long[] positions = new long[requestCount];
+				for (int i = 0; i < requestCount; i++) {
+					requested[i] = rnd.nextInt(testCount);
+					positions[i] = addresses[requested[i]].getFilePosition();
+				}
+				positions[0] = -1;
+
+				RecordData[] result = container.getData(rw, positions);
+				assertNull(result[0]);
+				for (int i = 1; i < requestCount; i++) {
+					assertEquals(requested[i], result[i].getID());
+					assertArrayEquals(bytes[requested[i]], result[i].getObject());
+				}
+			}
+		}
+	}
 }
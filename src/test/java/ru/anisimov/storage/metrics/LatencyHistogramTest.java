@@ -0,0 +1,86 @@
+package ru.anisimov.storage.metrics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ */
+public class LatencyHistogramTest {
+	private static final Random rnd = new Random(System.currentTimeMillis());
+
+	@Test
+	public void testBuckets() throws Exception {
+		for (int i = 0; i < 100000; i++) {
+			long value = rnd.nextLong() & LatencyHistogram.MAX_VALUE;
+			int bucket = LatencyHistogram.getBucket(value);
+			assertTrue(bucket < LatencyHistogram.BUCKETS_COUNT);
+			assertTrue(LatencyHistogram.getBucketMaxValue(bucket) >= value);
+			assertTrue(LatencyHistogram.getBucketMaxValue(bucket) - value <= value / 32);
+		}
+		for (int bucket = 0; bucket < LatencyHistogram.BUCKETS_COUNT; bucket++) {
+			assertEquals(bucket, LatencyHistogram.getBucket(LatencyHistogram.getBucketMaxValue(bucket)));
+		}
+	}
+
+	@Test
+	public void testPercentiles() throws Exception {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.snapshot().getP99());
+		for (int i = 1; i <= 100000; i++) {
+			histogram.record(i);
+		}
+		LatencySnapshot snapshot = histogram.snapshot();
+		assertEquals(100000, snapshot.getCount());
+		assertEquals(1, snapshot.getMin());
+		assertEquals(100000, snapshot.getMax());
+		assertEquals(50000.5, snapshot.getMean(), 0.001);
+		assertEquals(50000, snapshot.getP50(), 50000 / 32);
+		assertEquals(99000, snapshot.getP99(), 99000 / 32);
+		assertEquals(99900, snapshot.getP999(), 99900 / 32);
+		assertEquals(100000, snapshot.getValueAtPercentile(100));
+
+		LatencySnapshot merged = snapshot.merge(snapshot);
+		assertEquals(200000, merged.getCount());
+		assertEquals(snapshot.getP99(), merged.getP99());
+	}
+
+	@Test
+	public void testConcurrentRecording() throws Exception {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		final int threadsCount = 4;
+		final int valuesCount = 100000;
+		ExecutorService executor = Executors.newFixedThreadPool(threadsCount);
+		List<Future<Void>> results = new ArrayList<>();
+		for (int i = 0; i < threadsCount; i++) {
+			results.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					for (int j = 1; j <= valuesCount; j++) {
+						histogram.record(j);
+					}
+					return null;
+				}
+			}));
+		}
+		for (Future<Void> result : results) {
+			result.get();
+		}
+		executor.shutdown();
+
+		LatencySnapshot snapshot = histogram.snapshot();
+		assertEquals(threadsCount * valuesCount, snapshot.getCount());
+		assertEquals(1, snapshot.getMin());
+		assertEquals(valuesCount, snapshot.getMax());
+	}
+}
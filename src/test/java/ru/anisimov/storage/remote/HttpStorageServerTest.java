@@ -0,0 +1,191 @@
+package ru.anisimov.storage.remote;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import ru.anisimov.storage.Storage;
+import ru.anisimov.storage.localStorage.DirectoryStorage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ */
+public class HttpStorageServerTest {
+	private static final String RESOURCE_FILE_NAME = "/testStorage/testFile";
+	private static final String TEST_FILE_NAME = HttpStorageServerTest.class.getResource(RESOURCE_FILE_NAME).getFile();
+	private static final Random rnd = new Random(System.currentTimeMillis());
+	private static String TEST_DIR_NAME = new File(TEST_FILE_NAME).getParent();
+	private static final InetSocketAddress LOOPBACK = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+
+	@BeforeClass
+	@AfterClass
+	public static void tearDown() throws Exception {
+		System.gc();
+		File dir = new File(TEST_DIR_NAME);
+		File[] files = dir.listFiles();
+		for (File file: files) {
+			file.delete();
+		}
+		new File(TEST_FILE_NAME).createNewFile();
+	}
+
+	@Test
+	public void testObjects() throws Exception {
+		tearDown();
+		try (HttpStorageServer server = new HttpStorageServer(DirectoryStorage.newStorage(TEST_DIR_NAME), LOOPBACK)) {
+			String root = "http://127.0.0.1:" + server.getAddress().getPort() + HttpStorageServer.OBJECTS_PATH;
+			byte[] object = new byte[10000];
+			rnd.nextBytes(object);
+
+			HttpURLConnection post = send(root, "POST", object);
+			assertEquals(201, post.getResponseCode());
+			String location = post.getHeaderField("Location");
+			long key = Long.parseLong(new String(readBody(post), "UTF-8"));
+			assertEquals(HttpStorageServer.OBJECTS_PATH + "/" + key, location);
+			String url = root + "/" + key;
+
+			HttpURLConnection get = send(url, "GET", null);
+			assertEquals(200, get.getResponseCode());
+			assertArrayEquals(object, readBody(get));
+
+			get = send(url, "GET", null, "bytes=100-199");
+			assertEquals(206, get.getResponseCode());
+			assertEquals("bytes 100-199/10000", get.getHeaderField("Content-Range"));
+			assertArrayEquals(Arrays.copyOfRange(object, 100, 200), readBody(get));
+
+			get = send(url, "GET", null, "bytes=-10");
+			assertEquals(206, get.getResponseCode());
+			assertArrayEquals(Arrays.copyOfRange(object, 9990, 10000), readBody(get));
+
+			get = send(url, "GET", null, "bytes=20000-");
+			assertEquals(416, get.getResponseCode());
+
+			HttpURLConnection head = send(url, "HEAD", null);
+			assertEquals(200, head.getResponseCode());
+			assertEquals("10000", head.getHeaderField("Content-Length"));
+			head = send(url, "HEAD", null, "bytes=0-99");
+			assertEquals(206, head.getResponseCode());
+			assertEquals("bytes 0-99/10000", head.getHeaderField("Content-Range"));
+
+			byte[] newObject = new byte[500];
+			rnd.nextBytes(newObject);
+			assertEquals(204, send(url, "PUT", newObject).getResponseCode());
+			assertArrayEquals(newObject, readBody(send(url, "GET", null)));
+
+			assertEquals(204, send(url, "DELETE", null).getResponseCode());
+			assertEquals(404, send(url, "GET", null).getResponseCode());
+			assertEquals(404, send(url, "HEAD", null).getResponseCode());
+			assertEquals(404, send(root + "/wrong", "GET", null).getResponseCode());
+		}
+	}
+
+	@Test
+	public void testTooLongBody() throws Exception {
+		tearDown();
+		try (StorageServer backend = new StorageServer(DirectoryStorage.newStorage(TEST_DIR_NAME), LOOPBACK, 1000);
+			 RemoteStorage storage = new RemoteStorage(backend.getAddress());
+			 HttpStorageServer server = new HttpStorageServer(storage, LOOPBACK)) {
+			String root = "http://127.0.0.1:" + server.getAddress().getPort() + HttpStorageServer.OBJECTS_PATH;
+			byte[] object = new byte[(int) storage.getMaxObjectSize() + 1];
+			rnd.nextBytes(object);
+			assertEquals(413, send(root, "POST", object).getResponseCode());
+
+			HttpURLConnection chunked = (HttpURLConnection) new URL(root).openConnection();
+			chunked.setRequestMethod("POST");
+			chunked.setChunkedStreamingMode(100);
+			chunked.setDoOutput(true);
+			try (OutputStream out = chunked.getOutputStream()) {
+				out.write(object);
+			}
+			assertEquals(413, chunked.getResponseCode());
+
+			HttpURLConnection post = send(root, "POST", Arrays.copyOf(object, object.length - 1));
+			assertEquals(201, post.getResponseCode());
+			String url = root + "/" + new String(readBody(post), "UTF-8");
+			assertEquals(413, send(url, "PUT", object).getResponseCode());
+			assertArrayEquals(Arrays.copyOf(object, object.length - 1), readBody(send(url, "GET", null)));
+		}
+	}
+
+	@Test
+	public void testMaxBodySize() throws Exception {
+		tearDown();
+		Storage storage = DirectoryStorage.newStorage(TEST_DIR_NAME);
+		try (HttpStorageServer server = new HttpStorageServer(storage, LOOPBACK, 1, 0, 1000)) {
+			String root = "http://127.0.0.1:" + server.getAddress().getPort() + HttpStorageServer.OBJECTS_PATH;
+			byte[] object = new byte[1001];
+			rnd.nextBytes(object);
+			assertEquals(413, send(root, "POST", object).getResponseCode());
+
+			// Longer object written by other client is read by ranges
+			String url = root + "/" + storage.write(object);
+			assertEquals(413, send(url, "GET", null).getResponseCode());
+			assertEquals(413, send(url, "HEAD", null).getResponseCode());
+			assertEquals(413, send(url, "GET", null, "bytes=0-").getResponseCode());
+			HttpURLConnection get = send(url, "GET", null, "bytes=1-1000");
+			assertEquals(206, get.getResponseCode());
+			assertArrayEquals(Arrays.copyOfRange(object, 1, 1001), readBody(get));
+
+			byte[] smallObject = Arrays.copyOf(object, 1000);
+			assertEquals(204, send(url, "PUT", smallObject).getResponseCode());
+			assertArrayEquals(smallObject, readBody(send(url, "GET", null)));
+		}
+	}
+
+	@Test
+	public void testParseRange() throws Exception {
+		assertArrayEquals(new long[] {0, 9}, HttpStorageServer.parseRange("bytes=0-9", 100));
+		assertArrayEquals(new long[] {90, 99}, HttpStorageServer.parseRange("bytes=90-", 100));
+		assertArrayEquals(new long[] {90, 99}, HttpStorageServer.parseRange("bytes=90-1000", 100));
+		assertArrayEquals(new long[] {0, 99}, HttpStorageServer.parseRange("bytes=-1000", 100));
+		assertArrayEquals(new long[] {1, 0}, HttpStorageServer.parseRange("bytes=100-", 100));
+		assertNull(HttpStorageServer.parseRange("bytes=0-9,20-29", 100));
+		assertNull(HttpStorageServer.parseRange("bytes=9-0", 100));
+		assertNull(HttpStorageServer.parseRange("items=0-9", 100));
+	}
+
+	private static HttpURLConnection send(String url, String method, byte[] body) throws Exception {
+		return send(url, method, body, null);
+	}
+
+	private static HttpURLConnection send(String url, String method, byte[] body, String range) throws Exception {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		connection.setRequestMethod(method);
+		if (range != null) {
+			connection.setRequestProperty("Range", range);
+		}
+		if (body != null) {
+			connection.setDoOutput(true);
+			try (OutputStream out = connection.getOutputStream()) {
+				out.write(body);
+			}
+		}
+		return connection;
+	}
+
+	private static byte[] readBody(HttpURLConnection connection) throws Exception {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		try (InputStream in = connection.getInputStream()) {
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) >= 0) {
+				result.write(buffer, 0, read);
+			}
+		}
+		return result.toByteArray();
+	}
+}
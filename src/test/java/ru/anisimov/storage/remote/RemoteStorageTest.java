@@ -0,0 +1,228 @@
+package ru.anisimov.storage.remote;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import ru.anisimov.storage.exceptions.StorageException;
+import ru.anisimov.storage.localStorage.DirectoryStorage;
+import ru.anisimov.storage.localStorage.DirectoryStorageSettings;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ */
+public class RemoteStorageTest {
+	private static final String RESOURCE_FILE_NAME = "/testStorage/testFile";
+	private static final String TEST_FILE_NAME = RemoteStorageTest.class.getResource(RESOURCE_FILE_NAME).getFile();
+	private static final Random rnd = new Random(System.currentTimeMillis());
+	private static String TEST_DIR_NAME = new File(TEST_FILE_NAME).getParent();
+	private static final InetSocketAddress LOOPBACK = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+
+	@BeforeClass
+	@AfterClass
+	public static void tearDown() throws Exception {
+		System.gc();
+		File dir = new File(TEST_DIR_NAME);
+		File[] files = dir.listFiles();
+		for (File file: files) {
+			file.delete();
+		}
+		new File(TEST_FILE_NAME).createNewFile();
+	}
+
+	@Test
+	public void testConditionalWrite() throws Exception {
+		tearDown();
+		DirectoryStorageSettings settings = new DirectoryStorageSettings.Builder().setVersioning(true).build();
+		try (StorageServer server = new StorageServer(DirectoryStorage.newStorage(TEST_DIR_NAME, settings), LOOPBACK);
+			 RemoteStorage storage = new RemoteStorage(server.getAddress())) {
+			byte[] object = newObject(100);
+			long key = storage.write(object);
+			long version = storage.getVersion(key);
+			assertFalse(storage.write(key, newObject(10), version + 1));
+			assertTrue(storage.write(key, newObject(10), version));
+			long newKey = storage.generateKey();
+			boolean[] result = storage.write(new long[] {key, newKey}, new byte[][] {object, object}, new long[] {version, 0});
+			assertEquals(Arrays.toString(new boolean[] {false, true}), Arrays.toString(result));
+			long[] versions = storage.getVersion(new long[] {key, newKey});
+			assertTrue(versions[0] > version && versions[1] > versions[0]);
+			assertArrayEquals(object, storage.get(newKey));
+		}
+	}
+
+	@Test
+	public void testExpiration() throws Exception {
+		tearDown();
+		DirectoryStorageSettings settings = new DirectoryStorageSettings.Builder().setExpiration(true).build();
+		try (StorageServer server = new StorageServer(DirectoryStorage.newStorage(TEST_DIR_NAME, settings), LOOPBACK);
+			 RemoteStorage storage = new RemoteStorage(server.getAddress())) {
+			long[] keys = storage.write(new byte[][] {newObject(10), newObject(10)});
+			long now = System.currentTimeMillis();
+			assertTrue(storage.expire(keys[0], now - 1));
+			boolean[] result = storage.expire(keys, new long[] {0, now + 3600 * 1000});
+			assertEquals(Arrays.toString(new boolean[] {false, true}), Arrays.toString(result));
+			assertNull(storage.get(keys[0]));
+			assertArrayEquals(new long[] {keys[0]}, storage.removeExpired());
+			assertEquals(0, storage.removeExpired().length);
+			// Storage without cold tier moves nothing
+			assertEquals(0, storage.migrate());
+		}
+	}
+
+	@Test
+	public void testOperations() throws Exception {
+		tearDown();
+		try (StorageServer server = new StorageServer(DirectoryStorage.newStorage(TEST_DIR_NAME), LOOPBACK);
+			 RemoteStorage storage = new RemoteStorage(server.getAddress())) {
+			assertTrue(storage.getMaxObjectSize() > 0);
+
+			byte[] object = newObject(1000);
+			long key = storage.write(object);
+			assertArrayEquals(object, storage.get(key));
+			assertNotEquals(key, storage.generateKey());
+			assertEquals(10, storage.generateKey(10).length);
+
+			byte[][] objects = {newObject(10), newObject(0), newObject(100000)};
+			long[] keys = storage.write(objects);
+			byte[][] result = storage.get(keys);
+			for (int i = 0; i < objects.length; i++) {
+				assertArrayEquals(objects[i], result[i]);
+			}
+
+			byte[] newObject = newObject(500);
+			assertTrue(storage.write(key, newObject));
+			assertArrayEquals(newObject, storage.get(key));
+			assertTrue(storage.write(new long[] {keys[0]}, new byte[][] {newObject}));
+			assertArrayEquals(newObject, storage.get(keys[0]));
+
+			assertArrayEquals(Arrays.copyOfRange(newObject, 10, 30), storage.get(key, 10, 20));
+			byte[][] ranges = storage.get(new long[] {keys[2], key}, new long[] {99990, 1000}, new int[] {100, 1});
+			assertArrayEquals(Arrays.copyOfRange(objects[2], 99990, 100000), ranges[0]);
+			assertEquals(0, ranges[1].length);
+
+			assertTrue(storage.exists(key));
+			assertEquals(newObject.length, storage.size(key));
+			assertArrayEquals(new long[] {newObject.length, objects[2].length}, storage.size(new long[] {keys[0], keys[2]}));
+
+			assertTrue(storage.remove(key));
+			assertNull(storage.get(key));
+			assertFalse(storage.exists(new long[] {key})[0]);
+			assertTrue(storage.remove(new long[] {keys[1], keys[2]}));
+			assertNull(storage.get(new long[] {keys[1], keys[2]})[1]);
+
+			// Errors of storage are returned to caller, connection stays usable
+			try {
+				storage.get((long[]) null);
+				fail();
+			} catch (StorageException e) {
+				assertFalse(e.getMessage().isEmpty());
+			}
+			assertArrayEquals(newObject, storage.get(keys[0]));
+			assertFalse(storage.rebuild().getMessage().isEmpty());
+		}
+	}
+
+	@Test
+	public void testPipelinedRequests() throws Exception {
+		tearDown();
+		try (StorageServer server = new StorageServer(DirectoryStorage.newStorage(TEST_DIR_NAME), LOOPBACK);
+			 final RemoteStorage storage = new RemoteStorage(server.getAddress())) {
+			int threadsCount = 8;
+			ExecutorService executor = Executors.newFixedThreadPool(threadsCount);
+			List<Future<Void>> results = new ArrayList<>();
+			for (int i = 0; i < threadsCount; i++) {
+				results.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						Random random = new Random(rnd.nextLong());
+						for (int j = 0; j < 200; j++) {
+							byte[] object = new byte[random.nextInt(5000)];
+							random.nextBytes(object);
+							long key = storage.write(object);
+							assertArrayEquals(object, storage.get(key));
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> result : results) {
+				result.get();
+			}
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testTooLongFrame() throws Exception {
+		tearDown();
+		try (StorageServer server = new StorageServer(DirectoryStorage.newStorage(TEST_DIR_NAME), LOOPBACK, 1000);
+			 RemoteStorage storage = new RemoteStorage(server.getAddress())) {
+			long key = storage.write(newObject(100));
+			try {
+				storage.write(newObject(2000));
+				fail();
+			} catch (StorageException ignored) {
+			}
+			try {
+				storage.get(key);
+				fail();
+			} catch (StorageException ignored) {
+			}
+		}
+	}
+
+	@Test
+	public void testTooLongResponse() throws Exception {
+		tearDown();
+		try (StorageServer server = new StorageServer(DirectoryStorage.newStorage(TEST_DIR_NAME), LOOPBACK, 1000);
+			 RemoteStorage storage = new RemoteStorage(server.getAddress())) {
+			assertTrue(storage.getMaxObjectSize() <= 1000 - Protocol.HEADER_SIZE);
+			byte[] object = newObject(900);
+			long key = storage.write(object);
+			try {
+				storage.get(new long[]{key, key});
+				fail();
+			} catch (StorageException ignored) {
+			}
+			assertTrue(Arrays.equals(object, storage.get(key)));
+		}
+		tearDown();
+		try (StorageServer server = new StorageServer(DirectoryStorage.newStorage(TEST_DIR_NAME), LOOPBACK);
+			 RemoteStorage storage = new RemoteStorage(server.getAddress(), 1000)) {
+			assertTrue(storage.getMaxObjectSize() <= 1000 - Protocol.HEADER_SIZE);
+			byte[] object = newObject(900);
+			long key = storage.write(object);
+			try {
+				storage.get(new long[]{key, key});
+				fail();
+			} catch (StorageException ignored) {
+			}
+			assertTrue(Arrays.equals(object, storage.get(key)));
+		}
+	}
+
+	private static byte[] newObject(int size) {
+		byte[] result = new byte[size];
+		rnd.nextBytes(result);
+		return result;
+	}
+}
@@ -0,0 +1,90 @@
+package ru.anisimov.storage.tools.load;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import ru.anisimov.storage.localStorage.DirectoryStorage;
+
+import java.io.File;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Ivan Anisimov (ivananisimov2010@gmail.com)
+ */
+public class LoadGeneratorTest {
+	private static final String RESOURCE_FILE_NAME = "/testStorage/testFile";
+	private static final String TEST_FILE_NAME = LoadGeneratorTest.class.getResource(RESOURCE_FILE_NAME).getFile();
+	private static String TEST_DIR_NAME = new File(TEST_FILE_NAME).getParent();
+
+	@BeforeClass
+	@AfterClass
+	public static void tearDown() throws Exception {
+		System.gc();
+		File dir = new File(TEST_DIR_NAME);
+		File[] files = dir.listFiles();
+		for (File file: files) {
+			file.delete();
+		}
+		new File(TEST_FILE_NAME).createNewFile();
+	}
+
+	@Test
+	public void testZipfianSkew() throws Exception {
+		int itemsCount = 1000;
+		ZipfianGenerator generator = new ZipfianGenerator(itemsCount, new Random(1));
+		int[] counts = new int[itemsCount];
+		for (int i = 0; i < 100000; i++) {
+			counts[(int) generator.next()]++;
+		}
+		for (int i = 1; i < itemsCount; i++) {
+			assertTrue(counts[0] > counts[i]);
+		}
+		assertTrue(counts[0] + counts[1] + counts[2] > 100000 / 5);
+
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(generator.next(2 * itemsCount) < 2 * itemsCount);
+		}
+	}
+
+	@Test
+	public void testSizeDistribution() throws Exception {
+		assertEquals("constant:1024", SizeDistribution.parse("constant:1024").toString());
+		assertEquals(4096, SizeDistribution.parse("uniform:100-4096").getMaxSize());
+
+		SizeDistribution.Chooser chooser = SizeDistribution.parse("zipfian:10-20").newChooser(new Random(1));
+		for (int i = 0; i < 1000; i++) {
+			int size = chooser.next();
+			assertTrue(size >= 10 && size <= 20);
+		}
+	}
+
+	@Test
+	public void testRun() throws Exception {
+		tearDown();
+		Workload workload = new Workload.Builder()
+									.setRecordsCount(1000)
+									.setOperationsCount(2000)
+									.setProportion(LoadOperation.READ, 0.7)
+									.setProportion(LoadOperation.UPDATE, 0.1)
+									.setProportion(LoadOperation.INSERT, 0.1)
+									.setProportion(LoadOperation.REMOVE, 0.1)
+									.setSizeDistribution(SizeDistribution.uniform(10, 500))
+									.setBatchSize(10)
+									.setSeed(1)
+									.build();
+		LoadReport report = new LoadGenerator(DirectoryStorage.newStorage(TEST_DIR_NAME), workload).run();
+
+		assertEquals(2000, report.getCallsCount());
+		assertEquals(2000 * 10, report.getKeysCount());
+		for (LoadOperation operation : LoadOperation.values()) {
+			assertEquals(0, report.getErrorsCount(operation));
+			assertTrue(report.getCallsCount(operation) > 0);
+			assertEquals(report.getCallsCount(operation), report.getLatency(operation).getCount());
+		}
+		assertTrue(report.getBytesRead() > 0);
+		assertTrue(report.getBytesWritten() > 0);
+	}
+}